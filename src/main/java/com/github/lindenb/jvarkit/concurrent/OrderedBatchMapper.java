@@ -0,0 +1,160 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.concurrent;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Apply a function to a stream of items using a pool of threads.
+ * Items are dispatched in batches, each worker thread owns its own instance
+ * of the function (created by the supplier), and the results are
+ * sent to the 'sink' in the input order, in the thread calling {@link #accept(Object)} or {@link #close()}.
+ * So the sink doesn't need to be thread-safe.
+ */
+public class OrderedBatchMapper<T,R> implements Closeable {
+	public static final int DEFAULT_BATCH_SIZE = 1_000;
+	private final int nThreads;
+	private final int batchSize;
+	private final ExecutorService executor;
+	private final ThreadLocal<Function<T,R>> handlers;
+	private final BiConsumer<T,R> sink;
+	private final Deque<Batch> pending = new ArrayDeque<>();
+	private List<T> buffer;
+	private boolean closed = false;
+	
+	private class Batch {
+		final List<T> inputs;
+		final Future<List<R>> outputs;
+		Batch(final List<T> inputs) {
+			this.inputs = inputs;
+			this.outputs = executor.submit(()->{
+				final Function<T,R> fun = handlers.get();
+				final List<R> L = new ArrayList<>(inputs.size());
+				for(final T item:inputs) L.add(fun.apply(item));
+				return L;
+				});
+			}
+		}
+	
+	/**
+	 * @param nThreads number of worker threads. A value lower than 1 means use all procs available.
+	 * @param batchSize number of items per batch
+	 * @param handlerSupplier creates a new function for each worker thread
+	 * @param sink receives (input,output) in the input order
+	 */
+	public OrderedBatchMapper(
+			final int nThreads,
+			final int batchSize,
+			final Supplier<Function<T,R>> handlerSupplier,
+			final BiConsumer<T,R> sink) {
+		this.nThreads = nThreads<1?Runtime.getRuntime().availableProcessors():nThreads;
+		this.batchSize = Math.max(1, batchSize);
+		this.handlers = ThreadLocal.withInitial(handlerSupplier);
+		this.sink = sink;
+		this.buffer = new ArrayList<>(this.batchSize);
+		final AtomicInteger threadId = new AtomicInteger(0);
+		final ThreadFactory threadFactory = R->{
+			final Thread t = new Thread(R,OrderedBatchMapper.class.getSimpleName()+"-"+threadId.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+			};
+		this.executor = Executors.newFixedThreadPool(this.nThreads,threadFactory);
+		}
+	
+	public int getThreadCount() {
+		return this.nThreads;
+		}
+	
+	/** add a new item. May send some results to the sink */
+	public void accept(final T item) {
+		if(this.closed) throw new IllegalStateException("mapper was closed");
+		this.buffer.add(item);
+		if(this.buffer.size() >= this.batchSize) {
+			submitBuffer();
+			// limit the number of batches in memory
+			while(this.pending.size() > 2 * this.nThreads) {
+				drainFirst();
+				}
+			}
+		}
+	
+	private void submitBuffer() {
+		if(this.buffer.isEmpty()) return;
+		this.pending.add(new Batch(this.buffer));
+		this.buffer = new ArrayList<>(this.batchSize);
+		}
+	
+	private void drainFirst() {
+		final Batch batch = this.pending.removeFirst();
+		final List<R> outputs;
+		try {
+			outputs = batch.outputs.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof RuntimeException) throw RuntimeException.class.cast(cause);
+			throw new RuntimeException(cause);
+			}
+		for(int i=0;i< outputs.size();i++) {
+			this.sink.accept(batch.inputs.get(i), outputs.get(i));
+			}
+		}
+	
+	/** send all the remaining results to the sink and stop the threads */
+	@Override
+	public void close() {
+		if(this.closed) return;
+		try {
+			submitBuffer();
+			while(!this.pending.isEmpty()) {
+				drainFirst();
+				}
+			}
+		finally
+			{
+			this.closed = true;
+			for(final Batch b:this.pending) b.outputs.cancel(true);
+			this.pending.clear();
+			this.executor.shutdownNow();
+			}
+		}
+	}
@@ -46,10 +46,11 @@ import htsjdk.samtools.util.CloserUtil;
  */
 class ApacheSeekableHTTPStream extends SeekableStream {
 	private static final int BUFFER_SIZE= 2_000_000;
-	private final byte buffer[]=new byte [BUFFER_SIZE];
+	/* when a cache is used, buffer is the current block of the cache */
+	private byte buffer[]=null;
 	private long buffer_offset = 0;
 	private int buffer_size = 0;
-	private int buffer_index = BUFFER_SIZE;
+	private int buffer_index = 0;
 	
     // private long position = 0L;
     private final long contentLength ;
@@ -57,6 +58,8 @@ class ApacheSeekableHTTPStream extends SeekableStream {
     private final CloseableHttpClient httpClient;
     // https://stackoverflow.com/questions/56598349/
     private final HttpClientContext clientContext;
+    /* shared block cache, may be null */
+    private final RemoteBlockCache.Source cacheSource;
 
     ApacheSeekableHTTPStream(
     	final URL url,
@@ -64,10 +67,22 @@ class ApacheSeekableHTTPStream extends SeekableStream {
     	final CloseableHttpClient httpClient,
     	final HttpClientContext clientContextOrNull
     	) {
+    	this(url,contentLength,httpClient,clientContextOrNull,null,null);
+    	}
+    
+    ApacheSeekableHTTPStream(
+        	final URL url,
+        	final long contentLength,
+        	final CloseableHttpClient httpClient,
+        	final HttpClientContext clientContextOrNull,
+        	final RemoteBlockCache cacheOrNull,
+        	final String versionOrNull
+        	) {
         this.url = url;
         this.contentLength = contentLength;
         this.httpClient = httpClient;
         this.clientContext = (clientContextOrNull == null? HttpClientContext.create() : clientContextOrNull);
+        this.cacheSource = (cacheOrNull==null?null:cacheOrNull.createSource(url.toExternalForm(), versionOrNull, contentLength, this::fetchRange));
     	}
 
     @Override
@@ -82,19 +97,8 @@ class ApacheSeekableHTTPStream extends SeekableStream {
 
     @Override
     public long skip(final long n) throws IOException {
-    	final long bytesToSkip = Math.min(n, this.contentLength - position());
-        final long new_offset = this.buffer_offset + bytesToSkip;
-       
-        
-        if(new_offset >= this.buffer_offset && new_offset < this.buffer_offset + this.buffer_size) {
-    		this.buffer_index = (int)(new_offset-this.buffer_offset);
-    		}
-    	else {
-	        this.buffer_offset = new_offset;
-	        this.buffer_index = 0;
-	        this.buffer_size = 0;
-	    	}
-        
+    	final long bytesToSkip = Math.max(0L,Math.min(n, this.contentLength - position()));
+    	seek(position() + bytesToSkip);
         return bytesToSkip;
     }
 
@@ -115,38 +119,28 @@ class ApacheSeekableHTTPStream extends SeekableStream {
 	    	}
     	}
     
+    /** fetch the bytes in [start, start+length[ with a http range request */
+    private byte[] fetchRange(final long start,final int length) throws IOException {
+    	final byte[] array = new byte[length];
+    	final int n = fetchRange(start, array, length);
+    	if(n!=length) throw new IOException("Expected "+length+" bytes but got "+n+" from "+this.url+" at "+start);
+    	return array;
+    	}
     
-    
-    private int readNextByte() throws IOException {
-    	if(this.buffer_index < this.buffer_size) {
-    		final int c = this.buffer[this.buffer_index];
-    		this.buffer_index++;
-    		return c  & 0xFF;
-    		}
-    	//System.err.println("refill from "+this.buffer_offset);
-    	this.buffer_offset += this.buffer_size;
-    	this.buffer_index = 0;
-    	this.buffer_size = 0;
-    	
-    	final int max_n_bytes_to_reads = (int)Math.min((long)this.buffer.length,this.contentLength - this.buffer_offset);
-    	
-        if (max_n_bytes_to_reads == 0 ) return -1;
-        if (this.buffer_offset == this.contentLength) return -1;
-
+    /** fetch the bytes in [start, start+length[ into array. Return the number of bytes read */
+    private int fetchRange(final long start,final byte[] array,final int length) throws IOException {
         CloseableHttpResponse httpResponse = null;
         InputStream is = null;
         
         try {
         	final HttpGet httpGet = new HttpGet(this.url.toExternalForm());
         	
-        	
-
-            long endRange = this.buffer_offset + max_n_bytes_to_reads - 1;
+            long endRange = start + length - 1;
             // IF we know the total content length, limit the end range to that.
             if (contentLength > 0) {
                 endRange = Math.min(endRange, contentLength);
             }
-            final String byteRange = "bytes=" + this.buffer_offset + "-" + endRange;
+            final String byteRange = "bytes=" + start + "-" + endRange;
             
             httpGet.addHeader("Range", byteRange);
           
@@ -161,50 +155,64 @@ class ApacheSeekableHTTPStream extends SeekableStream {
             final HttpEntity entity = httpResponse.getEntity();
             
             is = entity.getContent();
-
-            while (this.buffer_size < max_n_bytes_to_reads) {
-                int count = is.read(this.buffer, this.buffer_size, max_n_bytes_to_reads - this.buffer_size);
-                if (count < 0) {
-                    if (this.buffer_size == 0) {
-                        return -1;
-                    } else {
-                        break;
-                    }
-                }
-                this.buffer_size += count;
+            int n = 0;
+            while (n < length) {
+                int count = is.read(array, n, length - n);
+                if (count < 0) break;
+                n += count;
             	}
-
-            int c= this.buffer[this.buffer_index];
-            this.buffer_index++;
-            
-        	//System.err.println("refilled from "+this.buffer_offset+" size="+this.buffer_size);
-
-            return c  & 0xFF;
+            return n;
         	}
         finally {
             CloserUtil.close(is);
             CloserUtil.close(httpResponse);
-        }
+        	}
+    	}
     
+    /** fill the buffer starting at the current position. Return false at EOF */
+    private boolean refill() throws IOException {
+    	final long pos = this.buffer_offset + this.buffer_index;
+    	this.buffer_offset = pos;
+    	this.buffer_index = 0;
+    	this.buffer_size = 0;
+    	if (pos >= this.contentLength) return false;
     	
-    }
+    	if(this.cacheSource!=null) {
+    		final byte[] block = this.cacheSource.getBlockAt(pos);
+    		if(block==null) return false;
+    		final long blockStart = (pos / this.cacheSource.getBlockSize()) * this.cacheSource.getBlockSize();
+    		this.buffer = block;
+    		this.buffer_offset = blockStart;
+    		this.buffer_index = (int)(pos - blockStart);
+    		this.buffer_size = block.length;
+    		return this.buffer_index < this.buffer_size;
+    		}
+    	
+    	if(this.buffer==null) this.buffer = new byte[BUFFER_SIZE];
+    	final int max_n_bytes_to_reads = (int)Math.min((long)this.buffer.length,this.contentLength - pos);
+    	this.buffer_size = fetchRange(pos, this.buffer, max_n_bytes_to_reads);
+    	return this.buffer_size > 0;
+    	}
+    
+    private int readNextByte() throws IOException {
+    	if(this.buffer_index >= this.buffer_size && !refill()) return -1;
+		final int c = this.buffer[this.buffer_index];
+		this.buffer_index++;
+		return c  & 0xFF;
+    	}
     
 
     @Override
     public int read(byte[] array, int offset, int len) throws IOException {
     	int n = 0;
         while (n < len) {
-        	int c = this.readNextByte();
-        	if(c==-1) {
-    		  if (n == 0) {
-                  return -1;
-              } else {
-                  break;
-              }
-        	}
-        	
-        	array[ offset+n ] = (byte)c;
-            n++;
+        	if(this.buffer_index >= this.buffer_size && !refill()) {
+        		return n==0?-1:n;
+        		}
+        	final int count = Math.min(len - n, this.buffer_size - this.buffer_index);
+        	System.arraycopy(this.buffer, this.buffer_index, array, offset + n, count);
+        	this.buffer_index += count;
+            n += count;
         	}
         return n;
     	}
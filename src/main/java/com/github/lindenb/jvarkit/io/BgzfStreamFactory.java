@@ -0,0 +1,111 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+/**
+ * Opens the BGZF streams of jvarkit, on several threads if the number of threads is greater than 1.
+ * Immutable: each command has its own factory, so the setting of one command doesn't change the others
+ * (e.g. in the jvarkit daemon).
+ */
+public class BgzfStreamFactory {
+	/** default factory: 1 thread or the value of the java property 'jvarkit.io.threads' */
+	private static final BgzfStreamFactory DEFAULT = new BgzfStreamFactory(Integer.parseInt(System.getProperty("jvarkit.io.threads", "1")));
+	/** pools of threads, shared by the factories using the same number of threads */
+	private static final Map<Integer,ExecutorService> EXECUTORS = new HashMap<>();
+	private final int nThreads;
+	
+	/** create a factory using 'nThreads' threads. A value lower than 1 means use all procs available */
+	public BgzfStreamFactory(final int nThreads) {
+		this.nThreads = nThreads < 1 ? Math.max(1, Runtime.getRuntime().availableProcessors()) : nThreads;
+		}
+	
+	/** get the default factory: 1 thread or the value of the java property 'jvarkit.io.threads' */
+	public static BgzfStreamFactory getDefault() {
+		return DEFAULT;
+		}
+	
+	/** get the number of threads used to inflate/deflate the BGZF streams */
+	public int getThreads() {
+		return this.nThreads;
+		}
+	
+	private ExecutorService getExecutor() {
+		synchronized(EXECUTORS) {
+			return EXECUTORS.computeIfAbsent(this.nThreads, N->{
+				final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+					N, N,
+					60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(),
+					R->{
+						final Thread t = new Thread(R,"bgzf");
+						t.setDaemon(true);
+						return t;
+						});
+				executor.allowCoreThreadTimeOut(true);
+				return executor;
+				});
+			}
+		}
+	
+	/** open a BGZF stream for reading, multi-threaded if {@link #getThreads()} &gt; 1 */
+	public InputStream openForReading(final InputStream in) {
+		if(this.nThreads>1) return new ParallelBlockCompressedInputStream(in, getExecutor(), this.nThreads);
+		return new BlockCompressedInputStream(in);
+		}
+	
+	/** open a BGZF stream for writing, multi-threaded if {@link #getThreads()} &gt; 1 */
+	public OutputStream openForWriting(final Path file) throws IOException {
+		if(this.nThreads>1) return new ParallelBlockCompressedOutputStream(
+				Files.newOutputStream(file),
+				BlockCompressedOutputStream.getDefaultCompressionLevel(),
+				getExecutor(),
+				this.nThreads);
+		return new BlockCompressedOutputStream(
+				file,
+				BlockCompressedOutputStream.getDefaultCompressionLevel(),
+				BlockCompressedOutputStream.getDefaultDeflaterFactory()
+				);
+		}
+	
+	@Override
+	public String toString() {
+		return "BgzfStreamFactory("+this.nThreads+")";
+		}
+	}
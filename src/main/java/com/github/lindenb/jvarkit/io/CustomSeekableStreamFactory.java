@@ -69,6 +69,8 @@ public class CustomSeekableStreamFactory
 	private String userAgent = null;
 	// use httpGet instead of httpHead to get the content-length
 	private boolean usingHttpHead = true;
+	// cache of blocks for remote files, may be null
+	private RemoteBlockCache blockCache = RemoteBlockCache.getSharedInstance();
 	
 	
 	
@@ -139,6 +141,16 @@ public class CustomSeekableStreamFactory
 		return userAgent;
 		}
 	
+	/** set the cache of blocks used by the http streams. null disables the cache. Default is the shared instance */
+	public CustomSeekableStreamFactory setBlockCache(final RemoteBlockCache blockCache) {
+		this.blockCache = blockCache;
+		return this;
+		}
+	
+	public RemoteBlockCache getBlockCache() {
+		return blockCache;
+		}
+	
 	private ISeekableStreamFactory getDelegate() {
 		return this.defaultInstance;
 	}
@@ -269,12 +281,17 @@ public class CustomSeekableStreamFactory
 				httpClient.close();
  		        throw new IOException(msg,err);
 				}
+			// identify the version of the remote file for the cache. Without version, the blocks are not saved on disk
+			Header versionHeader = response.getFirstHeader("ETag");
+			if(versionHeader==null) versionHeader = response.getFirstHeader("Last-Modified");
 			response.close();
 			final ApacheSeekableHTTPStream stream = new ApacheSeekableHTTPStream(
 				url,
 				contentLength,
 				httpClient,
-				clientContext
+				clientContext,
+				this.getBlockCache(),
+				versionHeader==null?null:versionHeader.getValue()
 				);
 			return stream;
 			}
@@ -69,8 +69,6 @@ import htsjdk.tribble.readers.LineReader;
 import htsjdk.tribble.readers.SynchronousLineReader;
 import htsjdk.samtools.Defaults;
 import htsjdk.samtools.SAMException;
-import htsjdk.samtools.util.BlockCompressedInputStream;
-import htsjdk.samtools.util.BlockCompressedOutputStream;
 import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
@@ -268,7 +266,7 @@ public class IOUtils {
 				uri.startsWith("ftp://")
 				;
 		}
-	private static InputStream tryBGZIP(final InputStream in) throws IOException
+	private static InputStream tryBGZIP(final InputStream in,final BgzfStreamFactory bgzfFactory) throws IOException
 		{
 		final byte buffer[]=new byte[ 
 				BlockCompressedStreamConstants.GZIP_BLOCK_PREAMBLE.length  ];
@@ -287,7 +285,7 @@ public class IOUtils {
 				buffer[8]==BlockCompressedStreamConstants.GZIP_XFL
 				)
 				{
-				return new BlockCompressedInputStream(push_back);
+				return bgzfFactory.openForReading(push_back);
 				}
 			}
 		catch(final Exception err)
@@ -298,7 +296,13 @@ public class IOUtils {
 		}
 	
 	/** open URL for reading, decompressed if url ends with gz of bz2 */
-	public static InputStream openURIForReading(String uri) throws IOException
+	public static InputStream openURIForReading(final String uri) throws IOException
+		{
+		return openURIForReading(uri, BgzfStreamFactory.getDefault());
+		}
+	
+	/** open URL for reading, decompressed if url ends with gz of bz2. BGZF streams are opened with 'bgzfFactory' */
+	public static InputStream openURIForReading(String uri,final BgzfStreamFactory bgzfFactory) throws IOException
 		{
 		if(isRemoteURI(uri))
 			{
@@ -310,7 +314,7 @@ public class IOUtils {
 			if(isCompressedExtention(uri)) {
 				if(uri.endsWith(".gz"))
 					{
-					return tryBGZIP(in);
+					return tryBGZIP(in, bgzfFactory);
 					}
 				else if(uri.endsWith(".bz2"))
 					{
@@ -323,13 +327,19 @@ public class IOUtils {
 			{
 			uri=uri.substring(7);
 			}
-		return openPathForReading(Paths.get(uri));
+		return openPathForReading(Paths.get(uri), bgzfFactory);
 		}
 	
 	/** open uri for buffered reader , expect UTF-8 */
 	public static BufferedReader openURIForBufferedReading(final String uri) throws IOException
 		{
-		return  new BufferedReader(new InputStreamReader(openURIForReading(uri), Charset.forName("UTF-8")));
+		return openURIForBufferedReading(uri, BgzfStreamFactory.getDefault());
+		}
+	
+	/** open uri for buffered reader , expect UTF-8. BGZF streams are opened with 'bgzfFactory' */
+	public static BufferedReader openURIForBufferedReading(final String uri,final BgzfStreamFactory bgzfFactory) throws IOException
+		{
+		return  new BufferedReader(new InputStreamReader(openURIForReading(uri, bgzfFactory), Charset.forName("UTF-8")));
 		}
 
 	public static Reader openFileForReader(final File file) throws IOException
@@ -355,12 +365,18 @@ public class IOUtils {
 		}
 	
 	public static InputStream openPathForReading(final Path path) throws IOException
+		{
+		return openPathForReading(path, BgzfStreamFactory.getDefault());
+		}
+	
+	/** open path for reading, BGZF streams are opened with 'bgzfFactory' */
+	public static InputStream openPathForReading(final Path path,final BgzfStreamFactory bgzfFactory) throws IOException
 		{
 		IOUtil.assertFileIsReadable(path);
 		InputStream in= Files.newInputStream(path);
 		if(path.getFileName().toString().endsWith(".gz"))
 			{
-			in = tryBGZIP(in);
+			in = tryBGZIP(in, bgzfFactory);
 			}
 		else if(path.getFileName().toString().endsWith(".bz2")) {
 			in  = new BZip2CompressorInputStream(in);
@@ -404,16 +420,18 @@ public class IOUtils {
      */
     public static OutputStream openPathForWriting(final Path file) throws IOException
 		{
+    	return openPathForWriting(file, BgzfStreamFactory.getDefault());
+		}
+    
+    /** open a path for writing, compressed if it ends with *.gz or *.bz2. BGZF streams are opened with 'bgzfFactory' */
+    public static OutputStream openPathForWriting(final Path file,final BgzfStreamFactory bgzfFactory) throws IOException
+		{
     	if(file==null) throw new IllegalArgumentException("path is null");
     	if(isCompressed(file)) {
 	    	final String base = file.getFileName().toString();
 		    if (base.endsWith(".vcf.gz") || base.endsWith(".bgz"))
 		    	{
-		        return new BlockCompressedOutputStream(
-		        		file,
-		        		BlockCompressedOutputStream.getDefaultCompressionLevel(),
-		        		BlockCompressedOutputStream.getDefaultDeflaterFactory()
-		        		);
+		        return bgzfFactory.openForWriting(file);
 		    	}
 		    else if (base.endsWith(".bz2"))
 		    	{
@@ -421,6 +439,8 @@ public class IOUtils {
 		    	}
 		    else if (base.endsWith(".gz"))
 		    	{
+		    	/* BGZF is a valid multi-member gzip, so it can be compressed in parallel */
+		    	if(bgzfFactory.getThreads()>1) return bgzfFactory.openForWriting(file);
 		        return new GZIPOutputStream(Files.newOutputStream(file),true);
 		    	}
 		    else
@@ -448,9 +468,15 @@ public class IOUtils {
     /** open a printwriter, compress if it ends with *.gz  */
     public static PrintWriter openPathForPrintWriter(final Path file) throws IOException
 		{
+    	return openPathForPrintWriter(file, BgzfStreamFactory.getDefault());
+		}
+    
+    /** open a printwriter, compress if it ends with *.gz. BGZF streams are opened with 'bgzfFactory' */
+    public static PrintWriter openPathForPrintWriter(final Path file,final BgzfStreamFactory bgzfFactory) throws IOException
+		{
 	    if (isCompressed(file))
 	    	{
-	        return new PrintWriter(openPathForWriting(file));
+	        return new PrintWriter(openPathForWriting(file, bgzfFactory));
 	    	}
 	    else
 	    	{
@@ -519,6 +545,12 @@ public class IOUtils {
   		return  new LineIteratorImpl(openURIForLineReader(uri));
   		}
     
+    /** @return a LineIterator that should be closed with CloserUtils. BGZF streams are opened with 'bgzfFactory' */
+    public static LineIterator openURIForLineIterator(final String uri,final BgzfStreamFactory bgzfFactory) throws IOException
+  		{
+  		return  new LineIteratorImpl(new SynchronousLineReader(openURIForReading(uri, bgzfFactory)));
+  		}
+    
     /** read String from DataInputStream
      * motivation: readUTF can't print lines larger than USHORTMAX
      *  */
@@ -0,0 +1,189 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * A BGZF reader. The raw blocks are read by the consumer and inflated ahead of the consumer
+ * by a pool of threads.
+ */
+public class ParallelBlockCompressedInputStream extends InputStream {
+	private final InputStream delegate;
+	private final ExecutorService executor;
+	/** max number of blocks being inflated */
+	private final int maxPending;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	private byte[] current = null;
+	private int currentOffset = 0;
+	private boolean delegateEof = false;
+	/** one inflater per worker */
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(()->new Inflater(true));
+	
+	/**
+	 * @param delegate the BGZF input
+	 * @param executor the pool of threads inflating the blocks. It is not shutdown by this stream
+	 * @param nThreads number of threads in the executor
+	 */
+	public ParallelBlockCompressedInputStream(final InputStream delegate,final ExecutorService executor,int nThreads) {
+		this.delegate = delegate;
+		this.executor = executor;
+		this.maxPending = Math.max(1, nThreads) * 2;
+		}
+	
+	private static int readInt16(final byte[] array,int i) {
+		return (array[i] & 0xFF) | ((array[i+1] & 0xFF) << 8);
+		}
+	private static int readInt32(final byte[] array,int i) {
+		return (array[i] & 0xFF) | ((array[i+1] & 0xFF) << 8) | ((array[i+2] & 0xFF) << 16) | ((array[i+3] & 0xFF) << 24);
+		}
+	
+	/** read the next raw block. return null at EOF */
+	private byte[] readRawBlock() throws IOException {
+		final byte[] header = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		int n = 0;
+		while(n < header.length) {
+			final int c = this.delegate.read(header, n, header.length - n);
+			if(c==-1) break;
+			n+=c;
+			}
+		if(n==0) return null;
+		if(n!=header.length) throw new EOFException("Premature end of BGZF header");
+		if( header[0]!=(byte)BlockCompressedStreamConstants.GZIP_ID1 ||
+			header[1]!=(byte)BlockCompressedStreamConstants.GZIP_ID2 ||
+			header[12]!=(byte)BlockCompressedStreamConstants.BGZF_ID1 ||
+			header[13]!=(byte)BlockCompressedStreamConstants.BGZF_ID2) {
+			throw new IOException("Invalid BGZF block header");
+			}
+		final int blockSize = readInt16(header, BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET) + 1;
+		if(blockSize < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH) {
+			throw new IOException("Invalid BGZF block size "+blockSize);
+			}
+		final byte[] block = new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, header.length);
+		int off = header.length;
+		while(off < blockSize) {
+			final int c = this.delegate.read(block, off, blockSize - off);
+			if(c==-1) throw new EOFException("Premature end of BGZF block");
+			off+=c;
+			}
+		return block;
+		}
+	
+	/** inflate a raw block, check the CRC */
+	private static byte[] inflateBlock(final byte[] block) throws IOException {
+		final int footer = block.length - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final int expectedCrc = readInt32(block, footer);
+		final int uncompressedLength = readInt32(block, footer + 4);
+		final byte[] uncompressed = new byte[uncompressedLength];
+		if(uncompressedLength==0) return uncompressed;
+		final Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(block, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, footer - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+		try {
+			final int n = inflater.inflate(uncompressed, 0, uncompressedLength);
+			if(n!=uncompressedLength) throw new IOException("Did not inflate expected amount");
+			}
+		catch(final DataFormatException err) {
+			throw new IOException(err);
+			}
+		final CRC32 crc32 = new CRC32();
+		crc32.update(uncompressed, 0, uncompressedLength);
+		if((int)crc32.getValue()!=expectedCrc) throw new IOException("CRC mismatch in BGZF block");
+		return uncompressed;
+		}
+	
+	/** submit blocks until the queue is full */
+	private void fillQueue() throws IOException {
+		while(!this.delegateEof && this.pending.size() < this.maxPending) {
+			final byte[] raw = readRawBlock();
+			if(raw==null) {
+				this.delegateEof = true;
+				break;
+				}
+			this.pending.add(this.executor.submit(()->inflateBlock(raw)));
+			}
+		}
+	
+	/** make sure current contains some bytes. return false at EOF */
+	private boolean nextBlock() throws IOException {
+		while(this.current==null || this.currentOffset >= this.current.length) {
+			fillQueue();
+			if(this.pending.isEmpty()) return false;
+			try {
+				this.current = this.pending.pollFirst().get();
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				throw new IOException(err);
+				}
+			catch(final ExecutionException err) {
+				throw new IOException(err.getCause());
+				}
+			this.currentOffset = 0;
+			}
+		return true;
+		}
+	
+	@Override
+	public int read() throws IOException {
+		if(!nextBlock()) return -1;
+		return this.current[this.currentOffset++] & 0xFF;
+		}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len==0) return 0;
+		if(!nextBlock()) return -1;
+		final int n = Math.min(len, this.current.length - this.currentOffset);
+		System.arraycopy(this.current, this.currentOffset, b, off, n);
+		this.currentOffset += n;
+		return n;
+		}
+	
+	@Override
+	public int available() throws IOException {
+		return this.current==null?0:this.current.length - this.currentOffset;
+		}
+	
+	@Override
+	public void close() throws IOException {
+		for(final Future<byte[]> f:this.pending) f.cancel(true);
+		this.pending.clear();
+		this.delegate.close();
+		}
+	}
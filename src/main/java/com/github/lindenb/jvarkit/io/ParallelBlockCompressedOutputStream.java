@@ -0,0 +1,232 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A BGZF writer deflating the blocks on a pool of threads.
+ * The blocks are written in the order they were filled, so the output is the same as the one of
+ * htsjdk's BlockCompressedOutputStream and {@link #getFilePointer()} returns a valid virtual offset.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream {
+	private final OutputStream delegate;
+	private final ExecutorService executor;
+	private final int compressionLevel;
+	/** max number of blocks being deflated */
+	private final int maxPending;
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	private byte[] uncompressed = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+	private int numUncompressedBytes = 0;
+	/** number of compressed bytes written to the delegate */
+	private long mBlockAddress = 0L;
+	private boolean closed = false;
+	
+	/** one deflater per worker */
+	private static final ThreadLocal<Deflater[]> DEFLATERS = new ThreadLocal<>();
+	
+	/**
+	 * @param delegate the output
+	 * @param compressionLevel the compression level
+	 * @param executor the pool of threads deflating the blocks. It is not shutdown by this stream
+	 * @param nThreads number of threads in the executor
+	 */
+	public ParallelBlockCompressedOutputStream(final OutputStream delegate,int compressionLevel,final ExecutorService executor,int nThreads) {
+		this.delegate = delegate;
+		this.executor = executor;
+		this.compressionLevel = compressionLevel;
+		this.maxPending = Math.max(1, nThreads) * 2;
+		}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if(this.numUncompressedBytes == this.uncompressed.length) submitBlock();
+		this.uncompressed[this.numUncompressedBytes++] = (byte)b;
+		}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			if(this.numUncompressedBytes == this.uncompressed.length) submitBlock();
+			final int n = Math.min(len, this.uncompressed.length - this.numUncompressedBytes);
+			System.arraycopy(b, off, this.uncompressed, this.numUncompressedBytes, n);
+			this.numUncompressedBytes += n;
+			off += n;
+			len -= n;
+			}
+		}
+	
+	/** send the current block to the pool of threads */
+	private void submitBlock() throws IOException {
+		if(this.numUncompressedBytes==0) return;
+		final byte[] block = this.uncompressed;
+		final int blockLength = this.numUncompressedBytes;
+		final int level = this.compressionLevel;
+		this.pending.add(this.executor.submit(()->deflateBlock(block, blockLength, level)));
+		this.uncompressed = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+		this.numUncompressedBytes = 0;
+		while(this.pending.size() >= this.maxPending) {
+			writeNextBlock();
+			}
+		}
+	
+	/** wait for the oldest block and write it */
+	private void writeNextBlock() throws IOException {
+		final byte[] compressed;
+		try {
+			compressed = this.pending.pollFirst().get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			throw new IOException(err.getCause());
+			}
+		this.delegate.write(compressed);
+		this.mBlockAddress += compressed.length;
+		}
+	
+	/** write all the blocks being deflated */
+	private void drain() throws IOException {
+		while(!this.pending.isEmpty()) {
+			writeNextBlock();
+			}
+		}
+	
+	/** deflate one block and return the full BGZF block (header+data+footer) */
+	private static byte[] deflateBlock(final byte[] uncompressed,int length,int level) {
+		Deflater[] deflaters = DEFLATERS.get();
+		if(deflaters==null) {
+			deflaters = new Deflater[] {
+				new Deflater(level, true),
+				new Deflater(Deflater.NO_COMPRESSION, true)
+				};
+			DEFLATERS.set(deflaters);
+			}
+		final Deflater deflater = deflaters[0];
+		deflater.setLevel(level);
+		final int maxDataLength = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final byte[] compressed = new byte[maxDataLength];
+		deflater.reset();
+		deflater.setInput(uncompressed, 0, length);
+		deflater.finish();
+		int compressedSize = deflater.deflate(compressed, 0, compressed.length);
+		if(!deflater.finished()) {
+			/* data is not compressible: same as htsjdk, store it without compression */
+			final Deflater noCompression = deflaters[1];
+			noCompression.reset();
+			noCompression.setInput(uncompressed, 0, length);
+			noCompression.finish();
+			compressedSize = noCompression.deflate(compressed, 0, compressed.length);
+			if(!noCompression.finished()) throw new IllegalStateException("unpossible");
+			}
+		final CRC32 crc32 = new CRC32();
+		crc32.update(uncompressed, 0, length);
+		
+		final int totalBlockSize = compressedSize + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final byte[] block = new byte[totalBlockSize];
+		int i=0;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_ID1;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_ID2;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_FLG;
+		i = writeInt32(block, i, 0);//modification time
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_XFL;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+		i = writeInt16(block, i, BlockCompressedStreamConstants.GZIP_XLEN);
+		block[i++] = (byte)BlockCompressedStreamConstants.BGZF_ID1;
+		block[i++] = (byte)BlockCompressedStreamConstants.BGZF_ID2;
+		i = writeInt16(block, i, BlockCompressedStreamConstants.BGZF_LEN);
+		i = writeInt16(block, i, totalBlockSize - 1);
+		System.arraycopy(compressed, 0, block, i, compressedSize);
+		i += compressedSize;
+		i = writeInt32(block, i, (int)crc32.getValue());
+		i = writeInt32(block, i, length);
+		return block;
+		}
+	
+	private static int writeInt16(final byte[] array,int i,int value) {
+		array[i++] = (byte)(value & 0xFF);
+		array[i++] = (byte)((value >> 8) & 0xFF);
+		return i;
+		}
+	
+	private static int writeInt32(final byte[] array,int i,int value) {
+		array[i++] = (byte)(value & 0xFF);
+		array[i++] = (byte)((value >> 8) & 0xFF);
+		array[i++] = (byte)((value >> 16) & 0xFF);
+		array[i++] = (byte)((value >> 24) & 0xFF);
+		return i;
+		}
+	
+	/** 
+	 * return the virtual file pointer of the next byte to be written.
+	 * It has to wait for all the pending blocks to be written 
+	 */
+	public long getFilePointer() {
+		try {
+			drain();
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		return BlockCompressedFilePointerUtil.makeFilePointer(this.mBlockAddress, this.numUncompressedBytes);
+		}
+	
+	/** return the number of compressed bytes written so far */
+	public long getPosition() {
+		return this.mBlockAddress;
+		}
+	
+	/** like htsjdk, flush writes the current block, even if it is not full */
+	@Override
+	public void flush() throws IOException {
+		submitBlock();
+		drain();
+		this.delegate.flush();
+		}
+	
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		flush();
+		this.delegate.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+		this.delegate.close();
+		}
+	}
@@ -0,0 +1,378 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/**
+ * A cache of fixed-size, aligned blocks for remote files (e.g: http ranges).
+ * The blocks are kept in memory (LRU) and, optionally, in a directory.
+ * When a stream reads the blocks sequentially, the next blocks are fetched asynchronously
+ * and the adjacent missing blocks are fetched with one request.
+ * The cache can be shared by several streams.
+ */
+public class RemoteBlockCache {
+	private static final Logger LOG = Logger.build(RemoteBlockCache.class).make();
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+	public static final int DEFAULT_MAX_BLOCKS_IN_MEMORY = 64;
+	public static final int DEFAULT_PREFETCH = 4;
+	private static RemoteBlockCache SHARED_INSTANCE = null;
+	
+	/** fetch a range of bytes of a remote file */
+	@FunctionalInterface
+	public static interface RangeFetcher {
+		/** return the bytes in [start,start+length[ , the array must have the size 'length' */
+		public byte[] fetch(long start,int length) throws IOException;
+		}
+	
+	private static class BlockKey {
+		final String sourceId;
+		final long blockIndex;
+		BlockKey(final String sourceId,long blockIndex) {
+			this.sourceId = sourceId;
+			this.blockIndex = blockIndex;
+			}
+		@Override
+		public int hashCode() {
+			return this.sourceId.hashCode()*31 + Long.hashCode(this.blockIndex);
+			}
+		@Override
+		public boolean equals(final Object obj) {
+			if(obj==this) return true;
+			if(obj==null || !(obj instanceof BlockKey)) return false;
+			final BlockKey o = BlockKey.class.cast(obj);
+			return this.blockIndex==o.blockIndex && this.sourceId.equals(o.sourceId);
+			}
+		@Override
+		public String toString() {
+			return this.sourceId+"["+this.blockIndex+"]";
+			}
+		}
+	
+	private final int blockSize;
+	private final int maxBlocksInMemory;
+	private final int prefetchCount;
+	private final Path diskDirectory;
+	private final Map<BlockKey,byte[]> memory;
+	private final Map<BlockKey,CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+	/** number of remote requests, for debugging and testing */
+	private long countRequests = 0L;
+	/** number of prefetches submitted but not yet finished */
+	private int pendingPrefetches = 0;
+	
+	/**
+	 * @param blockSize size of a block
+	 * @param maxBlocksInMemory max number of blocks in memory
+	 * @param prefetchCount number of blocks to fetch ahead of a sequential reader. 0 disable prefetching
+	 * @param diskDirectoryOrNull optional directory where the blocks are saved
+	 */
+	public RemoteBlockCache(int blockSize,int maxBlocksInMemory,int prefetchCount,final Path diskDirectoryOrNull) {
+		if(blockSize<=0) throw new IllegalArgumentException("bad block size "+blockSize);
+		if(maxBlocksInMemory<=0) throw new IllegalArgumentException("bad max blocks in memory "+maxBlocksInMemory);
+		this.blockSize = blockSize;
+		this.maxBlocksInMemory = maxBlocksInMemory;
+		this.prefetchCount = Math.max(0, prefetchCount);
+		this.diskDirectory = diskDirectoryOrNull;
+		this.memory = new LinkedHashMap<BlockKey,byte[]>(maxBlocksInMemory+1,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<BlockKey,byte[]> eldest) {
+				return size() > RemoteBlockCache.this.maxBlocksInMemory;
+				}
+			};
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(4, 4, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), R->{
+			final Thread t = new Thread(R,"prefetch");
+			t.setDaemon(true);
+			return t;
+			});
+		pool.allowCoreThreadTimeOut(true);
+		this.executor = pool;
+		}
+	
+	/** 
+	 * get the cache shared by the CustomSeekableStreamFactory. The directory is defined by
+	 * the java property 'jvarkit.http.cache.dir' (default: no disk cache)
+	 */
+	public static synchronized RemoteBlockCache getSharedInstance() {
+		if(SHARED_INSTANCE==null) {
+			final String dir = System.getProperty("jvarkit.http.cache.dir", "");
+			SHARED_INSTANCE = new RemoteBlockCache(
+				DEFAULT_BLOCK_SIZE,
+				DEFAULT_MAX_BLOCKS_IN_MEMORY,
+				DEFAULT_PREFETCH,
+				StringUtils.isBlank(dir)?null:java.nio.file.Paths.get(dir)
+				);
+			}
+		return SHARED_INSTANCE;
+		}
+	
+	public int getBlockSize() {
+		return this.blockSize;
+		}
+	
+	/** return the number of remote requests sent so far */
+	public synchronized long getRequestCount() {
+		return this.countRequests;
+		}
+	
+	/** wait for the end of the prefetches submitted so far, for testing */
+	synchronized void awaitPrefetches() throws InterruptedException {
+		while(this.pendingPrefetches > 0) {
+			this.wait();
+			}
+		}
+	
+	/** 
+	 * create a new source
+	 * @param url the url
+	 * @param version something identifying the version of the remote file (e.g: ETag or Last-Modified) may be null.
+	 *        Without a version, a change of the remote file cannot be detected, so the blocks are not saved on disk.
+	 * @param length length of the file
+	 * @param fetcher how to fetch the bytes
+	 */
+	public Source createSource(final String url,final String version,long length,final RangeFetcher fetcher) {
+		return new Source(
+			StringUtils.md5(url+"\t"+(version==null?"":version)+"\t"+length),
+			length,
+			fetcher,
+			this.diskDirectory!=null && !StringUtils.isBlank(version)
+			);
+		}
+	
+	/** a remote file read by a stream */
+	public class Source {
+		private final String id;
+		private final long length;
+		private final RangeFetcher fetcher;
+		/** true if the blocks can be read from and saved on disk */
+		private final boolean useDisk;
+		private long lastBlockIndex = -2L;
+		private Source(final String id,long length,final RangeFetcher fetcher,boolean useDisk) {
+			this.id = id;
+			this.length = length;
+			this.fetcher = Objects.requireNonNull(fetcher);
+			this.useDisk = useDisk;
+			}
+		
+		public long length() {
+			return this.length;
+			}
+		
+		public int getBlockSize() {
+			return blockSize;
+			}
+		
+		private long getBlockCount() {
+			return (this.length + blockSize - 1)/blockSize;
+			}
+		
+		private int getBlockLength(long blockIndex) {
+			return (int)Math.min((long)blockSize, this.length - blockIndex*blockSize);
+			}
+		
+		/** return the block containing the byte at 'position' , or null if position is beyond EOF */
+		public byte[] getBlockAt(long position) throws IOException {
+			if(position<0L || position>=this.length) return null;
+			return getBlock(position/blockSize);
+			}
+		
+		/** return the block at the given index, its first byte is at blockIndex*blockSize */
+		public byte[] getBlock(long blockIndex) throws IOException {
+			final boolean sequential = (blockIndex == this.lastBlockIndex + 1);
+			this.lastBlockIndex = blockIndex;
+			final BlockKey key = new BlockKey(this.id, blockIndex);
+			byte[] block = getCached(this, key);
+			while(block==null) {
+				/* sequential reading: fetch the next missing blocks in the same request */
+				block = fetchRun(this, blockIndex, sequential?1+prefetchCount:1);
+				/* or the block is being fetched by another thread */
+				if(block==null) block = waitInFlight(key);
+				if(block==null) block = getCached(this, key);
+				}
+			if(sequential && prefetchCount>0) {
+				prefetch(blockIndex+1);
+				}
+			return block;
+			}
+		
+		private void prefetch(long firstBlockIndex) {
+			final long last = Math.min(getBlockCount(), firstBlockIndex + prefetchCount);
+			for(long i=firstBlockIndex;i< last;i++) {
+				final BlockKey key = new BlockKey(this.id, i);
+				if(isCachedOrInFlight(key)) continue;
+				final long start = i;
+				final int n = (int)(last - i);
+				synchronized(RemoteBlockCache.this) {
+					pendingPrefetches++;
+					}
+				executor.submit(()->{
+					try {
+						fetchRun(this, start, n);
+						}
+					catch(final Throwable err) {
+						LOG.debug("prefetch failed "+err.getMessage());
+						}
+					finally {
+						synchronized(RemoteBlockCache.this) {
+							pendingPrefetches--;
+							RemoteBlockCache.this.notifyAll();
+							}
+						}
+					});
+				break;
+				}
+			}
+		}
+	
+	private synchronized boolean isCachedOrInFlight(final BlockKey key) {
+		return this.memory.containsKey(key) || this.inFlight.containsKey(key);
+		}
+	
+	/** get a block from the memory or from the disk */
+	private byte[] getCached(final Source source,final BlockKey key) throws IOException {
+		synchronized(this) {
+			final byte[] block = this.memory.get(key);
+			if(block!=null) return block;
+			}
+		if(source.useDisk) {
+			final Path path = getDiskPath(key);
+			if(Files.exists(path)) {
+				final byte[] block = Files.readAllBytes(path);
+				synchronized(this) {
+					this.memory.put(key, block);
+					}
+				return block;
+				}
+			}
+		return null;
+		}
+	
+	private Path getDiskPath(final BlockKey key) {
+		return this.diskDirectory.resolve(key.sourceId).resolve(String.valueOf(key.blockIndex)+".blk");
+		}
+	
+	/** wait for a block fetched by another thread. return null if the block is not being fetched */
+	private byte[] waitInFlight(final BlockKey key) throws IOException {
+		final CompletableFuture<byte[]> future = this.inFlight.get(key);
+		if(future==null) return null;
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new IOException(err);
+			}
+		catch(final ExecutionException err) {
+			throw new IOException(err.getCause());
+			}
+		}
+	
+	/** 
+	 * fetch, with one request, at most 'n' adjacent missing blocks starting at firstBlockIndex.
+	 * return the first block or null if it was already cached or being fetched.
+	 */
+	private byte[] fetchRun(final Source source,long firstBlockIndex,int n) throws IOException {
+		final List<BlockKey> keys = new ArrayList<>(n);
+		final List<CompletableFuture<byte[]>> futures = new ArrayList<>(n);
+		final long maxBlock = Math.min(source.getBlockCount(), firstBlockIndex + n);
+		synchronized(this) {
+			for(long i=firstBlockIndex;i< maxBlock;i++) {
+				final BlockKey key = new BlockKey(source.id, i);
+				if(this.memory.containsKey(key) || this.inFlight.containsKey(key)) break;
+				if(source.useDisk && Files.exists(getDiskPath(key))) break;
+				final CompletableFuture<byte[]> future = new CompletableFuture<>();
+				this.inFlight.put(key, future);
+				keys.add(key);
+				futures.add(future);
+				}
+			if(keys.isEmpty()) return null;
+			this.countRequests++;
+			}
+		byte[] first = null;
+		try {
+			final long start = firstBlockIndex * this.blockSize;
+			int total = 0;
+			for(int i=0;i< keys.size();i++) total += source.getBlockLength(firstBlockIndex + i);
+			final byte[] array = source.fetcher.fetch(start, total);
+			if(array.length!=total) throw new IOException("expected "+total+" bytes but got "+array.length);
+			int offset = 0;
+			for(int i=0;i< keys.size();i++) {
+				final int len = source.getBlockLength(firstBlockIndex + i);
+				final byte[] block = new byte[len];
+				System.arraycopy(array, offset, block, 0, len);
+				offset += len;
+				final BlockKey key = keys.get(i);
+				if(source.useDisk) saveOnDisk(key, block);
+				synchronized(this) {
+					this.memory.put(key, block);
+					this.inFlight.remove(key);
+					}
+				futures.get(i).complete(block);
+				if(i==0) first = block;
+				}
+			return first;
+			}
+		catch(final Throwable err) {
+			for(int i=0;i< keys.size();i++) {
+				this.inFlight.remove(keys.get(i));
+				futures.get(i).completeExceptionally(err);
+				}
+			if(err instanceof IOException) throw (IOException)err;
+			throw new IOException(err);
+			}
+		}
+	
+	private void saveOnDisk(final BlockKey key,final byte[] block) {
+		try {
+			final Path path = getDiskPath(key);
+			Files.createDirectories(path.getParent());
+			final Path tmp = Files.createTempFile(path.getParent(), "tmp.", ".blk");
+			Files.write(tmp, block);
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+		catch(final IOException err) {
+			LOG.warn("cannot save block in "+this.diskDirectory+" "+err.getMessage());
+			}
+		}
+	}
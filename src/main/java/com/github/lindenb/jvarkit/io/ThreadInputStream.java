@@ -0,0 +1,79 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Same as {@link ThreadPrintStream} for stdin: each thread can have its own input stream.
+ * usage:
+ * <pre>
+	ThreadInputStream tis=new ThreadInputStream(System.in);
+	System.setIn(tis);
+	tis.set(in);
+	MyMain.main(new String[]{});
+	tis.dispose();
+ * </pre>
+ */
+public class ThreadInputStream extends InputStream {
+	private final ThreadLocal<InputStream> threadToStdin = new ThreadLocal<InputStream>();
+	private final InputStream originalInputStream;
+	public ThreadInputStream(final InputStream originalInputStream) {
+		this.originalInputStream = originalInputStream;
+		}
+	public void set(final InputStream in) {
+		if(this.threadToStdin.get()!=null)
+			 throw new IllegalStateException("InputStream already opened for this thead");
+		this.threadToStdin.set(in);
+		}
+	public void dispose() {
+		this.threadToStdin.remove();
+		}
+	private InputStream stream() {
+		final InputStream in = this.threadToStdin.get();
+		return in==null?this.originalInputStream:in;
+		}
+	@Override
+	public int read() throws IOException {
+		return stream().read();
+		}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		return stream().read(b, off, len);
+		}
+	@Override
+	public int available() throws IOException {
+		return stream().available();
+		}
+	@Override
+	public long skip(long n) throws IOException {
+		return stream().skip(n);
+		}
+	@Override
+	public void close() throws IOException {
+		stream().close();
+		}
+	}
@@ -50,7 +50,8 @@ import java.io.PrintStream;
 public class ThreadPrintStream 
 	extends PrintStream
 	{
-	private final static ThreadLocal<PrintStream> THREAD_TO_STDOUT = new ThreadLocal<PrintStream>();
+	/** one stream per thread. Not inheritable: a pooled thread created during a call would keep its stream forever */
+	private final ThreadLocal<PrintStream> threadToStdout = new ThreadLocal<PrintStream>();
 	private PrintStream originalprintStream=null;
 	public ThreadPrintStream(PrintStream originalprintStream)
 		{
@@ -60,27 +61,64 @@ public class ThreadPrintStream
 	
 	public void set(PrintStream out)
 		{
-		if(THREAD_TO_STDOUT.get()!=null)
+		if(this.threadToStdout.get()!=null)
 			 throw new IllegalStateException("PrintStream already opened for this thead");
-		THREAD_TO_STDOUT.set(out);
+		this.threadToStdout.set(out);
 		}
 	
 	public void dispose()
 		{
-		THREAD_TO_STDOUT.remove();
+		this.threadToStdout.remove();
 		}
 	
 	private PrintStream stream()
 		{
-		PrintStream out = THREAD_TO_STDOUT.get();
+		PrintStream out = this.threadToStdout.get();
 		return out==null?originalprintStream:out;
 		}
 	
+	/* PrintStream's private methods write to the original stream, so all the print methods must be delegated */
 	@Override
 	public void println() {
 		stream().println();
 		}
 	@Override
+	public void println(boolean x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(char x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(int x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(long x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(float x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(double x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(char[] x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(String x) {
+		stream().println(x);
+		}
+	@Override
+	public void println(Object x) {
+		stream().println(x);
+		}
+	@Override
 	public void flush() {
 		stream().flush();
 		}
@@ -88,6 +126,54 @@ public class ThreadPrintStream
 	public void print(String s) {
 		stream().print(s);
 		}
+	@Override
+	public void print(boolean b) {
+		stream().print(b);
+		}
+	@Override
+	public void print(char c) {
+		stream().print(c);
+		}
+	@Override
+	public void print(int i) {
+		stream().print(i);
+		}
+	@Override
+	public void print(long l) {
+		stream().print(l);
+		}
+	@Override
+	public void print(float f) {
+		stream().print(f);
+		}
+	@Override
+	public void print(double d) {
+		stream().print(d);
+		}
+	@Override
+	public void print(char[] s) {
+		stream().print(s);
+		}
+	@Override
+	public void print(Object obj) {
+		stream().print(obj);
+		}
+	@Override
+	public PrintStream printf(String format, Object... args) {
+		return stream().printf(format, args);
+		}
+	@Override
+	public PrintStream printf(java.util.Locale l, String format, Object... args) {
+		return stream().printf(l, format, args);
+		}
+	@Override
+	public PrintStream format(String format, Object... args) {
+		return stream().format(format, args);
+		}
+	@Override
+	public PrintStream format(java.util.Locale l, String format, Object... args) {
+		return stream().format(l, format, args);
+		}
 	
 	@Override
 	public void write(byte[] b) throws IOException {
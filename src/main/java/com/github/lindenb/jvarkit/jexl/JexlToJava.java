@@ -0,0 +1,562 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.jexl;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.StringUtil;
+
+/**
+ * Translates a common subset of the JEXL language into a java class compiled
+ * with {@link OpenJdkCompiler}. Supported: boolean operators, comparisons,
+ * numbers, strings, variables declared by a {@link Dialect} and zero/one-literal-argument
+ * 'is/get/has' methods on the dialect's receivers (e.g. <code>vc.isSNP()</code>).
+ * Anything else is rejected and the caller is expected to keep using the JEXL engine.
+ * Compiled classes are cached by (dialect,expression).
+ */
+public class JexlToJava {
+	private static final Logger LOG = Logger.build(JexlToJava.class).make();
+	/** set this system property to 'false' to disable the compilation of JEXL expressions */
+	public static final String COMPILE_PROPERTY = "jvarkit.jexl.compile";
+	private static final AtomicLong ID_GENERATOR = new AtomicLong(0L);
+	/** cache of compiled classes. Value is empty if the compilation failed */
+	private static final Map<String,Optional<Class<?>>> CLASS_CACHE = new ConcurrentHashMap<>();
+	
+	/** JEXL keywords that are not supported by the translator: the expression is left to JEXL */
+	private static final Set<String> UNSUPPORTED_KEYWORDS = new HashSet<>(Arrays.asList(
+		"null","empty","size","div","mod","new","var","function","return","if","else","for","foreach","while","in"
+		));
+	
+	/** type of a translated node */
+	public enum Type {BOOLEAN,NUMBER,STRING,OBJECT};
+	
+	/** thrown by the generated code when a variable is not defined */
+	public static class MissingValueException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public MissingValueException(final String name) {
+			super("undefined variable "+name);
+			}
+		}
+
+	/** thrown while translating an expression outside the supported subset */
+	private static class UnsupportedExpressionException extends Exception {
+		private static final long serialVersionUID = 1L;
+		UnsupportedExpressionException(final String msg) {
+			super(msg);
+			}
+		}
+
+	/** a known variable for a dialect */
+	private static class Variable {
+		final Type type;
+		final String javaCode;
+		Variable(final Type type,final String javaCode) {
+			this.type = type;
+			this.javaCode = javaCode;
+			}
+		}
+	
+	/** describes the context of the expression: the arguments of the predicate, variables, etc... 
+	 * In the java code, the first argument is named 'arg0' and the second 'arg1' */
+	public static class Dialect {
+		private final String name;
+		private final Class<?>[] argumentClasses;
+		private final Map<String,Integer> receivers = new HashMap<>();
+		private final Map<String,Variable> variables = new HashMap<>();
+		private final Set<String> reserved = new HashSet<>();
+		private Function<String,String> unknownIdentifier = S->null;
+		private String helpers = "";
+		private boolean valueIfMissing = false;
+		
+		public Dialect(final String name,final Class<?> arg0,final Class<?> arg1) {
+			this.name = name;
+			this.argumentClasses = new Class<?>[] {arg0,arg1};
+			}
+		public String getName() {
+			return this.name;
+			}
+		/** declare that methods can be called on the jexl object 'jexlName', this object being the argument 'argIndex' */
+		public Dialect receiver(final String jexlName,final int argIndex) {
+			if(this.argumentClasses[argIndex]==null) throw new IllegalArgumentException("no class for argument "+argIndex);
+			this.receivers.put(jexlName, argIndex);
+			return this;
+			}
+		/** declare a variable */
+		public Dialect variable(final String jexlName,final Type type,final String javaCode) {
+			this.variables.put(jexlName,new Variable(type, javaCode));
+			return this;
+			}
+		/** declare names known by the JEXL context but not supported by the translator */
+		public Dialect reserved(final String...jexlNames) {
+			this.reserved.addAll(Arrays.asList(jexlNames));
+			return this;
+			}
+		/** function converting an unknown identifier to a java code returning an Object. The function returns null if the identifier is not supported */
+		public Dialect unknownIdentifier(final Function<String,String> fun) {
+			this.unknownIdentifier = fun;
+			return this;
+			}
+		/** extra static methods inserted in the generated class */
+		public Dialect helpers(final String helpers) {
+			this.helpers = helpers;
+			return this;
+			}
+		/** value returned by the predicate if a variable is missing */
+		public Dialect valueIfMissing(final boolean b) {
+			this.valueIfMissing = b;
+			return this;
+			}
+		@Override
+		public String toString() {
+			return getName();
+			}
+		}
+	
+	/** translated node */
+	private static class Node {
+		final Type type;
+		final String code;
+		Node(final Type type,final String code) {
+			this.type = type;
+			this.code = code;
+			}
+		}
+	
+	private enum TokenType {IDENTIFIER,NUMBER,STRING,OPERATOR,EOF};
+	
+	private static class Token {
+		final TokenType type;
+		final String text;
+		Token(final TokenType type,final String text) {
+			this.type = type;
+			this.text = text;
+			}
+		boolean is(final String s) {
+			return this.type.equals(TokenType.OPERATOR) && this.text.equals(s);
+			}
+		@Override
+		public String toString() {
+			return this.text;
+			}
+		}
+	
+	/** recursive descent parser for the supported subset */
+	private static class Parser {
+		private final Dialect dialect;
+		private final List<Token> tokens;
+		private int index = 0;
+		Parser(final Dialect dialect,final String expr) throws UnsupportedExpressionException {
+			this.dialect = dialect;
+			this.tokens = tokenize(expr);
+			}
+		
+		private static List<Token> tokenize(final String s) throws UnsupportedExpressionException {
+			final List<Token> L = new ArrayList<>();
+			int i=0;
+			while(i< s.length()) {
+				final char c = s.charAt(i);
+				if(Character.isWhitespace(c)) {
+					i++;
+					}
+				else if(Character.isJavaIdentifierStart(c)) {
+					int j=i+1;
+					while(j< s.length() && Character.isJavaIdentifierPart(s.charAt(j))) j++;
+					final String w = s.substring(i, j);
+					switch(w) {
+						case "and": L.add(new Token(TokenType.OPERATOR,"&&"));break;
+						case "or": L.add(new Token(TokenType.OPERATOR,"||"));break;
+						case "not": L.add(new Token(TokenType.OPERATOR,"!"));break;
+						case "eq": L.add(new Token(TokenType.OPERATOR,"=="));break;
+						case "ne": L.add(new Token(TokenType.OPERATOR,"!="));break;
+						case "lt": L.add(new Token(TokenType.OPERATOR,"<"));break;
+						case "le": L.add(new Token(TokenType.OPERATOR,"<="));break;
+						case "gt": L.add(new Token(TokenType.OPERATOR,">"));break;
+						case "ge": L.add(new Token(TokenType.OPERATOR,">="));break;
+						default: L.add(new Token(TokenType.IDENTIFIER,w));break;
+						}
+					i=j;
+					}
+				else if(Character.isDigit(c)) {
+					int j=i+1;
+					while(j< s.length() && (Character.isDigit(s.charAt(j)) || s.charAt(j)=='.')) j++;
+					final String w = s.substring(i, j);
+					try {
+						Double.parseDouble(w);
+						}
+					catch(final NumberFormatException err) {
+						throw new UnsupportedExpressionException("bad number "+w);
+						}
+					L.add(new Token(TokenType.NUMBER,w));
+					i=j;
+					}
+				else if(c=='\"' || c=='\'') {
+					final StringBuilder sb = new StringBuilder();
+					int j=i+1;
+					for(;;) {
+						if(j>=s.length()) throw new UnsupportedExpressionException("unclosed string");
+						final char c2 = s.charAt(j);
+						if(c2==c) break;
+						if(c2=='\\') throw new UnsupportedExpressionException("escaped string are not supported");
+						sb.append(c2);
+						j++;
+						}
+					L.add(new Token(TokenType.STRING,sb.toString()));
+					i=j+1;
+					}
+				else
+					{
+					final String two = i+1< s.length()?s.substring(i,i+2):"";
+					if(two.equals("&&") || two.equals("||") || two.equals("==") || two.equals("!=") || two.equals("<=") || two.equals(">=")) {
+						L.add(new Token(TokenType.OPERATOR,two));
+						i+=2;
+						}
+					else if("()!<>.".indexOf(c)!=-1) {
+						L.add(new Token(TokenType.OPERATOR,String.valueOf(c)));
+						i++;
+						}
+					else
+						{
+						throw new UnsupportedExpressionException("unsupported character "+c);
+						}
+					}
+				}
+			L.add(new Token(TokenType.EOF,"<EOF>"));
+			return L;
+			}
+		
+		private Token peek() {
+			return this.tokens.get(this.index);
+			}
+		private Token next() {
+			return this.tokens.get(this.index++);
+			}
+		private void expect(final String op) throws UnsupportedExpressionException {
+			final Token t = next();
+			if(!t.is(op)) throw new UnsupportedExpressionException("expected "+op+" but got "+t);
+			}
+		
+		Node parse() throws UnsupportedExpressionException {
+			final Node n = disjunction();
+			if(!peek().type.equals(TokenType.EOF)) throw new UnsupportedExpressionException("unexpected token "+peek());
+			return asBoolean(n);
+			}
+		
+		private Node disjunction() throws UnsupportedExpressionException {
+			Node left = conjunction();
+			while(peek().is("||")) {
+				next();
+				final Node right = conjunction();
+				left = new Node(Type.BOOLEAN,"("+asBoolean(left).code+" || "+asBoolean(right).code+")");
+				}
+			return left;
+			}
+		private Node conjunction() throws UnsupportedExpressionException {
+			Node left = negation();
+			while(peek().is("&&")) {
+				next();
+				final Node right = negation();
+				left = new Node(Type.BOOLEAN,"("+asBoolean(left).code+" && "+asBoolean(right).code+")");
+				}
+			return left;
+			}
+		private Node negation() throws UnsupportedExpressionException {
+			if(peek().is("!")) {
+				next();
+				return new Node(Type.BOOLEAN,"(!"+asBoolean(negation()).code+")");
+				}
+			return comparison();
+			}
+		private Node comparison() throws UnsupportedExpressionException {
+			final Node left = primary();
+			final Token t = peek();
+			if(t.is("==") || t.is("!=") || t.is("<") || t.is("<=") || t.is(">") || t.is(">=")) {
+				next();
+				final Node right = primary();
+				return compare(t.text,left,right);
+				}
+			return left;
+			}
+		
+		private Node primary() throws UnsupportedExpressionException {
+			final Token t = next();
+			switch(t.type) {
+				case NUMBER: return new Node(Type.NUMBER,t.text.contains(".")?t.text:t.text+"L");
+				case STRING: return new Node(Type.STRING,quote(t.text));
+				case IDENTIFIER: return identifier(t.text);
+				case OPERATOR:
+					if(t.is("(")) {
+						final Node n = disjunction();
+						expect(")");
+						return new Node(n.type,"("+n.code+")");
+						}
+					//continue
+				default: throw new UnsupportedExpressionException("unexpected token "+t);
+				}
+			}
+		
+		private Node identifier(final String name)  throws UnsupportedExpressionException {
+			if(name.equals("true") || name.equals("false")) return new Node(Type.BOOLEAN,name);
+			if(UNSUPPORTED_KEYWORDS.contains(name)) throw new UnsupportedExpressionException("unsupported keyword "+name);
+			if(peek().is(".")) {
+				final Integer argIndex = this.dialect.receivers.get(name);
+				if(argIndex==null) throw new UnsupportedExpressionException("not a receiver "+name);
+				next();
+				final Token methodName = next();
+				if(!methodName.type.equals(TokenType.IDENTIFIER)) throw new UnsupportedExpressionException("expected a method name after "+name);
+				expect("(");
+				final Token arg;
+				if(peek().is(")")) {
+					arg = null;
+					}
+				else
+					{
+					arg = next();
+					if(!(arg.type.equals(TokenType.STRING) || arg.type.equals(TokenType.NUMBER))) {
+						throw new UnsupportedExpressionException("method argument must be a literal");
+						}
+					}
+				expect(")");
+				return method(argIndex,methodName.text,arg);
+				}
+			final Variable v = this.dialect.variables.get(name);
+			if(v!=null) return new Node(v.type,v.javaCode);
+			if(this.dialect.reserved.contains(name) || this.dialect.receivers.containsKey(name)) {
+				throw new UnsupportedExpressionException("unsupported identifier "+name);
+				}
+			final String code = this.dialect.unknownIdentifier.apply(name);
+			if(code==null) throw new UnsupportedExpressionException("unknown identifier "+name);
+			return new Node(Type.OBJECT,code);
+			}
+		
+		private Node method(final int argIndex,final String methodName,final Token arg) throws UnsupportedExpressionException {
+			if(!(methodName.startsWith("is") || methodName.startsWith("get") || methodName.startsWith("has"))) {
+				throw new UnsupportedExpressionException("only is/get/has methods are supported "+methodName);
+				}
+			final Class<?> clazz = this.dialect.argumentClasses[argIndex];
+			final Method method;
+			final String argCode;
+			try {
+				if(arg==null) {
+					method = clazz.getMethod(methodName);
+					argCode="";
+					}
+				else if(arg.type.equals(TokenType.STRING)) {
+					method = clazz.getMethod(methodName,String.class);
+					argCode = quote(arg.text);
+					}
+				else if(!arg.text.contains(".")) {
+					method = clazz.getMethod(methodName,int.class);
+					argCode = String.valueOf(Integer.parseInt(arg.text));
+					}
+				else
+					{
+					throw new UnsupportedExpressionException("floating argument is not supported");
+					}
+				}
+			catch(final NoSuchMethodException|NumberFormatException err) {
+				throw new UnsupportedExpressionException("cannot find method "+methodName+" in "+clazz);
+				}
+			if(Modifier.isStatic(method.getModifiers())) throw new UnsupportedExpressionException("static method "+methodName);
+			final Class<?> rt = method.getReturnType();
+			final String code = "arg"+argIndex+"."+methodName+"("+argCode+")";
+			if(rt.equals(boolean.class)) return new Node(Type.BOOLEAN,code);
+			if(rt.equals(int.class) || rt.equals(long.class) || rt.equals(short.class) || rt.equals(double.class) || rt.equals(float.class)) return new Node(Type.NUMBER,code);
+			if(rt.equals(String.class)) return new Node(Type.STRING,code);
+			if(rt.isPrimitive()) throw new UnsupportedExpressionException("unsupported type "+rt);
+			return new Node(Type.OBJECT,code);
+			}
+		
+		private Node compare(final String op,final Node left,final Node right) throws UnsupportedExpressionException {
+			final boolean equality = op.equals("==") || op.equals("!=");
+			if(left.type.equals(Type.NUMBER) && right.type.equals(Type.NUMBER)) {
+				return new Node(Type.BOOLEAN,"("+left.code+" "+op+" "+right.code+")");
+				}
+			if(left.type.equals(Type.NUMBER) || right.type.equals(Type.NUMBER)) {
+				if(left.type.equals(Type.BOOLEAN) || right.type.equals(Type.BOOLEAN)) throw new UnsupportedExpressionException("comparing number and boolean");
+				return new Node(Type.BOOLEAN,"("+asNumber(left)+" "+op+" "+asNumber(right)+")");
+				}
+			if(!equality) throw new UnsupportedExpressionException("ordering of non numeric values");
+			final String neg = op.equals("!=")?"!":"";
+			if(left.type.equals(Type.BOOLEAN) || right.type.equals(Type.BOOLEAN)) {
+				if(left.type.equals(Type.STRING) || right.type.equals(Type.STRING)) throw new UnsupportedExpressionException("comparing string and boolean");
+				return new Node(Type.BOOLEAN,"("+asBoolean(left).code+" "+op+" "+asBoolean(right).code+")");
+				}
+			if(left.type.equals(Type.STRING) || right.type.equals(Type.STRING)) {
+				return new Node(Type.BOOLEAN,"("+neg+JexlToJava.class.getName()+".equalsAsString("+left.code+","+right.code+"))");
+				}
+			throw new UnsupportedExpressionException("comparing two objects");
+			}
+		
+		private String asNumber(final Node n) {
+			if(n.type.equals(Type.NUMBER)) return n.code;
+			return JexlToJava.class.getName()+".toDouble("+n.code+")";
+			}
+		
+		private Node asBoolean(final Node n) throws UnsupportedExpressionException {
+			switch(n.type) {
+				case BOOLEAN: return n;
+				case OBJECT: return new Node(Type.BOOLEAN,JexlToJava.class.getName()+".toBoolean("+n.code+")");
+				default: throw new UnsupportedExpressionException("not a boolean "+n.code);
+				}
+			}
+		}
+	
+	private static String quote(final String s) {
+		final StringBuilder sb = new StringBuilder(s.length()+2);
+		sb.append('\"');
+		for(int i=0;i< s.length();i++) {
+			final char c = s.charAt(i);
+			switch(c) {
+				case '\"': sb.append("\\\"");break;
+				case '\\': sb.append("\\\\");break;
+				case '\n': sb.append("\\n");break;
+				case '\t': sb.append("\\t");break;
+				default: sb.append(c);break;
+				}
+			}
+		sb.append('\"');
+		return sb.toString();
+		}
+	
+	private JexlToJava() {
+		}
+	
+	/** convert a value to double as JEXL would do, used by the generated code */
+	public static double toDouble(final Object o) {
+		if(o==null) throw new MissingValueException("<null>");
+		if(o instanceof Number) return Number.class.cast(o).doubleValue();
+		if(o instanceof Boolean) return Boolean.class.cast(o).booleanValue()?1.0:0.0;
+		if(o instanceof CharSequence) {
+			final String s = o.toString().trim();
+			if(s.isEmpty()) return 0.0;
+			try {
+				return Double.parseDouble(s);
+				}
+			catch(final NumberFormatException err) {
+				throw new IllegalArgumentException("cannot convert \""+s+"\" to a number.",err);
+				}
+			}
+		throw new IllegalArgumentException("cannot convert "+o.getClass()+" to a number");
+		}
+	
+	/** convert a value to boolean as JEXL would do, used by the generated code */
+	public static boolean toBoolean(final Object o) {
+		if(o==null) throw new MissingValueException("<null>");
+		if(o instanceof Boolean) return Boolean.class.cast(o).booleanValue();
+		if(o instanceof Number) return Number.class.cast(o).doubleValue()!=0.0;
+		return Boolean.parseBoolean(o.toString());
+		}
+	
+	/** compare two values as strings, used by the generated code */
+	public static boolean equalsAsString(final Object a,final Object b) {
+		if(a==null || b==null) return a==b;
+		return a.toString().equals(b.toString());
+		}
+	
+	/** translate the JEXL expression to a java boolean expression. Returns empty if the expression is not supported */
+	public static Optional<String> translate(final Dialect dialect,final String expr) {
+		if(StringUtil.isBlank(expr)) return Optional.empty();
+		try {
+			return Optional.of(new Parser(dialect, expr).parse().code);
+			}
+		catch(final UnsupportedExpressionException err) {
+			LOG.debug("cannot translate JEXL \""+expr+"\" : "+err.getMessage());
+			return Optional.empty();
+			}
+		}
+	
+	/** is the compilation of JEXL expressions enabled ? */
+	public static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty(COMPILE_PROPERTY, "true"));
+		}
+	
+	/** generate the code of the java class */
+	static String generateClass(final Dialect dialect,final String className,final String javaExpr) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("public class ").append(className).append(" implements java.util.function.BiPredicate<Object,Object> {\n");
+		sb.append(dialect.helpers).append("\n");
+		sb.append("@Override\n");
+		sb.append("public boolean test(final Object __a,final Object __b) {\n");
+		for(int i=0;i< dialect.argumentClasses.length;i++) {
+			final Class<?> c = dialect.argumentClasses[i];
+			if(c==null) continue;
+			sb.append("\tfinal ").append(c.getCanonicalName()).append(" arg").append(i).append(" = (").append(c.getCanonicalName()).append(")").append(i==0?"__a":"__b").append(";\n");
+			}
+		sb.append("\ttry {\n");
+		sb.append("\t\treturn ").append(javaExpr).append(";\n");
+		sb.append("\t\t}\n");
+		sb.append("\tcatch(final ").append(MissingValueException.class.getCanonicalName()).append(" err) {\n");
+		sb.append("\t\treturn ").append(dialect.valueIfMissing).append(";\n");
+		sb.append("\t\t}\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+		return sb.toString();
+		}
+	
+	/** try to compile the JEXL expression. Returns empty if the expression is not supported, if the compilation failed
+	 * or if the compilation was disabled using {@link #COMPILE_PROPERTY} */
+	@SuppressWarnings("unchecked")
+	public static <A,B> Optional<BiPredicate<A,B>> compile(final Dialect dialect,final String expr) {
+		if(!isEnabled()) return Optional.empty();
+		final Optional<Class<?>> clazz = CLASS_CACHE.computeIfAbsent(dialect.getName()+"\t"+expr, K->{
+			final Optional<String> javaExpr = translate(dialect,expr);
+			if(!javaExpr.isPresent()) return Optional.empty();
+			final String className = "JexlToJava"+ID_GENERATOR.incrementAndGet();
+			final String code = generateClass(dialect, className, javaExpr.get());
+			try {
+				LOG.debug("compiling JEXL \""+expr+"\"\n"+OpenJdkCompiler.beautifyCode(code));
+				return Optional.of(OpenJdkCompiler.getInstance().compileClass(className, code));
+				}
+			catch(final Throwable err) {
+				LOG.warn("cannot compile JEXL expression \""+expr+"\". Using JEXL engine. "+err.getMessage());
+				return Optional.empty();
+				}
+			});
+		if(!clazz.isPresent()) return Optional.empty();
+		try {
+			return Optional.of((BiPredicate<A,B>)clazz.get().getConstructor().newInstance());
+			}
+		catch(final Throwable err) {
+			LOG.warn("cannot instantiate compiled JEXL expression \""+expr+"\". Using JEXL engine. "+err.getMessage());
+			return Optional.empty();
+			}
+		}
+	}
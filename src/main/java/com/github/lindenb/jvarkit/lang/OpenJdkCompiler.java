@@ -25,17 +25,29 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.lang;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.util.CloserUtil;
@@ -59,7 +71,68 @@ public abstract class OpenJdkCompiler {
 		}
 	
 	
-	public abstract Class<?> compileClass(final String className,final String javaCode);
+	/** default max size of the cache directory */
+	public static final long DEFAULT_CACHE_MAX_SIZE_MB = 200L;
+	
+	/** jcommander options for the cache of compiled classes. Passed to each call of compileClass, the compiler itself is shared and never modified */
+	public static class CacheArgs {
+		@Parameter(names={"--jdk-cache"},description="Directory where the compiled classes are cached, so the same code is not compiled twice. "
+				+ "Default is the system property 'jvarkit.jdk.cache'. If none is defined, the classes are not cached.")
+		private Path cacheDirectory = null;
+		@Parameter(names={"--no-jdk-cache"},description="Disable the cache of the compiled classes.")
+		private boolean disableCache = false;
+		@Parameter(names={"--jdk-cache-size"},description="Max size of the cache of the compiled classes, in Mb. The oldest entries are removed first.")
+		private long cacheMaxSizeMb = DEFAULT_CACHE_MAX_SIZE_MB;
+		
+		/** directory where the compiled classes are cached. null means no cache */
+		public Path getCacheDirectory() {
+			if(this.disableCache) return null;
+			if(this.cacheDirectory!=null) return this.cacheDirectory;
+			return getDefaultCacheDirectory();
+			}
+		
+		/** max size of the cache directory in bytes */
+		public long getCacheMaxSize() {
+			return this.cacheMaxSizeMb * 1024L * 1024L;
+			}
+		}
+	
+	/** the cache on disk is opt-in: returns null if the system property 'jvarkit.jdk.cache' is not defined */
+	private static Path getDefaultCacheDirectory() {
+		try {
+			final String s = System.getProperty("jvarkit.jdk.cache","");
+			if(!StringUtil.isBlank(s)) return Paths.get(s);
+			return null;
+			}
+		catch(final SecurityException err) {
+			return null;
+			}
+		}
+	
+	/** compile the class using the default cache settings */
+	public Class<?> compileClass(final String className,final String javaCode) {
+		return compileClass(className, javaCode, new CacheArgs());
+		}
+	
+	public abstract Class<?> compileClass(final String className,final String javaCode,final CacheArgs cacheArgs);
+	
+	/** generated classes use a random name and a date in the @Generated annotation: 
+	 * remove them so the same user's code gives the same cache key */
+	static String normalizeCodeForCache(final String className,final String javaCode) {
+		return javaCode.
+				replace(className, "__JVARKIT_CLASS__").
+				replaceAll("date=\"[^\"]*\"", "date=\"\"");
+		}
+	
+	/** cache key: md5 of the normalized code, the version of jvarkit and the version of java */
+	static String getCacheKey(final String className,final String javaCode) {
+		final JVarkitVersion version = JVarkitVersion.getInstance();
+		return StringUtils.md5(
+				normalizeCodeForCache(className, javaCode) + "\n" +
+				version.getGitHash() + " " + version.getCompilationDate() + "\n" +
+				System.getProperty("java.version","")
+				);
+		}
 	
 	/** get full class name for the @Generated annotation. May be null. */
 	public static String getGeneratedAnnotationClassName() {
@@ -180,8 +253,82 @@ public abstract class OpenJdkCompiler {
 			throw new RuntimeException("Cannot "+definition);
 			}
 		
+		/** try to load a class from the cache. Returns null if there is no such class */
+		private Class<?> loadFromCache(final Path cacheDir,final String key) {
+			if(cacheDir==null) return null;
+			final Path jarPath = cacheDir.resolve(key+".jar");
+			final Path namePath = cacheDir.resolve(key+".txt");
+			if(!Files.exists(jarPath) || !Files.exists(namePath)) return null;
+			try {
+				// the cached class may have another name than the one requested
+				final String cachedClassName = new String(Files.readAllBytes(namePath), StandardCharsets.UTF_8).trim();
+				final URLClassLoader child = new URLClassLoader(
+						new URL[] {jarPath.toUri().toURL()},
+						this.getClass().getClassLoader()
+						);
+				final Class<?> compiledClass = Class.forName(cachedClassName, true, child);
+				// update the last modified time: oldest entries are removed first
+				Files.setLastModifiedTime(jarPath, FileTime.fromMillis(System.currentTimeMillis()));
+				LOG.debug("loaded "+cachedClassName+" from cache "+jarPath);
+				return compiledClass;
+				}
+			catch(final Throwable err) {
+				LOG.warn("cannot load class from cache "+jarPath+" : "+err.getMessage());
+				return null;
+				}
+			}
+		
+		/** save the compiled jar in the cache and remove the oldest entries */
+		private void saveInCache(final CacheArgs cacheArgs,final String key,final String className,final File jarFile) {
+			final Path cacheDir = cacheArgs.getCacheDirectory();
+			if(cacheDir==null) return;
+			try {
+				Files.createDirectories(cacheDir);
+				final Path jarPath = cacheDir.resolve(key+".jar");
+				final Path namePath = cacheDir.resolve(key+".txt");
+				// copy to a temporary file and rename, so concurrent jobs never read a partial file
+				final Path tmpJar = Files.createTempFile(cacheDir, key, ".jar.tmp");
+				final Path tmpName = Files.createTempFile(cacheDir, key, ".txt.tmp");
+				Files.copy(jarFile.toPath(), tmpJar, StandardCopyOption.REPLACE_EXISTING);
+				Files.write(tmpName, className.getBytes(StandardCharsets.UTF_8));
+				Files.move(tmpName, namePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				Files.move(tmpJar, jarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				evictCache(cacheDir, cacheArgs.getCacheMaxSize());
+				}
+			catch(final Throwable err) {
+				LOG.warn("cannot save compiled class in cache "+cacheDir+" : "+err.getMessage());
+				}
+			}
+		
+		private void evictCache(final Path cacheDir,final long cacheMaxSize) throws IOException {
+			final List<Path> jars;
+			try(Stream<Path> st = Files.list(cacheDir)) {
+				jars = st.filter(P->P.getFileName().toString().endsWith(".jar")).
+					collect(Collectors.toList());
+				}
+			long total = 0L;
+			for(final Path p:jars) total += Files.size(p);
+			if(total <= cacheMaxSize) return;
+			jars.sort(Comparator.comparingLong(P->{
+				try { return Files.getLastModifiedTime(P).toMillis();}
+				catch(final IOException err) { return 0L;}
+				}));
+			for(final Path jar:jars) {
+				if(total <= cacheMaxSize) break;
+				final long size = Files.size(jar);
+				final String fname = jar.getFileName().toString();
+				Files.deleteIfExists(jar);
+				Files.deleteIfExists(jar.resolveSibling(fname.substring(0,fname.length()-4)+".txt"));
+				total -= size;
+				}
+			}
+		
 		@Override
-		public Class<?> compileClass(final String className,final String javaCode) {
+		public Class<?> compileClass(final String className,final String javaCode,final CacheArgs cacheArgs) {
+			final String cacheKey = getCacheKey(className, javaCode);
+			final Class<?> cachedClass = loadFromCache(cacheArgs.getCacheDirectory(), cacheKey);
+			if(cachedClass!=null) return cachedClass;
+			
 			File javaSsrcDir = null;
 			PrintWriter cw = null;
 			File jarFile = null;
@@ -260,6 +407,7 @@ public abstract class OpenJdkCompiler {
 						this.getClass().getClassLoader()
 						);
 				final Class<?> compiledClass = Class.forName(className, true, child);
+				saveInCache(cacheArgs, cacheKey, className, jarFile);
 				return compiledClass;
 				}
 			catch(final Exception err) {
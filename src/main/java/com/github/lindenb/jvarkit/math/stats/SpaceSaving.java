@@ -0,0 +1,281 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.math.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Space-Saving sketch (Metwally, Agrawal &amp; El Abbadi, 2005) : approximate counts of the most frequent items
+ * of a stream using at most 'capacity' counters. The counts are over-estimated by at most getError(item).
+ * Items are stored in a 'stream-summary' : buckets of items having the same count, so an increment is O(1).
+ * Sketches can be merged, e.g. one sketch per thread. Not thread-safe.
+ */
+public class SpaceSaving<T>
+	{
+	private static class Bucket<T>
+		{
+		long count;
+		Node<T> head = null;
+		Bucket<T> prev = null;
+		Bucket<T> next = null;
+		Bucket(final long count) {
+			this.count = count;
+			}
+		}
+	
+	private static class Node<T>
+		{
+		T item;
+		long error;
+		Bucket<T> bucket = null;
+		Node<T> prev = null;
+		Node<T> next = null;
+		Node(final T item,final long error) {
+			this.item = item;
+			this.error = error;
+			}
+		}
+	
+	/** an item with its estimated count */
+	public static class Entry<T>
+		{
+		private final T item;
+		private final long count;
+		private final long error;
+		private Entry(final T item,final long count,final long error) {
+			this.item = item;
+			this.count = count;
+			this.error = error;
+			}
+		public T getItem() {
+			return this.item;
+			}
+		/** estimated count, never lower than the true count */
+		public long getCount() {
+			return this.count;
+			}
+		/** maximum over-estimation of getCount() */
+		public long getError() {
+			return this.error;
+			}
+		@Override
+		public String toString() {
+			return String.valueOf(this.item)+":"+this.count+"(+/-"+this.error+")";
+			}
+		}
+	
+	private final int capacity;
+	private final Map<T,Node<T>> item2node;
+	/** bucket with the lowest count */
+	private Bucket<T> min = null;
+	private long total = 0L;
+	
+	public SpaceSaving(final int capacity)
+		{
+		if(capacity<1) throw new IllegalArgumentException("capacity must be >=1 but got "+capacity);
+		this.capacity = capacity;
+		this.item2node = new HashMap<>(capacity);
+		}
+	
+	/** max number of items tracked by this sketch */
+	public int getCapacity() {
+		return this.capacity;
+		}
+	
+	/** number of items tracked by this sketch */
+	public int size() {
+		return this.item2node.size();
+		}
+	
+	/** sum of all the counts added to this sketch */
+	public long getTotal() {
+		return this.total;
+		}
+	
+	public void add(final T item) {
+		add(item,1L);
+		}
+	
+	public void add(final T item,final long count) {
+		if(count<=0L) return;
+		this.total += count;
+		Node<T> node = this.item2node.get(item);
+		if(node!=null) {
+			increment(node,count);
+			}
+		else if(this.item2node.size() < this.capacity) {
+			node = new Node<>(item,0L);
+			this.item2node.put(item, node);
+			insert(node,count,null);
+			}
+		else
+			{
+			/* replace the item having the lowest count */
+			node = this.min.head;
+			this.item2node.remove(node.item);
+			node.item = item;
+			node.error = this.min.count;
+			this.item2node.put(item, node);
+			increment(node,count);
+			}
+		}
+	
+	/** estimated count of 'item' , 0 if the item is not tracked */
+	public long getCount(final T item) {
+		final Node<T> node = this.item2node.get(item);
+		return node==null?0L:node.bucket.count;
+		}
+	
+	/** max over-estimation of the count of 'item' */
+	public long getError(final T item) {
+		final Node<T> node = this.item2node.get(item);
+		return node==null?0L:node.error;
+		}
+	
+	/** lowest count of a tracked item, or 0 if the sketch is not full: an untracked item was seen at most this number of times */
+	private long getMinCount() {
+		return this.item2node.size() < this.capacity || this.min==null ? 0L : this.min.count;
+		}
+	
+	private void detach(final Node<T> node) {
+		final Bucket<T> b = node.bucket;
+		if(node.prev!=null) node.prev.next = node.next;
+		if(node.next!=null) node.next.prev = node.prev;
+		if(b.head==node) b.head = node.next;
+		node.prev = null;
+		node.next = null;
+		node.bucket = null;
+		}
+	
+	private void removeIfEmpty(final Bucket<T> b) {
+		if(b.head!=null) return;
+		if(b.prev!=null) b.prev.next = b.next;
+		if(b.next!=null) b.next.prev = b.prev;
+		if(this.min==b) this.min = b.next;
+		}
+	
+	private void attach(final Node<T> node,final Bucket<T> b) {
+		node.bucket = b;
+		node.prev = null;
+		node.next = b.head;
+		if(b.head!=null) b.head.prev = node;
+		b.head = node;
+		}
+	
+	/** insert node with 'count', searching the bucket from 'from' (or from the lowest bucket if null) */
+	private void insert(final Node<T> node,final long count,final Bucket<T> from) {
+		Bucket<T> cur = from;
+		if(cur==null) {
+			if(this.min==null || this.min.count > count) {
+				final Bucket<T> b = new Bucket<>(count);
+				b.next = this.min;
+				if(this.min!=null) this.min.prev = b;
+				this.min = b;
+				attach(node,b);
+				return;
+				}
+			cur = this.min;
+			}
+		while(cur.next!=null && cur.next.count <= count) cur = cur.next;
+		if(cur.count==count) {
+			attach(node,cur);
+			return;
+			}
+		final Bucket<T> b = new Bucket<>(count);
+		b.prev = cur;
+		b.next = cur.next;
+		if(cur.next!=null) cur.next.prev = b;
+		cur.next = b;
+		attach(node,b);
+		}
+	
+	private void increment(final Node<T> node,final long count) {
+		final Bucket<T> b = node.bucket;
+		detach(node);
+		insert(node, b.count + count, b);
+		removeIfEmpty(b);
+		}
+	
+	/** merge another sketch into this one. Items not tracked by a sketch are counted with the lowest count of that sketch. */
+	public SpaceSaving<T> merge(final SpaceSaving<T> other) {
+		if(other==this) throw new IllegalArgumentException("cannot merge with self");
+		final long min1 = this.getMinCount();
+		final long min2 = other.getMinCount();
+		final Set<T> items = new HashSet<>(this.item2node.keySet());
+		items.addAll(other.item2node.keySet());
+		final List<Entry<T>> L = new ArrayList<>(items.size());
+		for(final T item: items) {
+			final Node<T> n1 = this.item2node.get(item);
+			final Node<T> n2 = other.item2node.get(item);
+			final long c = (n1==null?min1:n1.bucket.count) + (n2==null?min2:n2.bucket.count);
+			final long e = (n1==null?min1:n1.error) + (n2==null?min2:n2.error);
+			L.add(new Entry<>(item,c,e));
+			}
+		Collections.sort(L,(A,B)->Long.compare(B.getCount(), A.getCount()));
+		final long newTotal = this.total + other.total;
+		this.item2node.clear();
+		this.min = null;
+		/* insert in increasing order, always at the end of the list of buckets */
+		Bucket<T> last = null;
+		for(int i= Math.min(L.size(), this.capacity)-1;i>=0;i--) {
+			final Entry<T> entry = L.get(i);
+			final Node<T> node = new Node<>(entry.getItem(),entry.getError());
+			this.item2node.put(entry.getItem(), node);
+			if(last==null || last.count!=entry.getCount()) {
+				final Bucket<T> b = new Bucket<>(entry.getCount());
+				b.prev = last;
+				if(last!=null) last.next = b;
+				if(this.min==null) this.min = b;
+				last = b;
+				}
+			attach(node,last);
+			}
+		this.total = newTotal;
+		return this;
+		}
+	
+	/** returns the 'n' most frequent items, sorted on decreasing estimated count */
+	public List<Entry<T>> getTop(final int n) {
+		final List<Entry<T>> L = new ArrayList<>(this.item2node.size());
+		for(Bucket<T> b=this.min;b!=null;b=b.next) {
+			for(Node<T> node=b.head;node!=null;node=node.next) {
+				L.add(new Entry<>(node.item,b.count,node.error));
+				}
+			}
+		Collections.reverse(L);
+		return L.size()<=n?L:new ArrayList<>(L.subList(0, Math.max(0,n)));
+		}
+	
+	@Override
+	public String toString() {
+		return "SpaceSaving(capacity:"+this.capacity+" size:"+size()+" total:"+this.total+")";
+		}
+	}
@@ -0,0 +1,378 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.samtools.liftover;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.liftover.LiftOver;
+import htsjdk.samtools.util.Interval;
+
+/**
+ * A LiftOver engine giving the same results as htsjdk {@link LiftOver}.
+ * 
+ * The chains of each source contig are sorted and stored in primitive arrays; the chains
+ * are pre-binned (bins of 2^16 bases) and the blocks of a chain are found with a binary search.
+ * Each thread keeps the last block that was hit, so sorted input is lifted without searching.
+ * Once loaded, an instance can be used by several threads.
+ */
+public class ChainIndex {
+	private static final int BIN_SHIFT = 16;
+	private final Map<String,ContigChains> contig2chains = new LinkedHashMap<>();
+	private double minMatch = LiftOver.DEFAULT_LIFTOVER_MINMATCH;
+	private final ThreadLocal<LastHit> lastHits = ThreadLocal.withInitial(LastHit::new);
+	
+	/** the chains starting on one source contig, sorted on their start */
+	private static class ContigChains {
+		int nChains;
+		int[] chainFromStart;
+		int[] chainFromEnd;
+		String[] toContig;
+		int[] toSize;
+		boolean[] toNegative;
+		/** blocks of chain 'c' are in [blockOffset[c],blockOffset[c+1]) */
+		int[] blockOffset;
+		int[] blockFromStart;
+		int[] blockToStart;
+		int[] blockSize;
+		/** chains overlapping bin 'b' are in binChains[binOffset[b],binOffset[b+1]) */
+		int nBins;
+		int[] binOffset;
+		int[] binChains;
+		
+		int blockFromEnd(final int b) {
+			return this.blockFromStart[b] + this.blockSize[b];
+			}
+		}
+	
+	/** last block hit by the current thread */
+	private static class LastHit {
+		ContigChains contig = null;
+		int chain = -1;
+		int block = -1;
+		}
+	
+	/** a chain while reading the chain file */
+	private static class RawChain {
+		String fromContig;
+		int fromStart;
+		int fromEnd;
+		String toContig;
+		int toSize;
+		boolean toNegative;
+		int id;
+		int firstBlock;
+		int nBlocks;
+		}
+	
+	private ChainIndex() {
+		}
+	
+	/** load a chain file, may be gzipped */
+	public static ChainIndex load(final Path chainFile) throws IOException {
+		try(BufferedReader br = IOUtils.openPathForBufferedReading(chainFile)) {
+			final ChainIndex index = new ChainIndex();
+			index.read(br, chainFile.toString());
+			return index;
+			}
+		}
+	
+	private void read(final BufferedReader br,final String source) throws IOException {
+		final List<RawChain> chains = new ArrayList<>();
+		final Map<String,String> names = new HashMap<>();
+		/* blocks of all the chains: fromStart, toStart, size */
+		int[] blocks = new int[3 * 10_000];
+		int nBlocks = 0;
+		RawChain chain = null;
+		int fromBlockStart = 0;
+		int toBlockStart = 0;
+		int nLine = 0;
+		String line;
+		while((line=br.readLine())!=null) {
+			nLine++;
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final String[] tokens = line.trim().split("[ \t]+");
+			if(chain==null) {
+				if(!tokens[0].equals("chain") || tokens.length < 12 || tokens.length > 13) {
+					throw new IOException("Invalid chain line in "+source+" line "+nLine+" : "+line);
+					}
+				if(!tokens[4].equals("+")) {
+					throw new IOException("Unexpected source strand in "+source+" line "+nLine+" : "+line);
+					}
+				chain = new RawChain();
+				chain.fromContig = names.computeIfAbsent(tokens[2], S->S);
+				chain.fromStart = Integer.parseInt(tokens[5]);
+				chain.fromEnd = Integer.parseInt(tokens[6]);
+				chain.toContig = names.computeIfAbsent(tokens[7], S->S);
+				chain.toSize = Integer.parseInt(tokens[8]);
+				chain.toNegative = tokens[9].equals("-");
+				chain.id = tokens.length > 12 ? Integer.parseInt(tokens[12]) : chains.size();
+				chain.firstBlock = nBlocks;
+				fromBlockStart = chain.fromStart;
+				toBlockStart = Integer.parseInt(tokens[10]);
+				continue;
+				}
+			if(tokens.length!=1 && tokens.length!=3) {
+				throw new IOException("Invalid block line in "+source+" line "+nLine+" : "+line);
+				}
+			final int size = Integer.parseInt(tokens[0]);
+			if(3*(nBlocks+1) > blocks.length) {
+				blocks = Arrays.copyOf(blocks, blocks.length*2);
+				}
+			blocks[3*nBlocks  ] = fromBlockStart;
+			blocks[3*nBlocks+1] = toBlockStart;
+			blocks[3*nBlocks+2] = size;
+			nBlocks++;
+			chain.nBlocks++;
+			if(tokens.length==3) {
+				fromBlockStart += size + Integer.parseInt(tokens[1]);
+				toBlockStart += size + Integer.parseInt(tokens[2]);
+				}
+			else
+				{
+				if(fromBlockStart + size != chain.fromEnd) {
+					throw new IOException("Chain "+chain.id+" blocks don't end at the chain end in "+source+" line "+nLine);
+					}
+				chains.add(chain);
+				chain = null;
+				}
+			}
+		if(chain!=null) throw new IOException("Last chain "+chain.id+" is incomplete in "+source);
+		
+		/* group by source contig and compact */
+		final Map<String,List<RawChain>> contig2raw = new LinkedHashMap<>();
+		for(final RawChain rc:chains) {
+			contig2raw.computeIfAbsent(rc.fromContig, K->new ArrayList<>()).add(rc);
+			}
+		for(final String contig: contig2raw.keySet()) {
+			final List<RawChain> L = contig2raw.get(contig);
+			L.sort(Comparator.comparingInt((RawChain R)->R.fromStart).thenComparingInt(R->R.id));
+			final ContigChains cc = new ContigChains();
+			cc.nChains = L.size();
+			cc.chainFromStart = new int[cc.nChains];
+			cc.chainFromEnd = new int[cc.nChains];
+			cc.toContig = new String[cc.nChains];
+			cc.toSize = new int[cc.nChains];
+			cc.toNegative = new boolean[cc.nChains];
+			cc.blockOffset = new int[cc.nChains+1];
+			final int n = L.stream().mapToInt(R->R.nBlocks).sum();
+			cc.blockFromStart = new int[n];
+			cc.blockToStart = new int[n];
+			cc.blockSize = new int[n];
+			int maxEnd = 0;
+			int b = 0;
+			for(int c=0;c< cc.nChains;++c) {
+				final RawChain rc = L.get(c);
+				cc.chainFromStart[c] = rc.fromStart;
+				cc.chainFromEnd[c] = rc.fromEnd;
+				cc.toContig[c] = rc.toContig;
+				cc.toSize[c] = rc.toSize;
+				cc.toNegative[c] = rc.toNegative;
+				cc.blockOffset[c] = b;
+				for(int k=0;k< rc.nBlocks;++k) {
+					final int i = 3*(rc.firstBlock+k);
+					cc.blockFromStart[b] = blocks[i];
+					cc.blockToStart[b] = blocks[i+1];
+					cc.blockSize[b] = blocks[i+2];
+					b++;
+					}
+				maxEnd = Math.max(maxEnd, rc.fromEnd);
+				}
+			cc.blockOffset[cc.nChains] = b;
+			
+			/* bins */
+			cc.nBins = (Math.max(1, maxEnd)-1 >> BIN_SHIFT) + 1;
+			cc.binOffset = new int[cc.nBins+1];
+			for(int c=0;c< cc.nChains;++c) {
+				if(cc.chainFromEnd[c] <= cc.chainFromStart[c]) continue;
+				for(int bin=cc.chainFromStart[c]>>BIN_SHIFT;bin<=(cc.chainFromEnd[c]-1)>>BIN_SHIFT;++bin) {
+					cc.binOffset[bin+1]++;
+					}
+				}
+			for(int bin=0;bin< cc.nBins;++bin) cc.binOffset[bin+1] += cc.binOffset[bin];
+			cc.binChains = new int[cc.binOffset[cc.nBins]];
+			final int[] fill = Arrays.copyOf(cc.binOffset, cc.nBins);
+			for(int c=0;c< cc.nChains;++c) {
+				if(cc.chainFromEnd[c] <= cc.chainFromStart[c]) continue;
+				for(int bin=cc.chainFromStart[c]>>BIN_SHIFT;bin<=(cc.chainFromEnd[c]-1)>>BIN_SHIFT;++bin) {
+					cc.binChains[fill[bin]++] = c;
+					}
+				}
+			this.contig2chains.put(contig, cc);
+			}
+		}
+	
+	public ChainIndex setLiftOverMinMatch(final double minMatch) {
+		this.minMatch = minMatch;
+		return this;
+		}
+	
+	public double getLiftOverMinMatch() {
+		return this.minMatch;
+		}
+	
+	/** throws a SAMException if a target contig is missing from the dictionary or has a different length */
+	public void validateToSequences(final SAMSequenceDictionary dict) {
+		for(final ContigChains cc: this.contig2chains.values()) {
+			for(int c=0;c< cc.nChains;++c) {
+				final SAMSequenceRecord ssr = dict.getSequence(cc.toContig[c]);
+				if(ssr==null) {
+					throw new SAMException("Sequence " + cc.toContig[c] + " from chain file is not found in sequence dictionary.");
+					}
+				if(ssr.getSequenceLength()!=cc.toSize[c]) {
+					throw new SAMException("Sequence " + cc.toContig[c] + " from chain file has different length (" + cc.toSize[c] + ") than in sequence dictionary (" + ssr.getSequenceLength() + ").");
+					}
+				}
+			}
+		}
+	
+	/** lift over an interval using the default min-match, returns null if it cannot be lifted */
+	public Interval liftOver(final Interval interval) {
+		return liftOver(interval, this.minMatch);
+		}
+	
+	/** index of the first block of chain 'c' ending after 'start' */
+	private static int firstBlock(final ContigChains cc,final int c,final int start,final LastHit last) {
+		int lo = cc.blockOffset[c];
+		int hi = cc.blockOffset[c+1];
+		if(last.contig==cc && last.chain==c) {
+			final int b = last.block;
+			if(cc.blockFromEnd(b) > start) {
+				if(b==lo || cc.blockFromEnd(b-1) <= start) return b;
+				hi = b;
+				}
+			else
+				{
+				lo = b + 1;
+				}
+			}
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(cc.blockFromEnd(mid) <= start) {
+				lo = mid + 1;
+				}
+			else
+				{
+				hi = mid;
+				}
+			}
+		return lo;
+		}
+	
+	/**
+	 * lift over an interval
+	 * @param interval the interval
+	 * @param liftOverMinMatch fraction of the bases of the interval that must be lifted
+	 * @return the lifted interval or null if it cannot be lifted or if it is lifted by more than one chain
+	 */
+	public Interval liftOver(final Interval interval,final double liftOverMinMatch) {
+		if(interval.length()==0) {
+			throw new IllegalArgumentException("Zero-length interval cannot be lifted over.  Interval: " + interval.getName());
+			}
+		final ContigChains cc = this.contig2chains.get(interval.getContig());
+		if(cc==null) return null;
+		/* 0-based, half-open */
+		final int start = interval.getStart() - 1;
+		final int end = interval.getEnd();
+		if(end <= 0) return null;
+		final double minMatchSize = liftOverMinMatch * interval.length();
+		final LastHit last = this.lastHits.get();
+		
+		int hitChain = -1;
+		int hitFirstBlock = -1;
+		int hitLastBlock = -1;
+		int hitStartOffset = 0;
+		int hitOffsetFromEnd = 0;
+		
+		final int bin1 = Math.max(0, start) >> BIN_SHIFT;
+		final int bin2 = Math.min(cc.nBins-1, (end-1) >> BIN_SHIFT);
+		for(int bin=bin1;bin<=bin2;++bin) {
+			for(int k=cc.binOffset[bin];k< cc.binOffset[bin+1];++k) {
+				final int c = cc.binChains[k];
+				/* visit each chain once */
+				if(bin > bin1 && (cc.chainFromStart[c] >> BIN_SHIFT) != bin) continue;
+				if(cc.chainFromStart[c] >= end || cc.chainFromEnd[c] <= start) continue;
+				
+				int intersectionLength = 0;
+				int firstBlockIndex = -1;
+				int lastBlockIndex = -1;
+				int startOffset = -1;
+				int offsetFromEnd = -1;
+				for(int b=firstBlock(cc, c, start, last);b< cc.blockOffset[c+1];++b) {
+					final int blockStart = cc.blockFromStart[b];
+					final int blockEnd = cc.blockFromEnd(b);
+					if(blockStart >= end) break;
+					if(blockEnd <= start) continue;
+					if(firstBlockIndex==-1) {
+						firstBlockIndex = b;
+						startOffset = (start > blockStart ? start - blockStart : 0);
+						}
+					lastBlockIndex = b;
+					offsetFromEnd = (blockEnd > end ? blockEnd - end : 0);
+					intersectionLength += Math.min(end, blockEnd) - Math.max(start, blockStart);
+					}
+				if(intersectionLength==0 || intersectionLength < minMatchSize) continue;
+				/* as in basic liftOver, multiple hits are not allowed */
+				if(hitChain!=-1) return null;
+				hitChain = c;
+				hitFirstBlock = firstBlockIndex;
+				hitLastBlock = lastBlockIndex;
+				hitStartOffset = startOffset;
+				hitOffsetFromEnd = offsetFromEnd;
+				}
+			}
+		if(hitChain==-1) return null;
+		last.contig = cc;
+		last.chain = hitChain;
+		last.block = hitFirstBlock;
+		
+		int toStart = cc.blockToStart[hitFirstBlock] + hitStartOffset;
+		int toEnd = cc.blockToStart[hitLastBlock] + cc.blockSize[hitLastBlock] - hitOffsetFromEnd;
+		if (toEnd <= toStart || toStart < 0) {
+			throw new SAMException("Something strange lifting over interval " + interval.getName());
+			}
+		if(cc.toNegative[hitChain]) {
+			final int negativeStart = cc.toSize[hitChain] - toEnd;
+			final int negativeEnd = cc.toSize[hitChain] - toStart;
+			toStart = negativeStart;
+			toEnd = negativeEnd;
+			}
+		final boolean negativeStrand = cc.toNegative[hitChain] ? !interval.isNegativeStrand() : interval.isNegativeStrand();
+		return new Interval(cc.toContig[hitChain], toStart+1, toEnd, negativeStrand, interval.getName());
+		}
+	}
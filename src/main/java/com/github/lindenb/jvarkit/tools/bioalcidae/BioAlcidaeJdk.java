@@ -37,6 +37,7 @@ import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -44,6 +45,7 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
 import com.github.lindenb.jvarkit.pedigree.Pedigree;
@@ -743,6 +745,8 @@ public class BioAlcidaeJdk
 	private File scriptFile=null;
 	@Parameter(names={"-e","--expression"},description="inline java expression")
 	private String scriptExpr=null;
+	@ParametersDelegate
+	private OpenJdkCompiler.CacheArgs jdkCacheArgs = new OpenJdkCompiler.CacheArgs();
 	@Parameter(names={"--nocode"},description=" Don't show the generated code")
 	private boolean hideGeneratedCode=false;
 	@Parameter(names={"--body"},description="user's code is the whole body of the filter class, not just the 'apply' method.")
@@ -753,6 +757,9 @@ public class BioAlcidaeJdk
 	private String extraImport = "";
 	@Parameter(names={"-p","--pedigree"},description="Optional pedigree file. " + PedigreeParser.OPT_DESC)
 	private Path pedigreePath = null;
+	@Parameter(names={"--parallel"},description="'stream()' returns a parallel stream: the records are dispatched in batches over the threads of the common fork-join pool. "
+			+ "The user's code must be thread-safe. print/println are synchronized. Use 'forEachOrdered' to keep the input order.")
+	private boolean parallel = false;
 
 	
 	@SuppressWarnings("unused")
@@ -767,11 +774,14 @@ public class BioAlcidaeJdk
     	protected Pedigree pedigree = null;
     	protected PrintStream out = System.out;
     	protected String inputFile = null;
+    	/** if true, stream() returns a parallel stream */
+    	protected boolean parallel = false;
     	public void initialize() {}
     	public void dispose() {}
-    	public void print(final Object o) { this.out.print(o);}
-    	public void println() { this.out.println();}
-    	public void println(final Object o) { this.print(o);this.println();}
+    	/* print methods are synchronized because stream() may be a parallel stream */
+    	public void print(final Object o) { synchronized(this.out) {this.out.print(o);}}
+    	public void println() { synchronized(this.out) {this.out.println();}}
+    	public void println(final Object o) { synchronized(this.out) {this.print(o);this.println();}}
     	public abstract void execute() throws Exception;
     	public Pedigree getPedigree() { return this.pedigree;}
     	public boolean hasPedigree() { return this.pedigree!=null;}
@@ -787,6 +797,8 @@ public class BioAlcidaeJdk
     	private boolean hideGeneratedCode = false;
     	private Constructor<H> ctor=null;
     	private Set<String> extraImportSet = new HashSet<>();
+    	private OpenJdkCompiler.CacheArgs jdkCacheArgs = new OpenJdkCompiler.CacheArgs();
+    	protected boolean parallel = false;
     	
     	
     	public abstract int execute(final String inputFile,final PrintStream out) throws Exception;
@@ -897,7 +909,8 @@ public class BioAlcidaeJdk
 				final OpenJdkCompiler inMemoryCompiler = OpenJdkCompiler.getInstance();
 				final Class<?> compiledClass = inMemoryCompiler.compileClass(
 						javaClassName,
-						codeWriter.toString()
+						codeWriter.toString(),
+						this.jdkCacheArgs
 						);
 				this.ctor = (Constructor<H>)compiledClass.getDeclaredConstructor();
 				return this.ctor;
@@ -916,9 +929,23 @@ public class BioAlcidaeJdk
     	protected VCFIterator iter = null;
 		public Stream<VariantContext> stream()
 			{
+			final Iterator<VariantContext> delegate;
+			if(this.parallel) {
+				/* genotypes must be decoded while the iterator is read, the codec is not thread-safe */
+				delegate = new AbstractIterator<VariantContext>() {
+					@Override
+					protected VariantContext advance() {
+						return iter.hasNext()?VCFUtils.decodeGenotypes(iter.next()):null;
+						}
+					};
+				}
+			else
+				{
+				delegate = this.iter;
+				}
 			return StreamSupport.stream(
-					new IterableAdapter<VariantContext>(this.iter).spliterator(),
-					false);
+					new IterableAdapter<VariantContext>(delegate).spliterator(),
+					this.parallel);
 			}		
 		}
 
@@ -942,6 +969,7 @@ public class BioAlcidaeJdk
 				vcfHandler.header = vcfHandler.iter.getHeader();
 				vcfHandler.tools = new VcfTools(vcfHandler.header);
 				vcfHandler.pedigree = this.pedigree;
+				vcfHandler.parallel = this.parallel;
 				vcfHandler.initialize();
 				vcfHandler.execute();
 				return 0;
@@ -972,7 +1000,7 @@ public class BioAlcidaeJdk
 			{
 			return StreamSupport.stream(
 					new IterableAdapter<SAMRecord>(this.iter).spliterator(),
-					false);
+					this.parallel);
 			}
 		}
 
@@ -991,6 +1019,7 @@ public class BioAlcidaeJdk
 				samHandler.out = out;
 				samHandler.inputFile = inputFile;
 				samHandler.pedigree = this.pedigree;
+				samHandler.parallel = this.parallel;
 				//
 				final htsjdk.samtools.SamReaderFactory srf= htsjdk.samtools.SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
 				if(this.faidxPath!=null) {
@@ -1038,7 +1067,7 @@ public class BioAlcidaeJdk
 			{
 			return StreamSupport.stream(
 					new IterableAdapter<FastqRecord>(this.iter).spliterator(),
-					false);
+					this.parallel);
 			}
 		}
     
@@ -1058,6 +1087,7 @@ public class BioAlcidaeJdk
 				fqHandler.inputFile = inputFile;
 				fqHandler.iter = new FastqReader(super.openBufferedReader(inputFile));
 				fqHandler.pedigree = this.pedigree;
+				fqHandler.parallel = this.parallel;
 				
 				fqHandler.initialize();
 				fqHandler.execute();
@@ -1088,7 +1118,7 @@ public class BioAlcidaeJdk
 			{
 			return StreamSupport.stream(
 					new IterableAdapter<FastaSequence>(this.iter).spliterator(),
-					false);
+					this.parallel);
 			}
 		}
     
@@ -1106,6 +1136,7 @@ public class BioAlcidaeJdk
 				faHandler.out = out;
 				faHandler.inputFile = inputFile;
 				faHandler.pedigree = this.pedigree;
+				faHandler.parallel = this.parallel;
 				//
 				faHandler.iter =  new FastaSequenceReader().iterator(super.openBufferedReader(inputFile));
 				
@@ -1139,7 +1170,7 @@ public class BioAlcidaeJdk
 			{
 			return StreamSupport.stream(
 					new IterableAdapter<String>(this.iter).spliterator(),
-					false);
+					this.parallel);
 			}
 		}
     
@@ -1176,6 +1207,7 @@ public class BioAlcidaeJdk
 				lineHandler.out = out;
 				lineHandler.inputFile = inputFile;
 				lineHandler.pedigree = this.pedigree;
+				lineHandler.parallel = this.parallel;
 				//
 				lineHandler.iter =  new LineIterator(
 						inputFile ==null ?
@@ -1211,7 +1243,7 @@ public class BioAlcidaeJdk
 		protected List<Gene> genes=null;
 		public Stream<Gene> stream()
 			{
-			return this.genes.stream();
+			return this.parallel?this.genes.parallelStream():this.genes.stream();
 			}
 		}
     
@@ -1237,6 +1269,7 @@ public class BioAlcidaeJdk
     			gtfHandler.out = out;
     			gtfHandler.genes = gtfReader.getAllGenes();
     			gtfHandler.pedigree = this.pedigree;
+    			gtfHandler.parallel = this.parallel;
     			
     			gtfReader.close();
     			gtfReader = null;
@@ -1360,11 +1393,13 @@ public class BioAlcidaeJdk
 				case GTF: abstractFactory = new GtfHandlerFactory();break;
 				default: throw new IllegalStateException("Not implemented: "+this.format);
 				}
+			abstractFactory.jdkCacheArgs = this.jdkCacheArgs;
 			abstractFactory.faidxPath = this.faidxPath;
 			abstractFactory.scriptExpr = this.scriptExpr;
 			abstractFactory.scriptFile = this.scriptFile;
 			abstractFactory.user_code_is_body = this.user_code_is_body ;
 			abstractFactory.hideGeneratedCode = this.hideGeneratedCode ;
+			abstractFactory.parallel = this.parallel;
 			if(this.pedigreePath!=null) {
 				abstractFactory.pedigree = new PedigreeParser().parse(this.pedigreePath);
 				}
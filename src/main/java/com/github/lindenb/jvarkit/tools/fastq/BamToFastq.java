@@ -25,15 +25,28 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.fastq;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import htsjdk.samtools.fastq.BasicFastqWriter;
 import htsjdk.samtools.fastq.FastqRecord;
@@ -41,9 +54,7 @@ import htsjdk.samtools.fastq.FastqWriter;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
-import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -51,7 +62,6 @@ import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 
@@ -64,6 +74,13 @@ BEGIN_DOC
 
 use picard please
 
+# Output order
+
+A pair is written as soon as both mates have been read, so the output follows the order of the input.
+When more than `--maxRecordsInRam` reads are waiting for their mate, the oldest ones are written in
+`--partitions` temporary files using hash(read-name). Those files are paired at the end of the input
+(in parallel with `--jobs`), so the pairs whose mates are far apart in the input are written last.
+
 # Warnings
 
 Previous version was an Implementation of https://twitter.com/DNAntonie/status/402909852277932032
@@ -151,7 +168,7 @@ $ java -jar dist/bam2fastq.jar \
 END_DOC
 */
 @Program(name="bam2fastq",
-	description="Same as picard/SamToFastq but allow missing reads + shuffle reads using hash(name) so you can use them with bwa. ",
+	description="Same as picard/SamToFastq but allow missing reads. The pairs are written in the order of the input; the reads whose mate is far away are paired at the end using temporary files partitioned by hash(name).",
 	deprecatedMsg="use picard",
 	keywords={"fastq"}
 	)
@@ -176,9 +193,15 @@ public class BamToFastq
 	@Parameter(names={"-T","--tmpDir"},description="tmp directory")
 	private File tmpDir = IOUtils.getDefaultTmpDir();
 
-	@Parameter(names={"-maxRecordsInRam","--maxRecordsInRam"},description="Max records in RAM")
+	@Parameter(names={"-maxRecordsInRam","--maxRecordsInRam"},description="Max number of reads waiting for their mate in memory. When this number is reached, the oldest reads are written in temporary files.")
 	private int maxRecordsInRam =50000;
 
+	@Parameter(names={"--partitions"},description="Number of temporary files. The reads written to disk are dispatched to those files using hash(read-name). Each file is then loaded in memory to find the mates.")
+	private int n_partitions = 64;
+
+	@Parameter(names={"-j","--jobs"},description="Number of temporary files processed in parallel. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+
 	
 	private static class MappedFastq
 		{
@@ -193,61 +216,41 @@ public class BamToFastq
 			}
 		}
 	
-	private static class MappedFastqComparator
-		implements Comparator<MappedFastq>
+	/** a temporary file holding the unpaired reads whose hash(name) falls into this partition */
+	private static class Partition
 		{
-		@Override
-		public int compare(final MappedFastq o1, final  MappedFastq o2)
-			{
-			//int i= o1.hash - o2.hash;
-			//if(i!=0) return i;
-			int i= o1.name.compareTo(o2.name);
-			if(i!=0) return i;
-			i= (int)o1.side-(int)o2.side;
-			if(i==0) 
-				{
-				System.err.println(o1+" "+o2);
+		final Path path;
+		DataOutputStream out = null;
+		long count = 0L;
+		Partition(final Path path) {
+			this.path = path;
+			}
+		void add(final MappedFastq m) throws IOException {
+			if(this.out==null) {
+				this.out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(this.path),new Deflater(Deflater.BEST_SPEED),8192)));
 				}
-			return i;
+			writeMappedFastq(this.out,m);
+			this.count++;
 			}
-		
 		}
 	
-	private static class MappedFastqCodec extends AbstractDataCodec<MappedFastq>
+	private static void writeMappedFastq(final DataOutputStream dos, final MappedFastq o) throws IOException
 		{
-		@Override
-		public void encode(final  DataOutputStream dos, final MappedFastq o)
-				throws IOException
-			{
-			dos.writeByte(o.side);
-			dos.writeUTF(o.name);
-			dos.writeUTF(o.seq);
-			dos.writeUTF(o.qual);
-			}
-		@Override
-		public MappedFastq decode(final DataInputStream dis) throws IOException
-			{
-			final MappedFastq m=new MappedFastq();
-			try {
-				m.side=dis.readByte();
-			} catch (IOException e) {
-				return null;
-				}
-			m.name=dis.readUTF();
-			m.seq=dis.readUTF();
-			m.qual=dis.readUTF();
-			
-			return m;
-			}
-		
-		@Override
-		public AbstractDataCodec<MappedFastq> clone()
-			{
-			return new MappedFastqCodec();
-			}
+		dos.writeByte(o.side);
+		dos.writeUTF(o.name);
+		dos.writeUTF(o.seq);
+		dos.writeUTF(o.qual);
 		}
 	
-	
+	private static MappedFastq readMappedFastq(final DataInputStream dis) throws IOException
+		{
+		final MappedFastq m=new MappedFastq();
+		m.side=dis.readByte();
+		m.name=dis.readUTF();
+		m.seq=dis.readUTF();
+		m.qual=dis.readUTF();
+		return m;
+		}
 	
 	private void echo(FastqWriter fqw,MappedFastq rec)
 		{
@@ -259,28 +262,101 @@ public class BamToFastq
 				));
 		}
 	
-
+	/** create a mate for 'm' if --repair, or throw an exception */
+	private MappedFastq repair(final MappedFastq m)
+		{
+		final String label = (m.side==1?"reverse":"forward");
+		if(!this.repair_missing_read)
+			{
+			throw new RuntimeException(label+" not found for "+m);
+			}
+		LOG.warn(label+" not found for "+m);
+		final MappedFastq pad=new MappedFastq();
+		pad.side=(byte)(m.side==1?2:1);
+		pad.name=m.name;
+		pad.seq="N";
+		pad.qual="#";
+		return pad;
+		}
+	
+	/** returns {R1,R2} */
+	private static MappedFastq[] pair(final MappedFastq a,final MappedFastq b)
+		{
+		if(a.side==b.side) {
+			throw new RuntimeException("two "+(a.side==1?"forward":"reverse")+" reads found for "+a.name);
+			}
+		return a.side==1?new MappedFastq[] {a,b}:new MappedFastq[] {b,a};
+		}
+	
+	/** load a partition and pair the reads it contains. Executed by a worker thread. */
+	private List<MappedFastq[]> resolvePartition(final Partition partition) throws IOException
+		{
+		final List<MappedFastq[]> pairs = new ArrayList<>();
+		if(partition.count==0L) return pairs;
+		final Map<String,MappedFastq> name2read = new HashMap<>();
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(partition.path))))) {
+			for(long n=0L;n< partition.count;n++) {
+				final MappedFastq m = readMappedFastq(in);
+				final MappedFastq mate = name2read.remove(m.name);
+				if(mate==null) {
+					name2read.put(m.name, m);
+					}
+				else
+					{
+					pairs.add(pair(mate,m));
+					}
+				}
+			}
+		Files.delete(partition.path);
+		for(final MappedFastq m:name2read.values()) {
+			pairs.add(pair(m,repair(m)));
+			}
+		return pairs;
+		}
+	
+	private FastqWriter openFastqWriter(final File f) throws IOException
+		{
+		if(f==null) {
+			LOG.info("Writing to stdout");
+			return new BasicFastqWriter(new PrintStream(stdout()));
+			}
+		LOG.info("Writing to "+f);
+		return new BasicFastqWriter(new PrintStream(IOUtils.openFileForWriting(f)));
+		}
+	
 	@Override
 	public int doWork(List<String> args) {
 
 		SamReader sfr=null;
-		SortingCollection<MappedFastq> fastqCollection=null;
+		FastqWriter fqw1=null;
+		FastqWriter fqw2=null;
+		final List<Partition> partitions = new ArrayList<>();
+		ExecutorService executor = null;
 		try
 			{
 			boolean found_single=false;
 			boolean found_paired=false;
 			long non_primary_alignmaned_flag=0L;
+			long n_spilled=0L;
+			final int nPartitions = Math.max(1, this.n_partitions);
+			/* reads waiting for their mate, oldest first */
+			final LinkedHashMap<String,MappedFastq> pending = new LinkedHashMap<>();
 			
 			sfr = super.openSamReader(oneFileOrNull(args));
 			
-			fastqCollection = SortingCollection.newInstance(
-					MappedFastq.class,
-					new MappedFastqCodec(),
-					new MappedFastqComparator(),
-					this.maxRecordsInRam,
-					this.tmpDir.toPath()
-					);
-			fastqCollection.setDestructiveIteration(true);
+			for(int i=0;i< nPartitions;i++) {
+				partitions.add(new Partition(this.tmpDir.toPath().resolve("bam2fastq."+UUID.randomUUID()+".tmp")));
+				}
+			fqw1 = openFastqWriter(this.forwardFile);
+			if(this.reverseFile!=null)
+				{
+				fqw2 = openFastqWriter(this.reverseFile);
+				}
+			else
+				{
+				LOG.info("Writing R2 to the same output as R1 (interlaced)");
+				fqw2 = fqw1;
+				}
 
 			SAMRecordIterator iter=sfr.iterator();
 			SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sfr.getFileHeader().getSequenceDictionary());
@@ -344,141 +420,83 @@ public class BamToFastq
 						throw new RuntimeException("input is a mix of paired/singled reads");
 						}
 					m.side=(byte)0;
+					echo(fqw1,m);
+					continue;
+					}
+				
+				final MappedFastq mate = pending.remove(m.name);
+				if(mate!=null)
+					{
+					final MappedFastq[] p = pair(mate,m);
+					echo(fqw1,p[0]);
+					echo(fqw2,p[1]);
+					continue;
+					}
+				pending.put(m.name, m);
+				/* too many reads waiting for their mate: spill the oldest one */
+				if(pending.size() > this.maxRecordsInRam)
+					{
+					final Iterator<MappedFastq> it = pending.values().iterator();
+					final MappedFastq eldest = it.next();
+					it.remove();
+					partitions.get(Math.floorMod(eldest.name.hashCode(), nPartitions)).add(eldest);
+					n_spilled++;
 					}
-				fastqCollection.add(m);
 				}
 			iter.close();
 			CloserUtil.close(iter);
 			CloserUtil.close(sfr);
 			progress.finish();
+			LOG.info("Done reading. "+n_spilled+" read(s) were written in temporary files.");
 			
-			fastqCollection.doneAdding();
-			LOG.info("Done reading.");
-			
-			if(found_paired) 
+			if(n_spilled==0L)
 				{
-				FastqWriter fqw1=null;
-				FastqWriter fqw2=null;
-				if(forwardFile!=null)
-					{
-					LOG.info("Writing to "+forwardFile);
-					fqw1=new BasicFastqWriter(forwardFile);
-					}
-				else
-					{
-					LOG.info("Writing to stdout");
-					fqw1=new BasicFastqWriter(new PrintStream(stdout()));
-					}
-				if(reverseFile!=null)
-					{
-					LOG.info("Writing to "+reverseFile);
-					fqw2=new BasicFastqWriter(reverseFile);
-					}
-				else
+				/* everything is in memory */
+				for(final MappedFastq m:pending.values())
 					{
-					LOG.info("Writing to interlaced stdout");
-					fqw2=fqw1;
-					}
-				List<MappedFastq> row=new ArrayList<MappedFastq>();
-				CloseableIterator<MappedFastq> r=fastqCollection.iterator();
-				for(;;)
-					{
-					MappedFastq curr=null;
-					if(r.hasNext()) curr=r.next();
-					if(curr==null || (!row.isEmpty() && !row.get(0).name.equals(curr.name)))
-						{
-						if(!row.isEmpty())
-							{
-							if(row.size()>2)
-								{
-								LOG.warn("WTF :"+row);
-								}
-							boolean found_F=false;
-							boolean found_R=false;
-							for(MappedFastq m:row)
-								{
-								switch((int)m.side)
-									{
-									case 1:
-										if(found_F) throw new RuntimeException("two forward reads found for "+row.get(0).name);
-										found_F=true;
-										echo(fqw1,m);
-										break;
-									case 2:
-										if(found_R) throw new RuntimeException("two reverse reads found for "+row.get(0).name);
-										found_R=true;
-										echo(fqw2,m);
-										break;
-									default: throw new IllegalStateException("uh???");
-									}
-								
-								}
-							if(!found_F)
-								{
-								if(this.repair_missing_read)
-									{
-									LOG.warn("forward not found for "+row.get(0));
-									MappedFastq pad=new MappedFastq();
-									pad.side=(byte)1;
-									pad.name=row.get(0).name;
-									pad.seq="N";
-									pad.qual="#";
-									echo(fqw1,pad);
-									}
-								else
-									{
-									throw new RuntimeException("forward not found for "+row);
-									}
-								}
-							if(!found_R)
-								{
-								if(repair_missing_read)
-									{
-									LOG.warn("reverse not found for "+row.get(0));
-									MappedFastq pad=new MappedFastq();
-									pad.side=(byte)2;
-									pad.name=row.get(0).name;
-									pad.seq="N";
-									pad.qual="#";
-									echo(fqw2,pad);
-									}
-								else
-									{
-									throw new RuntimeException("reverse not found for "+row);
-									}
-								}
-							}
-						if(curr==null) break;
-						row.clear();
-						}
-					row.add(curr);
+					final MappedFastq[] p = pair(m,repair(m));
+					echo(fqw1,p[0]);
+					echo(fqw2,p[1]);
 					}
-				r.close();
-				fqw1.close();
-				fqw2.close();
+				pending.clear();
 				}
-			else if(found_single) 
+			else
 				{
-				FastqWriter fqw1=null;
-				if(forwardFile!=null)
+				for(final MappedFastq m:pending.values())
 					{
-					LOG.info("Writing to "+forwardFile);
-					fqw1=new BasicFastqWriter(forwardFile);
+					partitions.get(Math.floorMod(m.name.hashCode(), nPartitions)).add(m);
 					}
-				else
+				pending.clear();
+				for(final Partition partition:partitions)
 					{
-					LOG.info("Writing to stdout");
-					fqw1=new BasicFastqWriter(new PrintStream(stdout()));
+					if(partition.out==null) continue;
+					partition.out.close();
+					partition.out=null;
 					}
-			
-				final CloseableIterator<MappedFastq> r=fastqCollection.iterator();
-				while(r.hasNext())
+				final int nJobs = this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads;
+				executor = Executors.newFixedThreadPool(nJobs);
+				/* at most 'nJobs' partitions are in memory at the same time, they are written in order */
+				final List<Future<List<MappedFastq[]>>> running = new ArrayList<>(nJobs);
+				int next=0;
+				while(next < partitions.size() || !running.isEmpty())
 					{
-					echo(fqw1,r.next());
+					while(next < partitions.size() && running.size() < nJobs)
+						{
+						final Partition partition = partitions.get(next);
+						running.add(executor.submit(()->resolvePartition(partition)));
+						next++;
+						}
+					for(final MappedFastq[] p: running.remove(0).get())
+						{
+						echo(fqw1,p[0]);
+						echo(fqw2,p[1]);
+						}
 					}
-				r.close();
-				fqw1.close();
 				}
+			fqw1.close();
+			if(fqw2!=fqw1) fqw2.close();
+			fqw1=null;
+			fqw2=null;
 			return RETURN_OK;
 			}
 		catch(final Exception err)
@@ -488,7 +506,16 @@ public class BamToFastq
 			}
 		finally
 			{
-			if(fastqCollection!=null) fastqCollection.cleanup();
+			if(executor!=null) executor.shutdownNow();
+			CloserUtil.close(sfr);
+			CloserUtil.close(fqw1);
+			if(fqw2!=fqw1) CloserUtil.close(fqw2);
+			for(final Partition partition:partitions)
+				{
+				CloserUtil.close(partition.out);
+				try { Files.deleteIfExists(partition.path);}
+				catch(final IOException err) { LOG.warn(err);}
+				}
 			}
 		}
 	public static void main(final String[] args) {
@@ -32,7 +32,6 @@ import java.util.List;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
-import htsjdk.samtools.fastq.FastqRecord;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -41,8 +40,8 @@ import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.FastqBatch;
+import com.github.lindenb.jvarkit.util.picard.FastqByteReader;
 
 /**
 BEGIN_DOC
@@ -186,15 +185,18 @@ public class FastqEntropy extends Launcher
 	
 	private void convert(InputStream in) throws IOException
 		{
-		FastqReader r=new FourLinesFastqReader(in);
-		while(r.hasNext())
+		final FastqByteReader r=new FastqByteReader(in);
+		final FastqBatch batch=new FastqBatch();
+		while(r.readBatch(batch,FastqByteReader.DEFAULT_BATCH_SIZE))
 			{
-			FastqRecord rec=r.next();
-			BestCompressionOutputStream gzout=new BestCompressionOutputStream();
-			gzout.write(rec.getBaseQualityString().getBytes());
-			gzout.flush();
-			gzout.close();
-			this.length2count.incr(gzout.getByteWrittenCount());
+			for(int i=0;i< batch.size();i++)
+				{
+				BestCompressionOutputStream gzout=new BestCompressionOutputStream();
+				gzout.write(batch.getBuffer(),batch.getQualityStart(i),batch.getQualityLength(i));
+				gzout.flush();
+				gzout.close();
+				this.length2count.incr(gzout.getByteWrittenCount());
+				}
 			}
 		r.close();
 		}
@@ -25,26 +25,37 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.fastq;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import htsjdk.samtools.fastq.BasicFastqWriter;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.fastq.FastqWriter;
-import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
 import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
 
@@ -113,7 +124,7 @@ END_DOC
 @Program(name="fastqshuffle",
 	description="Shuffle Fastq files",
 	keywords="fastq",
-	modificationDate="20191209",
+	modificationDate="20201019",
 	creationDate="20140901"
 	)
 public class FastqShuffle extends Launcher
@@ -133,79 +144,44 @@ public class FastqShuffle extends Launcher
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
 	
-	private Random random = null;
+	@Parameter(names={"--buckets"},description="When the reads don't fit in memory (see --maxRecordsInRam), the reads are scattered at random into this number of compressed temporary files. Each file is then shuffled in memory.")
+	private int n_buckets = 128;
 	
-	private static class OneRead
-		{
-		long random;
-		long index;
-		FastqRecord first;
-		}
-
+	@Parameter(names={"-j","--jobs"},description="number of buckets shuffled in parallel. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
 	
-	private static class TwoReads extends OneRead
-		{
-		FastqRecord second;
-		}
+	private Random random = null;
 	
-	private static class OneReadCodec extends AbstractDataCodec<OneRead>
+	/** a temporary file holding a random subset of the reads */
+	private static class Bucket
 		{
-		@Override
-		public OneRead decode(final DataInputStream dis) throws IOException
-			{
-			final OneRead r=new OneRead();
-			try {
-				r.random = dis.readLong();
-			} catch (final IOException e) {
-				return null;
-				}
-			r.index = dis.readLong();
-			r.first=readFastqRecord(dis);
-			return r;
-			}
-		@Override
-		public void encode(final DataOutputStream dos,final OneRead r)
-				throws IOException {
-			dos.writeLong(r.random);
-			dos.writeLong(r.index);
-			writeFastqRecord(dos,r.first);
+		final Path path;
+		DataOutputStream out;
+		long count = 0L;
+		Bucket(final Path path) throws IOException {
+			this.path = path;
+			this.out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(path),new Deflater(Deflater.BEST_SPEED),8192)));
 			}
-		@Override
-		public AbstractDataCodec<OneRead> clone() {
-			return new OneReadCodec();
+		void add(final FastqRecord[] unit) throws IOException {
+			for(FastqRecord rec:unit) writeFastqRecord(this.out,rec);
+			this.count++;
 			}
-		}
-	
-	private static class TwoReadsCodec extends AbstractDataCodec<TwoReads>
-		{
-		@Override
-		public TwoReads decode(final DataInputStream dis) throws IOException
-			{
-			final TwoReads r=new TwoReads();
-			try {
-				r.random = dis.readLong();
-			} catch (final IOException e) {
-				return null;
+		/** load the content of this bucket in memory and shuffle it */
+		List<FastqRecord[]> load(final int unitSize,final Random rnd) throws IOException {
+			if(this.count > Integer.MAX_VALUE - 8) throw new IOException("too many reads in "+this.path+". Increase the number of buckets");
+			final List<FastqRecord[]> L = new ArrayList<>((int)this.count);
+			try(DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(Files.newInputStream(this.path))))) {
+				for(long n=0;n< this.count;n++) {
+					final FastqRecord[] unit = new FastqRecord[unitSize];
+					for(int i=0;i< unitSize;i++) unit[i] = readFastqRecord(in);
+					L.add(unit);
+					}
 				}
-			r.index = dis.readLong();
-			r.first=readFastqRecord(dis);
-			r.second=readFastqRecord(dis);
-			return r;
-			}
-		@Override
-		public void encode(final DataOutputStream dos,final TwoReads r)
-				throws IOException {
-			dos.writeLong(r.random);
-			dos.writeLong(r.index);
-			writeFastqRecord(dos,r.first);
-			writeFastqRecord(dos,r.second);
-			}
-		@Override
-		public AbstractDataCodec<TwoReads> clone() {
-			return new TwoReadsCodec();
+			Files.delete(this.path);
+			Collections.shuffle(L, rnd);
+			return L;
 			}
 		}
-
 	
 	private static FastqRecord readFastqRecord(final DataInputStream dis)  throws IOException
 		{
@@ -234,107 +210,127 @@ public class FastqShuffle extends Launcher
 		{
 		}
 	
+	private static void write(final FastqWriter w,final List<FastqRecord[]> L) {
+		for(final FastqRecord[] unit:L) {
+			for(final FastqRecord rec:unit) w.write(rec);
+			}
+		}
 	
-	private void runPaired(final FastqReader r1, final FastqReader r2,final FastqWriter w1) throws IOException
+	/**
+	 * shuffle the units (single read or pair of reads) returned by 'reader'.
+	 * If the units fit in memory, they are shuffled in memory. Otherwise, they are
+	 * scattered into random buckets, each bucket is then shuffled in memory and the buckets
+	 * are concatenated. All the random numbers are drawn from this.random so the output only
+	 * depends on the seed.
+	 */
+	private void shuffle(final Callable<FastqRecord[]> reader,final int unitSize, final FastqWriter w) throws Exception
 		{
-		long nReads=0;
-		final SortingCollection<TwoReads> sorting= SortingCollection.newInstance(
-				TwoReads.class,
-				new TwoReadsCodec(),
-				(A,B)->{
-					final int i  = Long.compare(A.random, B.random);
-					if(i!=0) return i;
-					return Long.compare(A.index, B.random);
-				},
-				this.writingSortingCollection.getMaxRecordsInRam(),
-				this.writingSortingCollection.getTmpPaths()
-				);
-		sorting.setDestructiveIteration(true);
-		while(r1.hasNext())
-			{
-			final TwoReads p=new TwoReads();
-			p.random=this.random.nextLong();
-			p.index=nReads;
-			p.first=r1.next();
-			if(r2!=null)
-				{
-				if(!r2.hasNext())  throw new IOException("fastq.paired.read.missing");
-				p.second=r2.next();
+		final int maxRecordsInRam = Math.max(1,this.writingSortingCollection.getMaxRecordsInRam()/unitSize);
+		final List<FastqRecord[]> buffer = new ArrayList<>();
+		long nReads=0L;
+		FastqRecord[] unit = null;
+		while(buffer.size() < maxRecordsInRam && (unit=reader.call())!=null) {
+			buffer.add(unit);
+			nReads++;
+			}
+		if(unit==null) {
+			LOG.info("shuffling "+nReads+" reads in memory");
+			Collections.shuffle(buffer, this.random);
+			write(w,buffer);
+			return;
+			}
+		final int nBuckets = Math.max(2, this.n_buckets);
+		final Path[] tmpDirs = this.writingSortingCollection.getTmpPaths();
+		final Path tmpDir = tmpDirs==null || tmpDirs.length==0 ?
+				IOUtils.getDefaultTempDir():
+				tmpDirs[0];
+		final List<Bucket> buckets = new ArrayList<>(nBuckets);
+		ExecutorService executor = null;
+		try {
+			for(int i=0;i< nBuckets;i++) {
+				buckets.add(new Bucket(Files.createTempFile(tmpDir, "shuffle.", ".tmp")));
 				}
-			else
-				{
-				if(!r1.hasNext())  throw new IOException("fastq.paired.read.missing");
-				p.second=r1.next();
+			for(final FastqRecord[] u: buffer) {
+				buckets.get(this.random.nextInt(nBuckets)).add(u);
+				}
+			buffer.clear();
+			while((unit=reader.call())!=null) {
+				buckets.get(this.random.nextInt(nBuckets)).add(unit);
+				if((++nReads)%1_000_000==0)
+					{
+					LOG.info("Read "+nReads+" reads");
+					}
 				}
+			for(final Bucket b:buckets) {
+				b.out.close();
+				b.out = null;
+				}
+			LOG.info("shuffling "+nReads+" reads in "+nBuckets+" buckets");
+			/* one seed per bucket, so the result doesn't depend on the number of threads */
+			final long[] seeds = new long[nBuckets];
+			for(int i=0;i< nBuckets;i++) seeds[i] = this.random.nextLong();
 			
-			if((++nReads)%this.writingSortingCollection.getMaxRecordsInRam()==0)
+			final int nJobs = this.nThreads < 1 ? Runtime.getRuntime().availableProcessors() : this.nThreads;
+			if(nJobs==1) {
+				for(int i=0;i< nBuckets;i++) {
+					write(w,buckets.get(i).load(unitSize, new Random(seeds[i])));
+					}
+				}
+			else
 				{
-				LOG.info("Read "+nReads+" reads");
+				executor = Executors.newFixedThreadPool(nJobs);
+				/* at most 'nJobs' buckets are loaded at the same time, and they are written in order */
+				final List<Future<List<FastqRecord[]>>> pending = new ArrayList<>(nJobs);
+				int next=0;
+				while(next < nBuckets || !pending.isEmpty()) {
+					while(next < nBuckets && pending.size() < nJobs) {
+						final Bucket bucket = buckets.get(next);
+						final Random rnd = new Random(seeds[next]);
+						pending.add(executor.submit(()->bucket.load(unitSize, rnd)));
+						next++;
+						}
+					write(w,pending.remove(0).get());
+					}
 				}
-
-			
-			sorting.add(p);
 			}
-		if(r2!=null && r2.hasNext()) throw new IOException("fastq.paired.read.missing");
-		sorting.doneAdding();
-		final  CloseableIterator<TwoReads> iter=sorting.iterator();
-		
-		while(iter.hasNext())
+		finally
 			{
-			final TwoReads p=iter.next();
-			w1.write(p.first);
-			w1.write(p.second);
+			if(executor!=null) executor.shutdownNow();
+			for(final Bucket b:buckets) {
+				CloserUtil.close(b.out);
+				Files.deleteIfExists(b.path);
+				}
 			}
-		
-	
-		CloserUtil.close(iter);
-		sorting.cleanup();
 		}
 	
-
-	
-	private void runSingle(final FastqReader r1,final FastqWriter w1) throws IOException
+	private void runPaired(final FastqReader r1, final FastqReader r2,final FastqWriter w1) throws Exception
 		{
-		long nReads=0;
-		final  SortingCollection<OneRead> sorting= SortingCollection.newInstance(
-				OneRead.class,
-				new OneReadCodec(),
-				(A,B)->{
-					final int i  = Long.compare(A.random, B.random);
-					if(i!=0) return i;
-					return Long.compare(A.index, B.random);
-					},
-				this.writingSortingCollection.getMaxRecordsInRam(),
-				this.writingSortingCollection.getTmpPaths()
-				);
-		sorting.setDestructiveIteration(true);
-		while(r1.hasNext())
-			{
-			final OneRead r=new OneRead();
-			r.random=this.random.nextLong();
-			r.index=nReads;
-			r.first=r1.next();
-			
-			if((++nReads)%this.writingSortingCollection.getMaxRecordsInRam()==0)
+		shuffle(()->{
+			if(!r1.hasNext()) {
+				if(r2!=null && r2.hasNext()) throw new IOException("fastq.paired.read.missing");
+				return null;
+				}
+			final FastqRecord[] pair = new FastqRecord[2];
+			pair[0] = r1.next();
+			if(r2!=null)
+				{
+				if(!r2.hasNext())  throw new IOException("fastq.paired.read.missing");
+				pair[1]=r2.next();
+				}
+			else
 				{
-				LOG.info("Read "+nReads+" reads");
+				if(!r1.hasNext())  throw new IOException("fastq.paired.read.missing");
+				pair[1]=r1.next();
 				}
+			return pair;
+			},2,w1);
+		}
+	
 
-			
-			sorting.add(r);
-			}
-		sorting.doneAdding();
-		
-		final CloseableIterator<OneRead> iter=sorting.iterator();
-		while(iter.hasNext())
-			{
-			final OneRead p=iter.next();
-			w1.write(p.first);
-			}
-		
 	
-		CloserUtil.close(iter);
-		sorting.cleanup();
+	private void runSingle(final FastqReader r1,final FastqWriter w1) throws Exception
+		{
+		shuffle(()->r1.hasNext()?new FastqRecord[] {r1.next()}:null,1,w1);
 		}
 	
 	@Override
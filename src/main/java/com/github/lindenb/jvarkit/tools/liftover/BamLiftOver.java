@@ -49,6 +49,9 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SAMUtils;
 import htsjdk.samtools.util.CloserUtil;
 
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.samtools.liftover.ChainIndex;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 
 
@@ -60,7 +63,8 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 
 @Program(name="bamliftover",
 	description="Lift-over a BAM file.",
-	keywords={"bam","liftover"}
+	keywords={"bam","liftover"},
+	modificationDate="20201019"
 		)
 public class BamLiftOver extends Launcher
 	{
@@ -80,9 +84,98 @@ public class BamLiftOver extends Launcher
 	@Parameter(names={"-D","-R","--reference"},description="indexed REFerence file for the new sequence dictionary. Required")
 	private Path faidx = null;
 
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The reads are lifted by batches and written in the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs =new WritingBamArgs();
 	
+	private ChainIndex liftOver = null;
+	
+	/** lift one read, may be called by several threads */
+	private SAMRecord liftRecord(final SAMRecord rec,final SAMFileHeader headerOut,final SAMSequenceDictionary newDict)
+		{
+		final SAMRecord copy=rec.deepCopy();
+		copy.setHeader(headerOut);
+		final StringBuilder sb=new StringBuilder();
+		if(!rec.getReadUnmappedFlag())
+			{
+			final String chrom=rec.getReferenceName();
+			int pos=rec.getAlignmentStart();
+			final Interval interval=this.liftOver.liftOver(new Interval(chrom, pos,pos,rec.getReadNegativeStrandFlag(),null));
+			if(interval!=null)
+				{
+				sb.append(chrom+":"+pos+":"+(rec.getReadNegativeStrandFlag()?"-":"+"));
+				final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
+				if(ssr==null)
+					{
+					throw new JvarkitException.ContigNotFoundInDictionary(interval.getContig(), newDict);
+					}
+				copy.setReferenceName(ssr.getSequenceName());
+				copy.setReferenceIndex(ssr.getSequenceIndex());
+				copy.setAlignmentStart(interval.getStart());
+				copy.setReadNegativeStrandFlag(interval.isNegativeStrand());
+				if(rec.getReadNegativeStrandFlag()!=copy.getReadNegativeStrandFlag()) {
+					copy.setReadString(AcidNucleics.reverseComplement(rec.getReadString()));
+					
+					byte qual[]= rec.getBaseQualities();
+					byte quals2[]=  new byte[qual.length];
+					for(int i=0;i< qual.length;++i) {
+						quals2[i]=qual[(qual.length-1)-i];
+					}
+					copy.setBaseQualities(quals2);
+					}
+				}
+			else
+				{
+				sb.append(".");
+				SAMUtils.makeReadUnmapped(copy);
+				}
+			}
+		
+		
+		if(rec.getReadPairedFlag() && !rec.getMateUnmappedFlag())
+			{
+			sb.append("/");
+			String chrom=rec.getMateReferenceName();
+			int pos=rec.getMateAlignmentStart();
+			final Interval interval=this.liftOver.liftOver(new Interval(chrom, pos,pos,rec.getMateNegativeStrandFlag(),null));
+			if(interval!=null)
+				{
+				sb.append(chrom+":"+pos+":"+(rec.getMateNegativeStrandFlag()?"-":"+"));
+				final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
+				if(ssr==null)
+					{
+					throw new JvarkitException.ContigNotFoundInDictionary(interval.getContig(), newDict);
+					}
+				copy.setMateReferenceName(ssr.getSequenceName());
+				copy.setMateReferenceIndex(ssr.getSequenceIndex());
+				copy.setMateAlignmentStart(interval.getStart());
+				copy.setMateNegativeStrandFlag(interval.isNegativeStrand());
+				
+				if(!copy.getReadUnmappedFlag() &&
+					copy.getReferenceIndex()==copy.getMateReferenceIndex() 
+					// && copy.getReadNegativeStrandFlag()!=copy.getMateNegativeStrandFlag()
+					)
+					{
+					//don't change ?
+					}
+				else
+					{
+					copy.setProperPairFlag(false);
+					copy.setInferredInsertSize(0);
+					}
+				}
+			else
+				{
+				sb.append(".");
+				SAMUtils.makeReadUnmapped(copy);
+				}
+			}
+		if(sb.length()>0) copy.setAttribute("LO", sb.toString());
+		return copy;
+	}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		final double minMatch=(this.userMinMatch<=0.0?LiftOver.DEFAULT_LIFTOVER_MINMATCH:this.userMinMatch);
@@ -102,8 +195,8 @@ public class BamLiftOver extends Launcher
 		try
 			{
 			LOG.info("Reading "+liftOverFile);
-			LiftOver liftOver=new LiftOver(liftOverFile);
-			liftOver.setLiftOverMinMatch(minMatch);
+			this.liftOver=ChainIndex.load(this.liftOverFile.toPath());
+			this.liftOver.setLiftOverMinMatch(minMatch);
 
 			
 			final SAMSequenceDictionary newDict=SAMSequenceDictionaryExtractor.extractDictionary(faidx);
@@ -119,95 +212,18 @@ public class BamLiftOver extends Launcher
 			sfw = this.writingBamArgs.openSamWriter(outputFile,headerOut, true);
 			
 			
-			iter=sfr.iterator();
-			while(iter.hasNext())
-				{
-				final SAMRecord rec=iter.next();
-				final SAMRecord copy=(SAMRecord)rec.clone();
-				copy.setHeader(headerOut);
-				final StringBuilder sb=new StringBuilder();
-				if(!rec.getReadUnmappedFlag())
-					{
-					final String chrom=rec.getReferenceName();
-					int pos=rec.getAlignmentStart();
-					final Interval interval=liftOver.liftOver(new Interval(chrom, pos,pos,rec.getReadNegativeStrandFlag(),null));
-					if(interval!=null)
-						{
-						sb.append(chrom+":"+pos+":"+(rec.getReadNegativeStrandFlag()?"-":"+"));
-						final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
-						if(ssr==null)
-							{
-							sfr.close();
-							sfr=null;
-							LOG.error("the chromosome "+interval.getContig()+" is undefined in the sequence dict.");
-							return -1;
-							}
-						copy.setReferenceName(ssr.getSequenceName());
-						copy.setReferenceIndex(ssr.getSequenceIndex());
-						copy.setAlignmentStart(interval.getStart());
-						copy.setReadNegativeStrandFlag(interval.isNegativeStrand());
-						if(rec.getReadNegativeStrandFlag()!=copy.getReadNegativeStrandFlag()) {
-							copy.setReadString(AcidNucleics.reverseComplement(rec.getReadString()));
-							
-							byte qual[]= rec.getBaseQualities();
-							byte quals2[]=  new byte[qual.length];
-							for(int i=0;i< qual.length;++i) {
-								quals2[i]=qual[(qual.length-1)-i];
-							}
-							copy.setBaseQualities(quals2);
-							}
-						}
-					else
-						{
-						sb.append(".");
-						SAMUtils.makeReadUnmapped(copy);
-						}
-					}
-				
-				
-				if(rec.getReadPairedFlag() && !rec.getMateUnmappedFlag())
+			final SAMFileWriter final_sfw = sfw;
+			try(OrderedBatchMapper<SAMRecord,SAMRecord> mapper = new OrderedBatchMapper<>(
+					this.nThreads,
+					OrderedBatchMapper.DEFAULT_BATCH_SIZE,
+					()->R->liftRecord(R, headerOut, newDict),
+					(R,C)->final_sfw.addAlignment(C)
+					)) {
+				iter=sfr.iterator();
+				while(iter.hasNext())
 					{
-					sb.append("/");
-					String chrom=rec.getMateReferenceName();
-					int pos=rec.getMateAlignmentStart();
-					final Interval interval=liftOver.liftOver(new Interval(chrom, pos,pos,rec.getMateNegativeStrandFlag(),null));
-					if(interval!=null)
-						{
-						sb.append(chrom+":"+pos+":"+(rec.getMateNegativeStrandFlag()?"-":"+"));
-						final SAMSequenceRecord ssr=newDict.getSequence(interval.getContig());
-						if(ssr==null)
-							{
-							sfr.close();
-							sfr=null;
-							LOG.error("the chromosome "+interval.getContig()+" is undefined in the sequence dict.");
-							return -1;
-							}
-						copy.setMateReferenceName(ssr.getSequenceName());
-						copy.setMateReferenceIndex(ssr.getSequenceIndex());
-						copy.setMateAlignmentStart(interval.getStart());
-						copy.setMateNegativeStrandFlag(interval.isNegativeStrand());
-						
-						if(!copy.getReadUnmappedFlag() &&
-							copy.getReferenceIndex()==copy.getMateReferenceIndex() 
-							// && copy.getReadNegativeStrandFlag()!=copy.getMateNegativeStrandFlag()
-							)
-							{
-							//don't change ?
-							}
-						else
-							{
-							copy.setProperPairFlag(false);
-							copy.setInferredInsertSize(0);
-							}
-						}
-					else
-						{
-						sb.append(".");
-						SAMUtils.makeReadUnmapped(copy);
-						}
+					mapper.accept(iter.next());
 					}
-				if(sb.length()>0) copy.setAttribute("LO", sb.toString());
-				sfw.addAlignment(copy);
 				}
 			return RETURN_OK;
 			}
@@ -32,6 +32,8 @@ import java.nio.file.Path;
 import java.util.List;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
+import com.github.lindenb.jvarkit.samtools.liftover.ChainIndex;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
@@ -47,7 +49,7 @@ import htsjdk.samtools.util.CloserUtil;
 @Program(
 		name="bedliftover",
 		description="Lift-over a VCF file",
-		modificationDate="20190924",
+		modificationDate="20201019",
 		keywords={"bed","liftover"}
 		)
 public class BedLiftOver extends Launcher
@@ -68,39 +70,57 @@ public class BedLiftOver extends Launcher
 	private Path faidx = null;
 	@Parameter(names={"--chainvalid"},description="Ignore LiftOver chain validation")
 	private boolean ignoreLiftOverValidation=false;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The lines are lifted by batches and written in the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
 	
-	private LiftOver liftOver=null;
-
+	private ChainIndex liftOver=null;
+
+	/** result of the liftover of one bed line */
+	private static class BedResult {
+		final String line;
+		/** the lifted line or null if the liftover failed */
+		String lifted = null;
+		/** true if the line is not a valid bed record */
+		boolean skip = false;
+		BedResult(final String line) {
+			this.line = line;
+			}
+		}
+	
+	/** lift one line, may be called by several threads, each one with its own codec */
+	private BedResult liftLine(final String line,final BedLineCodec bedCodec) {
+		final BedResult result = new BedResult(line);
+		final BedLine bedLine = bedCodec.decode(line);
+		if(bedLine==null) {
+			result.skip = true;
+			return result;
+			}
+		final Interval srcInterval = bedLine.toInterval();
+		final Interval dest=this.liftOver.liftOver(srcInterval);
+		if(dest!=null)
+			{
+			final StringBuilder sb = new StringBuilder();
+			sb.append(dest.getContig());
+			sb.append('\t');
+			sb.append(dest.getStart()-1);
+			sb.append('\t');
+			sb.append(dest.getEnd());
+			for(int i=3;i< bedLine.getColumnCount();++i) { 
+				sb.append('\t');
+				sb.append(bedLine.get(i));
+				}
+			result.lifted = sb.toString();
+			}
+		return result;
+		}
 	
-	private void scan(BufferedReader r,PrintWriter out,PrintWriter failed) throws IOException
+	private void scan(final BufferedReader r,final OrderedBatchMapper<String,BedResult> mapper) throws IOException
 		{
 		String line;
-		final BedLineCodec bedCodec=new BedLineCodec();
 		while((line=r.readLine())!=null)
 			{
-			
 			if(line.startsWith("#") || line.trim().isEmpty()) continue;
-			final BedLine bedLine = bedCodec.decode(line);
-			if(bedLine==null) continue;
-			final Interval srcInterval = bedLine.toInterval();
-			Interval dest=this.liftOver.liftOver(srcInterval);
-			if(dest!=null)
-				{
-				out.print(dest.getContig());
-				out.print('\t');
-				out.print(dest.getStart()-1);
-				out.print('\t');
-				out.print(dest.getEnd());
-				for(int i=3;i< bedLine.getColumnCount();++i) { 
-					out.print('\t');
-					out.print(bedLine.get(i));
-					}
-				out.println();
-				}
-			else if(failed!=null)
-				{
-				failed.println(line);
-				}			
+			mapper.accept(line);
 			}
 		}
 	
@@ -112,13 +132,12 @@ public class BedLiftOver extends Launcher
 			LOG.error("LiftOver file is undefined.");
 			return -1;
 			}
-		this.liftOver=new LiftOver(liftOverFile);
-		this.liftOver.setLiftOverMinMatch(this.userMinMatch);
-		
 		PrintWriter out=null;
 		PrintWriter failed=null;
 		try
 			{
+			this.liftOver=ChainIndex.load(liftOverFile.toPath());
+			this.liftOver.setLiftOverMinMatch(this.userMinMatch);
 			if(!this.ignoreLiftOverValidation) {
 				this.liftOver.validateToSequences(SequenceDictionaryUtils.extractRequired(faidx));
 				}
@@ -129,20 +148,36 @@ public class BedLiftOver extends Launcher
 				{
 				failed= super.openFileOrStdoutAsPrintWriter(failedFile);
 				}
-			if(args.isEmpty())
-				{
-				BufferedReader r= openBufferedReader(null);
-				scan(r,out,failed);
-				CloserUtil.close(r);
-				}
-			else
-				{
-				for(final String filename:args)
+			final PrintWriter final_out = out;
+			final PrintWriter final_failed = failed;
+			try(OrderedBatchMapper<String,BedResult> mapper = new OrderedBatchMapper<>(
+					this.nThreads,
+					OrderedBatchMapper.DEFAULT_BATCH_SIZE,
+					()->{
+						final BedLineCodec bedCodec=new BedLineCodec();
+						return L->liftLine(L, bedCodec);
+						},
+					(L,R)->{
+						if(R.skip) return;
+						if(R.lifted!=null) final_out.println(R.lifted);
+						else if(final_failed!=null) final_failed.println(R.line);
+						}
+					)) {
+				if(args.isEmpty())
 					{
-					BufferedReader r=openBufferedReader(filename);
-					scan(r,out,failed);
+					BufferedReader r= openBufferedReader(null);
+					scan(r,mapper);
 					CloserUtil.close(r);
 					}
+				else
+					{
+					for(final String filename:args)
+						{
+						BufferedReader r=openBufferedReader(filename);
+						scan(r,mapper);
+						CloserUtil.close(r);
+						}
+					}
 				}
 			out.flush();
 			out.close();
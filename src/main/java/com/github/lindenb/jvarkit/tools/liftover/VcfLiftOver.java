@@ -28,9 +28,11 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.liftover;
 
+import java.io.Closeable;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -38,6 +40,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.liftover.LiftOver;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
@@ -59,12 +63,14 @@ import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
+import com.github.lindenb.jvarkit.samtools.liftover.ChainIndex;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
-import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import htsjdk.variant.vcf.VCFIterator;
 import htsjdk.variant.vcf.VCFStandardHeaderLines;
 /**
@@ -124,7 +130,7 @@ END_DOC
 		name="vcfliftover",
 		description="Lift-over a VCF file",
 		keywords={"vcf","liftover"},
-		modificationDate="20190924",
+		modificationDate="20201019",
 		deprecatedMsg="Use picard LiftOverVcf"
 		)
 public class VcfLiftOver extends Launcher
@@ -158,14 +164,192 @@ public class VcfLiftOver extends Launcher
 	private boolean ignoreIndels=false;
 	@Parameter(names={"--info"},description="remove attribute from INFO on the fly")
 	private Set<String> removeInfo=new HashSet<>();
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The variants are lifted by batches and written in the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --jobs, number of variants per batch.")
+	private int batchSize = OrderedBatchMapper.DEFAULT_BATCH_SIZE;
 
-	private LiftOver liftOver=null;
+	private ChainIndex liftOver=null;
 	private ReferenceSequenceFile indexedFastaSequenceFile=null;
 	
+	/** result of the liftover of one variant */
+	private static class LiftResult {
+		VariantContext lifted = null;
+		/** variant failing the liftover, null if there is no 'failed' file */
+		VariantContext failed = null;
+		}
+	
+	/** reads the reference by windows of 1Mb. One instance per thread */
+	private class ReferenceWindow implements Closeable {
+		private static final int WINDOW_SIZE = 1_000_000;
+		private ReferenceSequenceFile reference = null;
+		private String contig = null;
+		/** 0-based position of the first base */
+		private int start = 0;
+		private byte[] bases = new byte[0];
+		
+		/** return the base at the 0-based position or -1 if it is beyond the end of the contig */
+		int baseAt(final String contig,final int pos0) {
+			if(this.reference==null) {
+				this.reference = ReferenceSequenceFileFactory.getReferenceSequenceFile(VcfLiftOver.this.faidx);
+				}
+			if(!contig.equals(this.contig) || pos0 < this.start || pos0 >= this.start + this.bases.length) {
+				final SAMSequenceRecord ssr = this.reference.getSequenceDictionary().getSequence(contig);
+				if(ssr==null || pos0 >= ssr.getSequenceLength()) return -1;
+				this.contig = contig;
+				this.start = pos0;
+				this.bases = this.reference.getSubsequenceAt(contig, pos0+1, Math.min(ssr.getSequenceLength(), pos0 + WINDOW_SIZE)).getBases();
+				}
+			return this.bases[pos0 - this.start];
+			}
+		@Override
+		public void close() {
+			CloserUtil.close(this.reference);
+			this.reference = null;
+			}
+		}
+	
+	private VariantContext failedVariant(final VariantContext ctx,final String reason) {
+		if(this.failedFile==null) return null;
+		return new VariantContextBuilder(ctx).attribute(this.failedinfoTag, reason).make();
+		}
+	
+	/** lift one variant, may be called by several threads */
+	private LiftResult liftVariant(VariantContext ctx,final SAMSequenceDictionary dict,final ReferenceWindow refWindow) {
+		final LiftResult result = new LiftResult();
+		if(!this.removeInfo.isEmpty())
+			{
+			VariantContextBuilder vcb= new VariantContextBuilder(ctx);
+			for(final String tag:this.removeInfo) vcb.rmAttribute(tag);
+			ctx = vcb.make();
+			}
+		
+		if(ctx.isIndel() && this.ignoreIndels)
+			{
+			result.failed = failedVariant(ctx, "Indel");
+			return result;
+			}
+		
+		double minMatch = this.userMinMatch;
+		if(adaptivematch)
+			{
+			double minAlleleLength = Math.min(0,ctx.getAlleles().stream().mapToInt(A->A.length()).min().orElse(0));
+			double maxAlleleLength =Math.max(1,ctx.getAlleles().stream().mapToInt(A->A.length()).max().orElse(1));
+			minMatch = minAlleleLength /maxAlleleLength;
+			}
+		
+		
+		final Interval lifted=liftOver.liftOver(
+				new Interval(ctx.getContig(),ctx.getStart(),ctx.getEnd(),
+				false,//negative strand
+				String.join("|",ctx.getContig(),String.valueOf(ctx.getStart()),ctx.getReference().toString())),
+				minMatch
+				);
+		if(lifted==null )
+			{
+			result.failed = failedVariant(ctx, "LiftOverFailed");
+			return result;
+			}
+		else if(dict.getSequence(lifted.getContig())==null)
+			{
+			result.failed = failedVariant(ctx, "ContigMissingDictionary|"+lifted.getContig());
+			return result;
+			}
+		
+		boolean alleleAreValidatedVsRef=true;
+		//part of the code was copied from picard/liftovervcf
+		final Map<Allele, Allele> reverseComplementAlleleMap = new HashMap<>();
+		final List<Allele> alleles = new ArrayList<Allele>();
+
+        for (final Allele oldAllele : ctx.getAlleles()) {
+        	final Allele fixedAllele;
+        	if( oldAllele.isSymbolic() || oldAllele.isNoCall() || oldAllele.equals(Allele.SPAN_DEL))
+        		{
+        		alleles.add(oldAllele);
+        		continue;
+        		}
+        	else if (lifted.isPositiveStrand()) {
+        		fixedAllele = oldAllele;
+                alleles.add(oldAllele);
+            	}
+            else {
+                fixedAllele = Allele.create(SequenceUtil.reverseComplement(oldAllele.getBaseString()), oldAllele.isReference());
+                alleles.add(fixedAllele);
+                reverseComplementAlleleMap.put(oldAllele, fixedAllele);
+            	}
+            
+            if(this.checkAlleleSequence) {
+            	final String alleleStr = fixedAllele.getBaseString();
+            	int x=0;
+            	while(x<alleleStr.length())
+            		{
+            		final int refChar= refWindow.baseAt(lifted.getContig(), lifted.getStart()-1+x);
+            		if(refChar==-1) break;
+            		if(Character.toLowerCase((char)refChar)!=Character.toLowerCase(alleleStr.charAt(x)))
+            			{
+            			alleleAreValidatedVsRef=false;
+            			break;
+            			}
+            		++x;
+            		}
+            	if(x!=alleleStr.length())
+            		{
+            		alleleAreValidatedVsRef=false;
+            		break;
+            		}
+            	}
+        	}
+        
+        if(!alleleAreValidatedVsRef)
+        	{
+        	result.failed = failedVariant(ctx, "AlleleMismatchRef");
+        	return result;
+        	}
+        
+        if( lifted.getEnd() - lifted.getStart() != ctx.getEnd() - ctx.getStart())
+        	{
+        	result.failed = failedVariant(ctx, "AlleleBadLength|"+lifted.length());
+        	return result;
+        	}
+	
+		final VariantContextBuilder vcb=new VariantContextBuilder(
+				ctx.getSource(),
+				lifted.getContig(),
+				lifted.getStart(),
+				lifted.getEnd(),
+				alleles
+				);
+		vcb.id(ctx.getID());
+		vcb.attributes(ctx.getAttributes());
+		vcb.attribute(this.infoTag,ctx.getContig()+"|"+ctx.getStart()+"|"+ctx.getReference().getDisplayString());
+		vcb.filters(ctx.getFilters());
+		vcb.log10PError(ctx.getLog10PError());
+		if(lifted.getStart()!=lifted.getEnd()) {
+			vcb.attribute(VCFConstants.END_KEY,lifted.getEnd());
+		}
+		  
+		final GenotypesContext genotypeContext = ctx.getGenotypes();
+		final GenotypesContext fixedGenotypes = GenotypesContext.create(genotypeContext.size());
+        for ( final Genotype genotype : genotypeContext ) 
+        	{
+            final List<Allele> fixedAlleles = new ArrayList<Allele>();
+            for ( final Allele allele : genotype.getAlleles() ) {
+                final Allele fixedAllele = reverseComplementAlleleMap.containsKey(allele) ?
+                		reverseComplementAlleleMap.get(allele) : 
+                		allele;
+                fixedAlleles.add(fixedAllele);
+            	}
+            fixedGenotypes.add(new GenotypeBuilder(genotype).alleles(fixedAlleles).make());
+        	}
+        vcb.genotypes(fixedGenotypes);
+        result.lifted = vcb.make();
+        return result;
+		}
+	
 	@Override
 	protected int doVcfToVcf(String inputName, VCFIterator in, VariantContextWriter out) {
 		VariantContextWriter failed=null;
-		GenomicSequence genomicSequence = null;
+		final List<ReferenceWindow> refWindows = Collections.synchronizedList(new ArrayList<>());
 		try {
 			final VCFHeader inputHeader= in.getHeader();
 			
@@ -196,134 +380,25 @@ public class VcfLiftOver extends Launcher
 			header3.addMetaDataLine(new VCFInfoHeaderLine(this.infoTag,1,VCFHeaderLineType.String,"Chromosome|Position before liftOver."));
 			out.writeHeader(header3);
 			final ProgressFactory.Watcher<VariantContext> progress=ProgressFactory.newInstance().dictionary(in.getHeader()).logger(LOG).build();
-			while(in.hasNext())
-				{
-				VariantContext ctx=progress.apply(in.next());
-				if(!this.removeInfo.isEmpty())
+			final SAMSequenceDictionary dict = this.indexedFastaSequenceFile.getSequenceDictionary();
+			final VariantContextWriter final_failed = failed;
+			try(OrderedBatchMapper<VariantContext,LiftResult> mapper = new OrderedBatchMapper<>(
+					this.nThreads,
+					this.batchSize,
+					()->{
+						final ReferenceWindow refWindow = new ReferenceWindow();
+						refWindows.add(refWindow);
+						return V->liftVariant(V, dict, refWindow);
+						},
+					(V,R)->{
+						if(R.lifted!=null) out.add(R.lifted);
+						else if(R.failed!=null && final_failed!=null) final_failed.add(R.failed);
+						}
+					)) {
+				while(in.hasNext())
 					{
-					VariantContextBuilder vcb= new VariantContextBuilder(ctx);
-					for(final String tag:this.removeInfo) vcb.rmAttribute(tag);
-					ctx = vcb.make();
-					}
-				
-				if(ctx.isIndel() && this.ignoreIndels)
-					{
-					if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "Indel").make());
-					continue;
-					}
-				
-				if(adaptivematch)
-					{
-					double minAlleleLength = Math.min(0,ctx.getAlleles().stream().mapToInt(A->A.length()).min().orElse(0));
-					double maxAlleleLength =Math.max(1,ctx.getAlleles().stream().mapToInt(A->A.length()).max().orElse(1));
-					this.liftOver.setLiftOverMinMatch(minAlleleLength /maxAlleleLength);
-					}
-				
-				
-				final Interval lifted=liftOver.liftOver(
-						new Interval(ctx.getContig(),ctx.getStart(),ctx.getEnd(),
-						false,//negative strand
-						String.join("|",ctx.getContig(),String.valueOf(ctx.getStart()),ctx.getReference().toString()))
-						);
-				if(lifted==null )
-					{
-					if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "LiftOverFailed").make());
-					}
-				else if(this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(lifted.getContig())==null)
-					{
-					if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "ContigMissingDictionary|"+lifted.getContig()).make());
-					}
-				else
-					{
-					boolean alleleAreValidatedVsRef=true;
-					//part of the code was copied from picard/liftovervcf
-					final Map<Allele, Allele> reverseComplementAlleleMap = new HashMap<>();
-					final List<Allele> alleles = new ArrayList<Allele>();
-
-	                for (final Allele oldAllele : ctx.getAlleles()) {
-	                	final Allele fixedAllele;
-	                	if( oldAllele.isSymbolic() || oldAllele.isNoCall() || oldAllele.equals(Allele.SPAN_DEL))
-	                		{
-	                		alleles.add(oldAllele);
-	                		continue;
-	                		}
-	                	else if (lifted.isPositiveStrand()) {
-	                		fixedAllele = oldAllele;
-	                        alleles.add(oldAllele);
-	                    	}
-	                    else {
-	                        fixedAllele = Allele.create(SequenceUtil.reverseComplement(oldAllele.getBaseString()), oldAllele.isReference());
-	                        alleles.add(fixedAllele);
-	                        reverseComplementAlleleMap.put(oldAllele, fixedAllele);
-	                    	}
-	                    
-                        if(this.checkAlleleSequence) {
-                        	if(genomicSequence==null || !genomicSequence.getChrom().equals(lifted.getContig())) {
-                        		genomicSequence = new GenomicSequence(this.indexedFastaSequenceFile, lifted.getContig());
-                        		}
-                        	final String alleleStr = fixedAllele.getBaseString();
-                        	int x=0;
-                        	while(x<alleleStr.length() && lifted.getStart()-1+x < genomicSequence.length())
-                        		{
-                        		final char refChar= genomicSequence.charAt(lifted.getStart()-1+x);
-                        		if(Character.toLowerCase(refChar)!=Character.toLowerCase(alleleStr.charAt(x)))
-                        			{
-                        			alleleAreValidatedVsRef=false;
-                        			break;
-                        			}
-                        		++x;
-                        		}
-                        	if(x!=alleleStr.length())
-                        		{
-                        		alleleAreValidatedVsRef=false;
-                        		break;
-                        		}
-                        	}
-	                	}
-	                
-	                if(!alleleAreValidatedVsRef)
-	                	{
-	                	if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "AlleleMismatchRef").make());
-	                	continue;
-	                	}
-	                
-	                if( lifted.getEnd() - lifted.getStart() != ctx.getEnd() - ctx.getStart())
-	                	{
-	                	if(failed!=null) failed.add(new VariantContextBuilder(ctx).attribute(this.failedinfoTag, "AlleleBadLength|"+lifted.length()).make());
-	                	continue;
-	                	}
-				
-					final VariantContextBuilder vcb=new VariantContextBuilder(
-							ctx.getSource(),
-							lifted.getContig(),
-							lifted.getStart(),
-							lifted.getEnd(),
-							alleles
-							);
-					vcb.id(ctx.getID());
-					vcb.attributes(ctx.getAttributes());
-					vcb.attribute(this.infoTag,ctx.getContig()+"|"+ctx.getStart()+"|"+ctx.getReference().getDisplayString());
-					vcb.filters(ctx.getFilters());
-					vcb.log10PError(ctx.getLog10PError());
-					if(lifted.getStart()!=lifted.getEnd()) {
-						vcb.attribute(VCFConstants.END_KEY,lifted.getEnd());
-					}
-					  
-					final GenotypesContext genotypeContext = ctx.getGenotypes();
-					final GenotypesContext fixedGenotypes = GenotypesContext.create(genotypeContext.size());
-			        for ( final Genotype genotype : genotypeContext ) 
-			        	{
-			            final List<Allele> fixedAlleles = new ArrayList<Allele>();
-			            for ( final Allele allele : genotype.getAlleles() ) {
-			                final Allele fixedAllele = reverseComplementAlleleMap.containsKey(allele) ?
-			                		reverseComplementAlleleMap.get(allele) : 
-			                		allele;
-			                fixedAlleles.add(fixedAllele);
-			            	}
-			            fixedGenotypes.add(new GenotypeBuilder(genotype).alleles(fixedAlleles).make());
-			        	}
-			        vcb.genotypes(fixedGenotypes);
-				    out.add(vcb.make());
+					/* genotypes must be decoded in this thread, the codec is not thread-safe */
+					mapper.accept(VCFUtils.decodeGenotypes(progress.apply(in.next())));
 					}
 				}
 			progress.close();
@@ -341,6 +416,7 @@ public class VcfLiftOver extends Launcher
 		finally
 			{
 			CloserUtil.close(failed);	
+			refWindows.forEach(W->W.close());
 			}
 		}
 	
@@ -360,7 +436,7 @@ public class VcfLiftOver extends Launcher
 		
 		try {
 			this.indexedFastaSequenceFile = ReferenceSequenceFileFactory.getReferenceSequenceFile(this.faidx);
-			this.liftOver=new LiftOver(this.liftOverFile);
+			this.liftOver=ChainIndex.load(this.liftOverFile.toPath());
 			this.liftOver.setLiftOverMinMatch(this.userMinMatch);
 			if(!this.ignoreLiftOverValidation) {
 				this.liftOver.validateToSequences(this.indexedFastaSequenceFile.getSequenceDictionary());
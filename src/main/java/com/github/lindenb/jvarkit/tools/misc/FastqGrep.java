@@ -26,10 +26,8 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import htsjdk.samtools.fastq.BasicFastqWriter;
@@ -41,6 +39,7 @@ import htsjdk.samtools.util.CloserUtil;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.ReadNameSet;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -69,8 +68,10 @@ public class FastqGrep
 	private int n_before_remove=-1;
 	@Parameter(names="-V",description="invert)")
 	private boolean inverse=false;
+	@Parameter(names="--off-heap",description="store the read names outside the java heap (large lists of names).")
+	private boolean offHeap=false;
 	
-	private Map<String,Integer> readNames=new HashMap<String,Integer>(); 
+	private ReadNameSet readNames=null;
 
 	
 	
@@ -104,8 +105,7 @@ public class FastqGrep
 			FastqRecord fastq=r.next();
 			boolean keep=false;
 			String readName=getReadName(fastq);
-			Integer count=readNames.get(readName);
-			if(count!=null)
+			if(readNames.contains(readName))
 				{
 				keep=true;
 				}
@@ -118,16 +118,11 @@ public class FastqGrep
 			
 			if(n_before_remove!=-1 && !inverse && keep)
 				{
-				count++;
-				if(count>=n_before_remove)
+				if(readNames.incrementAndGet(readName)>=n_before_remove)
 					{
 					readNames.remove(readName);
 					if(readNames.isEmpty()) break;
 					}
-				else
-					{
-					readNames.put(readName,count);
-					}
 				}
 			
 			
@@ -141,6 +136,7 @@ public class FastqGrep
 		FastqWriter out=null;
 		try 
 			{
+			this.readNames = new ReadNameSet(this.offHeap);
 			if(this.readNameFile!=null)
 				{
 				in=IOUtils.openFileForBufferedReading(this.readNameFile);
@@ -149,14 +145,14 @@ public class FastqGrep
 		    		{
 		    		line=line.trim();
 		    		if(line.isEmpty()) continue;
-		    		this.readNames.put(getReadName(line),0);
+		    		this.readNames.add(getReadName(line));
 		    		}
 		    	in.close();
 				}
 			
 			for(final String r: this.readNamesInput)
 				{	
-				this.readNames.put(getReadName(r),0);
+				this.readNames.add(getReadName(r));
 				}
 			
 			if(readNames.isEmpty())
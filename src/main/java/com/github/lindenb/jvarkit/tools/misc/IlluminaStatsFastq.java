@@ -91,22 +91,24 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import htsjdk.samtools.fastq.FastqRecord;
-import htsjdk.samtools.ValidationStringency;
-import htsjdk.samtools.SAMUtils;
+import htsjdk.samtools.util.StringUtil;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.ArchiveFactory;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.math.stats.SpaceSaving;
 import com.github.lindenb.jvarkit.util.illumina.FastQName;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.FastqReader;
-import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.picard.FastqBatch;
+import com.github.lindenb.jvarkit.util.picard.FastqByteReader;
 @Program(name="ilmnfastqstats",description="Reads filenames from stdin: Count FASTQs in Illumina Result.")
 public class IlluminaStatsFastq
 	extends Launcher
@@ -114,16 +116,159 @@ public class IlluminaStatsFastq
 	private static final Logger LOG = Logger.build(IlluminaStatsFastq.class).make();
 	@Parameter(names={"-o","--output"},description="Output zip file.")
 	private File outputFile = null;
-	@Parameter(names={"-X"},description="maximum number of DNA indexes to print. memory consuming if not 0. ")
+	@Parameter(names={"-X"},description="maximum number of DNA indexes to print.")
 	private int COUNT_INDEX=0;
 
-	private static class Bases
+	@Parameter(names={"--sketch-size"},description="Max number of distinct DNA indexes kept in memory with -X. The most frequent indexes are tracked with a Space-Saving sketch, so the memory doesn't grow with the number of distinct indexes. A value lower than 1 means 100 times -X.")
+	private int sketchSize=-1;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The FASTQs are processed in parallel and, if there are less FASTQs than threads, the batches of reads of a FASTQ are shared between the threads. A value lower than 1 means use all procs available.")
+	private int nThreads=1;
+	@Parameter(names={"--batch-size"},description="Number of reads per batch given to a thread.")
+	private int batchSize=FastqByteReader.DEFAULT_BATCH_SIZE;
+
+	private static final int QUALITY_STEP=5;
+	/** columns in FastqStats.pos2bases */
+	private static final int BASE_A=0,BASE_T=1,BASE_G=2,BASE_C=3,BASE_N=4,N_BASES=5;
+	
+	/** statistics for one FASTQ. Each thread fills its own instance, the instances are then merged */
+	private static class FastqStats
 		{
-		long A=0L;
-		long T=0L;
-		long G=0L;
-		long C=0L;
-		long N=0L;
+		long nReads=0L;
+		double sum_qualities=0L;
+		long count_bases=0L;
+		long count_read_fails_filter=0L;
+		long count_read_doesnt_fail_filter=0L;
+		long[] qualityHistogram=new long[20];
+		long[] pos2quality=new long[300];
+		long[] pos2count=new long[300];
+		long[] pos2bases=new long[300*N_BASES];
+		long[] lengths=new long[300];
+		final SpaceSaving<String> dnaIndexes;
+		
+		FastqStats(final int sketchSize)
+			{
+			this.dnaIndexes = sketchSize>0?new SpaceSaving<>(sketchSize):null;
+			}
+		
+		private static long[] ensure(final long[] array,final int n)
+			{
+			if(n<=array.length) return array;
+			return Arrays.copyOf(array, Math.max(n, array.length*2));
+			}
+		
+		private static boolean contains(final byte[] buf,int start,final int end,final byte c1,final byte c2,final byte c3)
+			{
+			for(;start+2<end;start++)
+				{
+				if(buf[start]==c1 && buf[start+1]==c2 && buf[start+2]==c3) return true;
+				}
+			return false;
+			}
+		
+		/** the DNA index after the last colon of the read name, or null */
+		private static String dnaIndex(final byte[] buf,final int start,int end)
+			{
+			int colon=end-1;
+			while(colon>=start && buf[colon]!=':') colon--;
+			if(colon<start) return null;
+			int beg=colon+1;
+			while(beg<end && Character.isWhitespace(buf[beg])) beg++;
+			while(end>beg && Character.isWhitespace(buf[end-1])) end--;
+			final int len=end-beg;
+			if(len<4 || len>8) return null;
+			final char[] array=new char[len];
+			for(int i=0;i< len;i++)
+				{
+				final char c=Character.toUpperCase((char)buf[beg+i]);
+				switch(c)
+					{
+					case 'A':case 'C':case 'G':case 'T':case 'N': array[i]=c;break;
+					default: return null;
+					}
+				}
+			return new String(array);
+			}
+		
+		void accept(final FastqBatch batch,final int idx)
+			{
+			final byte[] buf=batch.getBuffer();
+			++nReads;
+			final int nameStart=batch.getNameStart(idx);
+			final int nameEnd=nameStart+batch.getNameLength(idx);
+			if(contains(buf,nameStart,nameEnd,(byte)':',(byte)'Y',(byte)':'))
+				{
+				count_read_fails_filter++;
+				return;
+				}
+			else if(contains(buf,nameStart,nameEnd,(byte)':',(byte)'N',(byte)':'))
+				{
+				count_read_doesnt_fail_filter++;
+				}
+			
+			if(this.dnaIndexes!=null)
+				{
+				final String dnaIndex=dnaIndex(buf,nameStart,nameEnd);
+				if(dnaIndex!=null) this.dnaIndexes.add(dnaIndex);
+				}
+			
+			final int len=batch.getSequenceLength(idx);
+			this.pos2quality=ensure(this.pos2quality,len);
+			this.pos2count=ensure(this.pos2count,len);
+			this.pos2bases=ensure(this.pos2bases,len*N_BASES);
+			this.lengths=ensure(this.lengths,len+1);
+			
+			final int qualStart=batch.getQualityStart(idx);
+			for(int i=0;i< len ;++i)
+				{
+				final int phred=Math.max(0,buf[qualStart+i]-33);
+				sum_qualities+=phred;
+				count_bases++;
+				final int step=phred/QUALITY_STEP;
+				this.qualityHistogram=ensure(this.qualityHistogram,step+1);
+				this.qualityHistogram[step]++;
+				this.pos2quality[i]+=phred;
+				this.pos2count[i]++;
+				}
+			/* get base usage */
+			final int seqStart=batch.getSequenceStart(idx);
+			for(int i=0;i< len ;++i)
+				{
+				final int col;
+				switch(buf[seqStart+i])
+					{
+					case 'A': case 'a':col=BASE_A;break;
+					case 'T': case 't':col=BASE_T;break;
+					case 'G': case 'g':col=BASE_G;break;
+					case 'C': case 'c':col=BASE_C;break;
+					default: col=BASE_N;break;
+					}
+				this.pos2bases[i*N_BASES+col]++;
+				}
+			this.lengths[len]++;
+			}
+		
+		private static long[] add(long[] a,final long[] b)
+			{
+			a=ensure(a,b.length);
+			for(int i=0;i< b.length;i++) a[i]+=b[i];
+			return a;
+			}
+		
+		FastqStats merge(final FastqStats o)
+			{
+			this.nReads+=o.nReads;
+			this.sum_qualities+=o.sum_qualities;
+			this.count_bases+=o.count_bases;
+			this.count_read_fails_filter+=o.count_read_fails_filter;
+			this.count_read_doesnt_fail_filter+=o.count_read_doesnt_fail_filter;
+			this.qualityHistogram=add(this.qualityHistogram,o.qualityHistogram);
+			this.pos2quality=add(this.pos2quality,o.pos2quality);
+			this.pos2count=add(this.pos2count,o.pos2count);
+			this.pos2bases=add(this.pos2bases,o.pos2bases);
+			this.lengths=add(this.lengths,o.lengths);
+			if(this.dnaIndexes!=null) this.dnaIndexes.merge(o.dnaIndexes);
+			return this;
+			}
 		}
 	
 	/* archive factory, where to put the results */
@@ -151,46 +296,37 @@ public class IlluminaStatsFastq
 		}
 	
 	
-	private class Analyzer extends Thread
+	
+	private static String md5(final File fastqFile)
 		{
-		private File fastqFile;
-	    private final Pattern DNARegex=Pattern.compile("[ATGCatcNn]{4,8}");
-	    private String hash;
-	    
-		Analyzer(File fastqFile)
-			{
-			this.fastqFile=fastqFile;
-			 try {
-				 MessageDigest md5=MessageDigest.getInstance("MD5");
-		   		md5.reset();
-		   		md5.update(String.valueOf(fastqFile.getPath()).getBytes());
-		   	
-		        
-		   		hash = new BigInteger(1, md5.digest()).toString(16);
-		        if (hash.length() != 32) {
-		            final String zeros = "00000000000000000000000000000000";
-		            hash= zeros.substring(0, 32 - hash.length()) + hash;
-		        }
-		         } catch (NoSuchAlgorithmException e) {
-		           throw new RuntimeException("MD5 algorithm not found",e);
-		         }
+		try {
+			final MessageDigest md5=MessageDigest.getInstance("MD5");
+			md5.reset();
+			md5.update(String.valueOf(fastqFile.getPath()).getBytes());
+			String hash = new BigInteger(1, md5.digest()).toString(16);
+			if (hash.length() != 32) {
+				final String zeros = "00000000000000000000000000000000";
+				hash= zeros.substring(0, 32 - hash.length()) + hash;
+				}
+			return hash;
 			}
+		catch (final NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 algorithm not found",e);
+			}
+		}
+	
+	/** one FASTQ being analyzed by one or more threads */
+	private class Analyzer
+		{
+		private final File fastqFile;
+		private final String hash;
+		private FastqByteReader reader = null;
+		private final List<Future<FastqStats>> tasks = new ArrayList<>();
 		
-		
-			
-		
-   
-		
-		@Override
-		public void run()
+		Analyzer(final File fastqFile)
 			{
-			try {
-				analyze(this.fastqFile);
-				}
-			catch (Exception e) {
-				LOG.error(e);
-				}
-		
+			this.fastqFile=fastqFile;
+			this.hash = md5(fastqFile);
 			}
 		
 		IlluminaStatsFastq owner()
@@ -198,195 +334,135 @@ public class IlluminaStatsFastq
 			return IlluminaStatsFastq.this;
 			}
 		
-		private void analyze(File f) throws IOException
+		/** submit 'nTasks' tasks sharing the batches of reads of this FASTQ */
+		void submit(final ExecutorService executor,final int nTasks) throws IOException
 			{
-			if(f==null) return;
-			if(!(f.getName().endsWith(".fastq.gz") && f.isFile())) return;
-			if(!f.canRead())
+			this.reader = new FastqByteReader(this.fastqFile.toPath());
+			for(int i=0;i< nTasks;i++)
 				{
-				synchronized (IlluminaStatsFastq.class)
-					{
-					tsv(owner().wbadfastq,f.getPath(),"Cannot read");
-					}
-				return;
-				}
-				
-				final int QUALITY_STEP=5;
-				
-				
-				
-				LOG.info(f.toString());
-				FastQName fq=FastQName.parse(f);
-				
-				Counter<Integer> qualityHistogram=new Counter<Integer>();
-				Counter<Integer> pos2quality=new Counter<Integer>();
-				List<Bases> pos2bases=new ArrayList<Bases>(300);
-				Counter<Integer> lengths=new Counter<Integer>();
-				Counter<Integer> pos2count=new Counter<Integer>();
-				Counter<String> dnaIndexes=new Counter<String>();
-				long nReads=0L;
-				double sum_qualities=0L;
-				long count_bases=0L;
-				long count_read_fails_filter=0L;
-				long count_read_doesnt_fail_filter=0L;
-				FastqReader r=null;
-				try
-					{
-					r=new FourLinesFastqReader(f);
-					r.setValidationStringency(ValidationStringency.LENIENT);
-					while(r.hasNext())
+				this.tasks.add(executor.submit(()->{
+					final FastqStats stats=new FastqStats(owner().sketchSize);
+					final FastqBatch batch=new FastqBatch();
+					while(this.reader.readBatch(batch, owner().batchSize))
 						{
-						FastqRecord record=r.next();
-						++nReads;
-						if(record.getReadName().contains(":Y:"))
+						for(int j=0;j< batch.size();j++)
 							{
-							count_read_fails_filter++;
-							continue;
+							stats.accept(batch,j);
 							}
-						else if(record.getReadName().contains(":N:"))
-							{
-							count_read_doesnt_fail_filter++;
-							}
-						
-						if(owner().COUNT_INDEX>0)
-							{
-							//index
-							int last_colon=record.getReadName().lastIndexOf(':');
-							if(last_colon!=-1 && last_colon+1< record.getReadName().length())
-								{
-								String dnaIndex=record.getReadName().substring(last_colon+1).trim().toUpperCase();
-								if(this.DNARegex.matcher(dnaIndex).matches())
-									{
-									dnaIndexes.incr(dnaIndex);
-									}
-								}
-							}
-						
-						byte phred[]=SAMUtils.fastqToPhred(record.getBaseQualityString());
-						
-						for(int i=0;i< phred.length ;++i)
-							{
-							sum_qualities+=phred[i];
-							count_bases++;
-							
-							qualityHistogram.incr(phred[i]/QUALITY_STEP);
-							pos2quality.incr(i,phred[i]);
-							pos2count.incr(i);
-							}
-						/* get base usage */
-						while(pos2bases.size() <record.getReadString().length())
-							{
-							pos2bases.add(new Bases());
-							}
-						for(int i=0;i< record.getReadString().length() ;++i)
-							{
-							Bases bases=pos2bases.get(i);
-							switch(record.getReadString().charAt(i))
-								{
-								case 'A': case 'a':bases.A++;break;
-								case 'T': case 't':bases.T++;break;
-								case 'G': case 'g':bases.G++;break;
-								case 'C': case 'c':bases.C++;break;
-								default: bases.N++;break;
-								}
-							}
-						lengths.incr(record.getBaseQualityString().length());
 						}
-					}
-				catch(Exception err2)
-					{
-					LOG.error(err2);
-					err2.printStackTrace();
-					synchronized (IlluminaStatsFastq.class)
-						{
-						tsv(owner().wbadfastq,f.getPath(),this.hash,err2.getMessage());
-						}
-					
-					return;
-					}	
-				finally
+					return stats;
+					}));
+				}
+			}
+		
+		/** wait for the tasks, merge their results and write the report */
+		void finish()
+			{
+			final File f=this.fastqFile;
+			LOG.info(f.toString());
+			final FastqStats stats;
+			try
+				{
+				FastqStats merged = null;
+				for(final Future<FastqStats> task:this.tasks)
 					{
-					if(r!=null) r.close();
-					r=null;
+					final FastqStats other = task.get();
+					merged = (merged==null?other:merged.merge(other));
 					}
-				
-				synchronized (IlluminaStatsFastq.class)
-					{
-					if(fq.isValid())
-						{
-						tsv(owner().wnames,
-							f.getPath(),
-							f.getParentFile(),
-							f.getName(),
-							this.hash,
-							(fq.isUndetermined()?"Undetermined":fq.getSample()),
-							fq.getSeqIndex(),
-							fq.getLane(),
-							fq.getSide(),
-							fq.getSplit(),
-							fq.getFile().length()
-							);
-						}
-					else
-						{
-						tsv(owner().wbadfastq,f.getPath(),this.hash);
-						}
-					
-					tsv(owner().wcount,
+				stats=merged;
+				}
+			catch(final Exception err2)
+				{
+				LOG.error(err2);
+				tsv(owner().wbadfastq,f.getPath(),this.hash,err2.getMessage());
+				return;
+				}
+			finally
+				{
+				if(this.reader!=null) this.reader.close();
+				this.reader=null;
+				}
+			final FastQName fq=FastQName.parse(f);
+			if(fq.isValid())
+				{
+				tsv(owner().wnames,
+					f.getPath(),
+					f.getParentFile(),
+					f.getName(),
+					this.hash,
+					(fq.isUndetermined()?"Undetermined":fq.getSample()),
+					fq.getSeqIndex(),
+					fq.getLane(),
+					fq.getSide(),
+					fq.getSplit(),
+					fq.getFile().length()
+					);
+				}
+			else
+				{
+				tsv(owner().wbadfastq,f.getPath(),this.hash);
+				}
+			
+			tsv(owner().wcount,
+				this.hash,
+				stats.nReads,
+				stats.count_read_fails_filter,
+				stats.count_read_doesnt_fail_filter
+				);
+			
+			tsv(owner().wquals,
+				this.hash,
+				stats.sum_qualities/stats.count_bases
+				);
+			for(int step=0;step< stats.qualityHistogram.length;step++)
+				{
+				if(stats.qualityHistogram[step]==0L) continue;
+				tsv(owner().whistquals,
 						this.hash,
-						nReads,
-						count_read_fails_filter,
-						count_read_doesnt_fail_filter
+						step*QUALITY_STEP,
+						stats.qualityHistogram[step]
 						);
-					
-					tsv(owner().wquals,
+				}
+			for(int position=0;position< stats.pos2count.length;position++)
+				{
+				if(stats.pos2count[position]==0L) continue;
+				tsv(owner().wqualperpos,
 						this.hash,
-						sum_qualities/count_bases
+						position+1,
+						stats.pos2quality[position]/(double)stats.pos2count[position],
+						stats.pos2count[position]
 						);
-					for(Integer step:qualityHistogram.keySet())
-						{
-						tsv(owner().whistquals,
-								this.hash,
-								step*QUALITY_STEP,
-								qualityHistogram.count(step)
-								);
-						
-						}
-					for(Integer position:pos2quality.keySet())
-						{
-						tsv(owner().wqualperpos,
-								this.hash,
-								position+1,
-								pos2quality.count(position)/(double)pos2count.count(position),
-								pos2count.count(position)
-								);
-						}
-					
-					for(int i=0;i< pos2bases.size();++i)
-						{
-						Bases b=pos2bases.get(i);
-						tsv(owner().wbases,
-							this.hash,
-							i+1,b.A,b.T,b.G,b.C,b.N
-							);
-						}
-					for(Integer L:lengths.keySet())
-						{
-						tsv(owner().wlength,
-								this.hash,
-								L,
-								lengths.count(L)
-								);
-						}
-					
-					int count_out=0;
-					for(String dna:dnaIndexes.keySetDecreasing())
-						{
-						if(++count_out>owner().COUNT_INDEX) break;
-						tsv(owner().wDNAIndexes,this.hash,dna,dnaIndexes.count(dna));
-						}
+				}
+			
+			for(int i=0;i< stats.pos2count.length && stats.pos2count[i]>0L;++i)
+				{
+				final int x=i*N_BASES;
+				tsv(owner().wbases,
+					this.hash,
+					i+1,
+					stats.pos2bases[x+BASE_A],
+					stats.pos2bases[x+BASE_T],
+					stats.pos2bases[x+BASE_G],
+					stats.pos2bases[x+BASE_C],
+					stats.pos2bases[x+BASE_N]
+					);
+				}
+			for(int L=0;L< stats.lengths.length;L++)
+				{
+				if(stats.lengths[L]==0L) continue;
+				tsv(owner().wlength,
+						this.hash,
+						L,
+						stats.lengths[L]
+						);
+				}
+			if(stats.dnaIndexes!=null)
+				{
+				for(final SpaceSaving.Entry<String> dna:stats.dnaIndexes.getTop(owner().COUNT_INDEX))
+					{
+					tsv(owner().wDNAIndexes,this.hash,dna.getItem(),dna.getCount());
 					}
-				
+				}
 			}
 		}
 
@@ -421,17 +497,58 @@ public class IlluminaStatsFastq
 			this.wDNAIndexes = archiveFactory.openWriter("indexes.tsv");
 			this.wsqlite = archiveFactory.openWriter("sqlite3.sql");
 			
+			if(this.COUNT_INDEX<=0) this.sketchSize=0;
+			else if(this.sketchSize<1) this.sketchSize=Math.max(1000,this.COUNT_INDEX*100);
+			
 			LOG.info("reading from stdin");
-			BufferedReader in=new BufferedReader(new InputStreamReader(System.in));
-			for(;;)
-				{
-				String line=in.readLine();
-				if(line==null) break;
-				final Analyzer a=new Analyzer(new File(line));
-				a.run();
+			final List<File> fastqs=new ArrayList<>();
+			try(BufferedReader in=new BufferedReader(new InputStreamReader(stdin()))) {
+				String line;
+				while((line=in.readLine())!=null)
+					{
+					if(StringUtil.isBlank(line)) continue;
+					final File f=new File(line);
+					if(!(f.getName().endsWith(".fastq.gz") && f.isFile())) continue;
+					if(!f.canRead())
+						{
+						tsv(this.wbadfastq,f.getPath(),"Cannot read");
+						continue;
+						}
+					fastqs.add(f);
+					}
 				}
 			
-			in.close();
+			final int nJobs=this.nThreads<1?Runtime.getRuntime().availableProcessors():this.nThreads;
+			/* if there are less files than threads, a file is shared by several threads */
+			final int tasksPerFile=Math.max(1,(int)Math.ceil(nJobs/(double)Math.max(1,fastqs.size())));
+			final ExecutorService executor=Executors.newFixedThreadPool(nJobs);
+			try {
+				/* submit a few files ahead, the reports are written in the input order */
+				final LinkedList<Analyzer> running=new LinkedList<>();
+				int next=0;
+				while(next< fastqs.size() || !running.isEmpty())
+					{
+					while(next< fastqs.size() && running.size()*tasksPerFile < 2*nJobs)
+						{
+						final Analyzer a=new Analyzer(fastqs.get(next++));
+						try {
+							a.submit(executor,tasksPerFile);
+							}
+						catch(final IOException err)
+							{
+							LOG.error(err);
+							tsv(this.wbadfastq,a.fastqFile.getPath(),a.hash,err.getMessage());
+							continue;
+							}
+						running.add(a);
+						}
+					if(!running.isEmpty()) running.removeFirst().finish();
+					}
+				}
+			finally
+				{
+				executor.shutdownNow();
+				}
 			
 		
 			this.wsqlite.println("create table if not exists wnames ( path TEXT, directory PATH, filename TEXT, md5 TEST,sample TEXT, dnaIndex TEXT, lane INT, side TEXT, split INT, fileSize INT );");
@@ -38,6 +38,7 @@ import java.util.List;
 
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.CustomSeekableStreamFactory;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.StringUtils;
@@ -155,8 +156,8 @@ public class OneThousandBam extends Launcher{
 			throw new RuntimeIOException("Cannot download "+this.url+".bai");
 			}
 		SamReader open() throws IOException {
-			final URL bamUrl = new URL(this.url);
-			final SamInputResource sir = SamInputResource.of(bamUrl);
+			/* use the http client with a cache of blocks, the indexed queries read the same blocks again and again */
+			final SamInputResource sir = SamInputResource.of(seekableStreamFactory.getStreamFor(this.url));
 			sir.index(getBaiCached());
 			return samReaderFactory.open(sir);
 			}
@@ -168,6 +169,7 @@ public class OneThousandBam extends Launcher{
 	private final List<Sample1KG>  samples=  new ArrayList<>();
 	private SAMSequenceDictionary dict=null;
 	private final SamReaderFactory samReaderFactory = super.createSamReaderFactory();
+	private final CustomSeekableStreamFactory seekableStreamFactory = new CustomSeekableStreamFactory();
 	@Override
 	public int doWork(final List<String> args) {
 		SAMFileWriter sfw = null;
@@ -28,10 +28,8 @@ package com.github.lindenb.jvarkit.tools.samgrep;
 
 import java.io.BufferedReader;
 import java.nio.file.Path;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -95,6 +93,7 @@ END_DOC
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.util.ReadNameSet;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -173,17 +172,20 @@ public class SamGrep extends Launcher
 	@Parameter(names={"-V","--invert"},description="invert")
 	private boolean inverse = false;
 	
+	@Parameter(names={"--off-heap"},description="store the read names outside the java heap (large lists of names).")
+	private boolean offHeap = false;
+	
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
 
-	private final Map<String,Integer> readNames=new HashMap<String,Integer>(); 
+	private ReadNameSet readNames = null;
    
     
     @Override
     public int doWork(final List<String> args) {
     	
-    	readNames.clear();
+    	readNames = new ReadNameSet(this.offHeap);
     	
     	if(namefile!=null) {
 	    	BufferedReader in=null;
@@ -192,7 +194,7 @@ public class SamGrep extends Launcher
 				in=IOUtils.openPathForBufferedReading(this.namefile);
 				in.lines().
 						filter(L->!StringUtil.isBlank(L)).
-						forEach(L->readNames.put(L.trim(),0));
+						forEach(L->readNames.add(L.trim()));
 				}
 			catch(Exception err)
 				{
@@ -205,7 +207,7 @@ public class SamGrep extends Launcher
 				}
 	    	}
     	for(final String line: this.nameStrings) {
-    		readNames.put(line,0);
+    		readNames.add(line);
     		}
     	if(readNames.isEmpty())
 			{
@@ -244,8 +246,7 @@ public class SamGrep extends Launcher
 				boolean keep=false;
 				final SAMRecord rec=progress.apply(iter.next());
 				if(samStdout!=null) samStdout.addAlignment(rec);
-				Integer count = readNames.get(rec.getReadName());
-				if(count!=null)
+				if(readNames.contains(rec.getReadName()))
 					{
 					keep=true;
 					}
@@ -257,16 +258,11 @@ public class SamGrep extends Launcher
 				
 				if(n_before_remove!=-1 && !inverse && keep)
 					{
-					count++;
-					if(count>=n_before_remove)
+					if(readNames.incrementAndGet(rec.getReadName())>=n_before_remove)
 						{
 						readNames.remove(rec.getReadName());
 						if(samStdout==null && readNames.isEmpty()) break;
 						}
-					else
-						{
-						readNames.put(rec.getReadName(),count);
-						}
 					}
 				}
 			progress.close();
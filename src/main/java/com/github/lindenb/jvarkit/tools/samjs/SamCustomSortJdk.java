@@ -157,6 +157,8 @@ public class SamCustomSortJdk
 	private String scriptExpr=null;
 	@Parameter(names={"-f","--file"},description="java file. Either option -e or -f is required.")
 	private File scriptFile =null;	
+	@ParametersDelegate
+	private OpenJdkCompiler.CacheArgs jdkCacheArgs = new OpenJdkCompiler.CacheArgs();
 	@Parameter(names={"--nocode"},description=" Don't show the generated code")
 	private boolean hideGeneratedCode=false;
 	@Parameter(names={"--body"},description="user's code is the whole body of the filter class, not just the 'apply' method.")
@@ -320,7 +322,8 @@ public class SamCustomSortJdk
 			final OpenJdkCompiler inMemoryCompiler = OpenJdkCompiler.getInstance();
 			final Class<?> compiledClass = inMemoryCompiler.compileClass(
 					javaClassName,
-					codeWriter.toString()
+					codeWriter.toString(),
+					this.jdkCacheArgs
 					);
 			final Constructor<?> ctor=compiledClass.getDeclaredConstructor(SAMFileHeader.class);
 
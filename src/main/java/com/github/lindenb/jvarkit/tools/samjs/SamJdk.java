@@ -43,6 +43,7 @@ import java.util.function.Function;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
@@ -404,6 +405,8 @@ public class SamJdk
 	
 	private SAMFileWriter failingReadsWriter=null;
 	
+	@ParametersDelegate
+	private OpenJdkCompiler.CacheArgs jdkCacheArgs = new OpenJdkCompiler.CacheArgs();
 	@Parameter(names={"--nocode"},description=" Don't show the generated code")
 	private boolean hideGeneratedCode=false;
 	@Parameter(names={"--body"},description="user's code is the whole body of the filter class, not just the 'apply' method.")
@@ -418,6 +421,13 @@ public class SamJdk
 	private boolean pair_mode=false;
 	@Parameter(names={"-R","--reference"},description="For reading CRAM. " + INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private Path refFaidx =null;
+	@Parameter(names={"--parallel"},description="Number of threads running the user's code. "
+			+ "The user's code MUST be stateless: each thread gets its own instance of the filter, the reads are dispatched in batches "
+			+ "and written in the input order. 'userData' is not shared between the threads. "
+			+ "A value lower than 1 means use all procs available. Default (1) runs the code in the main thread.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="In '--parallel' mode, number of reads (or groups of reads in '--pair' mode) per batch.")
+	private int batchSize = OrderedBatchMapper.DEFAULT_BATCH_SIZE;
 
 	
 	public static abstract class AbstractBaseFilter<T>
@@ -481,6 +491,120 @@ public class SamJdk
 		if(failingReadsWriter!=null) failingReadsWriter.addAlignment(rec);
 		}
 	
+	
+	@SuppressWarnings("unchecked")
+	private static <F> F newFilter(final Constructor<?> ctor,final SAMFileHeader header) {
+		try {
+			return (F)ctor.newInstance(header);
+			}
+		catch(final ReflectiveOperationException err) {
+			throw new RuntimeException(err);
+			}
+		}
+	
+	/** convert the result of the user's code to a collection of reads, or null if it's not a collection */
+	private static Collection<?> asCollection(final Object result) {
+		if(result==null) return null;
+		if(result.getClass().isArray()) return Arrays.asList((Object[])result);
+		if(result instanceof Collection) return ( Collection<?>)result;
+		return null;
+		}
+	
+	/** is the result of the user's code a boolean/number meaning 'accept' */
+	private static boolean isAccept(final Object result) {
+		if(result==null)
+			{
+			return false;
+			}
+		else if(result instanceof Boolean)
+			{
+			return !Boolean.FALSE.equals(result);
+			}
+		else if(result instanceof Number)
+			{
+			return ((Number)result).intValue()==1;
+			}
+		else
+			{
+			LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+			return false;
+			}
+		}
+	
+	private static SAMRecord asSAMRecord(final Object item) {
+		if(item==null) throw new JvarkitException.UserError("item in array is null");
+		if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
+		return SAMRecord.class.cast(item);
+		}
+	
+	/** write the result of the user's code for one read. Returns the number of reads written */
+	private long writeResult(final SAMRecord record,final Object result,final SAMFileWriter sw,final SAMFileHeader header) {
+		long n=0L;
+		final Collection<?> col = asCollection(result);
+		// result is an array of a collection of reads
+		if(col!=null)
+			{
+			// write all of reads
+			for(final Object item:col)
+				{
+				sw.addAlignment(asSAMRecord(item));
+				++n;
+				}
+			}
+		// result is a SAMRecord
+		else if(result!=null && (result instanceof SAMRecord)) {
+			sw.addAlignment(SAMRecord.class.cast(result));
+			++n;
+			}
+		else if(!isAccept(result))
+			{
+			failing(record,header);
+			}
+		else
+			{
+			sw.addAlignment(record);
+			++n;
+			}
+		return n;
+		}
+	
+	/** write the result of the user's code for a list of reads having the same name. Returns the number of reads written */
+	private long writeResult(final List<SAMRecord> buffer,final Object result,final SAMFileWriter sw,final SAMFileHeader header,final long countSoFar) {
+		long n=0L;
+		final Collection<?> col = asCollection(result);
+		// result is an array of a collection of reads
+		if(col!=null)
+			{
+			// write all of reads
+			for(final Object item:col)
+				{
+				sw.addAlignment(asSAMRecord(item));
+				++n;
+				if(this.LIMIT>0L && countSoFar+n>=this.LIMIT) break;
+				}
+			}
+		// result is a SAMRecord
+		else if(result!=null && (result instanceof SAMRecord)) {
+			sw.addAlignment(SAMRecord.class.cast(result));
+			++n;
+			}
+		else if(!isAccept(result))
+			{
+			for(final SAMRecord item :buffer)
+				{
+				failing(item,header);
+				}
+			}
+		else
+			{
+			for(final SAMRecord item :buffer)
+				{
+				sw.addAlignment(item);
+				++n;
+				}
+			}
+		return n;
+		}
 		
 	@Override
 	public int doWork(final List<String> args) {
@@ -578,7 +702,7 @@ public class SamJdk
 				}
 			final OpenJdkCompiler compiler = OpenJdkCompiler.getInstance();
 			
-			final Class<?> compiledClass = compiler.compileClass(javaClassName,codeWriter.toString());
+			final Class<?> compiledClass = compiler.compileClass(javaClassName,codeWriter.toString(),this.jdkCacheArgs);
 			
 			final Constructor<?> ctor=compiledClass.getDeclaredConstructor(SAMFileHeader.class);
 			
@@ -609,17 +733,27 @@ public class SamJdk
 					}
 				}
 			
-			long count=0L;
 	        final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
 	        sw = this.writingBamArgs.setReferencePath(this.refFaidx).openSamWriter(this.outputFile,header, true);
 	        iter = samFileReader.iterator();
-	        
-	        
+	        final SAMFileWriter samWriter = sw;
+	        final long count[]=new long[] {0L};
 	        
 	        if(this.pair_mode)
 	        	{
 	        	SAMRecord prev=null;
-				final AbstractListFilter filter = (AbstractListFilter)ctor.newInstance(header);
+	        	/* in parallel mode, each thread has its own instance of the filter */
+	        	final OrderedBatchMapper<List<SAMRecord>,Object> mapper = (this.nThreads==1?null:
+	        		new OrderedBatchMapper<List<SAMRecord>,Object>(
+	        			this.nThreads,
+	        			this.batchSize,
+	        			()->SamJdk.<AbstractListFilter>newFilter(ctor,header),
+	        			(L,R)->{
+	        				if(this.LIMIT>0L && count[0]>=this.LIMIT) return;
+	        				count[0] += writeResult(L,R,samWriter,header,count[0]);
+	        				}
+	        			));
+				final AbstractListFilter filter = (mapper==null?newFilter(ctor,header):null);
 				final List<SAMRecord> buffer = new ArrayList<>();
 				for(;;) {
 					int numWarnings = 100;
@@ -637,150 +771,50 @@ public class SamJdk
 					if(record==null || (!buffer.isEmpty() && !buffer.get(0).getReadName().equals(record.getReadName())))
 						{
 						if(!buffer.isEmpty()) {
-							final Object result = filter.apply(buffer);
-							
-							// result is an array of a collection of reads
-							if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-								{
-								final  Collection<?> col;
-								if(result.getClass().isArray())
-									{
-									final Object array[]=(Object[])result;
-									col= Arrays.asList(array);
-									}
-								else
-									{
-									col =( Collection<?>)result;
-									}
-								// write all of reads
-								for(final Object item:col)
-									{
-									if(item==null) throw new JvarkitException.UserError("item in array is null");
-									if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-									++count;
-									sw.addAlignment(SAMRecord.class.cast(item));
-									if(this.LIMIT>0L && count>=this.LIMIT) break;
-									}
-								}
-							// result is a SAMRecord
-							else if(result!=null && (result instanceof SAMRecord)) {
-								++count;
-								sw.addAlignment(SAMRecord.class.cast(result));
+							if(mapper!=null) {
+								mapper.accept(new ArrayList<>(buffer));
 								}
 							else
 								{
-								boolean accept=true;
-								if(result==null)
-									{
-									accept=false;
-									}
-								else if(result instanceof Boolean)
-									{
-									if(Boolean.FALSE.equals(result)) accept = false;
-									}
-								else if(result instanceof Number)
-									{
-									if(((Number)result).intValue()!=1) accept = false;
-									}
-								else
-									{
-									LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-									accept = false;
-									}
-								if (!accept)
-									{
-									for(final SAMRecord item :buffer)
-										{
-										failing(item,header);
-										}
-									}
-								else
-									{
-									for(final SAMRecord item :buffer)
-										{
-										++count;
-										sw.addAlignment(item);
-										}
-									}
+								count[0] += writeResult(buffer,filter.apply(buffer),samWriter,header,count[0]);
 								}
 							}// end of if !buffer.isEmpty()
 						if( record==null) break;
 						buffer.clear();
 						} // end flush flush 
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
+					if(this.LIMIT>0L && count[0]>=this.LIMIT) break;
 					buffer.add(record);
 					}// infinite loop
-				
+				if(mapper!=null) mapper.close();
 	        	}
 	        else
 		        {
-				final AbstractFilter filter = (AbstractFilter)ctor.newInstance(header);
+	        	/* in parallel mode, each thread has its own instance of the filter */
+	        	final OrderedBatchMapper<SAMRecord,Object> mapper = (this.nThreads==1?null:
+	        		new OrderedBatchMapper<SAMRecord,Object>(
+	        			this.nThreads,
+	        			this.batchSize,
+	        			()->SamJdk.<AbstractFilter>newFilter(ctor,header),
+	        			(R,O)->{
+	        				if(this.LIMIT>0L && count[0]>=this.LIMIT) return;
+	        				count[0] += writeResult(R,O,samWriter,header);
+	        				}
+	        			));
+				final AbstractFilter filter = (mapper==null?newFilter(ctor,header):null);
 			    
 				while(iter.hasNext())
 					{
 					final SAMRecord record=progress.watch(iter.next());
-					final Object result = filter.apply(record);
-					
-					// result is an array of a collection of reads
-					if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-						{
-						final  Collection<?> col;
-						if(result.getClass().isArray())
-							{
-							final Object array[]=(Object[])result;
-							col= Arrays.asList(array);
-							}
-						else
-							{
-							col =( Collection<?>)result;
-							}
-						// write all of reads
-						for(final Object item:col)
-							{
-							if(item==null) throw new JvarkitException.UserError("item in array is null");
-							if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-							++count;
-							sw.addAlignment(SAMRecord.class.cast(item));
-							}
-						}
-					// result is a SAMRecord
-					else if(result!=null && (result instanceof SAMRecord)) {
-						++count;
-						sw.addAlignment(SAMRecord.class.cast(result));
+					if(mapper!=null) {
+						mapper.accept(record);
 						}
 					else
 						{
-						boolean accept=true;
-						if(result==null)
-							{
-							accept=false;
-							}
-						else if(result instanceof Boolean)
-							{
-							if(Boolean.FALSE.equals(result)) accept = false;
-							}
-						else if(result instanceof Number)
-							{
-							if(((Number)result).intValue()!=1) accept = false;
-							}
-						else
-							{
-							LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-							accept = false;
-							}
-						if (!accept)
-							{
-							failing(record,header);
-							}
-						else
-							{
-							++count;
-							sw.addAlignment(record);
-							}
+						count[0] += writeResult(record,filter.apply(record),samWriter,header);
 						}
-	
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
+					if(this.LIMIT>0L && count[0]>=this.LIMIT) break;
 					}
+				if(mapper!=null) mapper.close();
 		        }
 			sw.close();
 			/* create empty if never called */
@@ -25,7 +25,9 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.sashimi;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.file.Path;
@@ -44,6 +46,7 @@ import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
@@ -56,6 +59,7 @@ import org.w3c.dom.Text;
 
 import com.beust.jcommander.DynamicParameter;
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
 import com.github.lindenb.jvarkit.io.ArchiveFactory;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.io.NullOuputStream;
@@ -65,6 +69,7 @@ import com.github.lindenb.jvarkit.samtools.util.IntervalListProvider;
 import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
+import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.bio.structure.Exon;
@@ -84,6 +89,7 @@ import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.CloserUtil;
@@ -91,6 +97,7 @@ import htsjdk.samtools.util.CoordMath;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.RuntimeIOException;
 
 /**
 BEGIN_DOC
@@ -165,7 +172,7 @@ END_DOC
 @Program(name="plotsashimi",
 description="Print Sashimi plots from Bam",
 keywords={"bam","visualization","svg","rna","exon","rnaseq"},
-modificationDate="20191104",
+modificationDate="20201019",
 creationDate="20191117"
 )
 public class PlotSashimi extends Launcher {
@@ -204,6 +211,10 @@ private Hyperlink hyperlinkType = Hyperlink.empty();
 private SAMRecordPartition partition= SAMRecordPartition.sample;
 @Parameter(names= {"--gzip"},description="Generate gzipped compressed svg files.")
 private boolean compressed_svg=false;
+@Parameter(names={"-j","--jobs"},description="Number of threads used to render the SVG files. A value lower than 1 means use all procs available.")
+private int nThreads = 1;
+@Parameter(names={"--cluster-size"},description="The regions are sorted and the overlapping regions are merged into a cluster: each BAM is read once per cluster. A cluster is not extended beyond this length. "+DistanceParser.OPT_DESCRIPTION,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+private int max_cluster_length = 1_000_000;
 
 @SuppressWarnings("serial")
 @DynamicParameter(names = "--param", description = "Other parameters.",hidden=true)
@@ -212,14 +223,153 @@ public Map<String, String> dynamicParams = new HashMap<String,String>() {{{
 	}}};
 
 private final IntervalTreeMap<Gene> geneMap = new IntervalTreeMap<>();
-private Document document;
-private final DecimalFormat decimalFormater = new DecimalFormat("##.##");
+/* the SVG are rendered in parallel: one DOM document and one formatter per thread */
+private final ThreadLocal<Document> documents = ThreadLocal.withInitial(()->{
+	try {
+		final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setNamespaceAware(true);
+		final DocumentBuilder db = dbf.newDocumentBuilder();
+		return db.newDocument();
+		}
+	catch(final ParserConfigurationException err) {
+		throw new RuntimeException(err);
+		}
+	});
+private final ThreadLocal<DecimalFormat> decimalFormaters = ThreadLocal.withInitial(()->new DecimalFormat("##.##"));
+
+/** a BAM file and its sample name */
+private static class BamInput {
+	final Path path;
+	final String sampleName;
+	BamInput(final Path path,final String sampleName) {
+		this.path = path;
+		this.sampleName = sampleName;
+		}
+	}
+
+/** the reads of one BAM in a cluster of overlapping regions: the BAM is read once per cluster */
+private class ReadCluster {
+	final String contig;
+	final int start;
+	final int end;
+	final int coverage[];
+	/* reads, in the BAM order */
+	int nReads = 0;
+	int readStart[] = new int[1_000];
+	int readEnd[] = new int[1_000];
+	/** gaps of read 'i' are in [gapOffset[i],gapOffset[i+1]) */
+	int gapOffset[] = new int[1_001];
+	int maxReadLength = 0;
+	/* gaps: 'N' or 'D' operators */
+	int nGaps = 0;
+	int gapStart[] = new int[1_000];
+	int gapEnd[] = new int[1_000];
+	
+	ReadCluster(final SamReader samReader,final String contig,final int start,final int end) {
+		this.contig = contig;
+		this.start = start;
+		this.end = end;
+		this.coverage = new int[CoordMath.getLength(start, end)];
+		try(SAMRecordIterator iter=samReader.queryOverlapping(contig, start, end)) {
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				if(rec.getReadUnmappedFlag()) continue;
+				if(rec.getReadFailsVendorQualityCheckFlag()) continue;
+				if(rec.isSecondaryOrSupplementary()) continue;
+				if(rec.getDuplicateReadFlag()) continue;
+				if(rec.getMappingQuality()< min_mapq) continue;
+				final Cigar cigar =rec.getCigar();
+				if(cigar==null || cigar.isEmpty()) continue;
+				if(this.nReads+1 >= this.gapOffset.length) {
+					final int n = this.gapOffset.length*2;
+					this.readStart = Arrays.copyOf(this.readStart, n);
+					this.readEnd = Arrays.copyOf(this.readEnd, n);
+					this.gapOffset = Arrays.copyOf(this.gapOffset, n);
+					}
+				this.readStart[this.nReads] = rec.getAlignmentStart();
+				this.readEnd[this.nReads] = rec.getAlignmentEnd();
+				this.maxReadLength = Math.max(this.maxReadLength, CoordMath.getLength(rec.getAlignmentStart(), rec.getAlignmentEnd()));
+				int ref= rec.getAlignmentStart();
+				for(final CigarElement ce:cigar) {
+					if(ref> end) break;
+					final CigarOperator op = ce.getOperator();
+					
+					if(op.equals(CigarOperator.N) || (use_D_operator && op.equals(CigarOperator.D) ))  {
+						if(this.nGaps == this.gapStart.length) {
+							this.gapStart = Arrays.copyOf(this.gapStart, this.nGaps*2);
+							this.gapEnd = Arrays.copyOf(this.gapEnd, this.nGaps*2);
+							}
+						this.gapStart[this.nGaps] = ref;
+						this.gapEnd[this.nGaps] = ref+ce.getLength()-1;
+						this.nGaps++;
+						}
+					
+					if(op.consumesReferenceBases()) {
+						if(op.consumesReadBases()) {
+							for(int x=0;x<ce.getLength();++x) {
+								final int pos1 = ref+x;
+								if(pos1< start) continue;
+								if(pos1> end) break;
+								this.coverage[pos1-start]++;
+								}
+							}
+						ref+=ce.getLength();
+						}
+					}
+				this.nReads++;
+				this.gapOffset[this.nReads] = this.nGaps;
+				}
+			}
+		}
+	
+	/** index of the first read that may overlap a position */
+	private int lowerBound(final int pos) {
+		final int minStart = pos - this.maxReadLength;
+		int lo = 0;
+		int hi = this.nReads;
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(this.readStart[mid] < minStart) {
+				lo = mid + 1;
+				}
+			else
+				{
+				hi = mid;
+				}
+			}
+		return lo;
+		}
+	}
+
+/** one SVG to be rendered */
+private static class SashimiTask {
+	final BamInput bam;
+	final Locatable interval;
+	final ReadCluster cluster;
+	SashimiTask(final BamInput bam,final Locatable interval,final ReadCluster cluster) {
+		this.bam = bam;
+		this.interval = interval;
+		this.cluster = cluster;
+		}
+	}
+
+/** a rendered SVG file */
+private static class SashimiSvg {
+	final String filename;
+	final byte[] content;
+	final Set<String> geneNames;
+	SashimiSvg(final String filename,final byte[] content,final Set<String> geneNames) {
+		this.filename = filename;
+		this.content = content;
+		this.geneNames = geneNames;
+		}
+	}
 
 private Element element(final String tag) {
-	return this.document.createElementNS(SVG.NS, tag);
+	return this.documents.get().createElementNS(SVG.NS, tag);
 	}
 private Text text(final Object o) {
-	return this.document.createTextNode(o==null?"":String.valueOf(o));
+	return this.documents.get().createTextNode(o==null?"":String.valueOf(o));
 	}
 private Element element(final String tag,final Object content) {
 	final Element E = element(tag);
@@ -229,7 +379,7 @@ private Element element(final String tag,final Object content) {
 /** convert double to string */
 private String format(double v)
 	{
-	return this.decimalFormater.format(v);
+	return this.decimalFormaters.get().format(v);
 	}
 /** best ticks separation */
 private int bestTicks(final int max) {
@@ -250,76 +400,34 @@ private Node wrapLoc(final Element node,final Locatable loc) {
 	return a;
 	}
 
-/** create the SVG itself */
-private void plotSashimi(
-	final ArchiveFactory archive,
-	final SamReader samReader,
-	final Locatable interval,
-	final Path bamPath,
-	final PrintWriter manifest
-	) {
+/** create the SVG itself, returns null if the SVG must not be saved */
+private SashimiSvg plotSashimi(final SashimiTask task) {
+	final Locatable interval = task.interval;
+	final ReadCluster cluster = task.cluster;
+	final Document document = this.documents.get();
 	final int drawing_width = Math.max(100,this.image_width_pixel);
 	final int coverageHeight =  Math.max(100,Integer.parseInt(this.dynamicParams.getOrDefault("coverage.height","300")));
 	final double pixelperbase =  drawing_width/(double)interval.getLengthOnReference();
-	final SAMFileHeader header= samReader.getFileHeader();
 	final Collection<Gene> genes= this.geneMap.getOverlapping(interval);
 	final Set<String> geneNames = genes.stream().map(G->G.getGeneName()).filter(S->!StringUtils.isBlank(S)).collect(Collectors.toCollection(TreeSet::new));
-	
-	/** extract the sample name or just use the filename */
-	final String sampleName = StringUtils.ifBlank(
-		header.getReadGroups().
-			stream().
-			map(G->this.partition.apply(G)).
-			filter(S->!StringUtils.isBlank(S)).
-			sorted().
-			collect(Collectors.joining(";"))
-			,
-			bamPath.getFileName().toString()
-			);
+	final String sampleName = task.bam.sampleName;
 	
 	final Function<Integer, Double> pos2pixel = POS-> (POS - interval.getStart())/(double)interval.getLengthOnReference() * drawing_width;
 	
+	/* extract the coverage and the gaps of this interval from the cluster */
 	final Counter<SimpleInterval> gaps = new  Counter<>();
-	final int coverage[] = new int[interval.getLengthOnReference()];
-	try(SAMRecordIterator iter=samReader.queryOverlapping(interval.getContig(), interval.getStart(), interval.getEnd())) {
-		/** no read here, skip */
-		boolean got_one = false;
-		while(iter.hasNext()) {
-			final SAMRecord rec = iter.next();
-			if(rec.getReadUnmappedFlag()) continue;
-			if(rec.getReadFailsVendorQualityCheckFlag()) continue;
-			if(rec.isSecondaryOrSupplementary()) continue;
-			if(rec.getDuplicateReadFlag()) continue;
-			if(rec.getMappingQuality()< this.min_mapq) continue;
-			final Cigar cigar =rec.getCigar();
-			if(cigar==null || cigar.isEmpty()) continue;
-			got_one = true;
-			int ref= rec.getAlignmentStart();
-			for(final CigarElement ce:cigar) {
-				if(ref> interval.getEnd()) break;
-				final CigarOperator op = ce.getOperator();
-				
-				if(op.equals(CigarOperator.N) || (use_D_operator && op.equals(CigarOperator.D) ))  {
-					gaps.incr(new SimpleInterval(rec.getContig(),ref,ref+ce.getLength()-1));
-					}
-
-				
-				if(op.consumesReferenceBases()) {
-					if(op.consumesReadBases()) {
-						for(int x=0;x<ce.getLength();++x) {
-							final int pos1 = ref+x;
-							if(pos1< interval.getStart()) continue;
-							if(pos1> interval.getEnd()) break;
-							coverage[pos1-interval.getStart()]++;
-							}
-						}
-					ref+=ce.getLength();
-					}
-				}
+	final int coverage[] = Arrays.copyOfRange(cluster.coverage, interval.getStart()-cluster.start, interval.getEnd()-cluster.start+1);
+	/** no read here, skip */
+	boolean got_one = false;
+	for(int i=cluster.lowerBound(interval.getStart());i< cluster.nReads && cluster.readStart[i] <= interval.getEnd();++i) {
+		if(cluster.readEnd[i] < interval.getStart()) continue;
+		got_one = true;
+		for(int k=cluster.gapOffset[i];k< cluster.gapOffset[i+1];++k) {
+			if(cluster.gapStart[k] > interval.getEnd()) break;
+			gaps.incr(new SimpleInterval(cluster.contig,cluster.gapStart[k],cluster.gapEnd[k]));
 			}
-
-		if(!got_one && this.skip_region_without_read) return;
 		}
+	if(!got_one && this.skip_region_without_read) return null;
 	
 		final int max_coverage;
 		
@@ -331,12 +439,12 @@ private void plotSashimi(
 			}
 
 	
-		while(this.document.hasChildNodes()) {
-			this.document.removeChild(this.document.getFirstChild());
+		while(document.hasChildNodes()) {
+			document.removeChild(document.getFirstChild());
 			}
 	
 		final Element svgRoot = element("svg");
-		this.document.appendChild(svgRoot);
+		document.appendChild(svgRoot);
 		
 		/* SVG title */
 		{
@@ -688,61 +796,66 @@ private void plotSashimi(
 		
 		final Transformer tr = TransformerFactory.newInstance().newTransformer();
 		
-		final String md5 = StringUtils.md5(interval.getContig()+":"+interval.getStart()+":"+interval.getEnd()+":"+bamPath.toString());
+		final String md5 = StringUtils.md5(interval.getContig()+":"+interval.getStart()+":"+interval.getEnd()+":"+task.bam.path.toString());
 		final String filename =  md5.substring(0,2) + File.separatorChar + md5.substring(2) + 
 					File.separator+ interval.getContig()+"_"+interval.getStart()+"_"+interval.getEnd()+
 					(StringUtils.isBlank(sampleName)?"":"."+sampleName.replaceAll("[/\\:]", "_")) +
 					".svg"+(this.compressed_svg?".gz":"");
 		
-
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		if(this.compressed_svg) {
-			try(final OutputStream pw=archive.openOuputStream(filename)) {
-				try(GZIPOutputStream gzout = new GZIPOutputStream(pw)) {
-					tr.transform(new DOMSource(this.document),new StreamResult(gzout));
-					gzout.finish();
-					gzout.flush();
-					}
-				pw.flush();
+			try(GZIPOutputStream gzout = new GZIPOutputStream(baos)) {
+				tr.transform(new DOMSource(document),new StreamResult(gzout));
+				gzout.finish();
+				gzout.flush();
 				}
 			}
 		else
 			{
-			try(final PrintWriter pw=archive.openWriter(filename)) {
-				tr.transform(new DOMSource(this.document),new StreamResult(pw));
+			try(final PrintWriter pw=new PrintWriter(baos)) {
+				tr.transform(new DOMSource(document),new StreamResult(pw));
 				pw.flush();
 				}
 			}
-		manifest.print(interval.getContig());
-		manifest.print('\t');
-		manifest.print(interval.getStart()-1);
-		manifest.print('\t');
-		manifest.print(interval.getEnd());
-		manifest.print('\t');
-		manifest.print(bamPath.toString());
-		manifest.print('\t');
-		manifest.print(geneNames.isEmpty()?".":String.join(",",geneNames));
-		manifest.print('\t');
-		manifest.print(StringUtils.isBlank(sampleName)?".":sampleName);
-		manifest.print('\t');
-		manifest.print((archive.isTarOrZipArchive()?"":this.outputFile.toString()+File.separator)+filename);
-		manifest.println();
+		return new SashimiSvg(filename, baos.toByteArray(), geneNames);
 		} catch(final Exception err) {
 			throw new RuntimeException(err);
 		}
 	}
 
+/** save a rendered SVG into the archive, called in the input order */
+private void saveSvg(final ArchiveFactory archive,final PrintWriter manifest,final SashimiTask task,final SashimiSvg svg) {
+	if(svg==null) return;
+	final Locatable interval = task.interval;
+	try(final OutputStream os=archive.openOuputStream(svg.filename)) {
+		os.write(svg.content);
+		os.flush();
+		}
+	catch(final IOException err) {
+		throw new RuntimeIOException(err);
+		}
+	manifest.print(interval.getContig());
+	manifest.print('\t');
+	manifest.print(interval.getStart()-1);
+	manifest.print('\t');
+	manifest.print(interval.getEnd());
+	manifest.print('\t');
+	manifest.print(task.bam.path.toString());
+	manifest.print('\t');
+	manifest.print(svg.geneNames.isEmpty()?".":String.join(",",svg.geneNames));
+	manifest.print('\t');
+	manifest.print(StringUtils.isBlank(task.bam.sampleName)?".":task.bam.sampleName);
+	manifest.print('\t');
+	manifest.print((archive.isTarOrZipArchive()?"":this.outputFile.toString()+File.separator)+svg.filename);
+	manifest.println();
+	}
+
 @Override
 public int doWork(final List<String> args) {
 	ArchiveFactory archive=null;
 	PrintWriter manifest = null;
 	try
 		{
-		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-		dbf.setNamespaceAware(true);
-		DocumentBuilder db = dbf.newDocumentBuilder();
-		this.document = db.newDocument();
-
-		
 		final SamReaderFactory srf = super.createSamReaderFactory();
 		if(faidx!=null) {
 			srf.referenceSequence(this.faidx);
@@ -763,22 +876,70 @@ public int doWork(final List<String> args) {
 		manifest.println("#chrom\tstart\tend\tbam\tGenes\tSamples\tsvg");
 
 		
-		for(final Path bam: IOUtils.unrollPaths(args)) {
-			try(SamReader sr = srf.open(bam)) {
-				if(!sr.hasIndex()) {
-					LOG.error("Bam is not indexed "+bam);
-					return -1;
-					}
-				final SAMFileHeader header= sr.getFileHeader();
-				final ArchiveFactory final_archive = archive;
-				final PrintWriter final_manifest = manifest;
-				this.intervalListProvider.
-					dictionary(header.getSequenceDictionary()).
-					stream().
-					forEach(R->{
-						plotSashimi(final_archive,sr,R,bam,final_manifest);
-					});
+		final ArchiveFactory final_archive = archive;
+		final PrintWriter final_manifest = manifest;
+		try(OrderedBatchMapper<SashimiTask,SashimiSvg> mapper = new OrderedBatchMapper<>(
+				this.nThreads,
+				1,
+				()->T->plotSashimi(T),
+				(T,SVG)->saveSvg(final_archive,final_manifest,T,SVG)
+				)) {
+			for(final Path bam: IOUtils.unrollPaths(args)) {
+				try(SamReader sr = srf.open(bam)) {
+					if(!sr.hasIndex()) {
+						LOG.error("Bam is not indexed "+bam);
+						return -1;
+						}
+					final SAMFileHeader header= sr.getFileHeader();
+					final SAMSequenceDictionary dict = header.getSequenceDictionary();
 					
+					/** extract the sample name or just use the filename */
+					final String sampleName = StringUtils.ifBlank(
+						header.getReadGroups().
+							stream().
+							map(G->this.partition.apply(G)).
+							filter(S->!StringUtils.isBlank(S)).
+							sorted().
+							collect(Collectors.joining(";"))
+							,
+							bam.getFileName().toString()
+							);
+					final BamInput bamInput = new BamInput(bam, sampleName);
+					
+					final List<Locatable> regions = this.intervalListProvider.
+						dictionary(dict).
+						stream().
+						sorted((A,B)->{
+							int i = Integer.compare(dict.getSequenceIndex(A.getContig()), dict.getSequenceIndex(B.getContig()));
+							if(i!=0) return i;
+							i = Integer.compare(A.getStart(), B.getStart());
+							if(i!=0) return i;
+							return Integer.compare(A.getEnd(), B.getEnd());
+							}).
+						collect(Collectors.toList());
+					
+					/* merge the overlapping regions into clusters */
+					int i=0;
+					while(i< regions.size()) {
+						final Locatable first = regions.get(i);
+						int clusterEnd = first.getEnd();
+						int j=i+1;
+						while(j< regions.size()) {
+							final Locatable next = regions.get(j);
+							if(!next.getContig().equals(first.getContig())) break;
+							if(next.getStart() > clusterEnd) break;
+							final int end2 = Math.max(clusterEnd, next.getEnd());
+							if(CoordMath.getLength(first.getStart(), end2) > this.max_cluster_length) break;
+							clusterEnd = end2;
+							j++;
+							}
+						final ReadCluster cluster = new ReadCluster(sr, first.getContig(), first.getStart(), clusterEnd);
+						for(int k=i;k< j;k++) {
+							mapper.accept(new SashimiTask(bamInput, regions.get(k), cluster));
+							}
+						i = j;
+						}
+					}
 				}
 			}
 		return 0;
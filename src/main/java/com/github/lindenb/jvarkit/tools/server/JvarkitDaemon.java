@@ -0,0 +1,567 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ThreadInputStream;
+import com.github.lindenb.jvarkit.io.ThreadPrintStream;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/**
+BEGIN_DOC
+
+## Motivation
+
+Each invocation of a jvarkit tool pays the start of the JVM, the loading of the classes and the warm-up of the JIT.
+When a pipeline calls a tool thousands of times (per gene, per sample...) it spends more time starting than working.
+
+`jvarkitdaemon` keeps one JVM running and listens on a local TCP port (bound to the loopback interface only).
+The thin client `com.github.lindenb.jvarkit.tools.server.JvarkitDaemonClient` sends a secret token, its working directory, the name of the tool (the qualified name of the java class) and its arguments.
+Its stdin is forwarded to the tool; the stdout and stderr of the tool are sent back to the client.
+The exit status of the client is the exit status of the tool.
+
+## Security
+
+The daemon only runs the commands of the clients sending the secret token stored in `~/.jvarkit/jvarkitdaemon.token` (option `--token`).
+The daemon creates this file if it doesn't exist. Both the daemon and the client refuse to use it if it can be read by the group or by the other users (it must be `chmod 600`).
+
+## Working directory
+
+The relative paths are resolved against the working directory of the client: the values of the options declared as a file, and the other arguments if such file exists in the working directory of the client.
+The relative paths found in a file (e.g. a file with the suffix `.list`) are still resolved against the working directory of the daemon.
+
+## Limitations
+
+  * The tools must be in the classpath of the daemon.
+  * The tools must write to the streams of `Launcher` (`stdout()`, `stderr()`, `openPathOrStdoutAsPrintWriter`...). Only the thread running the command sees the client's streams as `System.in`, `System.out` and `System.err`: the threads of a pool (e.g. the common fork-join pool) write to the streams of the daemon.
+  * `System.exit` is refused while a command is running, whatever the calling thread (the daemon installs a SecurityManager). When it is called by the thread running the command, its status is sent to the client. Newer JVMs refuse to install a SecurityManager unless `-Djava.security.manager=allow` is set.
+  * the logs of the parent class `Launcher` are written to the stderr of the daemon.
+  * static states of the tools are shared between the calls.
+
+## Example
+
+```
+$ java -cp dist/jvarkitdaemon.jar:dist/vcfhead.jar com.github.lindenb.jvarkit.tools.server.JvarkitDaemon --port 8090 --jobs 4 &
+
+$ java -cp dist/jvarkitdaemon.jar com.github.lindenb.jvarkit.tools.server.JvarkitDaemonClient --port 8090 --time \
+	com.github.lindenb.jvarkit.tools.vcfhead.VcfHead -n 1 < src/test/resources/rotavirus_rf.vcf.gz
+```
+
+END_DOC
+ */
+@Program(name="jvarkitdaemon",
+	description="Keep one JVM running and execute the jvarkit tools sent by a thin client.",
+	creationDate="20201019",
+	modificationDate="20201019",
+	keywords={"server","daemon"}
+	)
+public class JvarkitDaemon extends Launcher {
+	private static final Logger LOG = Logger.build(JvarkitDaemon.class).make();
+	/** frame types of the protocol */
+	static final byte FRAME_STDOUT = (byte)'O';
+	static final byte FRAME_STDERR = (byte)'E';
+	static final byte FRAME_EXIT = (byte)'X';
+	/** max length of a string sent by the client */
+	private static final int MAX_STRING_LENGTH = 1_000_000;
+	/** max time to wait for the token, the working directory and the arguments of the client */
+	private static final int HANDSHAKE_TIMEOUT_MILLIS = 30_000;
+	/** true for the threads running a command. Not inheritable: a pooled thread created during a command would keep the flag forever */
+	private static final ThreadLocal<Boolean> IN_COMMAND = ThreadLocal.withInitial(()->Boolean.FALSE);
+	/** last status passed to System.exit by the thread running a command */
+	private static final ThreadLocal<Integer> EXIT_STATUS = new ThreadLocal<>();
+	/** number of commands running. System.exit is refused if it is not 0 */
+	private static final AtomicInteger RUNNING_COMMANDS = new AtomicInteger(0);
+
+	@Parameter(names="--port",description="server port.")
+	private int serverPort = 8090;
+	@Parameter(names={"-j","--jobs"},description="Max number of commands running at the same time. Other commands wait in a queue. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+	@Parameter(names="--token",description="File containing the secret token shared with the client. It is created if it doesn't exist. Only its owner must be able to read it (chmod 600).")
+	private Path tokenPath = getDefaultTokenPath();
+
+	private byte[] token = null;
+
+	private ThreadPrintStream threadStdout = null;
+	private ThreadPrintStream threadStderr = null;
+	private ThreadInputStream threadStdin = null;
+	
+	/** thrown when a command calls System.exit */
+	private static class ExitTrappedException extends SecurityException {
+		private static final long serialVersionUID = 1L;
+		ExitTrappedException(int status) {
+			super("System.exit("+status+") was called.");
+			}
+		}
+	
+	/** a SecurityManager allowing everything but System.exit. SecurityManager is deprecated for removal,
+	 * but it is still the only way to trap System.exit */
+	@SuppressWarnings("removal")
+	private static class NoExitSecurityManager extends SecurityManager {
+		@Override
+		public void checkPermission(final Permission perm) {
+			}
+		@Override
+		public void checkPermission(final Permission perm, final Object context) {
+			}
+		@Override
+		public void checkExit(final int status) {
+			if(IN_COMMAND.get()) {
+				EXIT_STATUS.set(status);
+				throw new ExitTrappedException(status);
+				}
+			/* another thread (e.g. a thread of a pool used by a tool) cannot stop the daemon while a command is running */
+			if(RUNNING_COMMANDS.get()>0) throw new ExitTrappedException(status);
+			}
+		}
+	
+	/** send bytes to the client as frames of type 'O' or 'E' */
+	private static class FrameOutputStream extends OutputStream {
+		private final DataOutputStream out;
+		private final byte type;
+		FrameOutputStream(final DataOutputStream out,byte type) {
+			this.out = out;
+			this.type = type;
+			}
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte)b},0,1);
+			}
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(len<=0) return;
+			synchronized (this.out) {
+				this.out.writeByte(this.type);
+				this.out.writeInt(len);
+				this.out.write(b, off, len);
+				}
+			}
+		@Override
+		public void flush() throws IOException {
+			synchronized (this.out) {
+				this.out.flush();
+				}
+			}
+		@Override
+		public void close() throws IOException {
+			/* the socket is closed by the daemon */
+			flush();
+			}
+		}
+	
+	/** read the stdin of the client as frames. A frame of length 0 means EOF */
+	private static class FrameInputStream extends InputStream {
+		private final DataInputStream in;
+		private int remain = 0;
+		private boolean eof = false;
+		FrameInputStream(final DataInputStream in) {
+			this.in = in;
+			}
+		private boolean fill() throws IOException {
+			while(!this.eof && this.remain==0) {
+				this.remain = this.in.readInt();
+				if(this.remain<=0) this.eof = true;
+				}
+			return !this.eof;
+			}
+		@Override
+		public int read() throws IOException {
+			if(!fill()) return -1;
+			this.remain--;
+			return this.in.read();
+			}
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len==0) return 0;
+			if(!fill()) return -1;
+			final int n = this.in.read(b, off, Math.min(len, this.remain));
+			if(n==-1) {
+				this.eof=true;
+				return -1;
+				}
+			this.remain-=n;
+			return n;
+			}
+		@Override
+		public int available() throws IOException {
+			return this.eof?0:this.remain;
+			}
+		@Override
+		public void close() throws IOException {
+			/* the socket is closed by the daemon */
+			}
+		}
+	
+	/** read one string sent by the client */
+	static String readString(final DataInputStream in) throws IOException {
+		final int len = in.readInt();
+		if(len<0 || len>MAX_STRING_LENGTH) throw new IOException("bad string length "+len);
+		final byte array[] = new byte[len];
+		in.readFully(array);
+		return new String(array,StandardCharsets.UTF_8);
+		}
+	
+	/** write one string to the daemon */
+	static void writeString(final DataOutputStream out,final String s) throws IOException {
+		final byte array[] = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(array.length);
+		out.write(array);
+		}
+	
+	/** default file containing the token shared by the daemon and the client */
+	static Path getDefaultTokenPath() {
+		return Paths.get(System.getProperty("user.home"),".jvarkit","jvarkitdaemon.token");
+		}
+	
+	/** read the token, check that only the owner of the file can read it */
+	static String readToken(final Path path) throws IOException {
+		if(path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			final EnumSet<PosixFilePermission> forbidden = EnumSet.of(
+					PosixFilePermission.GROUP_READ,PosixFilePermission.GROUP_WRITE,PosixFilePermission.GROUP_EXECUTE,
+					PosixFilePermission.OTHERS_READ,PosixFilePermission.OTHERS_WRITE,PosixFilePermission.OTHERS_EXECUTE
+					);
+			if(Files.getPosixFilePermissions(path).stream().anyMatch(forbidden::contains)) {
+				throw new IOException("Only the owner of "+path+" should be able to read it (chmod 600).");
+				}
+			}
+		final String s = new String(Files.readAllBytes(path),StandardCharsets.UTF_8).trim();
+		if(s.isEmpty()) throw new IOException("No token in "+path);
+		return s;
+		}
+	
+	/** create a new random token in a file that only the user can read */
+	private static void createToken(final Path path) throws IOException {
+		final byte array[] = new byte[32];
+		new SecureRandom().nextBytes(array);
+		final StringBuilder sb = new StringBuilder(array.length*2);
+		for(final byte b:array) sb.append(String.format("%02x", b));
+		final Path dir = path.toAbsolutePath().getParent();
+		if(path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			if(dir!=null) Files.createDirectories(dir,PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+			}
+		else
+			{
+			if(dir!=null) Files.createDirectories(dir);
+			Files.createFile(path);
+			}
+		Files.write(path, sb.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	
+	/** arity of an option of a tool and whether its value is a file */
+	private static class OptionInfo {
+		final int arity;
+		final boolean isPath;
+		OptionInfo(final int arity,final boolean isPath) {
+			this.arity = arity;
+			this.isPath = isPath;
+			}
+		}
+	
+	private static boolean isPathType(final Type t) {
+		return t.equals(Path.class) || t.equals(File.class);
+		}
+	
+	/** collect the options of a tool and of its delegates */
+	private static void collectOptions(final Object o,final Map<String,OptionInfo> options) throws IllegalAccessException {
+		for(Class<?> c=o.getClass(); c!=null && !c.equals(Object.class); c=c.getSuperclass()) {
+			for(final Field field:c.getDeclaredFields()) {
+				final Parameter param = field.getAnnotation(Parameter.class);
+				if(param!=null) {
+					final Class<?> type = field.getType();
+					final boolean isPath;
+					if(Collection.class.isAssignableFrom(type) && field.getGenericType() instanceof ParameterizedType) {
+						final Type[] types = ParameterizedType.class.cast(field.getGenericType()).getActualTypeArguments();
+						isPath = types.length==1 && isPathType(types[0]);
+						}
+					else
+						{
+						isPath = isPathType(type);
+						}
+					final int arity = param.arity()>=0?param.arity():(type.equals(boolean.class) || type.equals(Boolean.class)?0:1);
+					for(final String name:param.names()) {
+						options.put(name, new OptionInfo(arity, isPath));
+						}
+					}
+				else if(field.getAnnotation(ParametersDelegate.class)!=null) {
+					field.setAccessible(true);
+					final Object delegate = field.get(o);
+					if(delegate!=null) collectOptions(delegate, options);
+					}
+				}
+			}
+		}
+	
+	/** resolve 's' against 'cwd' if it is a relative path. If mustExist, the resolved file must exist */
+	private static String resolvePath(final Path cwd,final String s,boolean mustExist) {
+		if(s.isEmpty() || s.equals("-") || IOUtils.isRemoteURI(s)) return s;
+		final Path path;
+		try {
+			path = Paths.get(s);
+			}
+		catch(final InvalidPathException err) {
+			return s;
+			}
+		if(path.isAbsolute()) return s;
+		final Path resolved = cwd.resolve(path);
+		if(mustExist && !Files.exists(resolved)) return s;
+		return resolved.toString();
+		}
+	
+	/** resolve the relative paths of the arguments of the tool against the working directory of the client */
+	static List<String> resolvePaths(final Launcher instance,final Path cwd,final List<String> args) throws IllegalAccessException {
+		final Map<String,OptionInfo> options = new HashMap<>();
+		collectOptions(instance, options);
+		final List<String> L = new ArrayList<>(args.size());
+		boolean endOfOptions = false;
+		int i=0;
+		while(i< args.size()) {
+			final String arg = args.get(i++);
+			final OptionInfo option = endOfOptions?null:options.get(arg);
+			if(option!=null) {
+				L.add(arg);
+				for(int n=0;n< option.arity && i< args.size();n++) {
+					final String value = args.get(i++);
+					L.add(option.isPath?resolvePath(cwd, value, false):value);
+					}
+				}
+			else if(!endOfOptions && arg.equals("--")) {
+				endOfOptions = true;
+				L.add(arg);
+				}
+			else if(!endOfOptions && arg.startsWith("-") && arg.length()>1) {
+				L.add(arg);
+				}
+			else
+				{
+				L.add(resolvePath(cwd, arg, true));
+				}
+			}
+		return L;
+		}
+	
+	/** send an error message and the exit status -1 to the client */
+	private static void sendError(final DataOutputStream out,final String msg,final long startMillis) throws IOException {
+		new FrameOutputStream(out,FRAME_STDERR).write(("[jvarkitdaemon] "+msg+"\n").getBytes(StandardCharsets.UTF_8));
+		sendExit(out, -1, System.currentTimeMillis() - startMillis);
+		}
+	
+	/** send the exit status to the client */
+	private static void sendExit(final DataOutputStream out,final int ret,final long millis) throws IOException {
+		synchronized(out) {
+			out.writeByte(FRAME_EXIT);
+			out.writeInt(ret);
+			out.writeLong(millis);
+			out.flush();
+			}
+		}
+	
+	/** run the tool for one connection */
+	private void handle(final Socket socket) {
+		final long startMillis = System.currentTimeMillis();
+		String toolName = "undefined";
+		int ret = -1;
+		try(final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			/* an idle or unauthenticated client must not hold a job slot */
+			socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+			if(!MessageDigest.isEqual(this.token, readString(in).getBytes(StandardCharsets.UTF_8))) {
+				LOG.warn("bad token from "+socket.getRemoteSocketAddress());
+				sendError(out, "bad token.", startMillis);
+				return;
+				}
+			final Path cwd = Paths.get(readString(in));
+			if(!cwd.isAbsolute()) {
+				LOG.error("working directory is not absolute "+cwd);
+				sendError(out, "working directory is not absolute "+cwd, startMillis);
+				return;
+				}
+			final int nArgs = in.readInt();
+			if(nArgs<1) {
+				LOG.error("no tool name was sent");
+				sendError(out, "no tool name was sent.", startMillis);
+				return;
+				}
+			final String args[] = new String[nArgs];
+			for(int i=0;i< nArgs;i++) {
+				args[i] = readString(in);
+				}
+			/* stdin of the tool may wait for the user */
+			socket.setSoTimeout(0);
+			toolName = args[0];
+			final InputStream cmdIn = new FrameInputStream(in);
+			final PrintStream cmdOut = new PrintStream(new FrameOutputStream(out,FRAME_STDOUT), false);
+			final PrintStream cmdErr = new PrintStream(new FrameOutputStream(out,FRAME_STDERR), true);
+			
+			this.threadStdin.set(cmdIn);
+			this.threadStdout.set(cmdOut);
+			this.threadStderr.set(cmdErr);
+			IN_COMMAND.set(Boolean.TRUE);
+			EXIT_STATUS.remove();
+			RUNNING_COMMANDS.incrementAndGet();
+			try {
+				ret = runTool(cwd,args,cmdIn,cmdOut,cmdErr);
+				}
+			catch(final Throwable err) {
+				cmdErr.println("[jvarkitdaemon] "+err.getMessage());
+				ret = -1;
+				}
+			finally {
+				if(EXIT_STATUS.get()!=null) ret = EXIT_STATUS.get();
+				RUNNING_COMMANDS.decrementAndGet();
+				IN_COMMAND.set(Boolean.FALSE);
+				EXIT_STATUS.remove();
+				this.threadStdin.dispose();
+				this.threadStdout.dispose();
+				this.threadStderr.dispose();
+				cmdOut.flush();
+				cmdErr.flush();
+				}
+			sendExit(out, ret, System.currentTimeMillis() - startMillis);
+			}
+		catch(final Throwable err) {
+			LOG.error(err);
+			}
+		finally {
+			try { socket.close(); } catch(final IOException err) {/* ignore */}
+			LOG.info(toolName+" exited with status "+ret+" in "+(System.currentTimeMillis() - startMillis)+" ms.");
+			}
+		}
+	
+	/** create the Launcher named by args[0] and call instanceMain with the remaining arguments */
+	private int runTool(final Path cwd,final String args[],final InputStream in,final PrintStream out,final PrintStream err) throws Exception {
+		final Class<?> clazz = Class.forName(args[0]);
+		if(!Launcher.class.isAssignableFrom(clazz)) {
+			err.println("[jvarkitdaemon] "+args[0]+" is not a jvarkit Launcher.");
+			return -1;
+			}
+		final Launcher instance = (Launcher)clazz.getConstructor().newInstance();
+		instance.stdin(in);
+		instance.stdout(out);
+		instance.stderr(err);
+		return instance.instanceMain(resolvePaths(instance, cwd, Arrays.asList(args).subList(1, args.length)));
+		}
+	
+	@Override
+	@SuppressWarnings("removal")
+	public int doWork(final List<String> args) {
+		if(!args.isEmpty()) {
+			LOG.error("too many arguments");
+			return -1;
+			}
+		final int nThreads = this.nJobs < 1 ? Math.max(1, Runtime.getRuntime().availableProcessors()) : this.nJobs;
+		ExecutorService executor = null;
+		boolean securityManagerInstalled = false;
+		try {
+			if(!Files.exists(this.tokenPath)) {
+				LOG.info("creating token in "+this.tokenPath);
+				createToken(this.tokenPath);
+				}
+			this.token = readToken(this.tokenPath).getBytes(StandardCharsets.UTF_8);
+			}
+		catch(final IOException err) {
+			LOG.error(err);
+			return -1;
+			}
+		try(final ServerSocket server = new ServerSocket(this.serverPort, 50, InetAddress.getLoopbackAddress())) {
+			try {
+				System.setSecurityManager(new NoExitSecurityManager());
+				securityManagerInstalled = true;
+				}
+			catch(final UnsupportedOperationException|SecurityException err) {
+				LOG.warn("Cannot install a SecurityManager (use -Djava.security.manager=allow). A tool calling System.exit will stop the daemon.");
+				}
+			this.threadStdout = new ThreadPrintStream(System.out);
+			this.threadStderr = new ThreadPrintStream(System.err);
+			this.threadStdin = new ThreadInputStream(System.in);
+			System.setOut(this.threadStdout);
+			System.setErr(this.threadStderr);
+			System.setIn(this.threadStdin);
+			
+			executor = Executors.newFixedThreadPool(nThreads,R->{
+				final Thread t = new Thread(R);
+				t.setDaemon(true);
+				return t;
+				});
+			LOG.info("listening on "+server.getInetAddress().getHostAddress()+":"+server.getLocalPort()+" with "+nThreads+" job(s).");
+			for(;;) {
+				final Socket socket = server.accept();
+				executor.submit(()->handle(socket));
+				}
+			}
+		catch(final Throwable err) {
+			LOG.error(err);
+			return -1;
+			}
+		finally {
+			if(executor!=null) executor.shutdownNow();
+			/* allow the daemon itself to exit */
+			if(securityManagerInstalled) System.setSecurityManager(null);
+			}
+		}
+	
+	public static void main(final String[] args) {
+		new JvarkitDaemon().instanceMainWithExit(args);
+		}
+	}
@@ -0,0 +1,163 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client for {@link JvarkitDaemon}. It doesn't use any library so the JVM starts fast.
+ * usage:
+ * <pre>
+ * java -cp jvarkitdaemon.jar com.github.lindenb.jvarkit.tools.server.JvarkitDaemonClient [--port 8090] [--token file] [--time] tool.Class [args...]
+ * </pre>
+ */
+public class JvarkitDaemonClient {
+	int port = 8090;
+	private boolean printTime = false;
+	Path tokenPath = JvarkitDaemon.getDefaultTokenPath();
+	/** relative paths are resolved by the daemon against this directory */
+	Path workingDirectory = Paths.get("").toAbsolutePath();
+	
+	/** forward stdin to the daemon */
+	private static void sendStdin(final InputStream in,final DataOutputStream out) {
+		final byte buffer[] = new byte[65_536];
+		try {
+			int n;
+			while((n=in.read(buffer))!=-1) {
+				if(n==0) continue;
+				out.writeInt(n);
+				out.write(buffer, 0, n);
+				out.flush();
+				}
+			out.writeInt(0);
+			out.flush();
+			}
+		catch(final IOException err) {
+			/* the daemon closed the connection */
+			}
+		}
+	
+	/** send the command to the daemon, forward the streams and return the exit status */
+	int run(final List<String> args,final InputStream stdin,final OutputStream stdout,final OutputStream stderr) throws IOException {
+		final String token = JvarkitDaemon.readToken(this.tokenPath);
+		try(final Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port)) {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			JvarkitDaemon.writeString(out, token);
+			JvarkitDaemon.writeString(out, this.workingDirectory.toString());
+			out.writeInt(args.size());
+			for(final String s:args) {
+				JvarkitDaemon.writeString(out, s);
+				}
+			out.flush();
+			final Thread stdinThread = new Thread(()->sendStdin(stdin,out));
+			stdinThread.setDaemon(true);
+			stdinThread.start();
+			byte buffer[] = new byte[65_536];
+			for(;;) {
+				final byte type = in.readByte();
+				if(type==JvarkitDaemon.FRAME_EXIT) {
+					final int ret = in.readInt();
+					final long millis = in.readLong();
+					stdout.flush();
+					if(this.printTime) {
+						stderr.write(("[jvarkitdaemon] "+args.get(0)+" exited with status "+ret+" in "+millis+" ms.\n").getBytes());
+						stderr.flush();
+						}
+					return ret;
+					}
+				final int len = in.readInt();
+				if(len>buffer.length) buffer = new byte[len];
+				in.readFully(buffer,0,len);
+				if(type==JvarkitDaemon.FRAME_STDOUT) {
+					stdout.write(buffer, 0, len);
+					}
+				else if(type==JvarkitDaemon.FRAME_STDERR) {
+					stderr.write(buffer, 0, len);
+					stderr.flush();
+					}
+				else
+					{
+					throw new IOException("unknown frame type "+(char)type);
+					}
+				}
+			}
+		}
+	
+	public static void main(final String[] args) {
+		final JvarkitDaemonClient app = new JvarkitDaemonClient();
+		final List<String> cmd = new ArrayList<>();
+		int optind=0;
+		while(optind< args.length) {
+			if(args[optind].equals("--port") && optind+1< args.length) {
+				app.port = Integer.parseInt(args[++optind]);
+				}
+			else if(args[optind].equals("--token") && optind+1< args.length) {
+				app.tokenPath = Paths.get(args[++optind]);
+				}
+			else if(args[optind].equals("--time")) {
+				app.printTime = true;
+				}
+			else if(args[optind].equals("--")) {
+				optind++;
+				break;
+				}
+			else
+				{
+				break;
+				}
+			optind++;
+			}
+		while(optind< args.length) {
+			cmd.add(args[optind++]);
+			}
+		if(cmd.isEmpty()) {
+			System.err.println("Usage: JvarkitDaemonClient [--port port] [--token file] [--time] tool.class.Name [args...]");
+			System.exit(-1);
+			}
+		int ret;
+		try {
+			ret = app.run(cmd,System.in,System.out,System.err);
+			}
+		catch(final IOException err) {
+			System.err.println("[jvarkitdaemon] "+err.getMessage());
+			ret = -1;
+			}
+		System.out.flush();
+		System.exit(ret);
+		}
+	}
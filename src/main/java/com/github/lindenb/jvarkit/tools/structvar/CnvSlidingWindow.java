@@ -27,9 +27,6 @@ package com.github.lindenb.jvarkit.tools.structvar;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -39,6 +36,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -54,11 +55,10 @@ import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
-import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 
@@ -72,12 +72,10 @@ import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
-import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -93,6 +91,12 @@ import htsjdk.variant.vcf.VCFStandardHeaderLines;
 /**
 BEGIN_DOC
 
+## Memory
+
+Contigs are processed by chunks (`--chunk-size`). For each chunk, the windows of all the samples are
+stored in primitive arrays `[sample][window]`, so the memory used by a chunk is about
+`25 * (number of samples) * (chunk-size) * sum(1/win-shift)` bytes.
+The BAMs of a chunk are read in parallel with `--jobs`.
 
 END_DOC 
  */
@@ -101,7 +105,7 @@ END_DOC
 	description="detect CNV by sliding window.",
 	keywords={"vcf","cnv","bam"},
 	creationDate="20200127",
-	modificationDate="20200127",
+	modificationDate="20201019",
 	generate_doc=false
 	)
 public class CnvSlidingWindow extends Launcher {
@@ -123,39 +127,68 @@ public class CnvSlidingWindow extends Launcher {
 	private double treshold = 0.05;
 	@Parameter(names={"--min-depth"},description="min depth",hidden=true)
 	private int min_depth=20;
-	@ParametersDelegate
-	private WritingSortingCollection sorting = new WritingSortingCollection();
+	@Parameter(names={"--chunk-size"},description="Contigs are processed by chunks of 'x' bases. The windows of all the samples of a chunk are kept in memory. "+DistanceParser.OPT_DESCRIPTION,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+	private int chunk_size = 100_000;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The BAMs are read in parallel for each chunk. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
 	@ParametersDelegate
 	private WritingVariantsDelegate writingVariantsDelegate = new WritingVariantsDelegate();
 	
-	private static class Gt {
-		int start;
-		int end;
-		int sample_idx;
-		int cnv;
-		float leftMedian;
-		float midMedian;
-		float rightMedian;
-		float leftCov;
-		float midCov;
-		float rightCov;
-
-		
-		int compare0(final Gt o ) {
-			int i=Integer.compare(this.start, o.start);
-			if(i!=0) return i;
-			i=Integer.compare(this.end, o.end);
-			if(i!=0) return i;
-			return 0;
+	/** a window definition */
+	private static class WindowDef {
+		final int size;
+		final int shift;
+		final int extend;
+		WindowDef(final int size,final int shift,final int extend) {
+			this.size = size;
+			this.shift = shift;
+			this.extend = extend;
+			}
 		}
+	
+	private static final byte NO_CNV = Byte.MIN_VALUE;
+	
+	/** the windows of one definition in a chunk, for all the samples. Arrays are indexed [sample][window] */
+	private static class WindowBlock {
+		final WindowDef def;
+		/** start of the left flank of the first window */
+		final int firstPos1;
+		final int nWindows;
+		final byte cnv[][];
+		final float leftMedian[][];
+		final float midMedian[][];
+		final float rightMedian[][];
+		final float leftCov[][];
+		final float midCov[][];
+		final float rightCov[][];
 		
-		int compare1(final Gt o ) {
-			int i=compare0(o);
-			if(i!=0) return i;
-			return Integer.compare(this.sample_idx,o.sample_idx);
+		WindowBlock(final WindowDef def,final int firstPos1,final int nWindows,final int nSamples) {
+			this.def = def;
+			this.firstPos1 = firstPos1;
+			this.nWindows = nWindows;
+			this.cnv = new byte[nSamples][nWindows];
+			for(final byte[] row:this.cnv) Arrays.fill(row, NO_CNV);
+			this.leftMedian = new float[nSamples][nWindows];
+			this.midMedian = new float[nSamples][nWindows];
+			this.rightMedian = new float[nSamples][nWindows];
+			this.leftCov = new float[nSamples][nWindows];
+			this.midCov = new float[nSamples][nWindows];
+			this.rightCov = new float[nSamples][nWindows];
+			}
+		int getPos1(final int w) {
+			return this.firstPos1 + w * this.def.shift;
+			}
+		int getStart(final int w) {
+			return getPos1(w) + this.def.extend;
+			}
+		int getEnd(final int w) {
+			return getStart(w) + this.def.size;
+			}
+		/** last base covered by the flanks of the last window */
+		int getLastPos() {
+			return getPos1(this.nWindows-1) + this.def.extend + this.def.size + this.def.extend - 1;
+			}
 		}
-
-	}
 	
 	private static class Coverage {
 		private final double array[];
@@ -176,49 +209,7 @@ public class CnvSlidingWindow extends Launcher {
 		
 	}
 	
-	private static class GtCodec extends AbstractDataCodec<Gt> {
-		@Override
-		public Gt decode(final DataInputStream dis) throws IOException {
-			Gt gt = new Gt();
-			try {
-				gt.start = dis.readInt();
-				} 
-			catch(final EOFException err) {
-				return null;
-				}
-			gt.end = dis.readInt();
-			gt.sample_idx = dis.readInt();
-			gt.cnv = dis.readInt();
-			gt.leftMedian = dis.readFloat();
-			gt.midMedian = dis.readFloat();
-			gt.rightMedian = dis.readFloat();
-			gt.leftCov = dis.readFloat();
-			gt.midCov = dis.readFloat();
-			gt.rightCov = dis.readFloat();
-			return gt;
-			}
-		
-		@Override
-		public void encode(final DataOutputStream dos, final Gt o) throws IOException {
-			dos.writeInt(o.start);
-			dos.writeInt(o.end);
-			dos.writeInt(o.sample_idx);
-			dos.writeInt(o.cnv);
-			dos.writeFloat(o.leftMedian);
-			dos.writeFloat(o.midMedian);
-			dos.writeFloat(o.rightMedian);
-			dos.writeFloat(o.leftCov);
-			dos.writeFloat(o.midCov);
-			dos.writeFloat(o.rightCov);			
-			}
-		
-		@Override
-		public AbstractDataCodec<Gt> clone() {
-			return new GtCodec();
-		}
-	}
 
-	
 private class Sample
 	implements Closeable
 	{
@@ -302,9 +293,137 @@ private int getCNVIndex(double normalizedDepth) {
 	return CNV_UNDEFINED;
 	}
 
+/** create the window blocks for the windows starting in [chunkStart,chunkEnd[ */
+private List<WindowBlock> createBlocks(final Locatable contig,final int chunkStart,final int chunkEnd,final List<WindowDef> windowDefs,final int nSamples) {
+	final List<WindowBlock> blocks = new ArrayList<>(windowDefs.size());
+	for(final WindowDef def: windowDefs) {
+		if(def.size > contig.getLengthOnReference()) continue;
+		// windows 'j' are such as : pos1 = contig.start + j*shift and pos1 + size + 2*extend < contig.end
+		final int len = contig.getEnd() - contig.getStart() - def.size - 2 * def.extend;
+		if(len<=0) continue;
+		final int count = (len-1)/def.shift + 1;
+		final int start0 = contig.getStart() + def.extend;
+		final int j0 = chunkStart <= start0 ? 0 : (chunkStart - start0 + def.shift - 1)/def.shift;
+		final int j1 = chunkEnd <= start0 ? 0 : Math.min(count, (chunkEnd - start0 + def.shift - 1)/def.shift);
+		if(j0>=j1) continue;
+		blocks.add(new WindowBlock(def, contig.getStart() + j0 * def.shift, j1-j0, nSamples));
+		}
+	return blocks;
+	}
+
+/** fill the row 'sample_idx' of each block. 'array' is a buffer for the depth of [regionStart,regionEnd] */
+private void scanSample(final Sample sampleBam,final int sample_idx,final Locatable contig,final int regionStart,final int regionEnd,final List<WindowBlock> blocks,final short array[]) {
+	final int array_length = regionEnd - regionStart + 1;
+	Arrays.fill(array, 0, array_length, (short)0);
+	
+	try(SAMRecordIterator iter = sampleBam.samReader.queryOverlapping(contig.getContig(),regionStart,regionEnd)) {
+		while(iter.hasNext())
+			{
+			final SAMRecord rec = iter.next();
+			if(rec.getReadUnmappedFlag()) continue;
+			if(rec.getDuplicateReadFlag()) continue;
+			if(rec.isSecondaryOrSupplementary()) continue;
+			if(rec.getReadFailsVendorQualityCheckFlag()) continue;
+			final Cigar cigar = rec.getCigar();
+			if(cigar==null || cigar.isEmpty()) continue;
+			
+			int refPos=rec.getStart();
+			
+			for(final CigarElement ce:cigar)
+				{
+				final CigarOperator op=ce.getOperator();
+				if(op.consumesReferenceBases())
+					{
+					if(op.consumesReadBases())
+						{
+						for(int i=0;i< ce.getLength();i++)
+							{
+							final int idx = refPos-regionStart+i;
+							if(idx<0) continue;
+							if(idx>=array_length) break;
+							if(array[idx]==Short.MAX_VALUE) continue;
+							array[idx]++;
+							}
+						}
+					refPos+=ce.getLength();
+					}
+				}
+			}
+		}
+	
+	for(final WindowBlock block: blocks) {
+		final int window_size = block.def.size;
+		final int extend = block.def.extend;
+		
+		final Coverage leftcov = new Coverage(extend);
+		final Coverage rightcov = new Coverage(extend);
+		final Coverage leftrightcov = new Coverage(extend+extend);
+		final Coverage midcov = new Coverage(window_size);
+		
+		for(int w=0;w< block.nWindows;w++) {
+			final int pos1 = block.getPos1(w);
+			leftcov.reset();
+			rightcov.reset();
+			leftrightcov.reset();
+			midcov.reset();
+			
+			for(int x=0;x<extend;x++) {
+				final int idx = pos1 - regionStart + x;
+				leftcov.add(array[idx]);
+				leftrightcov.add(array[idx]);
+			}
+			final double leftMedian = leftcov.median();
+			
+			if(leftMedian < this.min_depth) continue;
+			
+			for(int x=0;x<extend;x++) {
+				final int idx = pos1 -  regionStart + extend + window_size + x;
+				rightcov.add(array[idx]);
+				leftrightcov.add(array[idx]);
+			}
+			final double rightMedian = rightcov.median();
+			if(rightMedian < this.min_depth) continue;
+			
+			for(int x=0;x<window_size;x++) {
+				final int idx = pos1 -  regionStart + extend + x;
+				midcov.add( array[idx]);
+			}
+								
+			final double median = leftrightcov.median();
+			if(rightcov.median()< this.min_depth) continue;
+			
+			for(int x=0;x< midcov.count;x++) {
+				midcov.array[x] /= median;
+				}
+			for(int x=0;x< leftcov.count;x++) {
+				leftcov.array[x] /= median;
+				}
+			for(int x=0;x< rightcov.count;x++) {
+				rightcov.array[x] /= median;
+				}
+			
+			final double norm_depth =  midcov.median();
+			
+			final int cnv = getCNVIndex(norm_depth);
+			if(cnv!=CNV_UNDEFINED && cnv!=1 && 
+					getCNVIndex(leftcov.median())==1 && 
+					getCNVIndex(rightcov.median())==1) {
+				block.cnv[sample_idx][w] = (byte)cnv;
+				block.leftMedian[sample_idx][w] = (float)leftMedian;
+				block.midMedian[sample_idx][w] = (float)median;
+				block.rightMedian[sample_idx][w] = (float)rightMedian;
+				block.leftCov[sample_idx][w] = (float)leftcov.median();
+				block.midCov[sample_idx][w] = (float)norm_depth;
+				block.rightCov[sample_idx][w] = (float)rightcov.median();
+				}
+			}
+		}
+	}
+
 @Override
 public int doWork(final List<String> args) {
 	final List<Sample> samples = new ArrayList<>();
+	ExecutorService executor = null;
 	try
 		{
 		final SAMSequenceDictionary dict = SequenceDictionaryUtils.extractRequired(this.refPath);
@@ -324,6 +443,24 @@ public int doWork(final List<String> args) {
 			return -1;
 		}
 		
+		if(this.chunk_size<=0) {
+			LOG.error("bad chunk size.");
+			return -1;
+		}
+		
+		final List<WindowDef> windowDefs = new ArrayList<>(windows_array.length/2);
+		for(int widx=0;widx< windows_array.length;widx+=2) {
+			final int window_size = windows_array[widx+0];
+			final int extend = (int)Math.ceil(window_size * this.extend);
+			if(extend<=0) continue;
+			final int window_shift = windows_array[widx+1];
+			if(window_shift<=0) {
+				LOG.error("bad window shift in " + this.windowDefs);
+				return -1;
+			}
+			windowDefs.add(new WindowDef(window_size, window_shift, extend));
+		}
+		
 		final List<Path> inputBams = IOUtils.unrollPaths(args);
 		if(inputBams.isEmpty()) {
 			LOG.error("input bam file missing.");
@@ -429,183 +566,121 @@ public int doWork(final List<String> args) {
 		vcw.writeHeader(header);
 
 		
-		for(final Locatable contig : contigs) {
-			
-			System.gc();
-			final short array[] = new short[contig.getLengthOnReference()];
-			final SortingCollection<Gt> sorter = SortingCollection.newInstance(
-					Gt.class,
-					new GtCodec(),
-					(A,B)->A.compare1(B),
-					this.sorting.getMaxRecordsInRam(),
-					this.sorting.getTmpPaths()
-					);
-			
+		final int nJobs = Math.min(samples.size(), this.nThreads<1?Runtime.getRuntime().availableProcessors():this.nThreads);
+		if(nJobs>1) executor = Executors.newFixedThreadPool(nJobs);
+		// one depth buffer per thread
+		final ThreadLocal<short[]> depthBuffers = ThreadLocal.withInitial(()->new short[0]);
 		
-			for(int bam_index=0;bam_index < samples.size();bam_index++) {
-				final Sample sampleBam = samples.get(bam_index);
-				Arrays.fill(array, (short)0);
+		for(final Locatable contig : contigs) {
+			LOG.info(contig);
+			for(int chunkStart = contig.getStart(); chunkStart <= contig.getEnd(); chunkStart += this.chunk_size) {
+				final int chunkEnd = chunkStart + this.chunk_size;
+				final List<WindowBlock> blocks = createBlocks(contig, chunkStart, chunkEnd, windowDefs, samples.size());
+				if(blocks.isEmpty()) continue;
+				final int regionStart = blocks.stream().mapToInt(B->B.firstPos1).min().getAsInt();
+				final int regionEnd = blocks.stream().mapToInt(B->B.getLastPos()).max().getAsInt();
+				final int array_length = regionEnd - regionStart + 1;
 				
-				try(SAMRecordIterator iter = sampleBam.samReader.queryOverlapping(contig.getContig(),contig.getStart(),contig.getEnd())) {
-					while(iter.hasNext())
-						{
-						final SAMRecord rec = iter.next();
-						if(rec.getReadUnmappedFlag()) continue;
-						if(rec.getDuplicateReadFlag()) continue;
-						if(rec.isSecondaryOrSupplementary()) continue;
-						if(rec.getReadFailsVendorQualityCheckFlag()) continue;
-						final Cigar cigar = rec.getCigar();
-						if(cigar==null || cigar.isEmpty()) continue;
-						
-						int refPos=rec.getStart();
-						
-						for(final CigarElement ce:cigar)
-							{
-							final CigarOperator op=ce.getOperator();
-							if(op.consumesReferenceBases())
-								{
-								if(op.consumesReadBases())
-									{
-									for(int i=0;i< ce.getLength();i++)
-										{
-										final int idx = refPos-contig.getStart()+i;
-										if(idx<0) continue;
-										if(idx>=array.length) break;
-										if(array[idx]==Short.MAX_VALUE) continue;
-										array[idx]++;
-										}
-									}
-								refPos+=ce.getLength();
-								}
+				if(executor==null) {
+					for(int bam_index=0;bam_index < samples.size();bam_index++) {
+						short[] array = depthBuffers.get();
+						if(array.length < array_length) {
+							array = new short[array_length];
+							depthBuffers.set(array);
 							}
+						scanSample(samples.get(bam_index), bam_index, contig, regionStart, regionEnd, blocks, array);
 						}
 					}
-				
-				for(int widx=0;widx< windows_array.length;widx+=2) {
-					final int window_size = windows_array[widx+0];
-					final int extend = (int)Math.ceil(window_size * this.extend);
-					if(extend<=0) continue;
-					if(window_size> contig.getLengthOnReference()) continue;
-					
-					
-					final int window_shift = windows_array[widx+1];
-					
-					LOG.info(contig+" "+window_size+"+-"+extend+";"+window_shift+" "+sampleBam.name);
-
-					final Coverage leftcov = new Coverage(extend);
-					final Coverage rightcov = new Coverage(extend);
-					final Coverage leftrightcov = new Coverage(extend+extend);
-					final Coverage midcov = new Coverage(window_size);
-					
-					for(int pos1 = contig.getStart();
-							pos1 + window_size + extend + extend <  contig.getEnd();
-							pos1 += window_shift) {
-						
-						leftcov.reset();
-						rightcov.reset();
-						leftrightcov.reset();
-						midcov.reset();
-						
-						for(int x=0;x<extend;x++) {
-							final int idx = pos1 - contig.getStart() + x;
-							leftcov.add(array[idx]);
-							leftrightcov.add(array[idx]);
+				else
+					{
+					final List<Future<?>> results = new ArrayList<>(samples.size());
+					for(int bam_index=0;bam_index < samples.size();bam_index++) {
+						final int sample_idx = bam_index;
+						results.add(executor.submit(()->{
+							short[] array = depthBuffers.get();
+							if(array.length < array_length) {
+								array = new short[array_length];
+								depthBuffers.set(array);
+								}
+							scanSample(samples.get(sample_idx), sample_idx, contig, regionStart, regionEnd, blocks, array);
+							}));
 						}
-						final double leftMedian = leftcov.median();
-						
-						if(leftMedian < this.min_depth) continue;
-						
-						for(int x=0;x<extend;x++) {
-							final int idx = pos1 -  contig.getStart() + extend + window_size + x;
-							rightcov.add(array[idx]);
-							leftrightcov.add(array[idx]);
+					try {
+						for(final Future<?> result: results) result.get();
 						}
-						final double rightMedian = rightcov.median();
-						if(rightMedian < this.min_depth) continue;
-						
-						for(int x=0;x<window_size;x++) {
-							final int idx = pos1 -  contig.getStart() + extend + x;
-							midcov.add( array[idx]);
+					catch(final ExecutionException err) {
+						throw err.getCause();
 						}
-											
-						final double median = leftrightcov.median();
-						if(rightcov.median()< this.min_depth) continue;
-						
-						for(int x=0;x< midcov.count;x++) {
-							midcov.array[x] /= median;
-							}
-						for(int x=0;x< leftcov.count;x++) {
-							leftcov.array[x] /= median;
-							}
-						for(int x=0;x< rightcov.count;x++) {
-							rightcov.array[x] /= median;
-							}
-						
-						final double norm_depth =  midcov.median();
-						
-						final int cnv = getCNVIndex(norm_depth);
-						if(cnv!=CNV_UNDEFINED && cnv!=1 && 
-								getCNVIndex(leftcov.median())==1 && 
-								getCNVIndex(rightcov.median())==1) {
-							final Gt gt = new Gt();
-							gt.start = pos1+extend;
-							gt.end = gt.start + window_size;
-							gt.sample_idx = bam_index;
-							gt.cnv = cnv;
-							
-							gt.leftMedian = (float)leftMedian;
-							gt.midMedian = (float)median;
-							gt.rightMedian = (float)rightMedian;
-							
-							
-							
-							gt.leftCov= (float)leftcov.median();
-							gt.midCov= (float)norm_depth;
-							gt.rightCov= (float)rightcov.median();
-							sorter.add(gt);
+					}
+				
+				// windows having at least one CNV, sorted on start/end
+				final List<int[]> windows = new ArrayList<>();
+				for(int bi=0;bi< blocks.size();bi++) {
+					final WindowBlock block = blocks.get(bi);
+					for(int w=0;w< block.nWindows;w++) {
+						for(int si=0;si< samples.size();si++) {
+							if(block.cnv[si][w]!=NO_CNV) {
+								windows.add(new int[]{bi,w});
+								break;
+								}
 							}
+						}
 					}
-				}
-			}
-			sorter.setDestructiveIteration(true);
-			
-			try(CloseableIterator<Gt> iter=sorter.iterator()) {
-				final EqualRangeIterator<Gt> eq=new EqualRangeIterator<>(iter, (A,B)->A.compare0(B));
-				while(eq.hasNext()) {
-					final List<Gt> row = eq.next();
-					if(row.isEmpty()) continue;
-					final Gt first = row.get(0);
+				windows.sort((A,B)->{
+					final WindowBlock b1 = blocks.get(A[0]);
+					final WindowBlock b2 = blocks.get(B[0]);
+					int i = Integer.compare(b1.getStart(A[1]), b2.getStart(B[1]));
+					if(i!=0) return i;
+					i = Integer.compare(b1.getEnd(A[1]), b2.getEnd(B[1]));
+					if(i!=0) return i;
+					return Integer.compare(A[0], B[0]);
+					});
+				
+				int i=0;
+				while(i< windows.size()) {
+					final WindowBlock firstBlock = blocks.get(windows.get(i)[0]);
+					final int start = firstBlock.getStart(windows.get(i)[1]);
+					final int end = firstBlock.getEnd(windows.get(i)[1]);
+					// windows with the same start/end but another definition
+					int j = i+1;
+					while(j< windows.size() &&
+						blocks.get(windows.get(j)[0]).getStart(windows.get(j)[1])==start &&
+						blocks.get(windows.get(j)[0]).getEnd(windows.get(j)[1])==end) {
+						j++;
+						}
+					
 					final Set<Allele> alleles = new HashSet<>();
-					row.stream().
-						flatMap(GT->cnv2allele.apply(GT.cnv).stream()).
-						forEach(CNV->alleles.add(CNV));
+					final List<Genotype> genotypes = new ArrayList<>(samples.size());
+					for(int si=0;si< samples.size();si++) {
+						for(int k=i;k< j;k++) {
+							final WindowBlock block = blocks.get(windows.get(k)[0]);
+							final int w = windows.get(k)[1];
+							final byte cnv = block.cnv[si][w];
+							if(cnv==NO_CNV) continue;
+							final List<Allele> gtAlleles = cnv2allele.apply((int)cnv);
+							alleles.addAll(gtAlleles);
+							final GenotypeBuilder gb=new GenotypeBuilder(samples.get(si).name,gtAlleles);
+							gb.attribute(fmtLeftMedian.getID(), (double)block.leftMedian[si][w]);
+							gb.attribute(fmtMidMedian.getID(), (double)block.midMedian[si][w]);
+							gb.attribute(fmtRightMedian.getID(), (double)block.rightMedian[si][w]);
+							gb.attribute(fmtLeftCov.getID(), (double)block.leftCov[si][w]);
+							gb.attribute(fmtMidCov.getID(), (double)block.midCov[si][w]);
+							gb.attribute(fmtRightCov.getID(), (double)block.rightCov[si][w]);
+							genotypes.add(gb.make());
+							break;
+							}
+						}
+					i = j;
 					
 					alleles.add(ref_allele);
-					
 					if(alleles.size()<2) continue;
 					
-					final VariantContextBuilder vcb = new VariantContextBuilder(null, contig.getContig(),first.start,first.end, alleles);
-					vcb.attribute(VCFConstants.END_KEY, first.end);
-					final List<Genotype> genotypes = new ArrayList<>(samples.size());
-					for(final Gt gt:row) {
-						final GenotypeBuilder gb=new GenotypeBuilder(samples.get(gt.sample_idx).name,cnv2allele.apply(gt.cnv));
-						gb.attribute(fmtLeftMedian.getID(), (double)gt.leftMedian);
-						gb.attribute(fmtMidMedian.getID(), (double)gt.midMedian);
-						gb.attribute(fmtRightMedian.getID(), (double)gt.rightMedian);
-						gb.attribute(fmtLeftCov.getID(), (double)gt.leftCov);
-						gb.attribute(fmtMidCov.getID(), (double)gt.midCov);
-						gb.attribute(fmtRightCov.getID(), (double)gt.rightCov);
-						
-						
-						genotypes.add(gb.make());
-					}
+					final VariantContextBuilder vcb = new VariantContextBuilder(null, contig.getContig(),start,end, alleles);
+					vcb.attribute(VCFConstants.END_KEY, end);
 					vcb.genotypes(genotypes);
 					vcw.add(vcb.make());
+					}
 				}
-				eq.close();
-			}
-			
-			sorter.cleanup();
 			}
 		
 		vcw.close();
@@ -618,6 +693,7 @@ public int doWork(final List<String> args) {
 		}
 	finally
 		{
+		if(executor!=null) executor.shutdownNow();
 		samples.forEach(S->CloserUtil.close(S));
 		}
 	}
@@ -0,0 +1,303 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.structvar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * A binary matrix of depths: one row per genomic position, one column per sample.
+ * 
+ * The rows are saved in a BGZF file by blocks of at most {@link #BLOCK_SIZE} sorted rows on the same contig.
+ * Each depth is an unsigned 16 bits integer (values greater than {@link #MAX_DEPTH} are capped).
+ * A small index file (suffix {@link #INDEX_SUFFIX}) stores the contig, the range and the virtual offset
+ * of each block, so a region can be decoded without reading the previous blocks.
+ */
+public class DepthMatrix {
+	public static final String FILE_SUFFIX = ".dpm";
+	public static final String INDEX_SUFFIX = ".dpi";
+	/** max number of rows in a block */
+	public static final int BLOCK_SIZE = 10_000;
+	public static final int MAX_DEPTH = 65_535;
+	/** 'DPM1' */
+	private static final int MAGIC = 0x44504D31;
+	
+	private static Path getIndexPath(final Path path) {
+		return Paths.get(path.toString()+INDEX_SUFFIX);
+		}
+	
+	/** a block of rows in the matrix */
+	public static class BlockInfo implements Locatable {
+		final String contig;
+		final int start;
+		final int end;
+		final int count;
+		final long offset;
+		private BlockInfo(final String contig,final int start,final int end,final int count,final long offset) {
+			this.contig = contig;
+			this.start = start;
+			this.end = end;
+			this.count = count;
+			this.offset = offset;
+			}
+		@Override
+		public String getContig() {
+			return contig;
+			}
+		@Override
+		public int getStart() {
+			return start;
+			}
+		@Override
+		public int getEnd() {
+			return end;
+			}
+		/** number of rows in this block */
+		public int getCount() {
+			return count;
+			}
+		@Override
+		public String toString() {
+			return contig+":"+start+"-"+end+" N="+count;
+			}
+		}
+	
+	/** a decoded block */
+	public static class Block {
+		private final BlockInfo info;
+		private final int nSamples;
+		private final int[] positions;
+		private final char[] depths;
+		private Block(final BlockInfo info,final int nSamples,final int[] positions,final char[] depths) {
+			this.info = info;
+			this.nSamples = nSamples;
+			this.positions = positions;
+			this.depths = depths;
+			}
+		public String getContig() {
+			return this.info.getContig();
+			}
+		/** number of rows in this block */
+		public int size() {
+			return this.positions.length;
+			}
+		/** 1-based position of the row */
+		public int getPosition(final int row) {
+			return this.positions[row];
+			}
+		public int getDepth(final int row,final int sample) {
+			return this.depths[row*this.nSamples+sample];
+			}
+		}
+	
+	public static class Writer implements Closeable {
+		private final Path path;
+		private final int nSamples;
+		private final DataOutputStream out;
+		private final BlockCompressedOutputStream bgzf;
+		private final List<BlockInfo> blocks = new ArrayList<>();
+		/** contig to max position */
+		private final Map<String,Integer> contig2length = new LinkedHashMap<>();
+		private String prevContig = null;
+		private final int[] positions = new int[BLOCK_SIZE];
+		private final char[] depths;
+		private int count = 0;
+		private boolean closed = false;
+		
+		public Writer(final Path path,final List<String> samples) throws IOException {
+			if(samples.isEmpty()) throw new IllegalArgumentException("no sample");
+			this.path = path;
+			this.nSamples = samples.size();
+			this.depths = new char[BLOCK_SIZE * this.nSamples];
+			this.bgzf = new BlockCompressedOutputStream(path.toFile());
+			this.out = new DataOutputStream(this.bgzf);
+			this.out.writeInt(MAGIC);
+			this.out.writeInt(this.nSamples);
+			for(final String sn:samples) this.out.writeUTF(sn);
+			}
+		
+		/** add a row. Rows must be sorted on each contig. */
+		public void add(final String contig,final int pos1,final int[] rowDepths) throws IOException {
+			if(rowDepths.length!=this.nSamples) throw new IllegalArgumentException("expected "+this.nSamples+" depths but got "+rowDepths.length);
+			if(this.count>0 && (!contig.equals(this.prevContig) || this.count==BLOCK_SIZE)) {
+				flushBlock();
+				}
+			if(!contig.equals(this.prevContig)) {
+				if(this.contig2length.containsKey(contig)) throw new IllegalArgumentException("rows are not sorted: got "+contig+" twice.");
+				this.prevContig = contig;
+				}
+			final Integer prevPos = this.contig2length.get(contig);
+			if(prevPos!=null && prevPos.intValue() >= pos1) throw new IllegalArgumentException("rows are not sorted: got "+contig+":"+pos1+" after "+prevPos);
+			this.contig2length.put(contig, pos1);
+			this.positions[this.count] = pos1;
+			final int offset = this.count*this.nSamples;
+			for(int i=0;i< rowDepths.length;i++) {
+				this.depths[offset+i] = (char)Math.max(0, Math.min(MAX_DEPTH, rowDepths[i]));
+				}
+			this.count++;
+			}
+		
+		private void flushBlock() throws IOException {
+			if(this.count==0) return;
+			this.blocks.add(new BlockInfo(this.prevContig,this.positions[0],this.positions[this.count-1],this.count,this.bgzf.getFilePointer()));
+			final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + this.count * Integer.BYTES + this.count * this.nSamples * Character.BYTES);
+			buffer.putInt(this.count);
+			buffer.asIntBuffer().put(this.positions, 0, this.count);
+			buffer.position(buffer.position() + this.count * Integer.BYTES);
+			buffer.asCharBuffer().put(this.depths, 0, this.count * this.nSamples);
+			this.out.write(buffer.array());
+			this.count = 0;
+			}
+		
+		@Override
+		public void close() throws IOException {
+			if(this.closed) return;
+			this.closed = true;
+			flushBlock();
+			this.out.flush();
+			this.out.close();
+			try(DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getIndexPath(this.path))))) {
+				idx.writeInt(MAGIC);
+				idx.writeInt(this.contig2length.size());
+				for(final String contig:this.contig2length.keySet()) {
+					idx.writeUTF(contig);
+					idx.writeInt(this.contig2length.get(contig));
+					}
+				idx.writeInt(this.blocks.size());
+				for(final BlockInfo bi: this.blocks) {
+					idx.writeUTF(bi.contig);
+					idx.writeInt(bi.start);
+					idx.writeInt(bi.end);
+					idx.writeInt(bi.count);
+					idx.writeLong(bi.offset);
+					}
+				}
+			}
+		}
+	
+	/** a reader is not thread safe: open one reader per thread. */
+	public static class Reader implements Closeable {
+		private final BlockCompressedInputStream bgzf;
+		private final DataInputStream in;
+		private final List<String> samples;
+		private final List<BlockInfo> blocks;
+		private final SAMSequenceDictionary dict;
+		
+		public Reader(final Path path) throws IOException {
+			try(DataInputStream idx = new DataInputStream(new BufferedInputStream(Files.newInputStream(getIndexPath(path))))) {
+				if(idx.readInt()!=MAGIC) throw new IOException("bad magic for index of "+path);
+				final int nContigs = idx.readInt();
+				final List<SAMSequenceRecord> ssrs = new ArrayList<>(nContigs);
+				for(int i=0;i< nContigs;i++) {
+					final String contig = idx.readUTF();
+					ssrs.add(new SAMSequenceRecord(contig, idx.readInt()));
+					}
+				this.dict = new SAMSequenceDictionary(ssrs);
+				final int nBlocks = idx.readInt();
+				final List<BlockInfo> L = new ArrayList<>(nBlocks);
+				for(int i=0;i< nBlocks;i++) {
+					final String contig = idx.readUTF();
+					final int start = idx.readInt();
+					final int end = idx.readInt();
+					final int count = idx.readInt();
+					L.add(new BlockInfo(contig, start, end, count, idx.readLong()));
+					}
+				this.blocks = Collections.unmodifiableList(L);
+				}
+			this.bgzf = new BlockCompressedInputStream(path.toFile());
+			this.in = new DataInputStream(this.bgzf);
+			if(this.in.readInt()!=MAGIC) {
+				close();
+				throw new IOException("bad magic for "+path+". Not a depth matrix.");
+				}
+			final int nSamples = this.in.readInt();
+			final String[] array = new String[nSamples];
+			for(int i=0;i< nSamples;i++) array[i] = this.in.readUTF();
+			this.samples = Collections.unmodifiableList(Arrays.asList(array));
+			}
+		
+		public List<String> getSamples() {
+			return this.samples;
+			}
+		
+		/** dictionary of the contigs in the matrix, the length of a contig is its last position */
+		public SAMSequenceDictionary getSequenceDictionary() {
+			return this.dict;
+			}
+		
+		/** all the blocks, in the file order */
+		public List<BlockInfo> getBlocks() {
+			return this.blocks;
+			}
+		
+		/** all the blocks overlapping the region */
+		public List<BlockInfo> getBlocks(final Locatable region) {
+			return this.blocks.stream().
+				filter(B->B.overlaps(region)).
+				collect(Collectors.toList());
+			}
+		
+		public Block readBlock(final BlockInfo info) throws IOException {
+			this.bgzf.seek(info.offset);
+			final byte[] array = new byte[Integer.BYTES + info.count * Integer.BYTES + info.count * this.samples.size() * Character.BYTES];
+			this.in.readFully(array);
+			final ByteBuffer buffer = ByteBuffer.wrap(array);
+			if(buffer.getInt()!=info.count) throw new IOException("bad number of rows in "+info);
+			final int[] positions = new int[info.count];
+			buffer.asIntBuffer().get(positions);
+			buffer.position(buffer.position() + info.count * Integer.BYTES);
+			final char[] depths = new char[info.count * this.samples.size()];
+			buffer.asCharBuffer().get(depths);
+			return new Block(info, this.samples.size(), positions, depths);
+			}
+		
+		@Override
+		public void close() {
+			CloserUtil.close(this.in);
+			}
+		}
+	}
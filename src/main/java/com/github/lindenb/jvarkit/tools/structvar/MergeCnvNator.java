@@ -36,7 +36,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -46,6 +45,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
+import com.github.lindenb.jvarkit.variant.sv.SweepLineClusterer;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloserUtil;
@@ -57,6 +57,7 @@ import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFConstants;
@@ -84,6 +85,10 @@ duplication  chr2:3712001-3721000  9000       1.89036  0.0274362    5.17568e-42
 
 The name of each sample is the `basename` of the file, before the first `.`
 
+Calls are clustered contig by contig with a sweep-line: two calls of the same type are linked if they share the `--ratio` fraction of their lengths,
+and a cluster is a set of linked calls. If a sample has more than one call in a cluster, the k-th call of that sample is written in the k-th record of the cluster.
+The contigs can be processed in parallel with `--jobs`.
+
 a list of paths can be specified if the only input file ends with '.list' 
 
 
@@ -119,6 +124,8 @@ public class MergeCnvNator extends Launcher{
 	private File dictRefFile =  null;
 	@Parameter(names={"-r","--ratio"},description="two intervals are the same if they both have more or equals of this fraction of length in common")
 	private double region_are_same_ratio=0.75;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The contigs are clustered in parallel. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
 	
 	private final Allele REF_ALLELE = Allele.create("N", true);
 	private final Allele DEL_ALLELE = Allele.create("<DEL>", false);
@@ -212,7 +219,6 @@ public class MergeCnvNator extends Launcher{
 		final Double e_val_4 ;
 		final Double q0;
 		final Integer pe;
-		boolean echoed_flag = false;
 		
 		CnvNatorCall(String sample,final String tokens[]) {
 			this.sample = sample;
@@ -280,6 +286,111 @@ public class MergeCnvNator extends Launcher{
 		return testOverlapping2(A,B) &&  testOverlapping2(B,A);
 		}
 	
+	/** convert the clusters of one contig to variants, sorted on position */
+	private List<VariantContext> toVariantContexts(final List<List<CnvNatorCall>> clusters,final IntervalTreeMap<List<CnvNatorCall>> all_calls) {
+		final List<VariantContext> variants = new ArrayList<>(clusters.size());
+		for(final List<CnvNatorCall> cluster: clusters) {
+			// the k-th call of a sample goes to the k-th record
+			final List<List<CnvNatorCall>> layers = new ArrayList<>();
+			final Map<String,Integer> sample2count = new HashMap<>();
+			for(final CnvNatorCall call: cluster) {
+				final int k = sample2count.merge(call.sample, 1, Integer::sum) - 1;
+				if(k>0) {
+					LOG.warn("Sample "+call.sample+" exits twice at the same loc " + call+" could be two small SV overlapping a big one.");
+					}
+				if(k==layers.size()) layers.add(new ArrayList<>());
+				layers.get(k).add(call);
+				}
+			for(final List<CnvNatorCall> callsToPrint: layers) {
+				variants.add(toVariantContext(callsToPrint,all_calls));
+				}
+			}
+		variants.sort((A,B)->{
+			final int i = Integer.compare(A.getStart(), B.getStart());
+			if(i!=0) return i;
+			return Integer.compare(A.getEnd(), B.getEnd());
+			});
+		return variants;
+		}
+	
+	/** create a variant from some calls with distinct samples. The first call is used for the coordinates */
+	private VariantContext toVariantContext(final List<CnvNatorCall> callsToPrint,final IntervalTreeMap<List<CnvNatorCall>> all_calls) {
+		final CnvNatorCall baseCall = callsToPrint.get(0);
+		final VariantContextBuilder vcb= new VariantContextBuilder();
+		vcb.chr(baseCall.getContig());
+		vcb.start(baseCall.getStart());
+		vcb.stop(baseCall.getEnd());
+		vcb.attribute(VCFConstants.END_KEY, baseCall.getEnd());
+		vcb.attribute("SVLEN", baseCall.size);
+		vcb.attribute("IMPRECISE",true);
+		
+		switch(baseCall.interval.type)
+			{
+			case deletion:
+				vcb.alleles(Arrays.asList(REF_ALLELE,DEL_ALLELE));
+				vcb.attribute(VCFConstants.SVTYPE, "DEL");
+				break;
+			case duplication:
+				vcb.alleles(Arrays.asList(REF_ALLELE,DUP_ALLELE));
+				vcb.attribute(VCFConstants.SVTYPE, "DUP");
+				break;
+			default: throw new IllegalStateException();
+			}
+		
+		final Map<String,Genotype> sample2gt = new HashMap<>(callsToPrint.size());
+		for(final CnvNatorCall call: callsToPrint)
+			{
+			final GenotypeBuilder gb = new GenotypeBuilder(call.sample);
+			
+			if( call.normalized_RD!=null) gb.attribute("RD", call.normalized_RD);
+			if( call.e_val_1!=null) gb.attribute("P1", call.e_val_1);
+			if( call.e_val_2!=null) gb.attribute("P2", call.e_val_2);
+			if( call.e_val_3!=null) gb.attribute("P3", call.e_val_3);
+			if( call.e_val_4!=null) gb.attribute("P4", call.e_val_4);
+			if( call.q0!=null) gb.attribute("Q0", call.q0);
+			gb.attribute("OV",
+					all_calls.getOverlapping(call).
+						stream().
+						flatMap(col->col.stream()).
+						filter(C->!C.sample.equals(call.sample)).
+						count()
+					);
+			
+			if (call.interval.type==CnvType.deletion &&
+				call.normalized_RD!=null && call.normalized_RD <0.20) {
+			    gb.alleles(Arrays.asList(DEL_ALLELE,DEL_ALLELE));
+			    gb.attribute("CN", 0);
+				}
+			else if(call.interval.type==CnvType.deletion &&
+				call.normalized_RD!=null && call.normalized_RD >=0.20)
+				{
+				gb.alleles(Arrays.asList(REF_ALLELE,DEL_ALLELE));
+				gb.attribute("CN", 1);
+				}
+			else if(call.interval.type==CnvType.duplication &&
+				call.normalized_RD!=null && call.normalized_RD <=1.7)
+				{
+				gb.alleles(Arrays.asList(REF_ALLELE,DUP_ALLELE));
+				gb.attribute("CN",2);
+				}
+			else if(call.interval.type==CnvType.duplication &&
+				call.normalized_RD!=null && call.normalized_RD >1.7)
+				{
+				gb.alleles(Arrays.asList(DUP_ALLELE,DUP_ALLELE));
+				gb.attribute("CN",9999);
+				}
+			else
+				{
+				gb.alleles(Arrays.asList(Allele.NO_CALL,Allele.NO_CALL));
+				}
+			
+			sample2gt.put(call.sample,gb.make());
+			}
+		vcb.attribute("SAMPLES",new ArrayList<>(sample2gt.keySet()));
+		vcb.genotypes(sample2gt.values());
+		return vcb.make();
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.region_are_same_ratio<=0 || this.region_are_same_ratio>1) {
@@ -303,7 +414,7 @@ public class MergeCnvNator extends Launcher{
 				dict=null;
 				}
 			
-			final Set<CNVNatorInterval> intervals_set = new HashSet<>();
+			final List<CnvNatorCall> calls_list = new ArrayList<>();
 			final IntervalTreeMap<List<CnvNatorCall>> all_calls = new IntervalTreeMap<>();
 			final Set<String> all_samples = new TreeSet<>();
 			
@@ -323,7 +434,7 @@ public class MergeCnvNator extends Launcher{
 						LOG.warn("skipping "+line+" because contig "+call.getContig()+" is not defined in dictionary");
 						continue;
 						}
-					intervals_set.add(call.interval);
+					calls_list.add(call);
 					final Interval key = new Interval(call.getContig(), call.getStart(), call.getEnd());
 					List<CnvNatorCall> callList = all_calls.get(key);
 					if(callList==null) {
@@ -346,22 +457,6 @@ public class MergeCnvNator extends Launcher{
 				contigComparator = (A,B)-> smartComparator.compare(A, B);
 				}
 			
-			final Comparator<CNVNatorInterval> comparator = (A,B)->{
-				int i = contigComparator.compare(A.getContig(), B.getContig());
-				if(i!=0) return i;
-				i = Integer.compare(A.getStart(), B.getStart());
-				if(i!=0) return i;
-				i = Integer.compare(A.getEnd(), B.getEnd());
-				if(i!=0) return i;
-				i = A.type.compareTo(B.type);
-				return i;
-			};
-			final List<CNVNatorInterval> intervals_list = 
-					intervals_set.stream().
-					sorted(comparator).
-					collect(Collectors.toList());
-			
-			
 			final Set<VCFHeaderLine> metadata = new HashSet<>();
 			
 			VCFStandardHeaderLines.addStandardFormatLines(metadata, true,
@@ -439,121 +534,15 @@ public class MergeCnvNator extends Launcher{
 			
 			out =  super.openVariantContextWriter(this.outputFile);
 			out.writeHeader(header);
-			for(final CNVNatorInterval interval:intervals_list)
-				{
-				final List<CnvNatorCall> overlappingList = all_calls.
-					getOverlapping(interval).
-					stream().
-					flatMap(L->L.stream()).
-					filter(C->C.interval.type.equals(interval.type)).
-					filter(C->!C.echoed_flag).
-					collect(Collectors.toList());
-				
-				if(overlappingList.isEmpty()) continue;
-				final CnvNatorCall baseCall = overlappingList.stream().
-						filter(C->C.interval.equals(interval)).
-						findFirst().
-						orElse(null);
-				if(baseCall==null)
-					{
-					continue;
-					}
-				final List<CnvNatorCall> callsToPrint = overlappingList.stream().
-						filter(C->testOverlapping(C,baseCall)).
-						collect(Collectors.toList())
-						;
-				
-				if(callsToPrint.isEmpty()) throw new IllegalStateException();
-				
-				final VariantContextBuilder vcb= new VariantContextBuilder();
-				vcb.chr(baseCall.getContig());
-				vcb.start(baseCall.getStart());
-				vcb.stop(baseCall.getEnd());
-				vcb.attribute(VCFConstants.END_KEY, baseCall.getEnd());
-				vcb.attribute("SVLEN", baseCall.size);
-				vcb.attribute("IMPRECISE",true);
-				
-				switch(baseCall.interval.type)
-					{
-					case deletion:
-						vcb.alleles(Arrays.asList(REF_ALLELE,DEL_ALLELE));
-						vcb.attribute(VCFConstants.SVTYPE, "DEL");
-						break;
-					case duplication:
-						vcb.alleles(Arrays.asList(REF_ALLELE,DUP_ALLELE));
-						vcb.attribute(VCFConstants.SVTYPE, "DUP");
-						break;
-					default: throw new IllegalStateException();
-					}
-				
-				
-				final Map<String,Genotype> sample2gt = new HashMap<>(callsToPrint.size());
-				for(final CnvNatorCall call: callsToPrint)
-					{
-					if(sample2gt.containsKey(call.sample))
-						{
-						LOG.warn("Sample "+call.sample+" exits twice at the same loc " + call+" could be two small SV overlapping a big one.");
-						continue;
-						}
-					call.echoed_flag  = true;
-					
-					final GenotypeBuilder gb = new GenotypeBuilder(call.sample);
-					
-					if( call.normalized_RD!=null) gb.attribute("RD", call.normalized_RD);
-					if( call.e_val_1!=null) gb.attribute("P1", call.e_val_1);
-					if( call.e_val_2!=null) gb.attribute("P2", call.e_val_2);
-					if( call.e_val_3!=null) gb.attribute("P3", call.e_val_3);
-					if( call.e_val_4!=null) gb.attribute("P4", call.e_val_4);
-					if( call.q0!=null) gb.attribute("Q0", call.q0);
-					gb.attribute("OV",
-							all_calls.getOverlapping(call).
-								stream().
-								flatMap(col->col.stream()).
-								filter(C->!C.sample.equals(call.sample)).
-								count()
-							);
-					
-					if (call.interval.type==CnvType.deletion &&
-						call.normalized_RD!=null && call.normalized_RD <0.20) {
-					    gb.alleles(Arrays.asList(DEL_ALLELE,DEL_ALLELE));
-					    gb.attribute("CN", 0);
-						}
-					else if(call.interval.type==CnvType.deletion &&
-						call.normalized_RD!=null && call.normalized_RD >=0.20)
-						{
-						gb.alleles(Arrays.asList(REF_ALLELE,DEL_ALLELE));
-						gb.attribute("CN", 1);
-						}
-					else if(call.interval.type==CnvType.duplication &&
-						call.normalized_RD!=null && call.normalized_RD <=1.7)
-						{
-						gb.alleles(Arrays.asList(REF_ALLELE,DUP_ALLELE));
-						gb.attribute("CN",2);
-						}
-					else if(call.interval.type==CnvType.duplication &&
-						call.normalized_RD!=null && call.normalized_RD >1.7)
-						{
-						gb.alleles(Arrays.asList(DUP_ALLELE,DUP_ALLELE));
-						gb.attribute("CN",9999);
-						}
-					else
-						{
-						gb.alleles(Arrays.asList(Allele.NO_CALL,Allele.NO_CALL));
-						}
-					
-					
-					sample2gt.put(call.sample,gb.make());
-					
-					}
-				vcb.attribute("SAMPLES",new ArrayList<>(sample2gt.keySet()));
-				vcb.genotypes(sample2gt.values());
-				out.add(vcb.make());
-				}
-			
-			all_calls.values().stream().
-				flatMap(C->C.stream()).
-				filter(C->!C.echoed_flag).
-				forEach(C->LOG.warn("Bug: Not printed "+C));
+			final VariantContextWriter w = out;
+			new SweepLineClusterer<CnvNatorCall>((A,B)->A.interval.type.equals(B.interval.type) && testOverlapping(A,B)).
+				setNumberOfThreads(this.nJobs).
+				clusterByContig(
+					calls_list,
+					contigComparator,
+					L->toVariantContexts(L,all_calls),
+					V->w.add(V)
+					);
 			
 			out.close();
 			out=null;
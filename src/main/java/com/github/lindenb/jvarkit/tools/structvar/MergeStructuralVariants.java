@@ -48,12 +48,12 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
+import com.github.lindenb.jvarkit.variant.sv.SweepLineClusterer;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.CoordMath;
 import htsjdk.samtools.util.Interval;
-import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.variant.variantcontext.Allele;
@@ -75,7 +75,14 @@ import htsjdk.variant.vcf.VCFStandardHeaderLines;
 /**
 BEGIN_DOC
 
+## Clustering
 
+The calls are sorted on their position and swept contig by contig. Two calls
+are linked if they have the same SVTYPE and they match the `--distance` (BND) or
+the `--fraction` (other types) criterion. A cluster is a set of linked calls.
+If a sample has more than one call in a cluster, the k-th call of that sample is written in the k-th record of the cluster.
+
+The contigs can be processed in parallel with `--jobs`.
 
 END_DOC
 
@@ -85,7 +92,7 @@ END_DOC
 generate_doc=false,
 description="Merge SV results",
 keywords= {"cnv","indel","sv"},
-modificationDate="20190815"
+modificationDate="20201019"
 )
 public class MergeStructuralVariants extends Launcher{
 	private static final Logger LOG = Logger.build(MergeStructuralVariants.class).make();
@@ -98,12 +105,14 @@ public class MergeStructuralVariants extends Launcher{
 
 	@Parameter(names={"-m","--max-length"},description="ignore variant longer than 'x' bases. Ignore this parameter if 'x' <=0 ")
 	private int max_variant_length = -1;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The contigs are clustered in parallel. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
 
 	private class VcfInput {
 		//final Path path;
 		final SAMSequenceDictionary dict;
 		final String sample;
-		final IntervalTreeMap<CnvCall> callMap=new IntervalTreeMap<>();
+		final List<CnvCall> calls = new ArrayList<>();
 		
 		VcfInput(final Path path) {
 			//this.path = path;
@@ -127,15 +136,7 @@ public class MergeStructuralVariants extends Launcher{
 				filter(V->V.getStructuralVariantType()!=null).
 				filter(V->max_variant_length<=0 || (V.getEnd()-V.getStart()+1)<= max_variant_length).
 				map(V->new CnvCall(V,sample)).
-				forEach(V->{
-					final int extend = getExtendFor(V);
-					
-					final Interval key = new Interval(V.getContig(), 
-							Math.max(1,V.getStart()-extend),
-							V.getEnd()+extend
-							);
-					this.callMap.put(key,V);
-					});
+				forEach(V->this.calls.add(V));
 			vcfFileReader.close();
 			}
 		}
@@ -149,7 +150,6 @@ public class MergeStructuralVariants extends Launcher{
 		private final String svType;
 		@SuppressWarnings("unused")
 		private final GenotypeType genotypeType;
-		boolean echoed_flag = false;
 		CnvCall(final VariantContext ctx,final String sample) {
 			//this.ctx = ctx;
 			this.sample = sample;
@@ -286,9 +286,89 @@ public class MergeStructuralVariants extends Launcher{
 			}
 		}
 	
-	private int getExtendFor(final CnvCall ctx) {
-		return 0;
-	}
+	/** convert the clusters of one contig to variants, sorted on position */
+	private List<VariantContext> toVariantContexts(final List<List<CnvCall>> clusters) {
+		final List<VariantContext> variants = new ArrayList<>(clusters.size());
+		for(final List<CnvCall> cluster: clusters) {
+			// the k-th call of a sample goes to the k-th record
+			final List<List<CnvCall>> layers = new ArrayList<>();
+			final Map<String,Integer> sample2count = new HashMap<>();
+			for(final CnvCall call: cluster) {
+				final int k = sample2count.merge(call.getSample(), 1, Integer::sum) - 1;
+				if(k>0) {
+					LOG.warn("Sample "+call.getSample()+" exits twice at the same loc " + call+" could be two small SV overlapping a big one.");
+					}
+				if(k==layers.size()) layers.add(new ArrayList<>());
+				layers.get(k).add(call);
+				}
+			for(final List<CnvCall> callsToPrint: layers) {
+				variants.add(toVariantContext(callsToPrint));
+				}
+			}
+		variants.sort((A,B)->{
+			final int i = Integer.compare(A.getStart(), B.getStart());
+			if(i!=0) return i;
+			return Integer.compare(A.getEnd(), B.getEnd());
+			});
+		return variants;
+		}
+	
+	/** create a variant from some calls with distinct samples. The first call is used for the coordinates */
+	private VariantContext toVariantContext(final List<CnvCall> callsToPrint) {
+		final CnvCall baseCall = callsToPrint.get(0);
+		final Allele ref = Allele.create("N",true); 
+		final Allele alt = Allele.create("<"+baseCall.svType+">",false); 
+
+		final List<Allele> alleles = Arrays.asList(ref,alt);
+		
+		final VariantContextBuilder vcb= new VariantContextBuilder();
+		vcb.chr(baseCall.getContig());
+		vcb.start(baseCall.getStart());
+		vcb.stop(baseCall.getEnd());
+		vcb.attribute(VCFConstants.END_KEY, baseCall.getEnd());
+		vcb.attribute(VCFConstants.SVTYPE, baseCall.getType());
+		vcb.attribute("SVLEN", (1+baseCall.getEnd()-baseCall.getStart()));
+		
+		for(int side=0;side<2;side++)
+			{
+			final Function<CnvCall,Integer> coordExtractor;
+			if(side==0)
+				{
+				coordExtractor = C->C.getStart();
+				}
+			else
+				{
+				coordExtractor = C->C.getEnd();
+				}
+			final List<Integer> list = Arrays.asList(
+				callsToPrint.stream().
+					mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(baseCall)).
+					min().
+					orElse(0),
+				callsToPrint.stream().
+					mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(baseCall)).
+					max().
+					orElse(0)
+				);
+			vcb.attribute(
+					side==0?"CIPOS":"CIEND", 
+					list
+					);
+			}
+		vcb.attribute("IMPRECISE", true);
+		
+		final Map<String,Genotype> sample2gt = new HashMap<>(callsToPrint.size());
+		for(final CnvCall call: callsToPrint)
+			{
+			final GenotypeBuilder gb = new GenotypeBuilder(call.sample,alleles);
+			sample2gt.put(call.getSample(),gb.make());
+			}
+		vcb.attribute("SAMPLES",new ArrayList<>(sample2gt.keySet()));
+		vcb.attribute("NSAMPLES",sample2gt.size());
+		vcb.genotypes(sample2gt.values());
+		vcb.alleles(alleles);
+		return vcb.make();
+		}
 	
 	private final List<VcfInput> vcfFilesInput = new ArrayList<>();
 
@@ -330,23 +410,6 @@ public class MergeStructuralVariants extends Launcher{
 			final Comparator<String> contigComparator = new ContigDictComparator(dict);
 			
 			
-			final Comparator<CnvCall> comparator = (A,B)->{
-				int i = contigComparator.compare(A.getContig(), B.getContig());
-				if(i!=0) return i;
-				i = Integer.compare(A.getStart(), B.getStart());
-				if(i!=0) return i;
-				i = Integer.compare(A.getEnd(), B.getEnd());
-				if(i!=0) return i;
-				i = A.getType().compareTo(B.getType());
-				return i;
-				};
-				
-			final List<CnvCall> intervals_list = 
-					this.vcfFilesInput.stream().
-					flatMap(F->F.callMap.values().stream()).
-					sorted(comparator).
-					collect(Collectors.toList());
-			
 			VCFStandardHeaderLines.addStandardFormatLines(metadata, true, 
 					VCFConstants.GENOTYPE_KEY
 					);
@@ -409,94 +472,16 @@ public class MergeStructuralVariants extends Launcher{
 			
 			out =  super.openVariantContextWriter(this.outputFile);
 			out.writeHeader(header);
-			for(final CnvCall baseCall:intervals_list)
-				{
-				if(baseCall.echoed_flag) continue;
-				
-				final Allele ref = Allele.create("N",true); 
-				final Allele alt = Allele.create("<"+baseCall.svType+">",false); 
-
-				final List<Allele> alleles = Arrays.asList(ref,alt);
-				
-				
-				final List<CnvCall> callsToPrint = this.vcfFilesInput.stream().
-					flatMap(F->F.callMap.getOverlapping(baseCall).stream().
-						filter(C->C.getType().equals(baseCall.getType())).
-						filter(C->!C.echoed_flag).
-						filter(C->testOverlapping(C, baseCall))
-						).collect(Collectors.toList());
-				
-				if(callsToPrint.isEmpty()) {
-					throw new IllegalStateException();
-					}
-				
-				
-				final VariantContextBuilder vcb= new VariantContextBuilder();
-				vcb.chr(baseCall.getContig());
-				vcb.start(baseCall.getStart());
-				vcb.stop(baseCall.getEnd());
-				vcb.attribute(VCFConstants.END_KEY, baseCall.getEnd());
-				vcb.attribute(VCFConstants.SVTYPE, baseCall.getType());
-				vcb.attribute("SVLEN", (1+baseCall.getEnd()-baseCall.getStart()));
-				
-				for(int side=0;side<2;side++)
-					{
-					final Function<CnvCall,Integer> coordExtractor;
-					if(side==0)
-						{
-						coordExtractor = C->C.getStart();
-						}
-					else
-						{
-						coordExtractor = C->C.getEnd();
-						}
-					final List<Integer> list = Arrays.asList(
-						callsToPrint.stream().
-							mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(baseCall)).
-							min().
-							orElse(0),
-						callsToPrint.stream().
-							mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(baseCall)).
-							max().
-							orElse(0)
-						);
-					vcb.attribute(
-							side==0?"CIPOS":"CIEND", 
-							list
-							);
-					}
-				vcb.attribute("IMPRECISE", true);
-				
-				final Map<String,Genotype> sample2gt = new HashMap<>(callsToPrint.size());
-				for(final CnvCall call: callsToPrint)
-					{
-					if(sample2gt.containsKey(call.getSample()))
-						{
-						LOG.warn("Sample "+call.getSample()+" exits twice at the same loc " + call+" could be two small SV overlapping a big one.");
-						continue;
-						}
-					call.echoed_flag  = true;
-					
-					//final List<Allele> alleles=Arrays.asList(ref,alt);
-					
-					final GenotypeBuilder gb = new GenotypeBuilder(call.sample,alleles);
-					
-					
-										
-					sample2gt.put(call.getSample(),gb.make());
-					}
-				vcb.attribute("SAMPLES",new ArrayList<>(sample2gt.keySet()));
-				vcb.attribute("NSAMPLES",sample2gt.size());
-				vcb.genotypes(sample2gt.values());
-				vcb.alleles(alleles);
-				out.add(vcb.make());				
-				} //end of loop interval
-			/*
-			all_calls.values().stream().
-				flatMap(C->C.stream()).
-				filter(C->!C.echoed_flag).
-				forEach(C->LOG.warn("Bug: Not printed "+C));
-			 */			
+			final VariantContextWriter w = out;
+			new SweepLineClusterer<CnvCall>(this::testOverlapping).
+				setMaxDistance(this.max_distance).
+				setNumberOfThreads(this.nJobs).
+				clusterByContig(
+					this.vcfFilesInput.stream().flatMap(F->F.calls.stream()).collect(Collectors.toList()),
+					contigComparator,
+					this::toVariantContexts,
+					V->w.add(V)
+					);
 			
 			out.close();
 			out=null;
@@ -29,9 +29,12 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -51,20 +54,37 @@ import org.broad.igv.bbfile.BigWigIterator;
 import org.broad.igv.bbfile.WigItem;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.CharSplitter;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.samtools.util.IntervalParserFactory;
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
+import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
 import com.github.lindenb.jvarkit.util.iterator.MergingIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.FileExtensions;
+import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 
@@ -76,6 +96,10 @@ Input is either:
 
   * one fileof samtools depth output. All 'N' samples in one file.
   * 'N' files (samtools depth output AND/OR bigwig/bigbed [experimental not tested] ). One samples in per file. REF dictionary is required. List of file can be specified if input ends with '.list' 
+  * one binary depth matrix (suffix '.dpm') created with the option `--save-matrix`. The blocks of the matrix are decoded and the contigs are called in parallel (option `--jobs`).
+
+With `--save-matrix`, the input (samtools depth output, one-sample depth files or indexed BAM/CRAM files) is converted to a binary depth matrix and no CNV is called.
+The matrix is much faster to read than the text output of samtools depth.
 
 bigbed and bigwig have not been tested; Bigbed shouldn't have overlapping regions...
 
@@ -86,13 +110,19 @@ samtools depth -r '1:1234-567' *.bam |\
 	java -jar dist/naivecnvdetector.jar  > out.tsv
 ```
 
+```
+java -jar dist/naivecnvdetector.jar --save-matrix depth.dpm -j 4 *.bam
+java -jar dist/naivecnvdetector.jar -j 4 depth.dpm > out.tsv
+```
+
 
 END_DOC
 
  */
 @Program(name="naivecnvdetector",
 	description="experimental CNV detection for multiple samples.",
-	keywords= {"cnv","bam","sam","wig","bigwig","bigbed"}
+	keywords= {"cnv","bam","sam","wig","bigwig","bigbed"},
+	modificationDate="20201019"
 	)
 public class NaiveCnvDetector extends Launcher
 	{
@@ -126,6 +156,15 @@ public class NaiveCnvDetector extends Launcher
 	private boolean use_standard_depth = false;
 	@Parameter(names={"-R","-reference"},description=INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private File dictRefFile =  null;
+	@Parameter(names={"--save-matrix"},description="Don't call the CNVs. Convert the input (samtools depth output, one-sample depth files or indexed BAM/CRAM files) to a binary depth matrix. The output filename must end with '"+DepthMatrix.FILE_SUFFIX+"'. An index '"+DepthMatrix.INDEX_SUFFIX+"' is created along the matrix.")
+	private Path saveMatrixPath =  null;
+	@Parameter(names={"--region"},description="Only call this region when the input is a binary depth matrix. "+IntervalParserFactory.OPT_DESC)
+	private String regionStr =  null;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. When the input is a binary depth matrix, the contigs are called in parallel. With '--save-matrix' and BAM inputs, the depth of the regions are computed in parallel. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	
+	/** size of the regions scanned when converting BAMs to a depth matrix */
+	private static final int BAM_CHUNK_SIZE = 100_000;
 
 
 
@@ -164,7 +203,7 @@ public class NaiveCnvDetector extends Launcher
 	private final List<SampleInfo> sampleList  = new ArrayList<>();
 	private int count_affected_samples = 0;
 	private int count_unaffected_samples = 0;
-	private DecimalFormat decimalFormater = new DecimalFormat("##.##");
+	private final ThreadLocal<DecimalFormat> decimalFormaters = ThreadLocal.withInitial(()->new DecimalFormat("##.##"));
 	private SAMSequenceDictionary dict = null;
 	
 	private class DepthLine
@@ -225,18 +264,83 @@ public class NaiveCnvDetector extends Launcher
 		
 		}
 	
-	private final List<DepthLine> depthBuffer=new ArrayList<>();
+	/** sliding windows over a stream of sorted DepthLine. One instance per thread. */
+	private class WindowCaller
+		{
+		private final List<DepthLine> depthBuffer=new ArrayList<>();
+		private final PrintWriter out;
+		/** sum/count of the raw depths for each sample */
+		private final long sumDepth[];
+		private final long countDepth[];
+		WindowCaller(final PrintWriter out) {
+			this.out = out;
+			this.sumDepth = new long[sampleList.size()];
+			this.countDepth = new long[sampleList.size()];
+			}
+		void accept(final DepthLine depthLine)
+			{
+			for(int x=0;x<depthLine.depths.length;++x)
+				{
+				final SampleInfo si=sampleList.get(x);
+				this.sumDepth[x] += depthLine.depths[x];
+				this.countDepth[x]++;
+				depthLine.depths[x] *= si.adjustDepth;
+				}
+			if(!this.depthBuffer.isEmpty())
+				{
+				final DepthLine last = this.depthBuffer.get(this.depthBuffer.size()-1);
+				if(!last.contig.equals(depthLine.contig))
+					{
+					dump(this.depthBuffer,this.out);
+					this.depthBuffer.clear();
+					}
+				else if(last.pos+1!=depthLine.pos)
+					{
+					dump(this.depthBuffer,this.out);
+					this.depthBuffer.clear();
+					}
+				else if(!disable_consecutive_bases && last.pos>=depthLine.pos)
+					{
+					dump(this.depthBuffer,this.out);
+					this.depthBuffer.clear();
+					}
+				}
+			this.depthBuffer.add(depthLine);
+			if(this.depthBuffer.size()==windowSize)
+				{
+				dump(this.depthBuffer,this.out);
+				for(int x=0;x<windowShift && !this.depthBuffer.isEmpty();++x)
+					{
+					this.depthBuffer.remove(0);
+					}
+				}
+			}
+		/** call the remaining positions */
+		void finish() {
+			dump(this.depthBuffer,this.out);
+			this.depthBuffer.clear();
+			this.out.flush();
+			}
+		/** add the depth statistics to the samples. Must be called from the main thread */
+		void updateSamples() {
+			for(int x=0;x< this.sumDepth.length;++x) {
+				final SampleInfo si=sampleList.get(x);
+				si.sumDepth += this.sumDepth[x];
+				si.countDepth += this.countDepth[x];
+				}
+			}
+		}
 	
 	/** convert double to string */
 	private String format(double v)
 		{
-		return this.decimalFormater.format(v);
+		return this.decimalFormaters.get().format(v);
 		}	
 	
-	private void dump(final PrintWriter out) {
+	private void dump(final List<DepthLine> depthBuffer,final PrintWriter out) {
 		if(depthBuffer.isEmpty()) return;
 		if(depthBuffer.size()< this.windowSize/2) return;
-		final DepthInterval rec = new DepthInterval(this.depthBuffer);
+		final DepthInterval rec = new DepthInterval(depthBuffer);
 		
 		// at last one unaffected must have depth >= this.min_unaffected_depth
 		if(this.sampleList.stream().
@@ -392,9 +496,271 @@ public class NaiveCnvDetector extends Launcher
 			}
 		
 		out.println();
+		}
+	
+	/** create the default list of samples, all unaffected */
+	private void initDefaultSamples(final List<String> names) {
+		LOG.info("building default sample list");
+		this.count_affected_samples = 0;
+		this.count_unaffected_samples = names.size();
+		for(int i=0;i< names.size();i++) {
+			final SampleInfo si = new SampleInfo();
+			si.index=i;
+			si.affected=false;
+			si.meanDepth = 20;
+			si.adjustDepth = 1.0;
+			si.name = names.get(i);
+			this.sampleList.add(si);
+			}
+		}
+	
+	private static List<String> defaultSampleNames(final int n) {
+		final List<String> L = new ArrayList<>(n);
+		for(int i=0;i< n;i++) {
+			L.add(String.format("S%03d",(i+1)));
+			}
+		return L;
+		}
+	
+	/** result of the calling of one region of the depth matrix */
+	private static class RegionCalls {
+		final String text;
+		final WindowCaller caller;
+		RegionCalls(final String text,final WindowCaller caller) {
+			this.text = text;
+			this.caller = caller;
+			}
+		}
+	
+	/** call one region of the depth matrix, invoked from a worker thread */
+	private RegionCalls callRegion(final Path matrixPath,final Locatable region) {
+		final StringWriter sw = new StringWriter();
+		final WindowCaller caller = new WindowCaller(new PrintWriter(sw));
+		try(DepthMatrix.Reader reader = new DepthMatrix.Reader(matrixPath)) {
+			final int nSamples = reader.getSamples().size();
+			for(final DepthMatrix.BlockInfo blockInfo : reader.getBlocks(region)) {
+				final DepthMatrix.Block block = reader.readBlock(blockInfo);
+				for(int row=0;row< block.size();++row) {
+					final int pos = block.getPosition(row);
+					if(pos < region.getStart()) continue;
+					if(pos > region.getEnd()) break;
+					final DepthLine depthLine = new DepthLine(block.getContig(), pos, nSamples);
+					for(int x=0;x< nSamples;++x) {
+						depthLine.depths[x] = block.getDepth(row, x);
+						}
+					caller.accept(depthLine);
+					}
+				}
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		caller.finish();
+		return new RegionCalls(sw.toString(), caller);
+		}
+	
+	/** call the CNVs from a binary depth matrix */
+	private void callMatrix(final Path matrixPath,final PrintWriter out) throws IOException {
+		final List<Locatable> regions = new ArrayList<>();
+		try(DepthMatrix.Reader reader = new DepthMatrix.Reader(matrixPath)) {
+			if(this.sampleList.isEmpty())
+				{
+				initDefaultSamples(reader.getSamples());
+				printHeader(out);
+				}
+			else if(this.sampleList.size()!= reader.getSamples().size())
+				{
+				throw new JvarkitException.UserError("expected "+this.sampleList.size()+" samples in "+matrixPath+" but got "+reader.getSamples().size());
+				}
+			final SAMSequenceDictionary matrixDict = reader.getSequenceDictionary();
+			if(this.regionStr!=null) {
+				regions.add(IntervalParserFactory.newInstance(matrixDict).
+					make().
+					apply(this.regionStr).
+					orElseThrow(IntervalParserFactory.exception(this.regionStr)));
+				}
+			else
+				{
+				for(final SAMSequenceRecord ssr: matrixDict.getSequences()) {
+					regions.add(new SimpleInterval(ssr.getSequenceName(), 1, ssr.getSequenceLength()));
+					}
+				}
+			}
+		try(OrderedBatchMapper<Locatable,RegionCalls> mapper = new OrderedBatchMapper<>(
+				this.nThreads,
+				1,
+				()->R->callRegion(matrixPath, R),
+				(R,C)->{
+					LOG.info("done "+R.getContig());
+					out.print(C.text);
+					C.caller.updateSamples();
+					}
+				)) {
+			for(final Locatable region: regions) {
+				mapper.accept(region);
+				}
+			}
 		out.flush();
 		}
 	
+	private void saveDepthLines(final Iterator<DepthLine> dpIter) throws IOException {
+		DepthMatrix.Writer writer = null;
+		try {
+			int[] depths = null;
+			while(dpIter.hasNext()) {
+				final DepthLine depthLine = dpIter.next();
+				if(writer==null) {
+					final int nSamples = depthLine.depths.length;
+					final List<String> names;
+					if(this.sampleList.size() == nSamples) {
+						names = this.sampleList.stream().map(S->S.name).collect(Collectors.toList());
+						}
+					else
+						{
+						names = defaultSampleNames(nSamples);
+						}
+					writer = new DepthMatrix.Writer(this.saveMatrixPath, names);
+					depths = new int[nSamples];
+					}
+				if(depthLine.depths.length!=depths.length) throw new JvarkitException.UserError("expected "+depths.length+" depths at "+depthLine.contig+":"+depthLine.pos);
+				for(int x=0;x< depths.length;++x) {
+					depths[x] = (int)depthLine.depths[x];
+					}
+				writer.add(depthLine.contig, depthLine.pos, depths);
+				}
+			if(writer==null) {
+				throw new JvarkitException.UserError("no depth line in input");
+				}
+			writer.close();
+			writer = null;
+			}
+		finally
+			{
+			CloserUtil.close(writer);
+			}
+		}
+	
+	/** depth of all the BAMs in one region */
+	private static class BamChunk {
+		final Locatable region;
+		/** depth[sample][pos-region.start] */
+		final char[][] depths;
+		BamChunk(final Locatable region,final int nSamples) {
+			this.region = region;
+			this.depths = new char[nSamples][region.getLengthOnReference()];
+			}
+		}
+	
+	private static SamReader openBam(final Path path) {
+		return SamReaderFactory.makeDefault().
+				validationStringency(ValidationStringency.LENIENT).
+				open(path);
+		}
+	
+	/** compute the depth of each BAM in one region, invoked from a worker thread */
+	private BamChunk scanBams(final List<SamReader> samReaders,final Locatable region) {
+		final BamChunk chunk = new BamChunk(region, samReaders.size());
+		for(int i=0;i< samReaders.size();i++) {
+			final char[] array = chunk.depths[i];
+			try(SAMRecordIterator iter = samReaders.get(i).queryOverlapping(region.getContig(),region.getStart(),region.getEnd())) {
+				while(iter.hasNext())
+					{
+					final SAMRecord rec = iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(rec.getDuplicateReadFlag()) continue;
+					if(rec.isSecondaryOrSupplementary()) continue;
+					if(rec.getReadFailsVendorQualityCheckFlag()) continue;
+					final Cigar cigar = rec.getCigar();
+					if(cigar==null || cigar.isEmpty()) continue;
+					int refPos=rec.getStart();
+					for(final CigarElement ce:cigar)
+						{
+						final CigarOperator op=ce.getOperator();
+						if(op.consumesReferenceBases())
+							{
+							if(op.consumesReadBases())
+								{
+								for(int j=0;j< ce.getLength();j++)
+									{
+									final int idx = refPos-region.getStart()+j;
+									if(idx<0) continue;
+									if(idx>=array.length) break;
+									if(array[idx]==DepthMatrix.MAX_DEPTH) continue;
+									array[idx]++;
+									}
+								}
+							refPos+=ce.getLength();
+							}
+						}
+					}
+				}
+			}
+		return chunk;
+		}
+	
+	/** convert indexed BAMs to a depth matrix */
+	private void saveBams(final List<Path> bamPaths) throws IOException {
+		final List<String> names = new ArrayList<>(bamPaths.size());
+		SAMSequenceDictionary bamDict = null;
+		for(final Path bamPath:bamPaths) {
+			try(SamReader sr = openBam(bamPath)) {
+				if(!sr.hasIndex()) throw new IOException("Bam is not indexed : "+bamPath);
+				final SAMFileHeader header = sr.getFileHeader();
+				final SAMSequenceDictionary dict2 = SequenceDictionaryUtils.extractRequired(header);
+				if(bamDict==null) {
+					bamDict = dict2;
+					}
+				else if(!SequenceUtil.areSequenceDictionariesEqual(bamDict, dict2)) {
+					throw new JvarkitException.DictionariesAreNotTheSame(bamDict, dict2);
+					}
+				names.add(header.getReadGroups().stream().
+						map(R->R.getSample()).
+						filter(S->!StringUtil.isBlank(S)).
+						findFirst().
+						orElse(IOUtils.getFilenameWithoutCommonSuffixes(bamPath)));
+				}
+			}
+		final List<SamReader> allReaders = Collections.synchronizedList(new ArrayList<>());
+		final int[] depths = new int[bamPaths.size()];
+		try(DepthMatrix.Writer writer = new DepthMatrix.Writer(this.saveMatrixPath, names)) {
+			try(OrderedBatchMapper<Locatable,BamChunk> mapper = new OrderedBatchMapper<>(
+					this.nThreads,
+					1,
+					()->{
+						final List<SamReader> samReaders = bamPaths.stream().map(P->openBam(P)).collect(Collectors.toList());
+						allReaders.addAll(samReaders);
+						return R->scanBams(samReaders,R);
+						},
+					(R,C)->{
+						for(int i=0;i< R.getLengthOnReference();i++) {
+							boolean all_zero = true;
+							for(int x=0;x< depths.length;++x) {
+								depths[x] = C.depths[x][i];
+								if(depths[x]!=0) all_zero = false;
+								}
+							// like samtools depth, positions without coverage are skipped
+							if(all_zero) continue;
+							try {
+								writer.add(R.getContig(), R.getStart()+i, depths);
+								}
+							catch(final IOException err) {
+								throw new RuntimeIOException(err);
+								}
+							}
+						}
+					)) {
+				for(final SAMSequenceRecord ssr: bamDict.getSequences()) {
+					for(int start=1;start<=ssr.getSequenceLength();start+=BAM_CHUNK_SIZE) {
+						mapper.accept(new SimpleInterval(ssr.getSequenceName(), start, Math.min(ssr.getSequenceLength(), start + BAM_CHUNK_SIZE - 1)));
+						}
+					}
+				}
+			}
+		finally
+			{
+			CloserUtil.close(allReaders);
+			}
+		}
 	
 	private void printHeader(final PrintWriter out) {
 		out.print("#chrom");
@@ -442,6 +808,13 @@ public class NaiveCnvDetector extends Launcher
 		}
 
 	
+	private void logSamples() {
+		for(final SampleInfo ci:this.sampleList) {
+			if(ci.countDepth<=0) continue;
+			LOG.info(ci.name+"\t"+(ci.sumDepth/(double)ci.countDepth)+"\t"+(ci.isAffected()?1:0));
+			}
+		}
+	
 	@SuppressWarnings("resource")
 	@Override
 	public int doWork(final List<String> args) {		
@@ -467,6 +840,11 @@ public class NaiveCnvDetector extends Launcher
 		
 		
 		
+		if(this.saveMatrixPath!=null && !this.saveMatrixPath.getFileName().toString().endsWith(DepthMatrix.FILE_SUFFIX)) {
+			LOG.error("matrix filename must end with "+DepthMatrix.FILE_SUFFIX);
+			return -1;
+			}
+		
 		PrintWriter out = null;
 		try
 			{
@@ -480,7 +858,9 @@ public class NaiveCnvDetector extends Launcher
 				}
 			
 			
-			out =  super.openFileOrStdoutAsPrintWriter(this.outputFile);
+			if(this.saveMatrixPath==null) {
+				out =  super.openFileOrStdoutAsPrintWriter(this.outputFile);
+				}
 
 			
 			if(this.configFile!=null)
@@ -519,7 +899,23 @@ public class NaiveCnvDetector extends Launcher
 					return -1;
 					}
 				LOG.info("affected "+this.count_affected_samples+" ; unaffected:"+this.count_unaffected_samples);
-				printHeader(out);
+				if(out!=null) printHeader(out);
+				}
+			
+			if(this.saveMatrixPath!=null) {
+				final List<String> inputs = IOUtils.unrollStrings2018(args);
+				if(!inputs.isEmpty() && inputs.stream().allMatch(S->S.endsWith(FileExtensions.BAM) || S.endsWith(FileExtensions.CRAM))) {
+					saveBams(IOUtils.unrollPaths(args));
+					return 0;
+					}
+				}
+			else if(args.size()==1 && args.get(0).endsWith(DepthMatrix.FILE_SUFFIX)) {
+				callMatrix(IOUtils.unrollPaths(args).get(0), out);
+				out.flush();
+				out.close();
+				out = null;
+				logSamples();
+				return 0;
 				}
 			
 			final Iterator<DepthLine> dpIter;
@@ -540,22 +936,18 @@ public class NaiveCnvDetector extends Launcher
 				dpIter = new CombineOneSampleDepthIterators(this.dict,filenames);
 				}
 			
+			if(this.saveMatrixPath!=null) {
+				saveDepthLines(dpIter);
+				CloserUtil.close(dpIter);
+				return 0;
+				}
+			
+			WindowCaller caller = null;
 			while(dpIter.hasNext()) {
 				final DepthLine depthLine = dpIter.next();
 				if(this.sampleList.isEmpty())
 					{
-					LOG.info("building default sample list");
-					this.count_affected_samples = 0;
-					this.count_unaffected_samples = depthLine.depths.length;
-					for(int i=0;i< this.count_unaffected_samples;i++) {
-						final SampleInfo si = new SampleInfo();
-						si.index=i;
-						si.affected=false;
-						si.meanDepth = 20;
-						si.adjustDepth = 1.0;
-						si.name = String.format("S%03d",(i+1));
-						this.sampleList.add(si);
-						}
+					initDefaultSamples(defaultSampleNames(depthLine.depths.length));
 					printHeader(out);
 					}
 				else if(this.sampleList.size()!= depthLine.depths.length)
@@ -564,56 +956,23 @@ public class NaiveCnvDetector extends Launcher
 							"expected at least "+( this.sampleList.size()+3)+" words"+depthLine.depths.length);
 					return -1;
 					}
-					
-				for(int x=0;x<depthLine.depths.length;++x)
-					{
-					final SampleInfo si=this.sampleList.get(x);					
-					si.sumDepth += depthLine.depths[x];
-					si.countDepth++;
-					depthLine.depths[x] *= si.adjustDepth;
-					}
-				if(!this.depthBuffer.isEmpty())
-					{
-					final DepthLine last = this.depthBuffer.get(this.depthBuffer.size()-1);
-					if(!last.contig.equals(depthLine.contig))
-						{
-						dump(out);
-						this.depthBuffer.clear();
-						}
-					else if(last.pos+1!=depthLine.pos)
-						{
-						dump(out);
-						this.depthBuffer.clear();
-						}
-					else if(!this.disable_consecutive_bases && last.pos>=depthLine.pos)
-						{
-						dump(out);
-						this.depthBuffer.clear();
-						}
-					}
-				this.depthBuffer.add(depthLine);
-				if(this.depthBuffer.size()==this.windowSize)
-					{
-					dump(out);
-					for(int x=0;x<this.windowShift && !this.depthBuffer.isEmpty();++x)
-						{
-						this.depthBuffer.remove(0);
-						}
-					}
+				if(caller==null) caller = new WindowCaller(out);
+				caller.accept(depthLine);
+				}
+			if(caller!=null) {
+				caller.finish();
+				caller.updateSamples();
 				}
 
 			out.flush();
 			out.close();
 			CloserUtil.close(dpIter);
 			
-			for(final SampleInfo ci:this.sampleList) {
-				if(ci.countDepth<=0) continue;
-				LOG.info(ci.name+"\t"+(ci.sumDepth/(double)ci.countDepth)+"\t"+(ci.isAffected()?1:0));
-				}
+			logSamples();
 			
 			return 0;
 			}
-		catch(final Exception err)
+		catch(final Throwable err)
 			{
 			LOG.error(err);
 			return -1;
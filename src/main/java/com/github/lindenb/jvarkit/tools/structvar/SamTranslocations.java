@@ -31,11 +31,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -59,6 +66,7 @@ import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFlag;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceDictionary;
@@ -67,8 +75,10 @@ import htsjdk.samtools.SamFileHeaderMerger;
 import htsjdk.samtools.SAMTag;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.MergingIterator;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
@@ -76,6 +86,7 @@ import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
 import htsjdk.variant.variantcontext.StructuralVariantType;
+import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFConstants;
@@ -103,6 +114,13 @@ $ java -jar dist/samtranslocations.jar src/test/resources/HG02260.transloc.chr9.
 14	79839131	14:79839131:9:137230969	N	<TRANSLOC>	17	.	AC=1;AF=0.500;AN=2;CHROM2=9;DP=17;POS2=137230969;STDDEV_POS1=153;STDDEV_POS2=153;SVTYPE=BND	GT:DP:SR	0/1:17:12,5,5,12
 ```
 
+## Memory
+
+Discordant reads are stored as small records (contig, positions, flags, mate contig/position, sample) rather than full SAM records.
+
+With `--jobs`, the discordant reads of each contig are read in their own thread, with their own BAM readers (BAMs must be indexed).
+The reads are then clustered in the order of the dictionary, so the output is the same as the one of the sequential mode.
+
 ## History
 
 * 2018-09-18 :  rewriting
@@ -113,7 +131,7 @@ END_DOC
 @Program(name="samtranslocations",
 	description="Explore balanced translocations between two chromosomes using discordant paired-end reads.",
 	keywords={"sam","bam","sv","translocation"},
-	modificationDate="20190329"
+	modificationDate="20201019"
 	)
 public class SamTranslocations extends Launcher {
 	private static final Logger LOG = Logger.build(SamTranslocations.class).make();
@@ -139,20 +157,150 @@ public class SamTranslocations extends Launcher {
 	@Parameter(names={"--mapq"},description="min mapping quality.")
 	private int min_mapq = 0;
 
+	@Parameter(names={"-j","--jobs"},description="Number of threads. If it is not 1, the BAMs must be indexed and the discordant reads of each contig are read by a thread with its own readers. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+
+	private final VCFFormatHeaderLine supportingReadsFormat = new VCFFormatHeaderLine("SR",
+			4,
+			VCFHeaderLineType.Integer,
+			"Supporting reads: contig1-forward,contig1-reverse,contig2-forward,contig2-reverse"
+			);
+	private final VCFInfoHeaderLine stdDevContig1Info = new VCFInfoHeaderLine("STDDEV_POS1",
+			1,
+			VCFHeaderLineType.Integer,
+			"std deviation to position 1"
+			);
+	private final VCFInfoHeaderLine stdDevContig2Info = new VCFInfoHeaderLine("STDDEV_POS2",
+			1,
+			VCFHeaderLineType.Integer,
+			"std deviation to position 2"
+			);
+	private final VCFInfoHeaderLine chrom2Info = new VCFInfoHeaderLine("CHROM2",
+			1,
+			VCFHeaderLineType.String,
+			"other chromosome"
+			);
+	private final VCFInfoHeaderLine pos2Info = new VCFInfoHeaderLine("POS2",
+			1,
+			VCFHeaderLineType.Integer,
+			"other position"
+			);
+	private final VCFInfoHeaderLine highQualSampleInfo = new VCFInfoHeaderLine("highQualSamples",
+			VCFHeaderLineCount.UNBOUNDED,
+			VCFHeaderLineType.String,
+			"High Quality Samples"
+			);
+	private final VCFInfoHeaderLine lowQualSampleInfo = new VCFInfoHeaderLine("lowQualSamples",
+			VCFHeaderLineCount.UNBOUNDED,
+			VCFHeaderLineType.String,
+			"Low Quality Samples"
+			);
+	private final VCFInfoHeaderLine maxEventInfo = new VCFInfoHeaderLine("MAX_DP",
+			1,
+			VCFHeaderLineType.Integer,
+			"Max number of event per sample"
+			);
+	private final Allele REF=Allele.create("N", true);
+	private final Allele ALT=Allele.create("<TRANSLOC>", false);
+
+	private SAMSequenceDictionary refDict = null;
+	/** ordered samples, as in the VCF header */
+	private final List<String> sampleList = new ArrayList<>();
+	private final Map<String,Integer> sample2index = new HashMap<>();
+	
+	/** the part of a discordant read we need. Much smaller than a SAMRecord */
+	private class Evidence implements Locatable {
+		final int tid;
+		final int start;
+		final int end;
+		final int unclippedStart;
+		final int unclippedEnd;
+		final int flags;
+		final int mateTid;
+		/** mate start if mate is on negative strand, else mate end */
+		final int matePos;
+		final int sampleIdx;
+		Evidence(final SAMRecord rec,final int sampleIdx) {
+			this.tid = rec.getReferenceIndex();
+			this.start = rec.getAlignmentStart();
+			this.end = rec.getAlignmentEnd();
+			this.unclippedStart = rec.getUnclippedStart();
+			this.unclippedEnd = rec.getUnclippedEnd();
+			this.flags = rec.getFlags();
+			this.mateTid = rec.getMateReferenceIndex();
+			if(rec.getMateNegativeStrandFlag() || SAMUtils.getMateCigar(rec)==null) {
+				this.matePos = rec.getMateAlignmentStart();
+				}
+			else
+				{
+				this.matePos = SAMUtils.getMateAlignmentEnd(rec);
+				}
+			this.sampleIdx = sampleIdx;
+			}
+		@Override
+		public String getContig() {
+			return refDict.getSequence(this.tid).getSequenceName();
+			}
+		String getMateContig() {
+			return refDict.getSequence(this.mateTid).getSequenceName();
+			}
+		@Override
+		public int getStart() {
+			return this.start;
+			}
+		@Override
+		public int getEnd() {
+			return this.end;
+			}
+		boolean isNegativeStrand() {
+			return (this.flags & SAMFlag.READ_REVERSE_STRAND.intValue())!=0;
+			}
+		boolean isMateNegativeStrand() {
+			return (this.flags & SAMFlag.MATE_REVERSE_STRAND.intValue())!=0;
+			}
+		boolean isMateUnmapped() {
+			return (this.flags & SAMFlag.MATE_UNMAPPED.intValue())!=0;
+			}
+		boolean isPaired() {
+			return (this.flags & SAMFlag.READ_PAIRED.intValue())!=0;
+			}
+		/** position of the break on the read's contig */
+		int getPos() {
+			return isNegativeStrand()?this.start:this.end;
+			}
+		}
+	
 	/* for the data I tested there was a bug in the sorting (reads not sorted on FLAG see htsjdk.samtools.SAMRecordCoordinateComparator)
 	 but we just need fileOrderCompare */
+	private final Comparator<Evidence> coordinateComparator = (A,B)->{
+		final int i = Integer.compare(A.tid, B.tid);
+		if(i!=0) return i;
+		return Integer.compare(A.start, B.start);
+		};
 	
-	
-	@SuppressWarnings("serial")
-	private final Comparator<SAMRecord> coordinateComparator = new htsjdk.samtools.SAMRecordCoordinateComparator() {
+	/** convert the discordant SAMRecord to Evidence */
+	private class EvidenceIterator extends AbstractIterator<Evidence> implements CloseableIterator<Evidence> {
+		private final CloseableIterator<SAMRecord> delegate;
+		EvidenceIterator(final CloseableIterator<SAMRecord> delegate) {
+			this.delegate = delegate;
+			}
 		@Override
-		public int compare(final SAMRecord samRecord1,final SAMRecord samRecord2)
-			{
-			return super.fileOrderCompare(samRecord1, samRecord2);
+		protected Evidence advance() {
+			if(!this.delegate.hasNext()) return null;
+			final SAMRecord rec = this.delegate.next();
+			return new Evidence(rec, sample2index.get(rec.getReadGroup().getSample()));
 			}
-		};
+		@Override
+		public void close() {
+			this.delegate.close();
+			}
+		}
 	
-	private CloseableIterator<SAMRecord> makeIterator(final SamReader sr) {
+	/**
+	 * @param sr the reader
+	 * @param tid scan this contig only or, if tid&lt;0, the whole file
+	 */
+	private CloseableIterator<Evidence> makeIterator(final SamReader sr,final int tid) {
 			try {
 			CloseableIterator<SAMRecord> iter1;
 			final SAMFileHeader header=sr.getFileHeader();
@@ -173,7 +321,13 @@ public class SamTranslocations extends Launcher {
 
 			
 			if(this.bedFile==null) {
-				iter1 = sr.iterator();
+				if(tid<0) {
+					iter1 = sr.iterator();
+					}
+				else
+					{
+					iter1 = sr.queryOverlapping(dict.getSequence(tid).getSequenceName(), 1, dict.getSequence(tid).getSequenceLength());
+					}
 				}
 			else
 				{
@@ -193,10 +347,11 @@ public class SamTranslocations extends Launcher {
 					forEach(B->{
 						final String c = contigNameConverter.apply(B.getContig());
 						if(StringUtils.isBlank(c)) return;
-						final int tid = dict.getSequenceIndex(c);
-						if(tid<0) return;
-						if(!allowedContigs[tid]) return;
-						final QueryInterval qi = new QueryInterval(tid,B.getStart(),B.getEnd());
+						final int bedTid = dict.getSequenceIndex(c);
+						if(bedTid<0) return;
+						if(!allowedContigs[bedTid]) return;
+						if(tid>=0 && bedTid!=tid) return;
+						final QueryInterval qi = new QueryInterval(bedTid,B.getStart(),B.getEnd());
 						queryIntervals.add(qi);							
 						});	
 					}
@@ -240,18 +395,314 @@ public class SamTranslocations extends Launcher {
 						return false;
 						}
 					);
-			return fsi;
+			return new EvidenceIterator(fsi);
 			} 
 		catch(final IOException err) {
 			throw new RuntimeIOException(err);
 			}
 		}
 	
-	private void putbackInBuffer(final List<SAMRecord> candidates,final List<SAMRecord> buffer) {
+	private void putbackInBuffer(final List<Evidence> candidates,final List<Evidence> buffer) {
 		buffer.addAll(candidates.subList(1, candidates.size()));//remove first element
 		Collections.sort(buffer,this.coordinateComparator);
 	}
 	
+	/**
+	 * scan the evidences and send the translocations to the sink
+	 * @param iter evidences sorted on coordinate
+	 * @param nBams number of BAMs merged in 'iter'
+	 */
+	private void scan(final CloseableIterator<Evidence> iter,final int nBams,final Consumer<VariantContext> sink) {
+		/** buffer or reads */
+		final LinkedList<Evidence> buffer= new LinkedList<>();
+
+		int prev_tid=-1;
+		for(;;)
+			{
+			final Evidence rec;
+			if(!buffer.isEmpty()) {
+				rec= buffer.pollFirst();
+				}
+			else if(iter.hasNext()) {
+				rec= iter.next();
+				}
+			else
+				{
+				rec=null;
+				}
+		
+			if(rec==null || (rec.tid!=prev_tid))
+				{
+				final int final_prev_tid = prev_tid;
+				buffer.removeIf(SR->SR.tid<=final_prev_tid);
+				if(rec==null) break;
+				prev_tid= rec.tid;
+				}
+			buffer.removeIf(SR->SR.unclippedEnd<rec.unclippedStart);
+
+			if(rec.isNegativeStrand()) continue;
+			
+			final List<Evidence> candidates = new ArrayList<>();
+							
+			candidates.add(rec);
+			
+			if(rec.isPaired() && 
+				!rec.isNegativeStrand() &&
+				!rec.isMateUnmapped() &&
+				rec.tid!=rec.mateTid
+				)
+				{
+				long end = rec.unclippedEnd + this.fuzzy_distance;
+				
+				int buffer_index = 0;
+				while(buffer_index < buffer.size())
+					{
+					final Evidence rec2 = buffer.get(buffer_index);
+					
+					if(rec2.tid!=rec.tid) {
+						break;
+						}
+					if(rec2.start > end) {//not unclipped to avoid side effect
+						break;
+						}
+					if(rec2.isMateUnmapped()) {
+						buffer_index++;
+						continue;
+						}
+					if(rec2.mateTid!=rec.mateTid) {
+						buffer_index++;
+						continue;
+						}
+					if(Math.abs(rec.matePos-rec2.matePos) > this.fuzzy_distance) {
+						buffer_index++;
+						continue;
+						}
+					buffer.remove(buffer_index);
+					candidates.add(rec2);						
+					}
+				
+				
+				while(iter.hasNext())
+					{
+					final Evidence rec2 = iter.next();
+					if(rec2==null) break;
+
+					if(rec2.tid!=rec.tid) {
+						buffer.add(rec2);
+						break;
+						}
+		
+					if(rec2.start > end) {//not unclipped to avoid side effect
+						buffer.add(rec2);
+						break;
+						}
+					if(rec2.isMateUnmapped()) {
+						buffer.add(rec2);
+						continue;
+						}
+					if(rec2.mateTid!=rec.mateTid) {
+						buffer.add(rec2);
+						continue;
+						}
+					if(Math.abs(rec.matePos-rec2.matePos) > this.fuzzy_distance) {
+						buffer.add(rec2);
+						continue;
+						}
+					candidates.add(rec2);
+					}
+				}
+			else
+				{
+				continue;
+				}
+			if((long)buffer.size()> this.max_complexity_buffer*nBams)
+				{
+				buffer.clear();
+				LOG.warn("zone of low complexity: clearing buffer near "+ rec.getContig()+":"+rec.getStart());
+				continue;
+				}
+			if(candidates.isEmpty() || candidates.size()<this.min_number_of_events) continue;
+			
+
+			//check in both sides
+			final int count_plus =  (int)candidates.stream().filter(SR->!SR.isNegativeStrand()).count();
+			final int count_minus = (int)candidates.stream().filter(SR-> SR.isNegativeStrand()).count();
+			if(count_plus<this.min_number_of_events || count_minus<this.min_number_of_events) {
+				putbackInBuffer(candidates, buffer);
+				continue;
+			}
+			
+			
+			final int pos_ctg1=(int)candidates.stream().mapToInt(SR->SR.getPos()).
+					average().orElse(-1);
+			if(pos_ctg1<1) {
+				putbackInBuffer(candidates, buffer);
+				continue;
+			}
+			final int stddev_ctg1 = (int)candidates.stream().mapToInt(SR->SR.getPos()).
+					map(X->Math.abs(X-pos_ctg1)).
+					average().
+					orElse(0.0);
+			
+			final int pos_ctg2=(int)candidates.stream().
+					mapToInt(SR->SR.matePos).
+					average().orElse(-1);
+			if(pos_ctg2<1) {
+				putbackInBuffer(candidates, buffer);
+				continue;
+				}
+			final int stddev_ctg2 = (int)candidates.stream().
+					mapToInt(SR->SR.matePos).
+					map(X->Math.abs(X-pos_ctg2)).
+					average().
+					orElse(0.0);
+			
+			final List<String> lowQualSamples=new ArrayList<>();
+			final List<String> hiQualSamples=new ArrayList<>();
+			final VariantContextBuilder vcb=new VariantContextBuilder(null,
+					rec.getContig(), 
+					pos_ctg1,
+					pos_ctg1,
+					Arrays.asList(REF,ALT)
+					);
+			final List<Genotype> genotypes = new ArrayList<>(this.sampleList.size());
+			int max_dp = 0;
+			for(int sample_idx=0;sample_idx< this.sampleList.size();sample_idx++) {
+				final String sample = this.sampleList.get(sample_idx);
+				final int final_sample_idx = sample_idx;
+				final List<Evidence> readSample = candidates.stream().
+						filter(SR->SR.sampleIdx==final_sample_idx).collect(Collectors.toList());
+				if(readSample.isEmpty())
+					{
+					genotypes.add(GenotypeBuilder.createMissing(sample, 2));
+					}
+				else
+					{
+					final GenotypeBuilder gb=new GenotypeBuilder(sample,Arrays.asList(REF,ALT));
+					final int sn_contig1_count_plus =  (int)readSample.stream().filter(SR->!SR.isNegativeStrand()).count();
+					final int sn_contig1_count_minus = (int)readSample.stream().filter(SR-> SR.isNegativeStrand()).count();
+					final int sn_contig2_count_plus =  (int)readSample.stream().filter(SR->!SR.isMateNegativeStrand()).count();
+					final int sn_contig2_count_minus = (int)readSample.stream().filter(SR-> SR.isMateNegativeStrand()).count();
+					
+					max_dp=Math.max(max_dp, readSample.size());
+					
+					gb.DP(readSample.size());
+					gb.attribute(supportingReadsFormat.getID(),
+						new int[] {
+							sn_contig1_count_plus,
+							sn_contig1_count_minus,
+							sn_contig2_count_plus,
+							sn_contig2_count_minus
+							}
+						);
+					
+					genotypes.add(gb.make());
+
+					if(sn_contig1_count_plus>this.min_number_of_events && sn_contig1_count_minus>this.min_number_of_events &&
+					   sn_contig2_count_plus>this.min_number_of_events && sn_contig2_count_minus>this.min_number_of_events)  {
+						hiQualSamples.add(sample);
+						}
+					else
+						{
+						lowQualSamples.add(sample);
+						}
+
+					}
+				
+				}
+			if(hiQualSamples.isEmpty()) {
+				putbackInBuffer(candidates, buffer);
+				continue;
+			}
+			vcb.id(rec.getContig()+":"+pos_ctg1+":"+rec.getMateContig()+":"+pos_ctg2);
+			vcb.attribute(stdDevContig1Info.getID(), stddev_ctg1);
+			vcb.attribute(stdDevContig2Info.getID(), stddev_ctg2);
+			vcb.attribute(chrom2Info.getID(), rec.getMateContig());
+			vcb.attribute(pos2Info.getID(),pos_ctg2);
+			vcb.attribute(maxEventInfo.getID(),max_dp);
+			
+			
+			
+			vcb.attribute(VCFConstants.SVTYPE, StructuralVariantType.BND.name());
+			vcb.attribute(VCFConstants.DEPTH_KEY,candidates.size());
+			vcb.attribute(VCFConstants.ALLELE_COUNT_KEY,(hiQualSamples.size()+lowQualSamples.size()));
+			vcb.attribute(VCFConstants.ALLELE_NUMBER_KEY,this.sampleList.size()*2);
+			vcb.attribute(VCFConstants.ALLELE_FREQUENCY_KEY,(hiQualSamples.size()+lowQualSamples.size())/(this.sampleList.size()*2.0));
+			if(!lowQualSamples.isEmpty()) vcb.attribute(lowQualSampleInfo.getID(), lowQualSamples);
+			if(!hiQualSamples.isEmpty()) vcb.attribute(highQualSampleInfo.getID(), hiQualSamples);
+			
+			vcb.genotypes(genotypes);
+			vcb.log10PError(candidates.size()/-10.0);
+			vcb.alleles(Arrays.asList(REF,ALT));
+			
+			sink.accept(vcb.make());
+			}
+		}
+	
+	/** read the evidences of one contig using some dedicated readers */
+	private List<Evidence> collectContig(final List<Path> inputBams,final SamReaderFactory srf,final int tid) throws IOException {
+		final List<SamReader> samReaders = new ArrayList<>(inputBams.size());
+		final List<CloseableIterator<Evidence>> iterators = new ArrayList<>(inputBams.size());
+		try {
+			for(final Path path: inputBams) {
+				final SamReader sr = srf.open(path);
+				samReaders.add(sr);
+				if(!sr.hasIndex()) {
+					throw new RuntimeIOException("SamReader "+sr.getResourceDescription()+" is not indexed");
+					}
+				iterators.add(makeIterator(sr,tid));
+				}
+			final List<Evidence> evidences = new ArrayList<>();
+			try(CloseableIterator<Evidence> iter = new MergingIterator<>(this.coordinateComparator, iterators)) {
+				while(iter.hasNext()) evidences.add(iter.next());
+				}
+			LOG.info("done "+this.refDict.getSequence(tid).getSequenceName()+" N="+evidences.size());
+			return evidences;
+			}
+		finally
+			{
+			iterators.forEach(S->S.close());
+			samReaders.forEach(S->CloserUtil.close(S));
+			}
+		}
+	
+	/** iterate over the evidences of the contigs, in the order of the dictionary, as they are produced by the threads */
+	private class ShardsIterator extends AbstractIterator<Evidence> implements CloseableIterator<Evidence> {
+		private final LinkedList<Future<List<Evidence>>> shards;
+		private Iterator<Evidence> current = Collections.emptyIterator();
+		ShardsIterator(final List<Future<List<Evidence>>> shards) {
+			this.shards = new LinkedList<>(shards);
+			}
+		@Override
+		protected Evidence advance() {
+			while(!this.current.hasNext()) {
+				// release the previous contig as soon as possible
+				final Future<List<Evidence>> shard = this.shards.pollFirst();
+				if(shard==null) return null;
+				try {
+					this.current = shard.get().iterator();
+					}
+				catch(final InterruptedException err) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(err);
+					}
+				catch(final ExecutionException err) {
+					final Throwable cause = err.getCause();
+					if(cause instanceof RuntimeException) throw RuntimeException.class.cast(cause);
+					if(cause instanceof Error) throw Error.class.cast(cause);
+					throw new RuntimeException(cause);
+					}
+				}
+			return this.current.next();
+			}
+		@Override
+		public void close() {
+			this.shards.forEach(F->F.cancel(true));
+			this.shards.clear();
+			this.current = Collections.emptyIterator();
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.fuzzy_distance<=0) {
@@ -259,8 +710,9 @@ public class SamTranslocations extends Launcher {
 			return -1;
 		}
 		final List<SamReader> samReaders = new ArrayList<>();
-		final List<CloseableIterator<SAMRecord>> samRecordIterators = new ArrayList<>();
+		final List<CloseableIterator<Evidence>> samRecordIterators = new ArrayList<>();
 		VariantContextWriter out = null;
+		ExecutorService executor = null;
 		try {
 			final List<Path> inputBams = IOUtils.unrollPaths(args);
 			final SamReaderFactory srf = super.createSamReaderFactory();
@@ -274,37 +726,27 @@ public class SamTranslocations extends Launcher {
 			final SAMFileHeader header = new SamFileHeaderMerger(SortOrder.coordinate,
 					samReaders.stream().map(SR->SR.getFileHeader()).collect(Collectors.toList()),
 					false).getMergedHeader();
-			samRecordIterators.addAll(samReaders.stream().map(S->makeIterator(S)).collect(Collectors.toList()));
-			final CloseableIterator<SAMRecord>	iter = new MergingIterator<>(
-					this.coordinateComparator,
-					samRecordIterators
-					);
-				
 				
 			final Set<String> sampleNames = header.getReadGroups().
 				stream().
 				map(RG->RG.getSample()).
 				filter(S->!StringUtil.isBlank(S)).
 				collect(Collectors.toSet());	
+			this.sampleList.addAll(sampleNames);
+			for(int i=0;i< this.sampleList.size();i++) {
+				this.sample2index.put(this.sampleList.get(i), i);
+				}
 			
-			final SAMSequenceDictionary refDict = SequenceDictionaryUtils.extractRequired(header);
+			this.refDict = SequenceDictionaryUtils.extractRequired(header);
 			
-			final boolean allowedContigs[] = new boolean[refDict.size()];
+			final boolean allowedContigs[] = new boolean[this.refDict.size()];
 			Arrays.fill(allowedContigs, true);
 			if(!StringUtils.isBlank(this.chromRegex)) {
 				final Pattern pat = Pattern.compile(this.chromRegex);
-				refDict.getSequences().stream().
+				this.refDict.getSequences().stream().
 					filter(SR->!pat.matcher(SR.getSequenceName()).matches()).
 					forEach(SR->allowedContigs[SR.getSequenceIndex()]=false);
 				}
-			final ProgressFactory.Watcher<SAMRecord> progress = ProgressFactory.
-					newInstance().
-					dictionary(refDict).
-					logger(LOG).
-					build();
-			
-			
-			
 			
 			final Set<VCFHeaderLine> metaData=new HashSet<>();
 			metaData.add(VCFStandardHeaderLines.getFormatLine(VCFConstants.GENOTYPE_KEY,true));
@@ -318,320 +760,59 @@ public class SamTranslocations extends Launcher {
 			metaData.add(VCFStandardHeaderLines.getInfoLine(VCFConstants.ALLELE_FREQUENCY_KEY,true));
 			metaData.add(VCFStandardHeaderLines.getInfoLine(VCFConstants.END_KEY,true));
 			metaData.add(new VCFInfoHeaderLine(VCFConstants.SVTYPE, 1, VCFHeaderLineType.String,"Variation type"));
-			final VCFFormatHeaderLine supportingReadsFormat = new VCFFormatHeaderLine("SR",
-					4,
-					VCFHeaderLineType.Integer,
-					"Supporting reads: contig1-forward,contig1-reverse,contig2-forward,contig2-reverse"
-					);
 			metaData.add(supportingReadsFormat);
-			final VCFInfoHeaderLine stdDevContig1Info = new VCFInfoHeaderLine("STDDEV_POS1",
-					1,
-					VCFHeaderLineType.Integer,
-					"std deviation to position 1"
-					);
 			metaData.add(stdDevContig1Info);
-			final VCFInfoHeaderLine stdDevContig2Info = new VCFInfoHeaderLine("STDDEV_POS2",
-					1,
-					VCFHeaderLineType.Integer,
-					"std deviation to position 2"
-					);
 			metaData.add(stdDevContig2Info);
-			final VCFInfoHeaderLine chrom2Info = new VCFInfoHeaderLine("CHROM2",
-					1,
-					VCFHeaderLineType.String,
-					"other chromosome"
-					);
 			metaData.add(chrom2Info);
-			final VCFInfoHeaderLine pos2Info = new VCFInfoHeaderLine("POS2",
-					1,
-					VCFHeaderLineType.Integer,
-					"other position"
-					);
 			metaData.add(pos2Info);
-			final VCFInfoHeaderLine highQualSampleInfo = new VCFInfoHeaderLine("highQualSamples",
-					VCFHeaderLineCount.UNBOUNDED,
-					VCFHeaderLineType.String,
-					"High Quality Samples"
-					);
 			metaData.add(highQualSampleInfo);
-			final VCFInfoHeaderLine lowQualSampleInfo = new VCFInfoHeaderLine("lowQualSamples",
-					VCFHeaderLineCount.UNBOUNDED,
-					VCFHeaderLineType.String,
-					"Low Quality Samples"
-					);
 			metaData.add(lowQualSampleInfo);
-			final VCFInfoHeaderLine maxEventInfo = new VCFInfoHeaderLine("MAX_DP",
-					1,
-					VCFHeaderLineType.Integer,
-					"Max number of event per sample"
-					);
 			metaData.add(maxEventInfo);
 
 
 			final VCFHeader vcfHeader= new VCFHeader(metaData, sampleNames);
-			vcfHeader.setSequenceDictionary(refDict);
+			vcfHeader.setSequenceDictionary(this.refDict);
 			JVarkitVersion.getInstance().addMetaData(this, vcfHeader);
 			
 			out = VCFUtils.createVariantContextWriterToPath(this.outputFile);
 			out.writeHeader(vcfHeader);
+			final VariantContextWriter w = out;
 			
-			
-			final Function<SAMRecord, Integer> mateEnd = REC->SAMUtils.getMateCigar(REC)!=null?
-					SAMUtils.getMateAlignmentEnd(REC):
-					REC.getMateAlignmentStart()
-					;
-					
-			final Allele REF=Allele.create("N", true);
-			final Allele ALT=Allele.create("<TRANSLOC>", false);
-			/** buffer or reads */
-			final LinkedList<SAMRecord> buffer= new LinkedList<>();
-
-			int prev_tid=-1;
-			for(;;)
-				{
-				final SAMRecord rec;
-				if(!buffer.isEmpty()) {
-					rec= buffer.pollFirst();
-					}
-				else if(iter.hasNext()) {
-					rec= progress.apply(iter.next());
-					}
-				else
-					{
-					rec=null;
-					}
-			
-				if(rec==null || (rec.getReferenceIndex()!=prev_tid))
-					{
-					final int final_prev_tid = prev_tid;
-					buffer.removeIf(SR->SR.getReferenceIndex()<=final_prev_tid);
-					if(rec==null) break;
-					prev_tid= rec.getReferenceIndex();
-					}
-				buffer.removeIf(SR->SR.getUnclippedEnd()<rec.getUnclippedStart());
-
-				if(rec.getReadNegativeStrandFlag()) continue;
-				
-				final List<SAMRecord> candidates = new ArrayList<>();
-								
-				candidates.add(rec);
-				
-				if(rec.getReadPairedFlag() && 
-					!rec.getReadNegativeStrandFlag() &&
-					!rec.getMateUnmappedFlag() &&
-					!rec.getReferenceIndex().equals(rec.getMateReferenceIndex())
-					)
-					{
-					long end = rec.getUnclippedEnd() + this.fuzzy_distance;
-					
-					int buffer_index = 0;
-					while(buffer_index < buffer.size())
-						{
-						final SAMRecord rec2 = buffer.get(buffer_index);
-						
-						if(!rec2.getReferenceIndex().equals(rec.getReferenceIndex())) {
-							break;
-							}
-						if(rec2.getAlignmentStart() > end) {//not unclipped to avoid side effect
-							break;
-							}
-						if(rec2.getMateUnmappedFlag()) {
-							buffer_index++;
-							continue;
-							}
-						if(!rec2.getMateReferenceIndex().equals(rec.getMateReferenceIndex())) {
-							buffer_index++;
-							continue;
-							}
-						final int mate1 = rec.getMateNegativeStrandFlag()?
-									rec.getMateAlignmentStart():
-									mateEnd.apply(rec)
-									;
-						final int mate2 = rec2.getMateNegativeStrandFlag()?
-								rec2.getMateAlignmentStart():
-								mateEnd.apply(rec2)
-								;
-
-						if(Math.abs(mate1-mate2) > this.fuzzy_distance) {
-							buffer_index++;
-							continue;
-							}
-						buffer.remove(buffer_index);
-						candidates.add(rec2);						
-						}
-					
-					
-					while(iter.hasNext())
-						{
-						final SAMRecord rec2 = iter.next();
-						if(rec2==null) break;
-
-						if(!rec2.getReferenceIndex().equals(rec.getReferenceIndex())) {
-							buffer.add(rec2);
-							break;
-							}
-			
-						if(rec2.getAlignmentStart() > end) {//not unclipped to avoid side effect
-							buffer.add(rec2);
-							break;
-							}
-						if(rec2.getMateUnmappedFlag()) {
-							buffer.add(rec2);
-							continue;
-							}
-						if(!rec2.getMateReferenceIndex().equals(rec.getMateReferenceIndex())) {
-							buffer.add(rec2);
-							continue;
-							}
-						final int mate1 = rec.getMateNegativeStrandFlag()?
-									rec.getMateAlignmentStart():
-									mateEnd.apply(rec)
-									;
-						final int mate2 = rec2.getMateNegativeStrandFlag()?
-								rec2.getMateAlignmentStart():
-								mateEnd.apply(rec2)
-								;
-
-						if(Math.abs(mate1-mate2) > this.fuzzy_distance) {
-							buffer.add(rec2);
-							continue;
-							}
-						candidates.add(rec2);
-						}
-					}
-				else
-					{
-					continue;
-					}
-				if((long)buffer.size()> this.max_complexity_buffer*samReaders.size())
-					{
-					//final long end = rec.getUnclippedEnd();
-					//buffer.remove(0);
-					//buffer.removeIf(R->R.getReferenceIndex().equals(rec.getReferenceIndex()) && R.getStart()<=end);
-					buffer.clear();
-					LOG.warn("zone of low complexity: clearing buffer near "+ rec.getContig()+":"+rec.getStart());
-					continue;
+			final int nJobs = this.nThreads<1?Runtime.getRuntime().availableProcessors():this.nThreads;
+			if(nJobs==1) {
+				final ProgressFactory.Watcher<Evidence> progress = ProgressFactory.
+						newInstance().
+						dictionary(this.refDict).
+						logger(LOG).
+						build();
+				samRecordIterators.addAll(samReaders.stream().map(S->makeIterator(S,-1)).collect(Collectors.toList()));
+				try(CloseableIterator<Evidence> iter = new MergingIterator<>(
+						this.coordinateComparator,
+						samRecordIterators
+						)) {
+					scan(new FilterIterator<>(iter,E->progress.apply(E)!=null), samReaders.size(), V->w.add(V));
 					}
-				if(candidates.isEmpty() || candidates.size()<this.min_number_of_events) continue;
-				
-
-				//check in both sides
-				final int count_plus =  (int)candidates.stream().filter(SR->!SR.getReadNegativeStrandFlag()).count();
-				final int count_minus = (int)candidates.stream().filter(SR-> SR.getReadNegativeStrandFlag()).count();
-				if(count_plus<this.min_number_of_events || count_minus<this.min_number_of_events) {
-					putbackInBuffer(candidates, buffer);
-					continue;
-				}
-				
-				
-				final int pos_ctg1=(int)candidates.stream().mapToInt(
-						SR->SR.getReadNegativeStrandFlag()?SR.getAlignmentStart():SR.getAlignmentEnd()).
-						average().orElse(-1);
-				if(pos_ctg1<1) {
-					putbackInBuffer(candidates, buffer);
-					continue;
+				progress.close();
 				}
-				final int stddev_ctg1 = (int)candidates.stream().mapToInt(
-						SR->SR.getReadNegativeStrandFlag()?SR.getAlignmentStart():SR.getAlignmentEnd()).
-						map(X->Math.abs(X-pos_ctg1)).
-						average().
-						orElse(0.0);
-				
-				final int pos_ctg2=(int)candidates.stream().
-						mapToInt(SR->SR.getMateNegativeStrandFlag()?SR.getMateAlignmentStart():mateEnd.apply(SR)).
-						average().orElse(-1);
-				if(pos_ctg2<1) {
-					putbackInBuffer(candidates, buffer);
-					continue;
+			else
+				{
+				samReaders.forEach(CloserUtil::close);
+				samReaders.clear();
+				final List<Integer> tids = new ArrayList<>();
+				for(int tid=0;tid< allowedContigs.length;++tid) {
+					if(allowedContigs[tid]) tids.add(tid);
 					}
-				final int stddev_ctg2 = (int)candidates.stream().
-						mapToInt(SR->SR.getMateNegativeStrandFlag()?SR.getMateAlignmentStart():mateEnd.apply(SR)).
-						map(X->Math.abs(X-pos_ctg2)).
-						average().
-						orElse(0.0);
-				
-				final List<String> lowQualSamples=new ArrayList<>();
-				final List<String> hiQualSamples=new ArrayList<>();
-				final VariantContextBuilder vcb=new VariantContextBuilder(null,
-						rec.getContig(), 
-						pos_ctg1,
-						pos_ctg1,
-						Arrays.asList(REF,ALT)
-						);
-				final List<Genotype> genotypes = new ArrayList<>(sampleNames.size());
-				int max_dp = 0;
-				for(final String sample:sampleNames) {
-					final List<SAMRecord> readSample = candidates.stream().
-							filter(SR->sample.equals(SR.getReadGroup().getSample())).collect(Collectors.toList());
-					if(readSample.isEmpty())
-						{
-						genotypes.add(GenotypeBuilder.createMissing(sample, 2));
-						}
-					else
-						{
-						final GenotypeBuilder gb=new GenotypeBuilder(sample,Arrays.asList(REF,ALT));
-						final int sn_contig1_count_plus =  (int)readSample.stream().filter(SR->!SR.getReadNegativeStrandFlag()).count();
-						final int sn_contig1_count_minus = (int)readSample.stream().filter(SR-> SR.getReadNegativeStrandFlag()).count();
-						final int sn_contig2_count_plus =  (int)readSample.stream().filter(SR->!SR.getMateNegativeStrandFlag()).count();
-						final int sn_contig2_count_minus = (int)readSample.stream().filter(SR-> SR.getMateNegativeStrandFlag()).count();
-						
-						max_dp=Math.max(max_dp, readSample.size());
-						
-						gb.DP(readSample.size());
-						gb.attribute(supportingReadsFormat.getID(),
-							new int[] {
-								sn_contig1_count_plus,
-								sn_contig1_count_minus,
-								sn_contig2_count_plus,
-								sn_contig2_count_minus
-								}
-							);
-						
-						genotypes.add(gb.make());
-
-						if(sn_contig1_count_plus>this.min_number_of_events && sn_contig1_count_minus>this.min_number_of_events &&
-						   sn_contig2_count_plus>this.min_number_of_events && sn_contig2_count_minus>this.min_number_of_events)  {
-							hiQualSamples.add(sample);
-							}
-						else
-							{
-							lowQualSamples.add(sample);
-							}
-
-						}
-					
+				/* contigs are read in parallel, the evidences are then clustered by the same 'scan' as the sequential mode,
+				 * in the order of the dictionary, so the output is the same */
+				executor = Executors.newFixedThreadPool(Math.max(1, Math.min(nJobs, tids.size())));
+				final List<Future<List<Evidence>>> shards = new ArrayList<>(tids.size());
+				for(final Integer tid: tids) {
+					shards.add(executor.submit(()->collectContig(inputBams, srf, tid)));
+					}
+				try(CloseableIterator<Evidence> iter = new ShardsIterator(shards)) {
+					scan(iter, inputBams.size(), V->w.add(V));
 					}
-				if(hiQualSamples.isEmpty()) {
-					putbackInBuffer(candidates, buffer);
-					continue;
-				}
-				vcb.id(rec.getReferenceName()+":"+pos_ctg1+":"+rec.getMateReferenceName()+":"+pos_ctg2);
-				vcb.attribute(stdDevContig1Info.getID(), stddev_ctg1);
-				vcb.attribute(stdDevContig2Info.getID(), stddev_ctg2);
-				vcb.attribute(chrom2Info.getID(), rec.getMateReferenceName());
-				vcb.attribute(pos2Info.getID(),pos_ctg2);
-				vcb.attribute(maxEventInfo.getID(),max_dp);
-				
-				
-				
-				vcb.attribute(VCFConstants.SVTYPE, StructuralVariantType.BND.name());
-				vcb.attribute(VCFConstants.DEPTH_KEY,candidates.size());
-				vcb.attribute(VCFConstants.ALLELE_COUNT_KEY,(hiQualSamples.size()+lowQualSamples.size()));
-				vcb.attribute(VCFConstants.ALLELE_NUMBER_KEY,sampleNames.size()*2);
-				vcb.attribute(VCFConstants.ALLELE_FREQUENCY_KEY,(hiQualSamples.size()+lowQualSamples.size())/(sampleNames.size()*2.0));
-				if(!lowQualSamples.isEmpty()) vcb.attribute(lowQualSampleInfo.getID(), lowQualSamples);
-				if(!hiQualSamples.isEmpty()) vcb.attribute(highQualSampleInfo.getID(), hiQualSamples);
-				
-				vcb.genotypes(genotypes);
-				vcb.log10PError(candidates.size()/-10.0);
-				vcb.alleles(Arrays.asList(REF,ALT));
-				
-				out.add(vcb.make());
-				
-				
 				}
-			progress.close();
-			iter.close();
 			samRecordIterators.forEach(S->S.close());
 			samRecordIterators.clear();
 			samReaders.forEach(CloserUtil::close);
@@ -645,6 +826,7 @@ public class SamTranslocations extends Launcher {
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			samRecordIterators.forEach(S->S.close());
 			samReaders.forEach(S->CloserUtil.close(S));
 			CloserUtil.close(out);
@@ -26,19 +26,24 @@ package com.github.lindenb.jvarkit.tools.structvar;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.StringUtils;
@@ -50,11 +55,13 @@ import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
 import com.github.lindenb.jvarkit.variant.sv.StructuralVariantComparator;
+import com.github.lindenb.jvarkit.variant.sv.StructuralVariantControlsIndex;
 import com.github.lindenb.jvarkit.variant.variantcontext.Breakend;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -82,6 +89,13 @@ java -Xmx3g -Djava.io.tmpdir=. -jar scansv.jar --controls controls.list -d2 25 -
 
 ```
 
+With a large number of controls, the SVs of the controls can be indexed once and the index can be re-used for many cases:
+
+```
+java -jar scansv.jar --controls controls.list --build-controls-index controls.svctrl
+java -jar scansv.jar --controls-index controls.svctrl -j 4 cases1.vcf cases2.vcf > out.vcf
+```
+
 
 END_DOC
 
@@ -112,8 +126,21 @@ public class ScanStructuralVariants extends Launcher{
 			+ " It's the number of VCF that should be keept open, So '0' = ignore/all re-open+close (slow)")
 	private int max_control_large_flag=0;
 
+	@Parameter(names={"--build-controls-index"},description="Don't scan the cases. Build a binary index of all the SVs of the controls (option --controls) into this file and exit. "
+			+ "The index can later be used with --controls-index.")
+	private Path buildControlsIndexPath=null;
+	@Parameter(names={"--controls-index"},description="Use this index of controls created with --build-controls-index instead of --controls. "
+			+ "The SVs of the controls are loaded in memory, one contig at a time.")
+	private Path controlsIndexPath=null;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The SVs of the first case are dispatched in batches and written in the input order. Each thread opens its own VCF readers. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --jobs, number of SVs per batch.")
+	private int batchSize = 100;
+
 	@ParametersDelegate
 	private StructuralVariantComparator svComparator = new StructuralVariantComparator();
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
 
 	private int ID_GENERATOR=0;
 
@@ -147,23 +174,34 @@ public class ScanStructuralVariants extends Launcher{
 		}
 		
 
-	private int recursive(final VariantContext ctx,
-			final List<VariantContext> candidates,
-			final List<VCFFileReader> vcfFilesInput,
-			final List<ShadowedVcfReader> shadowControls,
-			final VariantContextWriter out) {
-		if(candidates.size()==vcfFilesInput.size()) {
-			final int max_controls = (int)(shadowControls.size() * max_maf);
+	/** find the controls carrying a SV */
+	private interface ControlsFinder extends Closeable {
+		/** add the first matching variant of each control to 'candidates'. Returns false if more than 'max_controls' controls carry the SV */
+		public boolean scan(VariantContext ctx,List<VariantContext> candidates,int max_controls) throws IOException;
+	}
+	
+	/** query each control VCF, one instance per thread */
+	private class VcfControlsFinder implements ControlsFinder {
+		private final List<ShadowedVcfReader> shadowControls = new ArrayList<>(controlsPath.size());
+		VcfControlsFinder() {
+			for(int i=0;i< controlsPath.size();i++)
+				{
+				boolean large_flag = max_control_large_flag<0 || i>= max_control_large_flag;
+				this.shadowControls.add(new ShadowedVcfReader(controlsPath.get(i), large_flag));
+				}
+			}
+		@Override
+		public boolean scan(final VariantContext ctx,final List<VariantContext> candidates,final int max_controls) {
 			int count_matching_controls = 0;
-			for(final ShadowedVcfReader vcfReader: shadowControls) {
+			for(final ShadowedVcfReader vcfReader: this.shadowControls) {
 				final CloseableIterator<VariantContext> iter = vcfReader.query(
 						ctx.getContig(),
-						Math.max(1,ctx.getStart()- this.svComparator.getBndDistance()),
-						ctx.getEnd()+ this.svComparator.getBndDistance()
+						Math.max(1,ctx.getStart()- svComparator.getBndDistance()),
+						ctx.getEnd()+ svComparator.getBndDistance()
 						);
 				while(iter.hasNext()) {
 					final VariantContext ctx3 = iter.next();
-					if(this.svComparator.test(ctx3, ctx)) {
+					if(svComparator.test(ctx3, ctx)) {
 						count_matching_controls++;
 						candidates.add(new VariantContextBuilder(ctx3).
 							noGenotypes().
@@ -176,64 +214,98 @@ public class ScanStructuralVariants extends Launcher{
 					}
 				iter.close();
 				vcfReader.close();
-				if(count_matching_controls > max_controls) return -1;
+				if(count_matching_controls > max_controls) return false;
 				}
-			if(this.print_all_ctx) {
-				final String cluster = "CTX"+(++ID_GENERATOR);
-				for(int x=0;x< candidates.size();++x) {
-					out.add(new VariantContextBuilder(candidates.get(x)).noGenotypes().
-							attribute(ATT_CLUSTER, cluster).make()
-							);
-					}
-				
-				return 0;
-				}
-			
-			final VariantContextBuilder vcb = new VariantContextBuilder();
-			vcb.chr(ctx.getContig());
-			vcb.start(ctx.getStart());
-			vcb.stop(ctx.getEnd());
-			vcb.attribute(VCFConstants.END_KEY, ctx.getEnd());
-			vcb.attribute("SVLEN", ctx.getLengthOnReference());
-			final String svType= ctx.getAttributeAsString(VCFConstants.SVTYPE,".");
-			vcb.attribute(VCFConstants.SVTYPE, svType);
-			vcb.attribute("IMPRECISE", true);
-
-			
-			for(int side=0;side<2;side++)
-				{
-				final Function<VariantContext,Integer> coordExtractor;
-				if(side==0)
-					{
-					coordExtractor = C->C.getStart();
-					}
-				else
-					{
-					coordExtractor = C->C.getEnd();
-					}
-				final List<Integer> list = Arrays.asList(
-					candidates.stream().
-						mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(ctx)).
-						min().
-						orElse(0),
-					candidates.stream().
-						mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(ctx)).
-						max().
-						orElse(0)
-					);
-				vcb.attribute(
-						side==0?"CIPOS":"CIEND", 
-						list
+			return true;
+			}
+		@Override
+		public void close() {
+			this.shadowControls.stream().forEach(F->F.realClose());
+			}
+		}
+	
+	/** answer the queries from a StructuralVariantControlsIndex, shared by all the threads */
+	private class IndexedControlsFinder implements ControlsFinder {
+		private final StructuralVariantControlsIndex index;
+		IndexedControlsFinder(final StructuralVariantControlsIndex index) {
+			this.index = index;
+			}
+		/** same quick tests as StructuralVariantComparator, avoid decoding the variants that cannot match */
+		private boolean mayMatch(final String type1,final String type2) {
+			if(type1.equals(VCFConstants.MISSING_VALUE_v4) || type2.equals(VCFConstants.MISSING_VALUE_v4)) return false;
+			if(svComparator.isTestingSvTypes()) return type1.equals(type2);
+			return type1.equals("BND") == type2.equals("BND");
+			}
+		@Override
+		public boolean scan(final VariantContext ctx,final List<VariantContext> candidates,final int max_controls) throws IOException {
+			final String svType = ctx.getAttributeAsString(VCFConstants.SVTYPE, VCFConstants.MISSING_VALUE_v4);
+			int count_matching_controls = 0;
+			int last_matching_control = -1;
+			for(final StructuralVariantControlsIndex.Hit hit : this.index.query(
+					ctx.getContig(),
+					Math.max(1,ctx.getStart()- svComparator.getBndDistance()),
+					ctx.getEnd()+ svComparator.getBndDistance()
+					)) {
+				// hits are sorted on control: only the first matching variant of each control is used
+				if(hit.getControlIndex()==last_matching_control) continue;
+				if(!mayMatch(svType, hit.getSvType())) continue;
+				final VariantContext ctx3 = hit.getVariant();
+				if(!svComparator.test(ctx3, ctx)) continue;
+				last_matching_control = hit.getControlIndex();
+				count_matching_controls++;
+				candidates.add(new VariantContextBuilder(ctx3).
+						filter(ATT_CONTROL).
+						attribute(ATT_FILENAME, this.index.getSources().get(hit.getControlIndex())).
+						make()
 						);
+				if(count_matching_controls > max_controls) return false;
 				}
-			
-			final Allele ref=Allele.create("N", true);
-			final Allele alt=Allele.create("<"+svType+">",false);
-			
-			vcb.alleles(Arrays.asList(ref,alt));
-			
-			out.add(vcb.make());
-			return 0;
+			return true;
+			}
+		@Override
+		public void close() {
+			//index is closed in doWork
+			}
+		}
+	
+	/** scan the SVs of the first case, one instance per thread */
+	private class CaseScanner implements Function<VariantContext,List<VariantContext>>, Closeable {
+		private final List<VCFFileReader> casesReaders = new ArrayList<>();
+		private final ControlsFinder controlsFinder;
+		private final int max_controls;
+		CaseScanner(final List<Path> casesPaths,final ControlsFinder controlsFinder,final int n_controls) {
+			for(final Path p: casesPaths) {
+				this.casesReaders.add(new VCFFileReader(p, true));
+				}
+			this.controlsFinder = controlsFinder;
+			this.max_controls = (int)(n_controls * max_maf);
+			}
+		/** returns the matching variants in the other cases and in the controls or null if the SV must be discarded */
+		@Override
+		public List<VariantContext> apply(final VariantContext ctx) {
+			final List<VariantContext> candidates = new ArrayList<>(this.casesReaders.size());
+			candidates.add(ctx);
+			try {
+				return recursive(ctx,candidates,this.casesReaders,this.controlsFinder,this.max_controls)?candidates:null;
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		@Override
+		public void close() throws IOException {
+			this.casesReaders.stream().forEach(F->F.close());
+			this.controlsFinder.close();
+			}
+		}
+
+	private boolean recursive(final VariantContext ctx,
+			final List<VariantContext> candidates,
+			final List<VCFFileReader> vcfFilesInput,
+			final ControlsFinder controlsFinder,
+			final int max_controls) throws IOException {
+		if(candidates.size()==vcfFilesInput.size()) {
+			return controlsFinder.scan(ctx, candidates, max_controls);
 			}
 		VariantContext ctx2=null;;
 		final CloseableIterator<VariantContext> iter = vcfFilesInput.get(candidates.size()).query(
@@ -249,9 +321,68 @@ public class ScanStructuralVariants extends Launcher{
 				}
 			}
 		iter.close();
-		if(ctx2==null) return -1;
+		if(ctx2==null) return false;
 		candidates.add(ctx2);
-		return recursive(ctx,candidates,vcfFilesInput,shadowControls,out);
+		return recursive(ctx,candidates,vcfFilesInput,controlsFinder,max_controls);
+		}
+	
+	/** write the SV found in all cases */
+	private void write(final VariantContext ctx,final List<VariantContext> candidates,final VariantContextWriter out) {
+		if(this.print_all_ctx) {
+			final String cluster = "CTX"+(++ID_GENERATOR);
+			for(int x=0;x< candidates.size();++x) {
+				out.add(new VariantContextBuilder(candidates.get(x)).noGenotypes().
+						attribute(ATT_CLUSTER, cluster).make()
+						);
+				}
+			
+			return;
+			}
+		
+		final VariantContextBuilder vcb = new VariantContextBuilder();
+		vcb.chr(ctx.getContig());
+		vcb.start(ctx.getStart());
+		vcb.stop(ctx.getEnd());
+		vcb.attribute(VCFConstants.END_KEY, ctx.getEnd());
+		vcb.attribute("SVLEN", ctx.getLengthOnReference());
+		final String svType= ctx.getAttributeAsString(VCFConstants.SVTYPE,".");
+		vcb.attribute(VCFConstants.SVTYPE, svType);
+		vcb.attribute("IMPRECISE", true);
+
+		
+		for(int side=0;side<2;side++)
+			{
+			final Function<VariantContext,Integer> coordExtractor;
+			if(side==0)
+				{
+				coordExtractor = C->C.getStart();
+				}
+			else
+				{
+				coordExtractor = C->C.getEnd();
+				}
+			final List<Integer> list = Arrays.asList(
+				candidates.stream().
+					mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(ctx)).
+					min().
+					orElse(0),
+				candidates.stream().
+					mapToInt(C->coordExtractor.apply(C)-coordExtractor.apply(ctx)).
+					max().
+					orElse(0)
+				);
+			vcb.attribute(
+					side==0?"CIPOS":"CIEND", 
+					list
+					);
+			}
+		
+		final Allele ref=Allele.create("N", true);
+		final Allele alt=Allele.create("<"+svType+">",false);
+		
+		vcb.alleles(Arrays.asList(ref,alt));
+		
+		out.add(vcb.make());
 		}
 	
 	
@@ -264,7 +395,34 @@ public class ScanStructuralVariants extends Launcher{
 			return -1;
 			}
 		VariantContextWriter out = null;
+		StructuralVariantControlsIndex controlsIndex = null;
+		final List<CaseScanner> scanners = Collections.synchronizedList(new ArrayList<>());
 		try {
+			if(this.controlsPath.size()==1 && this.controlsPath.get(0).toString().endsWith(".list")) {
+				this.controlsPath = Files.lines(this.controlsPath.get(0)).
+						filter(L->!(L.startsWith("#") || StringUtils.isBlank(L))).
+						map(L->Paths.get(L)).
+						collect(Collectors.toList());
+				}
+			
+			if(this.buildControlsIndexPath!=null) {
+				if(!args.isEmpty()) {
+					LOG.error("cases are not used when building the index of the controls.");
+					return -1;
+					}
+				if(this.controlsPath.isEmpty()) {
+					LOG.error("no control was defined.");
+					return -1;
+					}
+				StructuralVariantControlsIndex.build(
+					this.controlsPath,
+					this.buildControlsIndexPath,
+					this.writingSortingCollection.getMaxRecordsInRam(),
+					this.writingSortingCollection.getTmpPaths()
+					);
+				return 0;
+				}
+			
 			final List<Path> casesPaths=(IOUtils.unrollPaths(args));
 			if(casesPaths.isEmpty()) {
 				LOG.error("cases list is empty");
@@ -276,15 +434,17 @@ public class ScanStructuralVariants extends Launcher{
 				print_all_ctx=true;
 			}
 			
-			if(this.controlsPath.size()==1 && this.controlsPath.get(0).toString().endsWith(".list")) {
-				this.controlsPath = Files.lines(this.controlsPath.get(0)).
-						filter(L->!(L.startsWith("#") || StringUtils.isBlank(L))).
-						map(L->Paths.get(L)).
-						collect(Collectors.toList());
-				}
-			
 			SAMSequenceDictionary dict = null;
 			
+			if(this.controlsIndexPath!=null) {
+				if(!this.controlsPath.isEmpty()) {
+					LOG.error("--controls and --controls-index cannot be both defined.");
+					return -1;
+					}
+				controlsIndex = StructuralVariantControlsIndex.open(this.controlsIndexPath);
+				dict = controlsIndex.getSequenceDictionary();
+				}
+			
 			final Set<VCFHeaderLine> metadata = new HashSet<>();
 			
 			for(int side=0;side<2;side++) {
@@ -390,18 +550,32 @@ public class ScanStructuralVariants extends Launcher{
 			JVarkitVersion.getInstance().addMetaData(this, header);
 			
 			
-			final List<ShadowedVcfReader> controlShadowReaders = new ArrayList<>(this.controlsPath.size());
-			for(int i=0;i< this.controlsPath.size();i++)
-				{
-				boolean large_flag = this.max_control_large_flag<0 || i>= this.max_control_large_flag;
-				controlShadowReaders.add(new ShadowedVcfReader(this.controlsPath.get(i), large_flag));
-				}
+			final int n_controls = controlsIndex==null?this.controlsPath.size():controlsIndex.getSources().size();
+			final StructuralVariantControlsIndex theIndex = controlsIndex;
+			final Supplier<Function<VariantContext,List<VariantContext>>> scannerSupplier = ()->{
+				final CaseScanner scanner = new CaseScanner(
+					casesPaths,
+					theIndex==null?new VcfControlsFinder():new IndexedControlsFinder(theIndex),
+					n_controls
+					);
+				scanners.add(scanner);
+				return scanner;
+				};
 			
 			out =  super.openVariantContextWriter(this.outputFile);
 			out.writeHeader(header);
 			final CloseableIterator<VariantContext> iter = casesFiles.get(0).iterator();
 			final ProgressFactory.Watcher<VariantContext> progress = ProgressFactory.newInstance().dictionary(dict).logger(LOG).build();
 			final Decoy decoy = Decoy.getDefaultInstance();
+			final VariantContextWriter theOut = out;
+			final BiConsumer<VariantContext,List<VariantContext>> sink = (CTX,CANDIDATES)->{
+				if(CANDIDATES==null) return;
+				write(CTX,CANDIDATES,theOut);
+				};
+			final OrderedBatchMapper<VariantContext,List<VariantContext>> mapper = this.nThreads!=1 ?
+				new OrderedBatchMapper<>(this.nThreads,this.batchSize,scannerSupplier,sink):
+				null;
+			final Function<VariantContext,List<VariantContext>> scanner = mapper==null?scannerSupplier.get():null;
 			VariantContext prevCtx = null;
 			while(iter.hasNext()) {
 				final VariantContext ctx= progress.apply(iter.next());
@@ -418,23 +592,29 @@ public class ScanStructuralVariants extends Launcher{
 				prevCtx=ctx;
 				
 				
-				final List<VariantContext> candidate = new ArrayList<>(casesFiles.size());
-				candidate.add(ctx);
-				recursive(ctx,candidate,casesFiles,controlShadowReaders,out);
+				if(mapper!=null) {
+					mapper.accept(ctx);
+					}
+				else
+					{
+					sink.accept(ctx, scanner.apply(ctx));
+					}
 				}
+			if(mapper!=null) mapper.close();
 			iter.close();
 			progress.close();		
 			
 			out.close();
 			out=null;
 			casesFiles.stream().forEach(F->F.close());
-			controlShadowReaders.stream().forEach(F->F.realClose());
 			return 0;
 		} catch(final Throwable err) {
 			LOG.error(err);
 			return -1;
 		} finally {
 			CloserUtil.close(out);
+			scanners.stream().forEach(S->CloserUtil.close(S));
+			CloserUtil.close(controlsIndex);
 		}
 		}
 	
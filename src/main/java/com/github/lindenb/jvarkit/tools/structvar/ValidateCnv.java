@@ -25,7 +25,6 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.structvar;
 
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -35,8 +34,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 
@@ -141,47 +146,155 @@ public class ValidateCnv extends Launcher
 	private double median_factor = 0.33;
 	@Parameter(names={"--min-read-support-del"},description="min number of read supporting deletion.")
 	private int min_read_supporting_del=3;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The BAMs are read in parallel, at most one open reader per thread. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="Number of CNVs loaded in memory and genotyped at once.")
+	private int batch_size = 1_000;
+	@Parameter(names={"--cache-size"},description="The query regions of nearby CNVs are merged into one region whose length is lower than 'x'. The depth of this region is computed once per BAM. " +DistanceParser.OPT_DESCRIPTION ,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+	private int cache_size = 5_000_000;
 	@ParametersDelegate
 	private WritingVariantsDelegate writingVariantsDelegate = new WritingVariantsDelegate();
 
 	
 
-	private class BamInfo implements Closeable {
+	private class BamInfo {
 		final Path path;
-		final SamReader samReader;
 		final String sampleName;
 		final ContigNameConverter ctgNameConverter;
 		BamInfo(final Path path) throws IOException {
 			this.path = path;
+			try(SamReader samReader = openSamReader()) {
+				if(!samReader.hasIndex()) {
+					throw new IOException("Bam is not indexed : "+path);
+					}
+	
+				final SAMSequenceDictionary dict = SequenceDictionaryUtils.extractRequired(samReader.getFileHeader());
+				this.ctgNameConverter = ContigNameConverter.fromOneDictionary(dict);
+				
+				
+				this.sampleName =  samReader.getFileHeader().
+						getReadGroups().
+						stream().
+						map(R->R.getSample()).
+						filter(S->!StringUtil.isBlank(S)).
+						findFirst().
+						orElseThrow(()->new IOException("no ReadGroup/SM defined in "+path));
+				}
+			}
+		SamReader openSamReader() {
 			final SamReaderFactory samReaderFactory =  SamReaderFactory.makeDefault().
 					referenceSequence(rererencePath).
 					validationStringency(ValidationStringency.LENIENT)
 					;
-			this.samReader = samReaderFactory.open(path) ;
-			if(!this.samReader.hasIndex()) {
-				throw new IOException("Bam is not indexed : "+path);
-				}
-
-			final SAMSequenceDictionary dict = SequenceDictionaryUtils.extractRequired(this.samReader.getFileHeader());
-			this.ctgNameConverter = ContigNameConverter.fromOneDictionary(dict);
-			
-			
-			this.sampleName =  samReader.getFileHeader().
-					getReadGroups().
-					stream().
-					map(R->R.getSample()).
-					filter(S->!StringUtil.isBlank(S)).
-					findFirst().
-					orElseThrow(()->new IOException("no ReadGroup/SM defined in "+path));
-			
-			}
-		@Override
-		public void close() throws IOException {
-			this.samReader.close();
+			return samReaderFactory.open(this.path);
 			}
 	}
 	
+	/** a CNV to be genotyped and its query region */
+	private static class CnvQuery {
+		final VariantContext ctx;
+		final int svLen;
+		final int leftPos;
+		final int rightPos;
+		final SimplePosition breakPointLeft;
+		final SimplePosition breakPointRight;
+		CnvQuery(final VariantContext ctx,final int svLen,final int leftPos,final int rightPos) {
+			this.ctx = ctx;
+			this.svLen = svLen;
+			this.leftPos = leftPos;
+			this.rightPos = rightPos;
+			this.breakPointLeft = new SimplePosition(ctx.getContig(), ctx.getStart());
+			this.breakPointRight = new SimplePosition(ctx.getContig(), ctx.getEnd());
+			}
+		}
 	
+	/** genotype of one sample for one CNV */
+	private static class CnvCall {
+		/** null if the sample cannot be genotyped */
+		final CnvType type;
+		final double midDepth;
+		final double gq;
+		final int n_reads_supporting_deletions;
+		CnvCall(final CnvType type,final double midDepth,final double gq,final int n_reads_supporting_deletions) {
+			this.type = type;
+			this.midDepth = midDepth;
+			this.gq = gq;
+			this.n_reads_supporting_deletions = n_reads_supporting_deletions;
+			}
+		}
+	private static final CnvCall NO_CALL = new CnvCall(null, 0, 0, 0);
+	
+	/** depth and clipped reads of one BAM in a merged query region */
+	private static class RegionCoverage {
+		int regionStart = 0;
+		int regionEnd = 0;
+		int depth[] = new int[0];
+		/* clipped reads */
+		int nClipped = 0;
+		int clipStart[] = new int[100];
+		int clipEnd[] = new int[100];
+		int clipUnclippedStart[] = new int[100];
+		int clipUnclippedEnd[] = new int[100];
+		boolean clipLeft[] = new boolean[100];
+		boolean clipRight[] = new boolean[100];
+		
+		void fill(final SamReader samReader,final String contig,final int start,final int end) {
+			this.regionStart = start;
+			this.regionEnd = end;
+			final int len = CoordMath.getLength(start, end);
+			if(this.depth.length < len) this.depth = new int[len];
+			Arrays.fill(this.depth, 0, len, 0);
+			this.nClipped = 0;
+			try(CloseableIterator<SAMRecord> iter2 = samReader.queryOverlapping(contig,start,end)) {
+				while(iter2.hasNext()) {
+					final SAMRecord rec = iter2.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(rec.getReadFailsVendorQualityCheckFlag()) continue;
+					if(rec.getDuplicateReadFlag()) continue;
+					if(rec.isSecondaryOrSupplementary()) continue;
+					final Cigar cigar = rec.getCigar();
+					if(cigar==null || cigar.isEmpty()) continue;
+					final boolean leftClipped = cigar.isLeftClipped() && rec.getUnclippedStart() < rec.getAlignmentStart();
+					final boolean rightClipped = cigar.isRightClipped() && rec.getAlignmentEnd() < rec.getUnclippedEnd();
+					if(leftClipped || rightClipped) {
+						if(this.nClipped==this.clipStart.length) {
+							final int n = this.nClipped*2;
+							this.clipStart = Arrays.copyOf(this.clipStart, n);
+							this.clipEnd = Arrays.copyOf(this.clipEnd, n);
+							this.clipUnclippedStart = Arrays.copyOf(this.clipUnclippedStart, n);
+							this.clipUnclippedEnd = Arrays.copyOf(this.clipUnclippedEnd, n);
+							this.clipLeft = Arrays.copyOf(this.clipLeft, n);
+							this.clipRight = Arrays.copyOf(this.clipRight, n);
+							}
+						this.clipStart[this.nClipped] = rec.getStart();
+						this.clipEnd[this.nClipped] = rec.getEnd();
+						this.clipUnclippedStart[this.nClipped] = rec.getUnclippedStart();
+						this.clipUnclippedEnd[this.nClipped] = rec.getUnclippedEnd();
+						this.clipLeft[this.nClipped] = leftClipped;
+						this.clipRight[this.nClipped] = rightClipped;
+						this.nClipped++;
+						}
+					
+					int ref=rec.getStart();
+					for(final CigarElement ce:cigar) {
+						final CigarOperator op = ce.getOperator();
+						if(op.consumesReferenceBases())
+							{
+							if(op.consumesReadBases()) {
+								for(int x=0;x < ce.getLength() && ref + x - start < len ;++x)
+									{
+									final int p = ref + x - start;
+									if(p<0) continue;
+									this.depth[p]++;
+									}
+								}
+							ref+=ce.getLength();
+							}
+						}
+					}
+				}
+			}
+		}
 	
 	private static class Coverage
 		{
@@ -266,6 +379,126 @@ public class ValidateCnv extends Launcher
 		
 	}
 	
+	/** genotype one sample for one CNV, using the coverage of a region containing the CNV query region */
+	private CnvCall genotype(final CnvQuery query,final RegionCoverage regionCov) {
+		final int leftPos = query.leftPos;
+		final int rightPos = query.rightPos;
+		final int array_mid_start = query.breakPointLeft.getPosition()-leftPos;
+		final int array_mid_end = query.breakPointRight.getPosition()-leftPos;
+		
+		final double raw_coverage[] = new double[CoordMath.getLength(leftPos,rightPos)];
+		for(int i=0;i< raw_coverage.length;i++) {
+			raw_coverage[i] = regionCov.depth[leftPos - regionCov.regionStart + i];
+			}
+		
+		// any clip supporting deletion ?
+		int n_reads_supporting_deletions = 0;
+		final int breakpoint_distance= 10;
+		for(int i=0;i< regionCov.nClipped;i++) {
+			// read must overlap the query region of this CNV
+			if(regionCov.clipStart[i] > rightPos || regionCov.clipEnd[i] < leftPos) continue;
+			boolean read_supports_cnv = false;
+			// any clip on left ?
+			if(regionCov.clipLeft[i] &&
+				new SimpleInterval(query.ctx.getContig(), regionCov.clipUnclippedStart[i], regionCov.clipStart[i]).
+				withinDistanceOf(query.breakPointLeft,breakpoint_distance)) {
+					read_supports_cnv  = true;
+				}
+			// any clip on right ?
+			if(	!read_supports_cnv &&
+				regionCov.clipRight[i] &&
+				new SimpleInterval(query.ctx.getContig(), regionCov.clipEnd[i], regionCov.clipUnclippedEnd[i]).
+				withinDistanceOf(query.breakPointRight,breakpoint_distance)) {
+					read_supports_cnv  = true;
+				}
+			if(read_supports_cnv) {
+				n_reads_supporting_deletions++;
+			}
+		}
+		
+		//run median to smooth spline
+		final double smoothed_cov[]= new RunMedian(RunMedian.getTurlachSize(raw_coverage.length)).apply(raw_coverage);
+
+		final double bounds_cov[] = IntStream.concat(
+				IntStream.range(0, array_mid_start),
+				IntStream.range(array_mid_end,smoothed_cov.length)
+				).mapToDouble(IDX->raw_coverage[IDX]).
+			toArray();
+		
+		final double medianBound = Percentile.average().evaluate(bounds_cov);
+		if(Double.isNaN(medianBound) || medianBound==0) {
+			return NO_CALL;
+			}
+		
+		// divide coverage per medianBound
+		final double normalized_coverage[] = new double[smoothed_cov.length];
+		for(int i=0;i< normalized_coverage.length;++i) {
+			normalized_coverage[i] = smoothed_cov[i] / medianBound;
+		}
+		
+		final double midDepth = Percentile.average().evaluate(normalized_coverage, array_mid_start, array_mid_end);
+		final CnvType cnvType = getCNVTypeFromNormDepth(midDepth);
+		final double theoritical_depth;
+		switch (cnvType) {
+			case DEL2: theoritical_depth = 0.0; break;
+			case DEL1: theoritical_depth = 0.5; break;
+			case WILD: theoritical_depth = 1.0; break;
+			case DUP1: theoritical_depth = 1.5; break;
+			case DUP2: theoritical_depth = 2.0; break;
+			default: throw new IllegalStateException();
+			}
+		
+		double gq = Math.abs(theoritical_depth-midDepth);
+		gq = Math.min(0.5, gq);
+		gq = gq * gq;
+		gq = gq / 0.25;
+		gq = 99 * (1.0 - gq);
+		return new CnvCall(cnvType, midDepth, gq, n_reads_supporting_deletions);
+		}
+	
+	/**
+	 * genotype a batch of CNVs for one BAM.
+	 * Nearby CNVs are grouped in regions shorter than cache_size, the BAM is read once per region.
+	 * @param calls the results [cnv][bam_index]
+	 */
+	private void genotype(final List<CnvQuery> batch,final BamInfo bi,final int bam_index,final CnvCall calls[][]) throws IOException {
+		final RegionCoverage regionCov = new RegionCoverage();
+		try(SamReader samReader = bi.openSamReader()) {
+			int i=0;
+			while(i< batch.size()) {
+				final CnvQuery first = batch.get(i);
+				final String newCtg = bi.ctgNameConverter.apply(first.ctx.getContig());
+				int j = i+1;
+				int regionStart = first.leftPos;
+				int regionEnd = first.rightPos;
+				while(j< batch.size()) {
+					final CnvQuery next = batch.get(j);
+					if(!next.ctx.getContig().equals(first.ctx.getContig())) break;
+					final int start2 = Math.min(regionStart, next.leftPos);
+					final int end2 = Math.max(regionEnd, next.rightPos);
+					// CNV too far away or region would be too large
+					if(next.leftPos > regionEnd + 1 || next.rightPos < regionStart - 1) break;
+					if(CoordMath.getLength(start2, end2) > this.cache_size) break;
+					regionStart = start2;
+					regionEnd = end2;
+					j++;
+					}
+				if(StringUtils.isBlank(newCtg)) {
+					LOG.warn("No contig for "+first.ctx.getContig()+" in "+bi.path);
+					for(int k=i;k< j;k++) calls[k][bam_index] = NO_CALL;
+					}
+				else
+					{
+					regionCov.fill(samReader, newCtg, regionStart, regionEnd);
+					for(int k=i;k< j;k++) {
+						calls[k][bam_index] = genotype(batch.get(k), regionCov);
+						}
+					}
+				i = j;
+				}
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {		
 		if(this.extendFactor<=0)
@@ -277,6 +510,7 @@ public class ValidateCnv extends Launcher
 		final Map<String,BamInfo> sample2bam = new HashMap<>();
 		VariantContextWriter out = null;
 		VCFIterator iterIn = null;
+		ExecutorService executor = null;
 		final Allele delAllele  = Allele.create("<DEL>", false);
 		final Allele dupAllele  = Allele.create("<DUP>", false);
 		final Allele refAllele  = Allele.create("N", true);
@@ -294,7 +528,6 @@ public class ValidateCnv extends Launcher
 				
 				if(sample2bam.containsKey(bi.sampleName)) {
 					LOG.error("sample "+ bi.sampleName +" specified twice.");
-					bi.close();
 					return -1;
 					}
 				
@@ -377,302 +610,135 @@ public class ValidateCnv extends Launcher
 			
 			
 			
-			while(iterIn.hasNext())
+			final List<String> samples = new ArrayList<>(sample2bam.keySet());
+			final List<BamInfo> bams = samples.stream().map(S->sample2bam.get(S)).collect(Collectors.toList());
+			executor = Executors.newFixedThreadPool(this.nThreads<1?Runtime.getRuntime().availableProcessors():this.nThreads);
+			final List<CnvQuery> batch = new ArrayList<>(this.batch_size);
+			
+			for(;;)
 				{
-				final VariantContext ctx = iterIn.next();
-				final StructuralVariantType svType = ctx.getStructuralVariantType();
-				if(!(svType==StructuralVariantType.DEL || svType==StructuralVariantType.DUP || svType==StructuralVariantType.INS) ) {
-					continue;
-					}
-				
-				if(ctx.getNAlleles()!=2) continue;
-				final int svLen;
-				if(ctx.hasAttribute("SVLEN")) {
-					svLen = Math.abs(ctx.getAttributeAsInt("SVLEN", -1));
-				} else {
-					svLen = ctx.getLengthOnReference();
-					}
-				if(svLen< this.min_abs_sv_size) continue;
-				if(svLen> this.max_abs_sv_size) continue;
-				
-				int n_samples_with_cnv  = 0;
-				final SimplePosition breakPointLeft = new SimplePosition(ctx.getContig(), ctx.getStart());
-				final SimplePosition breakPointRight = new SimplePosition(ctx.getContig(), ctx.getEnd());
-				
-				final int extend = 1+(int)(svLen*this.extendFactor);
-				
-				
-				
-				final int leftPos =  Math.max(1, breakPointLeft.getPosition()-extend);
-				final int array_mid_start = breakPointLeft.getPosition()-leftPos;
-				final int array_mid_end = breakPointRight.getPosition()-leftPos;
-				int rightPos =  breakPointRight.getPosition()+extend;
-				
-				if(dict!=null) {
-					final SAMSequenceRecord ssr = dict.getSequence(ctx.getContig());
-					if(ssr!=null) {
-						rightPos = Math.min(rightPos, ssr.getSequenceLength());
-						}
-					}
-				
-				//System.err.println(""+leftPos+" "+ctx.getStart()+" "+ctx.getEnd()+" "+rightPos);
-				
-				
-				final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
-				vcb.attributes(new HashMap<>());
-				vcb.attribute(VCFConstants.END_KEY, ctx.getEnd());
-				
-			    final Set<Allele> alleles = new HashSet<>();
-			    alleles.add(refAllele);
-				
-				final List<Genotype> genotypes = new ArrayList<>(sample2bam.size());
-				Double badestGQ = null;
-				for(final String sn : sample2bam.keySet())
-					{
-					final BamInfo bi =sample2bam.get(sn);
-					
-
-					final String newCtg = bi.ctgNameConverter.apply(ctx.getContig());
-					if(StringUtils.isBlank(newCtg)) {
-						System.err.println("No contig for "+ctx.getContig());
-						final Genotype gt2 = GenotypeBuilder.createMissing(sn, 2);
-						genotypes.add(gt2);
-						continue;
-					}
-					
-					
-					final double raw_coverage[] = new double[CoordMath.getLength(leftPos,rightPos)];
-					Arrays.fill(raw_coverage, 0.0);
-
-					
-					int n_reads_supporting_deletions = 0;
-					
-					
-					
-					
-					try(CloseableIterator<SAMRecord> iter2 = bi.samReader.queryOverlapping(
-							newCtg,
-							leftPos,
-							rightPos
-							)) {
-						while(iter2.hasNext()) {
-							final SAMRecord rec = iter2.next();
-							if(rec.getReadUnmappedFlag()) continue;
-							if(rec.getReadFailsVendorQualityCheckFlag()) continue;
-							if(rec.getDuplicateReadFlag()) continue;
-							if(rec.isSecondaryOrSupplementary()) continue;
-							final Cigar cigar = rec.getCigar();
-							if(cigar==null || cigar.isEmpty()) continue;
-							// any clip supporting deletion ?
-							boolean read_supports_cnv = false;
-							final int breakpoint_distance= 10;
-
-							// any clip on left ?
-							if(cigar.isLeftClipped() &&
-								rec.getUnclippedStart() < rec.getAlignmentStart() && 
-								new SimpleInterval(ctx.getContig(), rec.getUnclippedStart(), rec.getAlignmentStart()).
-								withinDistanceOf(breakPointLeft,breakpoint_distance)) {
-									read_supports_cnv  = true;
-								}
-							// any clip on right ?
-							if(	!read_supports_cnv &&
-								cigar.isRightClipped() &&
-								rec.getAlignmentEnd() < rec.getUnclippedEnd() && 
-								new SimpleInterval(ctx.getContig(), rec.getAlignmentEnd(), rec.getUnclippedEnd()).
-								withinDistanceOf(breakPointRight,breakpoint_distance)) {
-									read_supports_cnv  = true;
-								}
-							
-							if(read_supports_cnv) {
-								n_reads_supporting_deletions++;
-							}
-							
-							
-							int ref=rec.getStart();
-							for(final CigarElement ce:cigar) {
-								final CigarOperator op = ce.getOperator();
-								if(op.consumesReferenceBases())
-									{
-									if(op.consumesReadBases()) {
-										for(int x=0;x < ce.getLength() && ref + x - leftPos < raw_coverage.length ;++x)
-											{
-											final int p = ref + x - leftPos;
-											if(p<0 || p>=raw_coverage.length) continue;
-											raw_coverage[p]++;
-											}
-										}
-									ref+=ce.getLength();
-									}
-								}
-							}// end while iter record
-						}//end try
-					
-					//run median to smooth spline
-					final double smoothed_cov[]= new RunMedian(RunMedian.getTurlachSize(raw_coverage.length)).apply(raw_coverage);
-
-					final double bounds_cov[] = IntStream.concat(
-							IntStream.range(0, array_mid_start),
-							IntStream.range(array_mid_end,smoothed_cov.length)
-							).mapToDouble(IDX->raw_coverage[IDX]).
-						toArray();
-					
-
-					
-					
-					final double medianBound = Percentile.average().evaluate(bounds_cov);
-					if(Double.isNaN(medianBound) || medianBound==0) {
-						final Genotype gt2 = GenotypeBuilder.createMissing(sn, 2);
-						genotypes.add(gt2);
+				final VariantContext ctx = iterIn.hasNext()?progress.apply(iterIn.next()):null;
+				if(ctx!=null) {
+					final StructuralVariantType svType = ctx.getStructuralVariantType();
+					if(!(svType==StructuralVariantType.DEL || svType==StructuralVariantType.DUP || svType==StructuralVariantType.INS) ) {
 						continue;
 						}
 					
-					// divide coverage per medianBound
-					final double normalized_coverage[] = new double[smoothed_cov.length];
-					for(int i=0;i< normalized_coverage.length;++i) {
-						normalized_coverage[i] = smoothed_cov[i] / medianBound;
-					}
-					
-					final double midDepth = Percentile.average().evaluate(normalized_coverage, array_mid_start, array_mid_end);
-					final GenotypeBuilder gb;
-					final double theoritical_depth;
-					switch (getCNVTypeFromNormDepth(midDepth)) {
-						case DEL2: gb = new GenotypeBuilder(sn,Arrays.asList(delAllele,delAllele));
-								alleles.add(delAllele);
-								n_samples_with_cnv++;
-								theoritical_depth = 0.0;
-								break;
-						case DEL1: gb = new GenotypeBuilder(sn,Arrays.asList(refAllele,delAllele));
-								alleles.add(delAllele);
-								n_samples_with_cnv++;
-								theoritical_depth = 0.5;
-								break;
-						case WILD: gb = new GenotypeBuilder(sn,Arrays.asList(refAllele,refAllele));
-								theoritical_depth = 1.0;
-								break;
-						case DUP1: gb = new GenotypeBuilder(sn,Arrays.asList(refAllele,dupAllele));
-								alleles.add(dupAllele);
-								n_samples_with_cnv++;
-								theoritical_depth = 1.5;
-								break;
-						case DUP2: gb = new GenotypeBuilder(sn,Arrays.asList(dupAllele,dupAllele));
-								n_samples_with_cnv++;
-								alleles.add(dupAllele);
-								theoritical_depth = 2.0;
-								break;
-						default: throw new IllegalStateException();
+					if(ctx.getNAlleles()!=2) continue;
+					final int svLen;
+					if(ctx.hasAttribute("SVLEN")) {
+						svLen = Math.abs(ctx.getAttributeAsInt("SVLEN", -1));
+					} else {
+						svLen = ctx.getLengthOnReference();
 						}
+					if(svLen< this.min_abs_sv_size) continue;
+					if(svLen> this.max_abs_sv_size) continue;
 					
-					double gq = Math.abs(theoritical_depth-midDepth);
-					gq = Math.min(0.5, gq);
-					gq = gq * gq;
-					gq = gq / 0.25;
-					gq = 99 * (1.0 - gq);
-					
-					gb.GQ((int)gq);
-					gb.attribute(formatCN.getID(), midDepth);
-					
-					if(badestGQ==null || badestGQ.compareTo(gq)>0) {
-						badestGQ = gq;
-					}
-					
-					//final Coverage covL = calculateCoverage(coverage,0, array_mid_start);
-					//final Coverage covM = calculateCoverage(coverage,array_mid_start, array_mid_end);
-					//final Coverage covR = calculateCoverage(coverage,array_mid_end, coverage.length);
-					//final Coverage coBounds = calculateCoverage(coverage,IDX->IDX< array_mid_start || IDX>array_mid_end);
-										
-					gb.attribute(nReadsSupportingDel.getID(), n_reads_supporting_deletions);
-					
-					/*
-					final Function<Double, Integer> toInt = DBL->DBL==null?-1:DBL.intValue();
-					gb.attribute(leftMedianDepth.getID(),toInt.apply(covL.median));
-					gb.attribute(midMedianDepth.getID(),toInt.apply(covM.median));
-					gb.attribute(rightMedianDepth.getID(),toInt.apply(covR.median));
-					gb.attribute(leftVarianceDepth.getID(),toInt.apply(covL.variance));
-					gb.attribute(midVarianceDepth.getID(),toInt.apply(covM.variance));
-					gb.attribute(rightVarianceDepth.getID(),toInt.apply(covR.variance));
-					*/
-					/*
-					final Set<String> gtFilters = new HashSet<>();
+					final int extend = 1+(int)(svLen*this.extendFactor);
+					final int leftPos =  Math.max(1, ctx.getStart()-extend);
+					int rightPos =  ctx.getEnd()+extend;
 					
-					//prevent HOM_VAR
-					for(int j=array_mid_start;j< array_mid_end;j++)
-						{
-						if(coverage[j]<this.critical_middle_depth)
-							{
-							gtFilters.add("HOMVAR");
-							break;
+					if(dict!=null) {
+						final SAMSequenceRecord ssr = dict.getSequence(ctx.getContig());
+						if(ssr!=null) {
+							rightPos = Math.min(rightPos, ssr.getSequenceLength());
 							}
 						}
-					// there are some split read that could support the SV in non-called
-					if(svType==StructuralVariantType.DEL &&
-						n_reads_supporting_deletions < this.min_read_supporting_del ) {
-						gtFilters.add("SPLITREAD");
+					batch.add(new CnvQuery(ctx, svLen, leftPos, rightPos));
+					if(batch.size() < Math.max(1,this.batch_size)) continue;
+					}
+				if(batch.isEmpty()) break;
+				
+				/* genotype the batch, one task per BAM */
+				final CnvCall calls[][] = new CnvCall[batch.size()][bams.size()];
+				final List<Future<Void>> futures = new ArrayList<>(bams.size());
+				for(int bam_index=0;bam_index< bams.size();++bam_index) {
+					final int final_bam_index = bam_index;
+					futures.add(executor.submit(()->{
+						genotype(batch, bams.get(final_bam_index), final_bam_index, calls);
+						return null;
+						}));
+					}
+				for(final Future<Void> future:futures) {
+					try {
+						future.get();
 						}
-					
-					// high variance left
-					if(isHightVariance(covL.variance)) {
-						gtFilters.add("HIGHVARL");
+					catch(final ExecutionException err) {
+						throw err.getCause();
 						}
+					}
+				
+				/* write the batch in input order */
+				for(int cnv_index=0;cnv_index< batch.size();++cnv_index) {
+					final CnvQuery query = batch.get(cnv_index);
+					final VariantContextBuilder vcb = new VariantContextBuilder(query.ctx);
+					vcb.attributes(new HashMap<>());
+					vcb.attribute(VCFConstants.END_KEY, query.ctx.getEnd());
 					
-					// high variance left
-					if(isHightVariance(covR.variance)) {
-						gtFilters.add("HIGHVARR");
-						}
-					//low dp left
-					if(covL.median!=null && covL.median.doubleValue() < this.min_depth) {
-						gtFilters.add("LOWDPL");
+				    final Set<Allele> alleles = new HashSet<>();
+				    alleles.add(refAllele);
+				    int n_samples_with_cnv  = 0;
+					final List<Genotype> genotypes = new ArrayList<>(samples.size());
+					Double badestGQ = null;
+					for(int bam_index=0;bam_index< samples.size();++bam_index) {
+						final String sn = samples.get(bam_index);
+						final CnvCall call = calls[cnv_index][bam_index];
+						if(call.type==null) {
+							genotypes.add(GenotypeBuilder.createMissing(sn, 2));
+							continue;
+							}
+						final GenotypeBuilder gb;
+						switch (call.type) {
+							case DEL2: gb = new GenotypeBuilder(sn,Arrays.asList(delAllele,delAllele));
+									alleles.add(delAllele);
+									n_samples_with_cnv++;
+									break;
+							case DEL1: gb = new GenotypeBuilder(sn,Arrays.asList(refAllele,delAllele));
+									alleles.add(delAllele);
+									n_samples_with_cnv++;
+									break;
+							case WILD: gb = new GenotypeBuilder(sn,Arrays.asList(refAllele,refAllele));
+									break;
+							case DUP1: gb = new GenotypeBuilder(sn,Arrays.asList(refAllele,dupAllele));
+									alleles.add(dupAllele);
+									n_samples_with_cnv++;
+									break;
+							case DUP2: gb = new GenotypeBuilder(sn,Arrays.asList(dupAllele,dupAllele));
+									n_samples_with_cnv++;
+									alleles.add(dupAllele);
+									break;
+							default: throw new IllegalStateException();
+							}
+						
+						gb.GQ((int)call.gq);
+						gb.attribute(formatCN.getID(), call.midDepth);
+						
+						if(badestGQ==null || badestGQ.compareTo(call.gq)>0) {
+							badestGQ = call.gq;
 						}
-					//low dp right
-					if(covR.median!=null && covR.median.doubleValue() < this.min_depth) {
-						gtFilters.add("LOWDPR");
+						gb.attribute(nReadsSupportingDel.getID(), call.n_reads_supporting_deletions);
+						genotypes.add(gb.make());
 						}
 					
-					// big difference of depth left/right
-					if(!isSameMedianDepth(covL.median, covR.median)) {
-						gtFilters.add("DIFFLR");
-						}
-					// no difference between mid and left
-					if(isSameMedianDepth(covL.median, covM.median))
-						{
-						gtFilters.add("DIFFLM");
-						}
-					// no difference between mid and right
-					if(isSameMedianDepth(covM.median, covR.median))
-						{
-						gtFilters.add("DIFFMR");
-						}
-					// no diff beween L and M
-					if(isSameMedianDepth(covL.median, covM.median)) {
-						gtFilters.add("NELM");
-						}
+					if(alleles.size()<=1) continue;
+					vcb.alleles(alleles);
+					vcb.noID();
+					vcb.genotypes(genotypes);
+					vcb.attribute(infoSVSamples.getID(), n_samples_with_cnv);
+					vcb.attribute(infoSvLen.getID(), query.svLen);
 					
-					// no diff beween M and R
-					if(isSameMedianDepth(covM.median, covR.median)) {
-						gtFilters.add("NEMR");
-						}
+					if(badestGQ!=null ) {
+						vcb.log10PError(badestGQ/-10.0);
+					}
 					
-					if(!gtFilters.isEmpty()) {
-						sv_samples.remove(gt.getSampleName());
-						gb.filter(String.join("~",gtFilters));
-						}
-					*/
-					genotypes.add(gb.make());
+					out.add(vcb.make());
 					}
-				
-				
-				if(alleles.size()<=1) continue;
-				vcb.alleles(alleles);
-				vcb.noID();
-				vcb.genotypes(genotypes);
-				vcb.attribute(infoSVSamples.getID(), n_samples_with_cnv);
-				vcb.attribute(infoSvLen.getID(), svLen);
-				
-				if(badestGQ!=null ) {
-					vcb.log10PError(badestGQ/-10.0);
-				}
-				
-				out.add(vcb.make());
+				batch.clear();
+				if(ctx==null) break;
 				}
+			executor.shutdown();
+			executor.awaitTermination(365, TimeUnit.DAYS);
+			executor = null;
 			progress.close();
 			out.close();
 			iterIn.close();
@@ -687,7 +753,7 @@ public class ValidateCnv extends Launcher
 			{
 			CloserUtil.close(iterIn);
 			CloserUtil.close(out);
-			sample2bam.values().forEach(F->CloserUtil.close(F));
+			if(executor!=null) executor.shutdownNow();
 			}
 		}
 	
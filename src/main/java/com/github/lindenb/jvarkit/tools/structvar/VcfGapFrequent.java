@@ -2,6 +2,7 @@ package com.github.lindenb.jvarkit.tools.structvar;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -13,6 +14,7 @@ import java.util.stream.Collectors;
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -20,15 +22,15 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
 import com.github.lindenb.jvarkit.util.vcf.AFExtractorFactory;
 import com.github.lindenb.jvarkit.util.vcf.AFExtractorFactory.AFExtractor;
-import htsjdk.variant.vcf.VCFIterator;
+import com.github.lindenb.jvarkit.variant.vcf.GtRecordReader;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.FileExtensions;
 import htsjdk.samtools.util.StringUtil;
-import htsjdk.variant.variantcontext.Allele;
-import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
@@ -45,12 +47,17 @@ $ java -jar dist/vcfgapfrequent.jar --fields "AF_POPMAX" -C -D gnomad.list genot
 
 ```
 
+## Note
+
+For a text VCF, only the GT field of the genotypes is decoded.
+
 END_DOC
  */
 
 @Program(name="vcfgapfrequent",
 description="Filter VCF annotated with external (AF or AC/AN) frequency information like vcfgnomad",
-keywords={"vcf"}
+keywords={"vcf"},
+modificationDate="20201019"
 )
 
 public class VcfGapFrequent extends Launcher {
@@ -126,10 +133,13 @@ public class VcfGapFrequent extends Launcher {
 		{
 		/** if null: no genotype is considered (whole VCF)*/
 		final String sampleName;
+		/** index of the sample in the VCF header or -1 */
+		final int sample_idx;
 		int prev_tid = 0;
 		int prev_pos1 = 1;
-		Handler(final String sampleName) {
+		Handler(final String sampleName,final int sample_idx) {
 			this.sampleName = sampleName;
+			this.sample_idx = sample_idx;
 			}
 		void scan(int tid,int start_incl_1,int end_exclusive)
 			{
@@ -183,16 +193,14 @@ public class VcfGapFrequent extends Launcher {
 			out.println();
 			}
 		
-		void visit(final VariantContext ctx) {
-			if(this.sampleName!=null)
+		/** @param ctx_tid index of the contig of 'rec' in the dictionary */
+		void visit(final GtRecordReader rec,final int ctx_tid) {
+			if(this.sample_idx>=0)
 				{
-				final Genotype gt = ctx.getGenotype(this.sampleName);
-				if(!(gt.isNoCall() || gt.getAlleles().stream().noneMatch(A->A.equals(Allele.SPAN_DEL)))) return;
+				if(!(rec.getType(this.sample_idx)==GenotypeType.NO_CALL || !rec.hasSpanDeletion(this.sample_idx))) return;
 				}
-			final int ctx_tid = dict.getSequenceIndex(ctx.getContig());
-			if(ctx_tid==-1) throw new JvarkitException.ContigNotFoundInDictionary(ctx.getContig(), dict);
 			if(this.prev_tid> ctx_tid) {
-				throw new IllegalStateException("Bad sort order "+ctx);
+				throw new IllegalStateException("Bad sort order "+rec.getContig()+":"+rec.getStart());
 				}
 			// finish current segment
 			if(this.prev_tid<ctx_tid)
@@ -211,9 +219,9 @@ public class VcfGapFrequent extends Launcher {
 				this.prev_pos1 = 1;
 				}
 			
-			scan(ctx_tid,this.prev_pos1,ctx.getStart());
+			scan(ctx_tid,this.prev_pos1,rec.getStart());
 			this.prev_tid = ctx_tid;
-			this.prev_pos1 = ctx.getEnd();
+			this.prev_pos1 = rec.getEnd();
 			}
 		
 		void finish() {
@@ -232,6 +240,14 @@ public class VcfGapFrequent extends Launcher {
 	
 
 	
+	/** text VCFs are scanned by the GtRecordReader, BCF are decoded by htsjdk */
+	private GtRecordReader openGtRecordReader(final String input) throws IOException {
+		if(input!=null && input.endsWith(FileExtensions.BCF)) {
+			return new GtRecordReader(super.openVCFIterator(input));
+			}
+		return new GtRecordReader(super.openBufferedReader(input));
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(af_treshold<0 || this.af_treshold>1) 
@@ -240,7 +256,7 @@ public class VcfGapFrequent extends Launcher {
 			return -1;
 			}
 		
-		VCFIterator in = null;
+		GtRecordReader in = null;
 		try 
 			{
 			
@@ -260,7 +276,7 @@ public class VcfGapFrequent extends Launcher {
 				return -1;
 				}
 			
-			in= super.openVCFIterator(oneFileOrNull(args));
+			in= openGtRecordReader(oneFileOrNull(args));
 			final VCFHeader header = in.getHeader();
 			
 			
@@ -273,19 +289,23 @@ public class VcfGapFrequent extends Launcher {
 			this.out= super.openFileOrStdoutAsPrintWriter(this.outputFile);
 			
 			final List<Handler> handlers = new ArrayList<>(header.getNGenotypeSamples()+1);
-			handlers.add(new Handler(null));
-			header.getSampleNamesInOrder().stream().map(S->new Handler(S)).forEach(H->handlers.add(H));
+			handlers.add(new Handler(null,-1));
+			for(final String sn: header.getSampleNamesInOrder()) {
+				handlers.add(new Handler(sn,header.getSampleNameToOffset().get(sn)));
+				}
 			
-			final ProgressFactory.Watcher<VariantContext> progress = ProgressFactory.newInstance().
+			final ProgressFactory.Watcher<SimpleInterval> progress = ProgressFactory.newInstance().
 					dictionary(header).
 					validatingSortOrder(true).
 					logger(LOG).
 					build();
 			
-			while(in.hasNext())
+			while(in.next())
 				{
-				final VariantContext ctx =progress.apply(in.next());
-				handlers.stream().forEach(H->H.visit(ctx));
+				progress.apply(new SimpleInterval(in.getContig(),in.getStart(),in.getEnd()));
+				final int ctx_tid = this.dict.getSequenceIndex(in.getContig());
+				if(ctx_tid==-1) throw new JvarkitException.ContigNotFoundInDictionary(in.getContig(), this.dict);
+				for(final Handler h:handlers) h.visit(in, ctx_tid);
 				}
 			handlers.stream().forEach(H->H.finish());
 			progress.close();
@@ -24,6 +24,7 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.structvar;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -32,7 +33,6 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
@@ -43,13 +43,13 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
-
-import htsjdk.variant.vcf.VCFIterator;
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
+import com.github.lindenb.jvarkit.variant.vcf.GtRecordReader;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.CoordMath;
-import htsjdk.variant.variantcontext.Genotype;
-import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.samtools.util.FileExtensions;
+import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.vcf.VCFHeader;
 
 /**
@@ -73,13 +73,18 @@ $ java -jar dist/vcfstrechofgt.jar -p src/test/resources/test_vcf01.ped src/test
 bcftools roh
 ```
 
+## Note
+
+For a text VCF, only the GT and DP fields of the genotypes are decoded.
+
+
 END_DOC
 */
 @Program(name="vcfstrechofgt",
 description="Try to finds deletion by searching strech of HOM_REF/HOM_VAR/NO_CALL Genotypes.",
 keywords={"vcf","deletion","cnv"},
 creationDate="20190103",
-modificationDate="20200108"
+modificationDate="20201019"
 )
 public class VcfStretchOfGt extends Launcher
 	{
@@ -109,15 +114,15 @@ public class VcfStretchOfGt extends Launcher
 	
 	private class SampleSet {
 		final Set<String> affected;
-		final Set<String> otherSamples;
+		/** indexes of the affected samples in the VCF header */
+		final int[] affected_idx;
 		Stretch current = null;
-		final Predicate<Genotype> acceptGenotype;
 		
-		SampleSet(final Set<String> all_samples,final Set<String> affected) {
+		SampleSet(final VCFHeader header,final Set<String> affected) {
 			this.affected = affected;
-			this.otherSamples = new HashSet<>(all_samples);
-			this.otherSamples.removeAll(this.affected);
-			this.acceptGenotype=G->G.isHomRef() || G.isHomVar()|| (G.isNoCall() && !exclude_no_call);
+			this.affected_idx = affected.stream().
+					mapToInt(S->header.getSampleNameToOffset().get(S)).
+					toArray();
 			}
 		
 		private void dump(final PrintWriter w) {
@@ -142,22 +147,21 @@ public class VcfStretchOfGt extends Launcher
 
 		}
 		
-		private void visit(final PrintWriter w,final VariantContext ctx) {
-			if(current!=null && !current.contig.equals(ctx.getContig())) {
+		/**
+		 * @param accepted accepted[i] is true if the genotype of the i-th sample is accepted
+		 * @param count_rejected number of samples in the VCF whose genotype is not accepted
+		 */
+		private void visit(final PrintWriter w,final GtRecordReader rec,final boolean[] accepted,final int count_rejected) {
+			if(current!=null && !current.contig.equals(rec.getContig())) {
 				dump(w);
 				current=null;
 				}
-			final boolean ok=
-					affected.stream().
-					map(S->ctx.getGenotype(S)).
-					allMatch(acceptGenotype);
-			
-			final boolean otherOk=
-					otherSamples.stream().
-					map(S->ctx.getGenotype(S)).
-					allMatch(acceptGenotype);
-			
-			
+			int affected_rejected = 0;
+			for(final int idx: this.affected_idx) {
+				if(!accepted[idx]) affected_rejected++;
+				}
+			final boolean ok= affected_rejected==0;
+			final boolean otherOk= (count_rejected - affected_rejected)==0;
 			
 			if(!ok) {
 				if(current!=null) dump(w);
@@ -165,19 +169,23 @@ public class VcfStretchOfGt extends Launcher
 				}
 			else if(current==null) {
 				current=new Stretch();
-				current.contig=ctx.getContig();
-				current.start= ctx.getStart();
+				current.contig=rec.getContig();
+				current.start= rec.getStart();
 				}
 			
 			//do this for any Stretch
 			if(current!=null) {
-				current.end= ctx.getEnd();
+				current.end= rec.getEnd();
 				current.countVariants++;
-				current.sumAvgDp += ctx.getGenotypes().stream().
-						filter(G->G.hasDP() && affected.contains(G.getSampleName())).
-						mapToInt(G->G.getDP()).
-						average().
-						orElse(0.0);
+				long sum_dp = 0L;
+				int count_dp = 0;
+				for(final int idx: this.affected_idx) {
+					final int dp = rec.getDepth(idx);
+					if(dp<0) continue;
+					sum_dp += dp;
+					count_dp++;
+					}
+				current.sumAvgDp += (count_dp==0?0.0:sum_dp/(double)count_dp);
 				current.countOthers += (otherOk?1:0);
 				}
 			}
@@ -186,12 +194,21 @@ public class VcfStretchOfGt extends Launcher
 	
 	
 	
+	/** text VCFs are scanned by the GtRecordReader, BCF are decoded by htsjdk */
+	private GtRecordReader openGtRecordReader(final String input) throws IOException {
+		if(input!=null && input.endsWith(FileExtensions.BCF)) {
+			return new GtRecordReader(super.openVCFIterator(input));
+			}
+		return new GtRecordReader(super.openBufferedReader(input));
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
-		VCFIterator iter=null;
+		GtRecordReader iter=null;
 		PrintWriter w=null;
 		try {
-			iter = super.openVCFIterator(oneFileOrNull(args));
+			iter = openGtRecordReader(oneFileOrNull(args));
+			iter.setDecodingDepth(true);
 			final VCFHeader header=iter.getHeader();
 			if(!header.hasGenotypingData()) {
 				LOG.error("No genotype in input");
@@ -215,7 +232,7 @@ public class VcfStretchOfGt extends Launcher
 				
 				/* at least 2 because singleton sample are created later */
 				if(affected.size()>1) {
-					all_sample_set.add(new SampleSet(vcf_samples,affected));
+					all_sample_set.add(new SampleSet(header,affected));
 					}
 				}
 			
@@ -236,13 +253,13 @@ public class VcfStretchOfGt extends Launcher
 				
 				/* at least 2 because singleton sample are created later */
 				if(affected.size()>1) {
-					all_sample_set.add(new SampleSet(vcf_samples,affected));
+					all_sample_set.add(new SampleSet(header,affected));
 					}
 				}
 			
 			/* singletons */
 			for(final String sn:vcf_samples) {
-				final SampleSet sampleSet = new SampleSet(vcf_samples,Collections.singleton(sn));
+				final SampleSet sampleSet = new SampleSet(header,Collections.singleton(sn));
 				all_sample_set.add(sampleSet);
 			}
 			
@@ -268,12 +285,18 @@ public class VcfStretchOfGt extends Launcher
 			w.print("count.other.variants");
 			w.println();
 			
-			final ProgressFactory.Watcher<VariantContext> progress = ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
-			
+			final ProgressFactory.Watcher<SimpleInterval> progress = ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
 			
-			while(iter.hasNext()) {
-				final VariantContext ctx=progress.apply(iter.next());
-				for(final SampleSet snSet:all_sample_set) snSet.visit(w, ctx);
+			final boolean[] accepted = new boolean[iter.getSampleCount()];
+			while(iter.next()) {
+				progress.apply(new SimpleInterval(iter.getContig(),iter.getStart(),iter.getEnd()));
+				int count_rejected = 0;
+				for(int i=0;i< accepted.length;i++) {
+					final GenotypeType type = iter.getType(i);
+					accepted[i] = type==GenotypeType.HOM_REF || type==GenotypeType.HOM_VAR || (type==GenotypeType.NO_CALL && !exclude_no_call);
+					if(!accepted[i]) count_rejected++;
+					}
+				for(final SampleSet snSet:all_sample_set) snSet.visit(w, iter, accepted, count_rejected);
 				}
 			for(final SampleSet snSet:all_sample_set) snSet.dump(w);
 			w.flush();w.close();w=null;
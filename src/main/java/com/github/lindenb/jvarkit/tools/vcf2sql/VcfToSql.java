@@ -28,26 +28,44 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.vcf2sql;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFFilterHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -66,6 +84,20 @@ BEGIN_DOC
 ```bash
 java -jar dist/vcf2sql.jar  file.vcf | mysql -u user -p -D vcf_db 
 ```
+
+## Bulk mode
+
+With `--bulk dir`, no INSERT statement is generated. The ids are assigned by vcf2sql and one tab-delimited file is written per table
+(`variant.tsv`, `genotype.tsv`, `variant2info.tsv`...) together with a script `load.sql` creating the tables,
+loading the files with `LOAD DATA LOCAL INFILE` and creating the indexes and the foreign keys once all the data are loaded.
+If the VCF is indexed, the contigs are processed in parallel (option `--jobs`).
+The ids start from 1, so the bulk mode is meant to fill an empty database.
+
+```bash
+java -jar dist/vcf2sql.jar --drop --bulk tmpdir --jobs 4 file.vcf.gz
+mysql --local-infile=1 -u user -p -D vcf_db < tmpdir/load.sql
+```
+
 ## Database schema (dot)
 
 ```dot
@@ -123,6 +155,10 @@ public class VcfToSql extends Launcher
 	private boolean ignore_info = false;
 	@Parameter(names={"-f","--nofilter"},description="ignore FILTER column")
 	private boolean ignore_filter = false;
+	@Parameter(names={"--bulk"},description="Bulk mode: don't generate INSERT statements but write in this directory one tab-delimited file per table and a script 'load.sql' loading those files into mysql. See the documentation.")
+	private Path bulkDirectory = null;
+	@Parameter(names={"-j","--jobs"},description="Bulk mode: number of contigs processed in parallel if the VCF is indexed. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
     private PrintWriter outputWriter =null;
     
     private class SelectStmt
@@ -175,6 +211,7 @@ public class VcfToSql extends Launcher
     	private String _name=null;
     	private Class<?> _class=String.class;
     	private boolean _nilleable=false;
+    	private boolean _text=false;
     	ColumnBuilder primaryKey() { this._pkey=true; return this;}
     	ColumnBuilder name(String v) { this._name=v; return this;}
     	ColumnBuilder type(Class<?> v) { this._class=v; return this;}
@@ -184,6 +221,8 @@ public class VcfToSql extends Launcher
     	ColumnBuilder indexed() { this._indexed=true; return this;}
     	ColumnBuilder uniq() { this._unique=true; return this;}
     	ColumnBuilder length(int v) { this._length=v; return this;}
+    	/** a string without any length limit */
+    	ColumnBuilder text() { this._text=true; return this;}
     	
     	Column make()
     			{
@@ -207,7 +246,7 @@ public class VcfToSql extends Launcher
     				}
     			else  if(_class==String.class)
     				{
-    				c = new StringColumn(this._name);
+    				c = this._text?new TextColumn(this._name):new StringColumn(this._name);
     				}
     			else
     				{
@@ -267,18 +306,50 @@ public class VcfToSql extends Launcher
     			}
     		}
 
-    	public  void createIndex(PrintWriter pw)
+    	/** escape a value for the tab-delimited files of the bulk mode. NULL is '\N' */
+    	String escapeBulk(final Object o)
+    		{
+    		if(o==null)
+    			{
+    			if(!this.nilleable) throw new RuntimeException("column "+ this.table.getName()+"."+this.getName()+" : not set as nilleable");
+    			return "\\N";
+    			}
+    		return String.valueOf(o);
+    		}
+    	
+    	/** return the definition of the index/constraint for this column or null */
+    	String getIndexDefinition()
     		{
     		if(unique)
     			{
-    			pw.print(",CONSTRAINT "+table.getName()+"_"+getName()+"_uniq UNIQUE("+getAntiquote()+")");
+    			return "CONSTRAINT "+table.getName()+"_"+getName()+"_uniq UNIQUE("+getAntiquote()+")";
     			}
     		else if( indexed)
     			{
-    			pw.print(",INDEX("+getAntiquote()+")");
+    			return "INDEX("+getAntiquote()+")";
     			}
+    		return null;
+    		}
+    	
+    	public  void createIndex(PrintWriter pw)
+    		{
+    		final String def = getIndexDefinition();
+    		if(def!=null) pw.print(","+def);
+    		}
+    	
+    	public abstract String getColumnDefinition();
+    	
+    	/** definition of the column before the bulk load, without any index */
+    	public String getBulkColumnDefinition()
+    		{
+    		return getColumnDefinition();
+    		}
+    	
+    	public void createColumn(PrintWriter pw)
+    		{
+    		pw.print(getColumnDefinition());
+    		createIndex(pw);
     		}
-    	public abstract void createColumn(PrintWriter pw);
     	
     	
     	}
@@ -291,10 +362,9 @@ public class VcfToSql extends Launcher
 			super(name);
 			}
 		@Override
-		public void createColumn(PrintWriter pw)
+		public String getColumnDefinition()
 			{
-			pw.print(getAntiquote()+" INT "+(nilleable?"":" NOT ")+"NULL");
-			createIndex(pw);
+			return getAntiquote()+" INT "+(nilleable?"":" NOT ")+"NULL";
 			}
 		}
 
@@ -311,17 +381,10 @@ public class VcfToSql extends Launcher
     	
     	
     	@Override
-    	public void createIndex(PrintWriter pw) {
-    		pw.print( ",FOREIGN KEY ("+getAntiquote()+")  " +
+    	String getIndexDefinition() {
+    		return "FOREIGN KEY ("+getAntiquote()+")  " +
     				"REFERENCES "+referencesTable.getAntiquote()+"(id)"
-    				); 
-    		}
-    	
-    	@Override
-    	public void createColumn(PrintWriter pw)
-    		{
-    		pw.print( getAntiquote()+" INT "+(nilleable?"":"NOT")+" NULL");
-    		createIndex(pw);
+    				; 
     		}
 
 
@@ -336,16 +399,22 @@ public class VcfToSql extends Launcher
        		}
        	       	
        	@Override
-       	public void createIndex(PrintWriter pw) {
-       		pw.print(",PRIMARY KEY ("+getAntiquote()+")"  ); 
+       	String getIndexDefinition() {
+       		return "PRIMARY KEY ("+getAntiquote()+")"; 
        		}
        	
        	@Override
-    	public void createColumn(PrintWriter pw)
+    	public String getColumnDefinition()
     		{
-       		pw.print( getAntiquote()+" INT NOT NULL AUTO_INCREMENT");
-       		createIndex(pw);
+       		return getAntiquote()+" INT NOT NULL AUTO_INCREMENT";
     		}
+       	
+       	/* AUTO_INCREMENT requires a key: it is set after the bulk load */
+       	@Override
+       	public String getBulkColumnDefinition()
+       		{
+       		return getAntiquote()+" INT NOT NULL";
+       		}
    		}
     
     private class IntegerColumn
@@ -356,10 +425,9 @@ public class VcfToSql extends Launcher
 			super(name);
 			}
 		@Override
-		public void createColumn(PrintWriter pw)
+		public String getColumnDefinition()
 			{
-			pw.print(  getAntiquote()+" INT "+(nilleable?"":" NOT ")+"NULL" );
-			createIndex(pw);
+			return getAntiquote()+" INT "+(nilleable?"":" NOT ")+"NULL";
 			}
 
 		}
@@ -372,10 +440,9 @@ public class VcfToSql extends Launcher
 			super(name);
 			}
 		@Override
-		public void createColumn(PrintWriter pw)
+		public String getColumnDefinition()
 			{
-			pw.print(  getAntiquote()+" DOUBLE "+(nilleable?"":" NOT ")+"NULL");
-			createIndex(pw);
+			return getAntiquote()+" DOUBLE "+(nilleable?"":" NOT ")+"NULL";
 			}
 
 		}
@@ -388,6 +455,15 @@ public class VcfToSql extends Launcher
 			{
 			super(name);
 			}
+    	/** throws an exception if the string is too long for this column */
+    	void checkLength(final String s)
+    		{
+			if(s.length() >this.maxLength)
+				{
+				throw new RuntimeException("string length("+s+") greater  than "+this.maxLength+" L="+s.length()+" . Update source code for "+getAntiquote()+" "+table.getName());
+				}
+    		}
+    	
     	@Override
     	Object escape(Object o)
 			{
@@ -398,10 +474,7 @@ public class VcfToSql extends Launcher
 			else
 				{
 				String s=String.valueOf(o);
-				if(s.length() >this.maxLength)
-					{
-					throw new RuntimeException("string length("+s+") greater  than "+this.maxLength+" L="+s.length()+" . Update source code for "+getAntiquote()+" "+table.getName());
-					}
+				checkLength(s);
 				StringBuilder sb=new StringBuilder(s.length()+2);
 				sb.append("\"");
 				for(int i=0;i< s.length();++i)
@@ -417,17 +490,64 @@ public class VcfToSql extends Launcher
 				}
 			}
 
+    	@Override
+    	String escapeBulk(final Object o)
+    		{
+    		if(o==null)
+				{
+				return super.escapeBulk(o);
+				}
+    		final String s=String.valueOf(o);
+			checkLength(s);
+			StringBuilder sb=null;
+			for(int i=0;i< s.length();++i)
+				{
+				final char c = s.charAt(i);
+				final String esc;
+				switch(c)
+					{	
+					case '\\': esc="\\\\"; break;
+					case '\t': esc="\\t"; break;
+					case '\n': esc="\\n"; break;
+					case '\r': esc="\\r"; break;
+					default: esc=null; break;
+					}
+				if(esc!=null && sb==null) sb=new StringBuilder(s.substring(0,i));
+				if(sb==null) continue;
+				if(esc!=null) sb.append(esc); else sb.append(c);
+				}
+			return sb==null?s:sb.toString();
+    		}
     	
 		@Override
-		public void createColumn(PrintWriter pw)
+		public String getColumnDefinition()
 			{
-			pw.print(  getAntiquote()+" VARCHAR("+(maxLength+1)+") "+
-					(nilleable?"":" NOT ")+"NULL" );
-			createIndex(pw);
+			return getAntiquote()+" VARCHAR("+(maxLength+1)+") "+
+					(nilleable?"":" NOT ")+"NULL";
 			}
 
     	}
     
+    /** a string column without any length limit */
+    private class TextColumn
+    	extends StringColumn
+    	{
+    	TextColumn(String name)
+			{
+			super(name);
+			}
+    	@Override
+    	void checkLength(final String s)
+    		{
+    		}
+		@Override
+		public String getColumnDefinition()
+			{
+			return getAntiquote()+" LONGTEXT "+
+					(nilleable?"":" NOT ")+"NULL";
+			}
+    	}
+    
     private class Table
     	extends AbstractComponent
     	{
@@ -497,6 +617,48 @@ public class VcfToSql extends Launcher
     		pw.println("\n) ENGINE=InnoDB, DEFAULT CHARSET=utf8 ;");
     		}
     	
+    	/** bulk mode: write one row in the tab-delimited file */
+    	void bulkInsert(final PrintWriter pw,final Object...row)
+    		{
+    		for(int i=0;i < this.columns.size();++i)
+    			{
+    			if(i>0) pw.print('\t');
+    			pw.print(this.columns.get(i).escapeBulk(row[i]));
+    			}
+    		pw.print('\n');
+    		}
+    	
+    	/** bulk mode: create the table without any index */
+    	void createBulkTable(final PrintWriter pw)
+    		{
+    		pw.println("CREATE TABLE IF NOT EXISTS "+getAntiquote()+" (" );
+    		pw.print(this.columns.stream().map(C->C.getBulkColumnDefinition()).collect(Collectors.joining(",\n")));
+    		pw.println("\n) ENGINE=InnoDB, DEFAULT CHARSET=utf8 ;");
+    		}
+    	
+    	/** bulk mode: load the tab-delimited file */
+    	void loadData(final PrintWriter pw,final Path tsv)
+    		{
+    		pw.println("LOAD DATA LOCAL INFILE '"+tsv.toAbsolutePath().toString().replace("'", "\\'")+"' INTO TABLE "+getAntiquote()+
+    			" FIELDS TERMINATED BY '\\t' LINES TERMINATED BY '\\n' ("+
+    			this.columns.stream().map(C->C.getAntiquote()).collect(Collectors.joining(","))+
+    			");");
+    		}
+    	
+    	/** bulk mode: create the indexes once the data are loaded */
+    	void addIndexes(final PrintWriter pw)
+    		{
+    		final List<String> clauses = new ArrayList<>();
+    		for(final Column c:this.columns)
+    			{
+    			final String def = c.getIndexDefinition();
+    			if(c instanceof PrimaryKey) clauses.add("MODIFY "+c.getColumnDefinition());
+    			if(def!=null) clauses.add("ADD "+def);
+    			}
+    		if(clauses.isEmpty()) return;
+    		pw.println("ALTER TABLE "+getAntiquote()+" "+String.join(", ", clauses)+";");
+    		}
+    	
     	
     	
     	
@@ -597,6 +759,14 @@ public class VcfToSql extends Launcher
     		new ColumnBuilder().name("gq").nilleable().type(Double.class).make()
     		).make(); 
 
+    /* key/values of the INFO column, only used by the bulk mode */
+    private Table variant2infoTable = new TableBuilder().name("variant2info").columns(
+    		new ColumnBuilder().primaryKey().make(),
+    		new ColumnBuilder().foreignKey(variantTable).make(),
+    		new ColumnBuilder().name("info_key").length(50).indexed().make(),
+    		new ColumnBuilder().name("info_value").nilleable().text().make()
+    		).make(); 
+    
     private Table all_tables[]=new Table[]{
     	   vcfFileTable,sampleTable,sample2fileTable,
     	   alleleTable,filterTable,chromosomeTable,
@@ -799,6 +969,369 @@ public class VcfToSql extends Launcher
 		r.close();
 		}
 	
+	/** bulk mode: ids assigned in-process, shared by the producers */
+	private class BulkContext
+		{
+		final Path directory;
+		final Map<String,Integer> sample2id = new HashMap<>();
+		final Map<String,Integer> filter2id = new HashMap<>();
+		final Map<String,Integer> chrom2id = new HashMap<>();
+		final Map<String,Integer> allele2id = new ConcurrentHashMap<>();
+		final AtomicInteger alleleIdGenerator = new AtomicInteger(0);
+		final AtomicInteger variantIdGenerator = new AtomicInteger(0);
+		final AtomicInteger variant2altIdGenerator = new AtomicInteger(0);
+		final AtomicInteger variant2filterIdGenerator = new AtomicInteger(0);
+		final AtomicInteger genotypeIdGenerator = new AtomicInteger(0);
+		final AtomicInteger variant2infoIdGenerator = new AtomicInteger(0);
+		/* tables filled by the producers, one file per producer */
+		final Table partTables[] = new Table[] {variantTable,variant2altTable,variant2filters,genotypeTable,variant2infoTable};
+		BulkContext(final Path directory)
+			{
+			this.directory = directory;
+			}
+		Path getTsv(final Table t)
+			{
+			return this.directory.resolve(t.getName()+".tsv");
+			}
+		Path getPart(final Table t,int partIndex)
+			{
+			return this.directory.resolve(t.getName()+".part"+partIndex+".tsv");
+			}
+		int getAlleleId(final Allele a)
+			{
+			return this.allele2id.computeIfAbsent(a.getBaseString(),K->this.alleleIdGenerator.incrementAndGet());
+			}
+		}
+	
+	/** bulk mode: write the variants of one part (contig or whole file). 'index_in_file' starts from 1 in each part. Returns the number of variants */
+	private int bulkExportPart(final BulkContext ctx,final int partIndex,final CloseableIterator<VariantContext> iter)
+		throws IOException
+		{
+		final PrintWriter pws[] = new PrintWriter[ctx.partTables.length];
+		try
+			{
+			for(int i=0;i< pws.length;i++)
+				{
+				pws[i] = IOUtils.openPathForPrintWriter(ctx.getPart(ctx.partTables[i], partIndex));
+				}
+			final PrintWriter variantOut = pws[0];
+			final PrintWriter altOut = pws[1];
+			final PrintWriter filterOut = pws[2];
+			final PrintWriter genotypeOut = pws[3];
+			final PrintWriter infoOut = pws[4];
+			int index_in_part = 0;
+			while(iter.hasNext())
+				{
+				final VariantContext var = iter.next();
+				final int variant_id = ctx.variantIdGenerator.incrementAndGet();
+				++index_in_part;
+				this.variantTable.bulkInsert(
+					variantOut,
+					variant_id,
+					1,
+					index_in_part,
+					ctx.chrom2id.get(var.getContig()),
+					var.getStart(),
+					(var.hasID()?var.getID():null),
+					ctx.getAlleleId(var.getReference()),
+					(var.hasLog10PError()?var.getPhredScaledQual():null)
+					);
+				
+				for(final Allele alt: var.getAlternateAlleles())
+					{
+					this.variant2altTable.bulkInsert(
+						altOut,
+						ctx.variant2altIdGenerator.incrementAndGet(),
+						variant_id,
+						ctx.getAlleleId(alt)
+						);
+					}
+				
+				if(!this.ignore_filter)
+					{
+					for(final String filter:var.getFilters())
+						{
+						final Integer filter_id = ctx.filter2id.get(filter);
+						if(filter_id==null)
+							{
+							throw new IOException("VCF Error: filter "+filter+" is not defined in the VCF header.");
+							}
+						this.variant2filters.bulkInsert(
+							filterOut,
+							ctx.variant2filterIdGenerator.incrementAndGet(),
+							variant_id,
+							filter_id
+							);
+						}
+					}
+				
+				if(!this.ignore_info)
+					{
+					for(final Map.Entry<String,Object> kv:var.getAttributes().entrySet())
+						{
+						final Object o = kv.getValue();
+						final String value;
+						if(o==null)
+							{
+							value = null;
+							}
+						else if(o instanceof Collection)
+							{
+							value = ((Collection<?>)o).stream().map(String::valueOf).collect(Collectors.joining(","));
+							}
+						else
+							{
+							value = String.valueOf(o);
+							}
+						this.variant2infoTable.bulkInsert(
+							infoOut,
+							ctx.variant2infoIdGenerator.incrementAndGet(),
+							variant_id,
+							kv.getKey(),
+							value
+							);
+						}
+					}
+				
+				for(final Genotype g: var.getGenotypes())
+					{
+					if(!g.isAvailable() || g.isNoCall()) continue;
+					this.genotypeTable.bulkInsert(
+						genotypeOut,
+						ctx.genotypeIdGenerator.incrementAndGet(),
+						variant_id,
+						ctx.sample2id.get(g.getSampleName()),
+						g.isCalled()?ctx.getAlleleId(g.getAllele(0)):null,
+						g.isCalled() && g.getPloidy()>1?ctx.getAlleleId(g.getAllele(1)):null,
+						g.hasDP()?g.getDP():null,
+						g.hasGQ()?g.getGQ():null
+						);
+					}
+				}
+			for(final PrintWriter pw:pws)
+				{
+				pw.flush();
+				if(pw.checkError()) throw new IOException("I/O error while writing part "+partIndex);
+				}
+			return index_in_part;
+			}
+		finally
+			{
+			for(final PrintWriter pw:pws) CloserUtil.close(pw);
+			CloserUtil.close(iter);
+			}
+		}
+	
+	/** bulk mode: copy a part of the variant table, adding 'offset' to the column 'index_in_file' */
+	private void copyShiftingIndexInFile(final Path part,final int offset,final OutputStream out)
+		throws IOException
+		{
+		int column = 0;
+		while(!this.variantTable.columns.get(column).getName().equals("index_in_file")) column++;
+		final PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		try(BufferedReader br = IOUtils.openPathForBufferedReading(part)) {
+			String line;
+			while((line=br.readLine())!=null)
+				{
+				final String tokens[] = line.split("[\t]",-1);
+				tokens[column] = String.valueOf(Integer.parseInt(tokens[column]) + offset);
+				pw.print(String.join("\t", tokens));
+				pw.print('\n');
+				}
+			}
+		pw.flush();
+		if(pw.checkError()) throw new IOException("I/O error while writing "+this.variantTable.getName());
+		}
+	
+	/** bulk mode: write one tab-delimited file per table and a script loading those files */
+	private void bulkExport(final File filename)
+		throws Exception
+		{
+		IOUtil.assertDirectoryIsWritable(this.bulkDirectory);
+		final BulkContext ctx = new BulkContext(this.bulkDirectory);
+		final VCFHeader header;
+		try(VCFFileReader r = new VCFFileReader(filename,false)) {
+			header = r.getFileHeader();
+			}
+		final SAMSequenceDictionary dict= header.getSequenceDictionary();
+		if(dict==null)
+			{
+			throw new RuntimeException("dictionary missing in VCF");
+			}
+		
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(ctx.getTsv(this.vcfFileTable))) {
+			this.vcfFileTable.bulkInsert(pw,1,filename);
+			}
+		
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(ctx.getTsv(this.sampleTable));
+			PrintWriter pw2 = IOUtils.openPathForPrintWriter(ctx.getTsv(this.sample2fileTable))) {
+			for(final String sampleName:header.getSampleNamesInOrder())
+				{
+				final int sample_id = ctx.sample2id.size()+1;
+				ctx.sample2id.put(sampleName, sample_id);
+				this.sampleTable.bulkInsert(pw,sample_id,sampleName);
+				this.sample2fileTable.bulkInsert(pw2,sample_id,1,sample_id);
+				}
+			}
+		
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(ctx.getTsv(this.filterTable))) {
+			for(final VCFFilterHeaderLine filter:header.getFilterLines())
+				{
+				final int filter_id = ctx.filter2id.size()+1;
+				ctx.filter2id.put(filter.getID(), filter_id);
+				this.filterTable.bulkInsert(pw,filter_id,1,filter.getID(),filter.getValue());
+				}
+			if(!ctx.filter2id.containsKey(VCFConstants.PASSES_FILTERS_v4))
+				{
+				final int filter_id = ctx.filter2id.size()+1;
+				ctx.filter2id.put(VCFConstants.PASSES_FILTERS_v4, filter_id);
+				this.filterTable.bulkInsert(pw,filter_id,1,VCFConstants.PASSES_FILTERS_v4,"All filters passed");
+				}
+			}
+		
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(ctx.getTsv(this.chromosomeTable))) {
+			for(final SAMSequenceRecord ssr: dict.getSequences())
+				{
+				final int chrom_id = ssr.getSequenceIndex()+1;
+				ctx.chrom2id.put(ssr.getSequenceName(), chrom_id);
+				this.chromosomeTable.bulkInsert(pw,chrom_id,1,ssr.getSequenceName(),ssr.getSequenceLength());
+				}
+			}
+		
+		/* insert ATGC */
+		for(final String base:new String[] {"A","C","G","T"})
+			{
+			ctx.getAlleleId(Allele.create(base,false));
+			}
+		
+		/* produce the variants: one part per contig if the VCF is indexed */
+		final int nParts;
+		final int partCounts[];
+		final boolean indexed;
+		try(VCFFileReader r = new VCFFileReader(filename,false)) {
+			indexed = r.isQueryable();
+			}
+		if(indexed && this.nJobs!=1)
+			{
+			nParts = dict.size();
+			partCounts = new int[nParts];
+			final int nThreads = this.nJobs < 1 ? Math.max(1, Runtime.getRuntime().availableProcessors()) : this.nJobs;
+			final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+			try
+				{
+				final List<Future<Integer>> futures = new ArrayList<>(nParts);
+				for(final SAMSequenceRecord ssr: dict.getSequences())
+					{
+					final Callable<Integer> task = ()->{
+						final int n;
+						try(VCFFileReader r = new VCFFileReader(filename,true)) {
+							n = bulkExportPart(ctx, ssr.getSequenceIndex(), r.query(ssr.getSequenceName(), 1, ssr.getSequenceLength()));
+							}
+						LOG.info("done "+ssr.getSequenceName());
+						return n;
+						};
+					futures.add(executor.submit(task));
+					}
+				for(int i=0;i< nParts;i++) partCounts[i] = futures.get(i).get();
+				}
+			finally
+				{
+				executor.shutdownNow();
+				}
+			}
+		else
+			{
+			nParts = 1;
+			partCounts = new int[nParts];
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
+			final VCFIterator r = VCFUtils.createVCFIteratorFromFile(filename);
+			partCounts[0] = bulkExportPart(ctx, 0, new CloseableIterator<VariantContext>() {
+				@Override
+				public boolean hasNext() {
+					return r.hasNext();
+					}
+				@Override
+				public VariantContext next() {
+					return progress.watch(r.next());
+					}
+				@Override
+				public void close() {
+					r.close();
+					}
+				});
+			progress.finish();
+			}
+		
+		/* concatenate the parts in the order of the dictionary */
+		for(final Table t: ctx.partTables)
+			{
+			try(OutputStream out = Files.newOutputStream(ctx.getTsv(t))) {
+				int offset = 0;
+				for(int i=0;i< nParts;i++)
+					{
+					final Path part = ctx.getPart(t, i);
+					if(t==this.variantTable && offset>0)
+						{
+						copyShiftingIndexInFile(part, offset, out);
+						}
+					else
+						{
+						Files.copy(part, out);
+						}
+					offset += partCounts[i];
+					Files.delete(part);
+					}
+				}
+			}
+		
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(ctx.getTsv(this.alleleTable))) {
+			for(final Map.Entry<String,Integer> kv:ctx.allele2id.entrySet())
+				{
+				this.alleleTable.bulkInsert(pw,kv.getValue(),kv.getKey());
+				}
+			}
+		
+		/* the tables loaded by the script */
+		final List<Table> loaded = new ArrayList<>(Arrays.asList(
+			vcfFileTable,sampleTable,sample2fileTable,
+			alleleTable,filterTable,chromosomeTable
+			));
+		loaded.addAll(Arrays.asList(ctx.partTables));
+		final List<Table> tables = new ArrayList<>(Arrays.asList(this.all_tables));
+		tables.add(this.variant2infoTable);
+		
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(this.bulkDirectory.resolve("load.sql"))) {
+			if(this.drop_tables)
+				{
+				pw.println("SET foreign_key_checks=0;");
+				for(int i=tables.size()-1;i>=0;--i)
+					{
+		    		pw.println("DROP TABLE IF EXISTS "+tables.get(i).getAntiquote()+";");
+					}
+				}
+			pw.println("SET foreign_key_checks=0;");
+			pw.println("SET unique_checks=0;");
+			pw.println("SET autocommit=0;");
+			for(final Table t:tables)
+				{
+				t.createBulkTable(pw);
+				}
+			for(final Table t:loaded)
+				{
+				t.loadData(pw, ctx.getTsv(t));
+				}
+			pw.println("COMMIT;");
+			/* indexes are created after the load. Referenced tables come first */
+			for(final Table t:tables)
+				{
+				t.addIndexes(pw);
+				}
+			pw.println("SET unique_checks=1;");
+			pw.println("SET foreign_key_checks=1;");
+			pw.flush();
+			}
+		LOG.info("done. Variants: "+ctx.variantIdGenerator.get()+" genotypes: "+ctx.genotypeIdGenerator.get());
+		}
     
 	@Override
 	public int doWork(final List<String> args) {
@@ -836,6 +1369,12 @@ public class VcfToSql extends Launcher
 			//final String inputName=;
 			final File filename=new File( oneAndOnlyOneFile(args));
 			
+			if(this.bulkDirectory!=null)
+				{
+				bulkExport(filename);
+				return RETURN_OK;
+				}
+			
 			this.outputWriter =  this.openFileOrStdoutAsPrintWriter(this.outputFile);
 			
 			if(this.drop_tables)
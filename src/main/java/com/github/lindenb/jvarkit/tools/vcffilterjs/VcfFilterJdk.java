@@ -52,6 +52,7 @@ import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VariantAttributesRecalculator;
 import htsjdk.variant.vcf.VCFIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
@@ -74,6 +75,7 @@ import htsjdk.variant.vcf.VCFStandardHeaderLines;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
@@ -446,6 +448,8 @@ public class VcfFilterJdk
 	@Parameter(names={"-f","--script"},description="The java source code file.")
 	private Path scriptPath=null;
 	
+	@ParametersDelegate
+	private OpenJdkCompiler.CacheArgs jdkCacheArgs = new OpenJdkCompiler.CacheArgs();
 	@Parameter(names={"--nocode"},description=" Don't show the generated code")
 	private boolean hideGeneratedCode=false;
 	
@@ -468,6 +472,15 @@ public class VcfFilterJdk
 	private Path pedigreePath = null;
 
 	
+	@Parameter(names={"--parallel"},description="Number of threads running the user's code. "
+			+ "The user's code MUST be stateless: each thread gets its own instance of the filter, the variants are dispatched in batches "
+			+ "and written in the input order. 'userData' is not shared between the threads and the keys 'first.variant', 'last.variant' and 'STOP' are ignored. "
+			+ "A value lower than 1 means use all procs available. Default (1) runs the code in the main thread.")
+	private int nThreads = 1;
+	
+	@Parameter(names={"--batch-size"},description="In '--parallel' mode, number of variants per batch.")
+	private int batchSize = OrderedBatchMapper.DEFAULT_BATCH_SIZE;
+	
 	@ParametersDelegate
 	private WritingVariantsDelegate writingVariantsDelegate = new WritingVariantsDelegate();
 			
@@ -521,6 +534,81 @@ public class VcfFilterJdk
 		}
 	
 	
+	/** handle the result of the user's code for one variant. Returns false if the variant was rejected or if its FILTER was changed */
+	private boolean writeResult(
+			final VariantContext variation,
+			final Object result,
+			final VCFFilterHeaderLine filterHeaderLine,
+			final Consumer<VariantContext> recalcAndAdd
+			)
+		{
+		// result is an array of a collection of variants
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			// write all of variants
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
+				recalcAndAdd.accept(VariantContext.class.cast(item));
+				}
+			}
+		// result is a VariantContext
+		else if(result!=null && (result instanceof VariantContext)) {
+			recalcAndAdd.accept(VariantContext.class.cast(result));
+			}
+		else
+			{
+			boolean accept=true;
+			if(result==null)
+				{
+				accept=false;
+				}
+			else if(result instanceof Boolean)
+				{
+				if(Boolean.FALSE.equals(result)) accept = false;
+				}
+			else if(result instanceof Number)
+				{
+				if(((Number)result).intValue()!=1) accept = false;
+				}
+			else
+				{
+				LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+				accept = false;
+				}
+			if (!accept)
+				{
+				if(filterHeaderLine!=null)
+					{
+					final VariantContextBuilder vcb = new VariantContextBuilder(variation);
+					vcb.filter(filterHeaderLine.getID());
+					recalcAndAdd.accept(vcb.make());
+					}
+				return false;
+				}
+			
+			// set PASS filter if needed
+			if(filterHeaderLine!=null && !variation.isFiltered())
+				{
+				recalcAndAdd.accept( new VariantContextBuilder(variation).passFilters().make());
+				return false;
+				}
+			recalcAndAdd.accept(variation);
+			}
+		return true;
+		}
+	
 	private int run(
 			final VCFIterator iter,
 			final VariantContextWriter out
@@ -610,7 +698,8 @@ public class VcfFilterJdk
 			final OpenJdkCompiler compiler = OpenJdkCompiler.getInstance();
 			final Class<?> compiledClass = compiler.compileClass(
 					javaClassName,
-					codeWriter.toString()
+					codeWriter.toString(),
+					this.jdkCacheArgs
 					);
 			final Constructor<?> constructor = compiledClass.getDeclaredConstructor(VCFHeader.class);
 				
@@ -684,83 +773,47 @@ public class VcfFilterJdk
 				filter_instance.pedigree = new PedigreeParser().parse(this.pedigreePath);
 				}
 			
+			progress = ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
+			
+			if(this.nThreads!=1) {
+				/* each thread has its own instance of the filter */
+				final Pedigree pedigree = filter_instance.pedigree;
+				try(final OrderedBatchMapper<VariantContext,Object> mapper = new OrderedBatchMapper<>(
+						this.nThreads,
+						this.batchSize,
+						()->{
+							try {
+								final AbstractFilter instance = (AbstractFilter)constructor.newInstance(header);
+								instance.pedigree = pedigree;
+								return instance;
+								}
+							catch(final ReflectiveOperationException err) {
+								throw new RuntimeException(err);
+								}
+							},
+						(V,R)->writeResult(V, R, filterHeaderLine, recalcAndAdd)
+						)) {
+					while (iter.hasNext() && !out.checkError())
+						{
+						/* genotypes must be decoded in this thread, the codec is not thread-safe */
+						mapper.accept(VCFUtils.decodeGenotypes(progress.apply(iter.next())));
+						}
+					}
+				progress.close();
+				progress = null;
+				return 0;
+				}
+			
 			filter_instance.userData.put("first.variant", Boolean.TRUE);
 			filter_instance.userData.put("last.variant", Boolean.FALSE);
 	
-			progress = ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
 			while (iter.hasNext() && !out.checkError())
 				{				
 				final VariantContext variation=progress.apply(iter.next());
 				
 				/* handle variant */
 				final Object result = filter_instance.apply(variation);
-				// result is an array of a collection of variants
-				if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-					{
-					final  Collection<?> col;
-					if(result.getClass().isArray())
-						{
-						final Object array[]=(Object[])result;
-						col= Arrays.asList(array);
-						}
-					else
-						{
-						col =( Collection<?>)result;
-						}
-					// write all of variants
-					for(final Object item:col)
-						{
-						if(item==null) throw new JvarkitException.UserError("item in array is null");
-						if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
-						recalcAndAdd.accept(VariantContext.class.cast(item));
-						}
-					}
-				// result is a VariantContext
-				else if(result!=null && (result instanceof VariantContext)) {
-					recalcAndAdd.accept(VariantContext.class.cast(result));
-					}
-				else
-					{
-					boolean accept=true;
-					if(result==null)
-						{
-						accept=false;
-						}
-					else if(result instanceof Boolean)
-						{
-						if(Boolean.FALSE.equals(result)) accept = false;
-						}
-					else if(result instanceof Number)
-						{
-						if(((Number)result).intValue()!=1) accept = false;
-						}
-					else
-						{
-						LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-						accept = false;
-						}
-					if (!accept)
-						{
-						if(filterHeaderLine!=null)
-							{
-							final VariantContextBuilder vcb = new VariantContextBuilder(variation);
-							vcb.filter(filterHeaderLine.getID());
-							recalcAndAdd.accept(vcb.make());
-							}
-						continue;
-						}
-					
-					// set PASS filter if needed
-					if(filterHeaderLine!=null && !variation.isFiltered())
-						{
-						recalcAndAdd.accept( new VariantContextBuilder(variation).passFilters().make());
-						continue;
-						}
-					recalcAndAdd.accept(variation);
-					}
-
-				
-				
+				if(!writeResult(variation, result, filterHeaderLine, recalcAndAdd)) continue;
 				/* end handle variant */
 				
 				filter_instance.userData.put("first.variant", Boolean.FALSE);
@@ -0,0 +1,456 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.vcfsparql;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.NiceIterator;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * A read-only graph stored in an indexed file, built once from another graph (e.g. a {@link VariantGraph}).
+ * 
+ * The triples are sorted and written three times, in the SPO, POS and OSP orders, as compressed blocks.
+ * The first triple of each block is kept in memory, so a triple pattern only reads the blocks of the
+ * permutation whose leading terms are bound by the pattern.
+ */
+public class TripleStoreGraph extends GraphBase {
+	private static final Logger LOG = Logger.build(TripleStoreGraph.class).make();
+	/** suggested suffix for the store files */
+	public static final String FILE_SUFFIX = ".vcfrdf";
+	private static final int MAGIC = 0x56524446;
+	private static final int BLOCK_SIZE = 1_000;
+	/* orders of the subject(0) predicate(1) and object(2) in each permutation */
+	private static final int SPO = 0;
+	private static final int POS = 1;
+	private static final int OSP = 2;
+	private static final int[][] PERMUTATIONS = {{0,1,2},{1,2,0},{2,0,1}};
+	
+	private final Path path;
+	private final RandomAccessFile raf;
+	/** blocks of each permutation */
+	private final List<List<BlockInfo>> permutation2blocks = new ArrayList<>(PERMUTATIONS.length);
+	
+	private static class BlockInfo {
+		long offset;
+		int compressedSize;
+		int count;
+		/** first record of this block */
+		String[] first;
+		}
+	
+	private static class RecordCodec extends AbstractDataCodec<String[]> {
+		@Override
+		public String[] decode(final DataInputStream dis) throws IOException {
+			final String[] rec = new String[3];
+			for(int i=0;i< rec.length;++i) rec[i] = readString(dis);
+			return rec;
+			}
+		@Override
+		public void encode(final DataOutputStream dos, final String[] rec) throws IOException {
+			for(int i=0;i< rec.length;++i) writeString(dos, rec[i]);
+			}
+		@Override
+		public RecordCodec clone() {
+			return new RecordCodec();
+			}
+		}
+	
+	/** compare the 'len' first terms of two records */
+	private static int compare(final String[] a,final String[] b,final int len) {
+		for(int i=0;i< len;++i) {
+			final int c = a[i].compareTo(b[i]);
+			if(c!=0) return c;
+			}
+		return 0;
+		}
+	
+	private static final Comparator<String[]> RECORD_COMPARATOR = (A,B)->compare(A,B,3);
+	
+	/** encode a node as a string, the lexicographic order is the order of the store */
+	static String encodeNode(final Node n) {
+		if(n.isURI()) return "<"+n.getURI();
+		if(n.isBlank()) return "_"+n.getBlankNodeLabel();
+		if(n.isLiteral()) {
+			final String lex = n.getLiteralLexicalForm();
+			final String lang = n.getLiteralLanguage();
+			if(!StringUtils.isBlank(lang)) return "@"+lang+" "+lex;
+			final String dt = n.getLiteralDatatypeURI();
+			if(dt==null || dt.equals(XSDDatatype.XSDstring.getURI())) return "\""+lex;
+			return "^"+dt+" "+lex;
+			}
+		throw new IllegalArgumentException("cannot store node "+n);
+		}
+	
+	static Node decodeNode(final String s) {
+		final int space;
+		switch(s.charAt(0)) {
+			case '<': return NodeFactory.createURI(s.substring(1));
+			case '_': return NodeFactory.createBlankNode(s.substring(1));
+			case '"': return NodeFactory.createLiteral(s.substring(1));
+			case '@':
+				space = s.indexOf(' ');
+				return NodeFactory.createLiteral(s.substring(space+1), s.substring(1,space));
+			case '^':
+				space = s.indexOf(' ');
+				return NodeFactory.createLiteral(s.substring(space+1), TypeMapper.getInstance().getSafeTypeByName(s.substring(1,space)));
+			default: throw new IllegalArgumentException("cannot decode node "+s);
+			}
+		}
+	
+	/**
+	 * materialize all the triples of a graph into a new store
+	 * @param graph the source graph
+	 * @param output the store file
+	 * @param maxRecordsInRam max records in RAM when sorting
+	 * @param tmpDirs temporary directories for sorting
+	 */
+	public static void build(
+			final Graph graph,
+			final Path output,
+			final int maxRecordsInRam,
+			final Path[] tmpDirs
+			) throws IOException {
+		final List<SortingCollection<String[]>> sorters = new ArrayList<>(PERMUTATIONS.length);
+		try {
+			for(int i=0;i< PERMUTATIONS.length;++i) {
+				final SortingCollection<String[]> sorter = SortingCollection.newInstance(
+						String[].class,
+						new RecordCodec(),
+						RECORD_COMPARATOR,
+						Math.max(1, maxRecordsInRam/PERMUTATIONS.length),
+						tmpDirs
+						);
+				sorter.setDestructiveIteration(true);
+				sorters.add(sorter);
+				}
+			long nTriples = 0L;
+			final ExtendedIterator<Triple> iter = graph.find();
+			try {
+				while(iter.hasNext()) {
+					final Triple t = iter.next();
+					final String[] spo = new String[] {
+						encodeNode(t.getSubject()),
+						encodeNode(t.getPredicate()),
+						encodeNode(t.getObject())
+						};
+					for(int i=0;i< PERMUTATIONS.length;++i) {
+						final int[] perm = PERMUTATIONS[i];
+						sorters.get(i).add(new String[] {spo[perm[0]],spo[perm[1]],spo[perm[2]]});
+						}
+					nTriples++;
+					}
+				}
+			finally {
+				iter.close();
+				}
+			LOG.info("sorting "+nTriples+" triple(s)");
+			
+			try(OutputStream os = new BufferedOutputStream(Files.newOutputStream(output));
+				DataOutputStream dos = new DataOutputStream(os)) {
+				dos.writeInt(MAGIC);
+				long offset = 4L;
+				final List<List<BlockInfo>> allBlocks = new ArrayList<>(PERMUTATIONS.length);
+				for(int i=0;i< PERMUTATIONS.length;++i) {
+					final SortingCollection<String[]> sorter = sorters.get(i);
+					sorter.doneAdding();
+					final List<BlockInfo> blocks = new ArrayList<>();
+					try(CloseableIterator<String[]> iter2 = sorter.iterator()) {
+						String[] prev = null;
+						String[] rec = iter2.hasNext()?iter2.next():null;
+						while(rec!=null) {
+							final BlockInfo block = new BlockInfo();
+							block.offset = offset;
+							block.first = rec;
+							final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+							final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+							try(DataOutputStream bdos = new DataOutputStream(new DeflaterOutputStream(bytes,deflater))) {
+								while(rec!=null && block.count < BLOCK_SIZE) {
+									/* a graph is a set of triples: remove the duplicates */
+									if(prev==null || compare(prev, rec, 3)!=0) {
+										for(int j=0;j< rec.length;++j) IOUtils.writeString(bdos, rec[j]);
+										block.count++;
+										prev = rec;
+										}
+									rec = iter2.hasNext()?iter2.next():null;
+									}
+								}
+							finally {
+								deflater.end();
+								}
+							block.compressedSize = bytes.size();
+							bytes.writeTo(dos);
+							offset += bytes.size();
+							blocks.add(block);
+							}
+						}
+					sorter.cleanup();
+					allBlocks.add(blocks);
+					}
+				// footer
+				final long footer = offset;
+				for(final List<BlockInfo> blocks: allBlocks) {
+					dos.writeInt(blocks.size());
+					for(final BlockInfo block: blocks) {
+						dos.writeLong(block.offset);
+						dos.writeInt(block.compressedSize);
+						dos.writeInt(block.count);
+						for(int j=0;j< block.first.length;++j) IOUtils.writeString(dos, block.first[j]);
+						}
+					}
+				dos.writeLong(footer);
+				dos.flush();
+				}
+			}
+		finally {
+			sorters.forEach(S->S.cleanup());
+			}
+		}
+	
+	/** open an existing store */
+	public TripleStoreGraph(final Path path) throws IOException {
+		this.path = path;
+		this.raf = new RandomAccessFile(path.toFile(), "r");
+		if(this.raf.readInt()!=MAGIC) {
+			this.raf.close();
+			throw new IOException("not a triple store: "+path);
+			}
+		this.raf.seek(this.raf.length()-8L);
+		final long footer = this.raf.readLong();
+		final byte[] array = new byte[(int)(this.raf.length()-8L-footer)];
+		this.raf.seek(footer);
+		this.raf.readFully(array);
+		try(DataInputStream dis = new DataInputStream(new ByteArrayInputStream(array))) {
+			for(int i=0;i< PERMUTATIONS.length;++i) {
+				final int n = dis.readInt();
+				final List<BlockInfo> blocks = new ArrayList<>(n);
+				for(int k=0;k< n;++k) {
+					final BlockInfo block = new BlockInfo();
+					block.offset = dis.readLong();
+					block.compressedSize = dis.readInt();
+					block.count = dis.readInt();
+					block.first = new String[3];
+					for(int j=0;j< block.first.length;++j) block.first[j] = IOUtils.readString(dis);
+					blocks.add(block);
+					}
+				this.permutation2blocks.add(blocks);
+				}
+			}
+		}
+	
+	public Path getPath() {
+		return this.path;
+		}
+	
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind(final Triple triple) {
+		final Node s = triple==null?Node.ANY:triple.getSubject();
+		final Node p = triple==null?Node.ANY:triple.getPredicate();
+		final Node o = triple==null?Node.ANY:triple.getObject();
+		final int perm;
+		final List<Node> prefix = new ArrayList<>(3);
+		if(s.isConcrete()) {
+			if(p.isConcrete()) {
+				perm = SPO;
+				prefix.add(s);
+				prefix.add(p);
+				if(o.isConcrete()) prefix.add(o);
+				}
+			else if(o.isConcrete()) {
+				perm = OSP;
+				prefix.add(o);
+				prefix.add(s);
+				}
+			else
+				{
+				perm = SPO;
+				prefix.add(s);
+				}
+			}
+		else if(p.isConcrete()) {
+			perm = POS;
+			prefix.add(p);
+			if(o.isConcrete()) prefix.add(o);
+			}
+		else if(o.isConcrete()) {
+			perm = OSP;
+			prefix.add(o);
+			}
+		else
+			{
+			perm = SPO;
+			}
+		final String[] key = new String[prefix.size()];
+		try {
+			for(int i=0;i< key.length;++i) key[i] = encodeNode(prefix.get(i));
+			}
+		catch(final IllegalArgumentException err) {
+			/* e.g. a variable: cannot be stored, cannot match */
+			return NiceIterator.emptyIterator();
+			}
+		return new BlockIterator(perm, key);
+		}
+	
+	/** iterates over the records of a permutation starting with a given key */
+	private class BlockIterator extends NiceIterator<Triple> {
+		private final int perm;
+		private final String[] key;
+		private final List<BlockInfo> blocks;
+		private int blockIndex;
+		private final List<String[]> buffer = new ArrayList<>(BLOCK_SIZE);
+		private int bufferIndex = 0;
+		private Triple next = null;
+		private boolean done = false;
+		
+		BlockIterator(final int perm,final String[] key) {
+			this.perm = perm;
+			this.key = key;
+			this.blocks = permutation2blocks.get(perm);
+			/* binary search of the last block whose first record is lower than the key */
+			int lo = 0;
+			int hi = this.blocks.size();
+			while(lo < hi) {
+				final int mid = (lo + hi) >>> 1;
+				if(compare(this.blocks.get(mid).first, key, key.length) < 0) {
+					lo = mid + 1;
+					}
+				else
+					{
+					hi = mid;
+					}
+				}
+			this.blockIndex = Math.max(0, lo-1);
+			}
+		
+		private void readBlock(final BlockInfo block) {
+			final byte[] array = new byte[block.compressedSize];
+			try {
+				synchronized(raf) {
+					raf.seek(block.offset);
+					raf.readFully(array);
+					}
+				this.buffer.clear();
+				this.bufferIndex = 0;
+				try(DataInputStream dis = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(array)))) {
+					for(int i=0;i< block.count;++i) {
+						final String[] rec = new String[3];
+						for(int j=0;j< rec.length;++j) rec[j] = IOUtils.readString(dis);
+						this.buffer.add(rec);
+						}
+					}
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		
+		@Override
+		public boolean hasNext() {
+			while(this.next==null && !this.done) {
+				if(this.bufferIndex >= this.buffer.size()) {
+					if(this.blockIndex >= this.blocks.size()) {
+						this.done = true;
+						break;
+						}
+					readBlock(this.blocks.get(this.blockIndex++));
+					continue;
+					}
+				final String[] rec = this.buffer.get(this.bufferIndex++);
+				final int c = compare(rec, this.key, this.key.length);
+				if(c < 0) continue;
+				if(c > 0) {
+					this.done = true;
+					break;
+					}
+				final Node[] spo = new Node[3];
+				final int[] order = PERMUTATIONS[this.perm];
+				for(int j=0;j< rec.length;++j) spo[order[j]] = decodeNode(rec[j]);
+				this.next = Triple.create(spo[0], spo[1], spo[2]);
+				}
+			return this.next!=null;
+			}
+		
+		@Override
+		public Triple next() {
+			if(!hasNext()) throw new java.util.NoSuchElementException();
+			final Triple t = this.next;
+			this.next = null;
+			return t;
+			}
+		
+		@Override
+		public void close() {
+			this.done = true;
+			this.buffer.clear();
+			}
+		}
+	
+	@Override
+	public void close() {
+		try {
+			this.raf.close();
+			}
+		catch(final IOException err) {
+			LOG.warning(err);
+			}
+		super.close();
+		}
+	
+	@Override
+	public String toString() {
+		return "TripleStoreGraph("+this.path+")";
+		}
+	}
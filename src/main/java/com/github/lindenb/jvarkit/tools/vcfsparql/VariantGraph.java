@@ -26,9 +26,12 @@ package com.github.lindenb.jvarkit.tools.vcfsparql;
 
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 
@@ -43,10 +46,13 @@ import org.apache.jena.util.iterator.NiceIterator;
 import org.apache.jena.vocabulary.RDF;
 
 import com.github.lindenb.jvarkit.lang.StringUtils;
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
 import com.github.lindenb.jvarkit.util.vcf.predictions.AnnPredictionParser;
 import com.github.lindenb.jvarkit.util.vcf.predictions.AnnPredictionParser.AnnPrediction;
 import com.github.lindenb.jvarkit.util.vcf.predictions.AnnPredictionParserFactory;
 
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Locatable;
@@ -56,11 +62,33 @@ import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 
-
+/**
+ * A Jena graph backed by a VCF file.
+ * 
+ * The triples are not stored: each call to find scans the VCF. The constraints
+ * of the triple pattern are pushed down into the scan: only the triples of the kind
+ * requested by the predicate are created (e.g. no genotype when looking for 'vcf:contig')
+ * and the VCF index is used when the subject is a node of this graph or when the contig is known.
+ * For this purpose, the blank nodes are labeled with the position of their variant.
+ */
 public class VariantGraph extends GraphBase {
 	static final String NS="jvarkit:";
+	/* kind of triples generated for a variant */
+	private static final int WANT_VARIANT = 1;
+	private static final int WANT_GENOTYPE = 2;
+	private static final int WANT_PREDICTION = 4;
+	private static final int WANT_ALL = WANT_VARIANT|WANT_GENOTYPE|WANT_PREDICTION;
+	private static final Set<String> VARIANT_PREDICATES = new HashSet<>(Arrays.asList("file","contig","start","end","id","ref","alt","filter"));
+	private static final Set<String> GENOTYPE_PREDICATES = new HashSet<>(Arrays.asList("genotype","gtype","sample","dp","gq","allele"));
+	private static final Set<String> PREDICTION_PREDICATES = new HashSet<>(Arrays.asList("prediction","feature-id","impact","gene-name","so-term"));
+	private static final String GENOTYPE_SUFFIX = "/gt";
+	private static final String PREDICTION_SUFFIX = "/ann";
+
 	private final Node RDF_TYPE = RDF.type.asNode();
 	private final Path variantFile;
+	/** prefix of the blank nodes created by this graph */
+	private final String nodePrefix;
+	private final SAMSequenceDictionary dict;
 	private final Map<String,Node> cache = new HashMap<>();
 	private Predicate<VariantContext> acceptVariant = V->true;
 	private BiPredicate<VariantContext,Genotype> acceptGenotype = (V,G)->true;
@@ -69,15 +97,20 @@ public class VariantGraph extends GraphBase {
 	
 	public VariantGraph(final Path variantFile) {
 		this.variantFile = variantFile;
+		this.nodePrefix = "v"+Integer.toHexString(variantFile.toString().hashCode())+":";
 		try(final VCFFileReader r=new VCFFileReader(variantFile,false)) {
 			final VCFHeader header  = r.getFileHeader();
+			this.dict = header.getSequenceDictionary();
 			final AnnPredictionParserFactory f = new AnnPredictionParserFactory(header);
 			this.annParser = f.get();
 			}
 		}
 	@Override
 	protected ExtendedIterator<Triple> graphBaseFind(final Triple triple) {
-		final TripleVcfIterator iter0 = new TripleVcfIterator();
+		final Triple pattern = triple==null?Triple.ANY:triple;
+		final Scan scan = new Scan(pattern);
+		if(scan.want==0) return NiceIterator.emptyIterator();
+		final TripleVcfIterator iter0 = new TripleVcfIterator(scan);
 		final TripleAdaptorIterator iter1 = new TripleAdaptorIterator(iter0);
 		if(triple==null) return iter1;
 		return iter1.filterKeep((T)->triple.matches(T));
@@ -94,6 +127,10 @@ public class VariantGraph extends GraphBase {
 		this.interval = interval;
 		}
 	
+	public Path getVariantFile() {
+		return this.variantFile;
+		}
+	
 	@Override
 	public void close() {
 		super.close();
@@ -114,40 +151,186 @@ public class VariantGraph extends GraphBase {
 		return n;
 		}
 	
-
+	/** position of a blank node created by this graph */
+	private static class NodeLocation {
+		String contig;
+		int start;
+		/** index of the variant among the variants having the same start */
+		int rank;
+		int kind = WANT_VARIANT;
+		/** 0-based index of the genotype or the prediction */
+		int index = -1;
+		}
 	
-	protected List<Triple> variantToTriple(final long nLine,final VariantContext ctx)
+	/** label of a variant node: prefix:contig:start:rank */
+	private String variantLabel(final VariantContext ctx,final int rank) {
+		return this.nodePrefix + ctx.getContig() + ":" + ctx.getStart() + ":" + rank;
+		}
+	
+	/** decode the label of a blank node created by this graph, returns null if it is not one of our nodes */
+	private NodeLocation parseNode(final Node node) {
+		if(!node.isBlank()) return null;
+		final String label = node.getBlankNodeLabel();
+		if(!label.startsWith(this.nodePrefix)) return null;
+		final NodeLocation loc = new NodeLocation();
+		try {
+			final int colon1 = label.lastIndexOf(':');
+			if(colon1 <= this.nodePrefix.length()) return null;
+			String tail = label.substring(colon1+1);
+			if(tail.contains(GENOTYPE_SUFFIX)) {
+				final int i = tail.indexOf(GENOTYPE_SUFFIX);
+				loc.kind = WANT_GENOTYPE;
+				loc.index = Integer.parseInt(tail.substring(i+GENOTYPE_SUFFIX.length()))-1;
+				tail = tail.substring(0,i);
+				}
+			else if(tail.contains(PREDICTION_SUFFIX)) {
+				final int i = tail.indexOf(PREDICTION_SUFFIX);
+				loc.kind = WANT_PREDICTION;
+				loc.index = Integer.parseInt(tail.substring(i+PREDICTION_SUFFIX.length()))-1;
+				tail = tail.substring(0,i);
+				}
+			loc.rank = Integer.parseInt(tail);
+			final int colon2 = label.lastIndexOf(':', colon1-1);
+			if(colon2 < this.nodePrefix.length()) return null;
+			loc.start = Integer.parseInt(label.substring(colon2+1, colon1));
+			loc.contig = label.substring(this.nodePrefix.length(), colon2);
+			}
+		catch(final NumberFormatException err) {
+			return null;
+			}
+		if(StringUtils.isBlank(loc.contig) || loc.index< -1) return null;
+		return loc;
+		}
+	
+	/** the constraints of a triple pattern pushed down into the VCF scan */
+	private class Scan {
+		/** kind of triples to generate, 0 if the pattern cannot match */
+		int want = WANT_ALL;
+		String contig = null;
+		int start = -1;
+		int rank = -1;
+		int genotypeIndex = -1;
+		
+		Scan(final Triple pattern) {
+			final Node s = pattern.getSubject();
+			final Node p = pattern.getPredicate();
+			final Node o = pattern.getObject();
+			if(p.isConcrete()) {
+				if(p.equals(RDF_TYPE)) {
+					if(o.isConcrete()) {
+						if(o.equals(cachedNode("Genotype"))) {
+							this.want = WANT_GENOTYPE;
+							}
+						else if(o.equals(cachedNode("SnpEff"))) {
+							this.want = WANT_PREDICTION;
+							}
+						else
+							{
+							this.want = WANT_VARIANT;
+							}
+						}
+					}
+				else if(p.isURI() && p.getURI().startsWith(NS)) {
+					final String local = p.getURI().substring(NS.length());
+					if(VARIANT_PREDICATES.contains(local)) {
+						this.want = WANT_VARIANT;
+						if(local.equals("contig") && o.isLiteral()) {
+							this.contig = o.getLiteralLexicalForm();
+							}
+						}
+					else if(GENOTYPE_PREDICATES.contains(local)) {
+						this.want = WANT_GENOTYPE;
+						}
+					else if(PREDICTION_PREDICATES.contains(local)) {
+						this.want = WANT_PREDICTION;
+						}
+					else
+						{
+						this.want = 0;
+						}
+					}
+				else
+					{
+					this.want = 0;
+					}
+				}
+			if(s.isConcrete()) {
+				final NodeLocation loc = parseNode(s);
+				if(loc==null || (this.contig!=null && !this.contig.equals(loc.contig))) {
+					this.want = 0;
+					}
+				else
+					{
+					this.contig = loc.contig;
+					this.start = loc.start;
+					this.rank = loc.rank;
+					if(loc.kind==WANT_GENOTYPE) {
+						this.want &= WANT_GENOTYPE;
+						this.genotypeIndex = loc.index;
+						}
+					else if(loc.kind==WANT_PREDICTION) {
+						this.want &= WANT_PREDICTION;
+						}
+					}
+				}
+			if(this.contig!=null && interval!=null && !interval.getContig().equals(this.contig)) {
+				this.want = 0;
+				}
+			}
+		
+		/** the region to query with the index, or null */
+		Locatable getQueryInterval() {
+			if(this.start>0) return new SimpleInterval(this.contig, this.start, this.start);
+			if(interval!=null) return interval;
+			if(this.contig!=null && dict!=null) {
+				final SAMSequenceRecord ssr = dict.getSequence(this.contig);
+				if(ssr!=null) return new SimpleInterval(this.contig, 1, ssr.getSequenceLength());
+				}
+			return null;
+			}
+		
+		boolean accept(final VariantContext ctx,final int ctxRank) {
+			if(this.contig!=null && !this.contig.equals(ctx.getContig())) return false;
+			if(this.start>0 && (this.start!=ctx.getStart() || this.rank!=ctxRank)) return false;
+			return true;
+			}
+		}
+	
+	protected List<Triple> variantToTriple(final String label,final VariantContext ctx,final int want,final int genotypeIndex)
 		{
 		final List<Triple> triples = new ArrayList<>();
-		final Node ctxId = NodeFactory.createBlankNode(String.format("var%06d", nLine));
+		final Node ctxId = NodeFactory.createBlankNode(label);
 		
-		triples.add(Triple.create(ctxId, RDF_TYPE,cachedNode("Variant")));
-		triples.add(Triple.create(ctxId, cachedNode("file"),NodeFactory.createLiteral(this.variantFile.toString())));
-		triples.add(Triple.create(ctxId, RDF_TYPE,cachedNode(ctx.getType().name())));
-		triples.add(Triple.create(ctxId,cachedNode("contig"),NodeFactory.createLiteral(ctx.getContig())));
-		triples.add(Triple.create(ctxId,cachedNode("start"),NodeFactory.createLiteral(String.valueOf(ctx.getStart()),XSDDatatype.XSDint)));
-		triples.add(Triple.create(ctxId,cachedNode("end"),NodeFactory.createLiteral(String.valueOf(ctx.getEnd()),XSDDatatype.XSDint)));
-		if(ctx.hasID()) {
-			triples.add(Triple.create(ctxId,cachedNode("id"),NodeFactory.createLiteral(ctx.getID())));
-		}
-		//REF + ALT
-		for(final Allele allele : ctx.getAlleles()) {
-			triples.add(Triple.create(ctxId,cachedNode(allele.isReference()?"ref":"alt"),
-				NodeFactory.createLiteral(allele.getDisplayString())));
-			}
-		// QUAL
-		if(ctx.hasLog10PError())
-			{
-			
+		if((want & WANT_VARIANT)!=0) {
+			triples.add(Triple.create(ctxId, RDF_TYPE,cachedNode("Variant")));
+			triples.add(Triple.create(ctxId, cachedNode("file"),NodeFactory.createLiteral(this.variantFile.toString())));
+			triples.add(Triple.create(ctxId, RDF_TYPE,cachedNode(ctx.getType().name())));
+			triples.add(Triple.create(ctxId,cachedNode("contig"),NodeFactory.createLiteral(ctx.getContig())));
+			triples.add(Triple.create(ctxId,cachedNode("start"),NodeFactory.createLiteral(String.valueOf(ctx.getStart()),XSDDatatype.XSDint)));
+			triples.add(Triple.create(ctxId,cachedNode("end"),NodeFactory.createLiteral(String.valueOf(ctx.getEnd()),XSDDatatype.XSDint)));
+			if(ctx.hasID()) {
+				triples.add(Triple.create(ctxId,cachedNode("id"),NodeFactory.createLiteral(ctx.getID())));
 			}
-		for(final String filter : ctx.getFilters()) {
-			triples.add(Triple.create(ctxId,cachedNode("filter"),
-				NodeFactory.createLiteral(filter)));
+			//REF + ALT
+			for(final Allele allele : ctx.getAlleles()) {
+				triples.add(Triple.create(ctxId,cachedNode(allele.isReference()?"ref":"alt"),
+					NodeFactory.createLiteral(allele.getDisplayString())));
+				}
+			// QUAL
+			if(ctx.hasLog10PError())
+				{
+				
+				}
+			for(final String filter : ctx.getFilters()) {
+				triples.add(Triple.create(ctxId,cachedNode("filter"),
+					NodeFactory.createLiteral(filter)));
+				}
 			}
 		
-		if(this.annParser!=null && this.annParser.isValid()) {
+		if((want & WANT_PREDICTION)!=0 && this.annParser!=null && this.annParser.isValid()) {
+			int predIndex = 0;
 			for(final AnnPrediction p:this.annParser.getPredictions(ctx)) {
-				final Node predIdx = NodeFactory.createBlankNode();
+				final Node predIdx = NodeFactory.createBlankNode(label + PREDICTION_SUFFIX + (++predIndex));
 				triples.add(Triple.create(predIdx, RDF_TYPE,cachedNode("SnpEff")));
 				triples.add(Triple.create(ctxId, cachedNode("prediction"),predIdx));
 				if(!StringUtils.isBlank(p.getFeatureId())) {
@@ -166,12 +349,13 @@ public class VariantGraph extends GraphBase {
 				}
 		}
 		
-		for(int i=0;i< ctx.getNSamples();++i)
+		for(int i=0;(want & WANT_GENOTYPE)!=0 && i< ctx.getNSamples();++i)
 			{
+			if(genotypeIndex>=0 && genotypeIndex!=i) continue;
 			final Genotype gt=ctx.getGenotype(i);
 			if(!this.acceptGenotype.test(ctx, gt)) continue;
 			
-			final Node gtId = NodeFactory.createBlankNode(String.format("var%06d.gt%03d", nLine,(i+1)));
+			final Node gtId = NodeFactory.createBlankNode(label + GENOTYPE_SUFFIX + (i+1));
 			
 			triples.add(Triple.create(gtId, RDF_TYPE,cachedNode("Genotype")));
 			triples.add(Triple.create(ctxId, cachedNode("genotype"),gtId));
@@ -215,41 +399,67 @@ public class VariantGraph extends GraphBase {
 		public Triple next() {
 			return this.delegate.next();
 			}
+		@Override
+		public void close() {
+			this.delegate.close();
+			}
 		}
 		
 	private class TripleVcfIterator
 		extends AbstractIterator<Triple>
 		implements CloseableIterator<Triple>
 		{
+		private final Scan scan;
 		private final VCFFileReader vcfFileReader;
 		private final CloseableIterator<VariantContext> vcfIterator;
 		private final List<Triple> buffer=new ArrayList<>();
-		private long nLines=0;
-		TripleVcfIterator() {
+		private String prevContig = null;
+		private int prevStart = -1;
+		private int rank = 0;
+		private boolean closed = false;
+		TripleVcfIterator(final Scan scan) {
+			this.scan = scan;
 			this.vcfFileReader = new VCFFileReader(VariantGraph.this.variantFile,
 					interval==null?false:true);
+			final Locatable queryInterval = scan.getQueryInterval();
 			this.vcfIterator = 
-					interval==null?
+					queryInterval==null || !this.vcfFileReader.isQueryable()?
 					this.vcfFileReader.iterator():
-					this.vcfFileReader.query(interval);
+					this.vcfFileReader.query(queryInterval);
 			}
 		
 		@Override
 		protected Triple advance() {
 			while(this.buffer.isEmpty())
 				{
-				if(!this.vcfIterator.hasNext()) return null;
+				if(this.closed) return null;
+				if(!this.vcfIterator.hasNext()) {
+					this.close();
+					return null;
+					}
 				final VariantContext ctx = this.vcfIterator.next();
-				++nLines;
+				/* the rank must not depend on the query: only the variants in the user's interval are counted */
+				if(interval!=null && !interval.overlaps(ctx)) continue;
+				if(ctx.getStart()==this.prevStart && ctx.getContig().equals(this.prevContig)) {
+					this.rank++;
+					}
+				else
+					{
+					this.prevContig = ctx.getContig();
+					this.prevStart = ctx.getStart();
+					this.rank = 0;
+					}
+				if(!this.scan.accept(ctx, this.rank)) continue;
 				if(!acceptVariant.test(ctx)) continue;
-				if(!this.vcfIterator.hasNext()) this.close();
-				this.buffer.addAll(variantToTriple(nLines,ctx));
+				this.buffer.addAll(variantToTriple(variantLabel(ctx, this.rank),ctx,this.scan.want,this.scan.genotypeIndex));
 				}
 			return this.buffer.remove(this.buffer.size()-1);
 			}
 		
 		@Override
 		public void close() {
+			if(this.closed) return;
+			this.closed = true;
 			this.buffer.clear();
 			this.vcfIterator.close();
 			this.vcfFileReader.close();
@@ -31,6 +31,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.jena.graph.Graph;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryExecution;
 import org.apache.jena.query.QueryExecutionFactory;
@@ -48,6 +49,7 @@ import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.samtools.util.IntervalParserFactory;
@@ -110,6 +112,16 @@ $ java -jar dist/vcfsparql.jar -f query.sparql src/test/resources/rotavirus_rf.v
 ---------------------------------------------------------------------------------------------------------------
 ```
 
+## Triple store
+
+Each query scans the VCF file. The VCF can be converted once into an indexed triple store
+with `--store`. The store can then be used as the input of the later queries.
+
+```
+$ java -jar dist/vcfsparql.jar --store rotavirus.vcfrdf src/test/resources/rotavirus_rf.vcf.gz
+$ java -jar dist/vcfsparql.jar -f query.sparql rotavirus.vcfrdf
+```
+
  
 END_DOC
  
@@ -120,7 +132,7 @@ END_DOC
 description="Query RDF with Sparql. Very slow. Just a proof of concept",
 keywords={"vcf","sparql","rdf","arq","semanticweb"},
 creationDate="2019-03-06",
-modificationDate="2019-03-06"
+modificationDate="2020-10-19"
 )
 public class VcfSparql extends Launcher {
 	private static final Logger LOG=Logger.build(VcfSparql.class).make();
@@ -138,13 +150,23 @@ public class VcfSparql extends Launcher {
 	private boolean showCode = false;
 	@Parameter(names={"-r","--region"},description="limit query to this genomic interval. "+IntervalParserFactory.OPT_DESC)
 	private String regionStr = null;
+	@Parameter(names={"--store"},description="Don't run a query but convert the input VCF(s) into this indexed triple store. File must end with '"+TripleStoreGraph.FILE_SUFFIX+"'. The store can be used as an input of the later queries instead of the VCF.")
+	private Path storeOutput = null;
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
 
 	@Override
 	public int doWork(final List<String> args) {
-		List<VariantGraph> graphs = new ArrayList<>();
+		final List<Graph> graphs = new ArrayList<>();
 		Model model = null;
 		OutputStream out = stdout();
-		if(sparqlQueryFile==null && StringUtils.isBlank(this.sparqlQueryString))
+		if(this.storeOutput!=null) {
+			if(!this.storeOutput.getFileName().toString().endsWith(TripleStoreGraph.FILE_SUFFIX)) {
+				LOG.error("store "+this.storeOutput+" should end with "+TripleStoreGraph.FILE_SUFFIX);
+				return -1;
+				}
+			}
+		else if(sparqlQueryFile==null && StringUtils.isBlank(this.sparqlQueryString))
 			{
 			LOG.error("SPARQL query undefined");
 			return -1;
@@ -180,24 +202,15 @@ public class VcfSparql extends Launcher {
 			
 			IOUtils.unrollFiles2018(args);
 			
-			String queryString = this.sparqlQueryFile!=null ?
-					new String(Files.readAllBytes(this.sparqlQueryFile)):
-					this.sparqlQueryString
-					;
-			if(StringUtils.isBlank(queryString)) {
-				LOG.error("query is empty");
-				return -1;
-				}
-			if(add_prefixes) {
-				queryString = 
-					"PREFIX rdf: <" +RDF.getURI()+">\n" +
-					"PREFIX rdfs: <" +RDFS.getURI()+">\n" +
-					"PREFIX dc: <" +DC.getURI()+">\n" +
-					"PREFIX vcf: <" +VariantGraph.NS+">\n" +
-					"\n" + queryString;
-				}
-			
 			for(final Path vcfInput : IOUtils.unrollPaths(args)) {
+				if(vcfInput.getFileName().toString().endsWith(TripleStoreGraph.FILE_SUFFIX)) {
+					if(!StringUtils.isBlank(this.regionStr)) {
+						LOG.error("--region cannot be used with a triple store "+vcfInput);
+						return -1;
+						}
+					graphs.add(new TripleStoreGraph(vcfInput));
+					continue;
+					}
 				final VariantGraph graph = new VariantGraph(vcfInput);
 				
 				if(!StringUtils.isBlank(this.regionStr)) {
@@ -230,6 +243,36 @@ public class VcfSparql extends Launcher {
 					}
 				}
 			
+			if(this.storeOutput!=null) {
+				TripleStoreGraph.build(
+					model.getGraph(),
+					this.storeOutput,
+					this.writingSortingCollection.getMaxRecordsInRam(),
+					this.writingSortingCollection.getTmpPaths()
+					);
+				model.close();
+				model=null;
+				graphs.stream().forEach(G->G.close());graphs.clear();
+				return 0;
+				}
+			
+			String queryString = this.sparqlQueryFile!=null ?
+					new String(Files.readAllBytes(this.sparqlQueryFile)):
+					this.sparqlQueryString
+					;
+			if(StringUtils.isBlank(queryString)) {
+				LOG.error("query is empty");
+				return -1;
+				}
+			if(add_prefixes) {
+				queryString = 
+					"PREFIX rdf: <" +RDF.getURI()+">\n" +
+					"PREFIX rdfs: <" +RDFS.getURI()+">\n" +
+					"PREFIX dc: <" +DC.getURI()+">\n" +
+					"PREFIX vcf: <" +VariantGraph.NS+">\n" +
+					"\n" + queryString;
+				}
+			
 			if(this.showCode) {
 				LOG.info("\n"+queryString+"\n");
 			}
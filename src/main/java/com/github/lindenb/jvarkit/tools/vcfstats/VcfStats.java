@@ -26,6 +26,7 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,6 +39,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.beust.jcommander.Parameter;
@@ -56,11 +60,14 @@ import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
 import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
 import htsjdk.variant.vcf.VCFIterator;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.RuntimeIOException;
@@ -71,6 +78,7 @@ import htsjdk.variant.variantcontext.StructuralVariantType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 /*
 BEGIN_DOC
@@ -252,12 +260,16 @@ public class VcfStats extends Launcher
 	private boolean disableGenotypeConcordance=false;
 	@Parameter(names={"--binSize"},description="[20170718] When plotting data over a genome, divide it into 'N' bp.")
 	private int binSize = 1_000_000;
+	@Parameter(names={"-j","--jobs"},description="When the input is an indexed VCF file with a sequence dictionary, the contigs are scanned by <n> parallel workers and their statistics are merged. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
 	
 	private ArchiveFactory archiveFactory=null;
 	/** the SAMSequenceDictionary used to sort reference */
 	private SAMSequenceDictionary the_dictionary = null;
 	/** list of samples in order*/
 	private List<String> sampleNamesInOrder = Collections.emptyList();
+	/** MAF plotters, one per category, shared by the workers */
+	private final Map<String,PlotMaf> category2mafPlotter = new HashMap<>();
 	
 	private final Function<String, Integer> contig2tid = (S)->{
 		final int tid = the_dictionary.getSequenceIndex(S);
@@ -326,46 +338,110 @@ public class VcfStats extends Launcher
 			}
 		}
 	
-	//define a pair of samples
-	private class SamplePair
+	/** dense sample x sample matrix counting the identical called genotypes.
+	 * Only the upper triangle (diagonal included) is stored, as primitive longs */
+	private static class GenotypeConcordance
 		{
-		final int sample1;
-		final int sample2;
+		private static final int NO_CALL = -1;
+		final int nSamples;
+		final long[] matrix;
+		/** genotype code of each sample for the current variant */
+		private final int[] codes;
+		/** codes for the genotypes that are not simple diploid calls, keyed by (ploidy, set of alleles) */
+		private final Map<Map.Entry<Integer,Set<Allele>>,Integer> otherGenotypes = new HashMap<>();
 		
-		SamplePair(final int sample1,final int sample2)
+		GenotypeConcordance(final int nSamples)
 			{
-			if(sample1 < sample2)
+			final long size = ((long)nSamples*(nSamples+1L))/2L;
+			if(size > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("too many samples ("+nSamples+") for a genotype concordance matrix. Use --disableGTConcordance");
+			this.nSamples = nSamples;
+			this.matrix = new long[(int)size];
+			this.codes = new int[nSamples];
+			}
+		
+		/** index of the first cell for row 'x' */
+		private int offset(final int x)
+			{
+			return (int)((long)x*this.nSamples - ((long)x*(x-1L))/2L);
+			}
+		
+		private static int indexOf(final List<Allele> alleles,final Allele a)
+			{
+			for(int i=0;i< alleles.size();++i)
 				{
-				this.sample1 = sample1;
-				this.sample2 = sample2;
+				if(alleles.get(i).equals(a)) return i;
 				}
-			else
+			return -1;
+			}
+		
+		/** returns a code such as two called genotypes have the same code if they are the 'sameGenotype' (phase ignored):
+		 * same ploidy and same set of alleles, so A/A/C and A/C/C get the same code */
+		private int encode(final List<Allele> alleles,final Genotype g)
+			{
+			if(g==null || !g.isCalled()) return NO_CALL;
+			if(g.getPloidy()==2)
+				{
+				int a = indexOf(alleles,g.getAllele(0));
+				int b = indexOf(alleles,g.getAllele(1));
+				if(a>=0 && b>=0)
+					{
+					if(a>b) {final int t=a;a=b;b=t;}
+					return (b*(b+1))/2 + a;
+					}
+				}
+			final Map.Entry<Integer,Set<Allele>> key = new AbstractMap.SimpleImmutableEntry<>(g.getPloidy(), new HashSet<>(g.getAlleles()));
+			Integer code = this.otherGenotypes.get(key);
+			if(code==null)
 				{
-				this.sample1 = sample2;
-				this.sample2 = sample1;
+				code = -2 - this.otherGenotypes.size();
+				this.otherGenotypes.put(key, code);
 				}
+			return code;
 			}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + this.sample1;
-			result = prime * result + this.sample2;
-			return result;
+		
+		void visit(final VariantContext ctx)
+			{
+			final List<Allele> alleles = ctx.getAlleles();
+			final int n = Math.min(this.nSamples, ctx.getNSamples());
+			this.otherGenotypes.clear();
+			for(int x=0;x< n;++x)
+				{
+				this.codes[x] = encode(alleles,ctx.getGenotype(x));
+				}
+			for(int x=0;x< n;++x)
+				{
+				final int code = this.codes[x];
+				if(code==NO_CALL) continue;
+				int k = offset(x);
+				for(int y=x;y< n;++y,++k)
+					{
+					if(this.codes[y]==code) this.matrix[k]++;
+					}
+				}
 			}
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj)  return true;
-			if (obj == null)  return false;
-			if (!(obj instanceof SamplePair)) return false;
-			final SamplePair other = (SamplePair) obj;
-			return other.sample1==this.sample1 && 
-				   other.sample2==this.sample2; 
+		
+		long count(final int x,final int y)
+			{
+			return x<=y ?
+				this.matrix[offset(x)+(y-x)]:
+				this.matrix[offset(y)+(x-y)]
+				;
 			}
-		@Override
-		public String toString() {
-			return  VcfStats.this.sampleNamesInOrder.get(sample1)+"/"+
-					VcfStats.this.sampleNamesInOrder.get(sample2);
+		
+		boolean isEmpty()
+			{
+			if(this.nSamples>1) return false;
+			for(final long v:this.matrix) if(v!=0L) return false;
+			return true;
+			}
+		
+		void merge(final GenotypeConcordance other)
+			{
+			if(this.nSamples!=other.nSamples) throw new IllegalArgumentException("not the same number of samples");
+			for(int i=0;i< this.matrix.length;++i)
+				{
+				this.matrix[i] += other.matrix[i];
+				}
 			}
 		}
 	
@@ -385,7 +461,7 @@ public class VcfStats extends Launcher
 				throw new RuntimeIOException(e);
 			}
 			}
-		void plot(double xcas,double yctrl) {
+		synchronized void plot(double xcas,double yctrl) {
 			this.pw.print(xcas);
 			this.pw.print('\t');
 			this.pw.print(yctrl);
@@ -492,6 +568,18 @@ public class VcfStats extends Launcher
 				}
 			}
 		
+		/** add the counts of another accumulator filled by another worker */
+		protected void mergeCounters(final AbstractStat other)
+			{
+			this.countDepth.putAll(other.countDepth);
+			this.countDistances.putAll(other.countDistances);
+			this.nucleicAcidChanges.putAll(other.nucleicAcidChanges);
+			this.geneLocations.putAll(other.geneLocations);
+			this.consequences.putAll(other.consequences);
+			this.variantsPerContigs.putAll(other.variantsPerContigs);
+			this.countBins.putAll(other.countBins);
+			this.countStructuralVariations.putAll(other.countStructuralVariations);
+			}
 		}
 	
 	
@@ -517,7 +605,7 @@ public class VcfStats extends Launcher
 		final Counter<RangeOfIntegers.Range> countAffectedSamples = new Counter<>();
 		final Counter<RangeOfIntegers.Range> countAltAlleles = new Counter<>();
 		final Counter<RangeOfIntegers.Range> countIndelSize = new Counter<>();
-		final Counter<SamplePair>  genotypeConcordance = new Counter<>();
+		final GenotypeConcordance genotypeConcordance;
 
 		private int countVariants=0;
 		
@@ -589,6 +677,14 @@ public class VcfStats extends Launcher
 
 					}
 				}
+			void merge(final SampleStat other)
+				{
+				if(!this.sampleName.equals(other.sampleName)) throw new IllegalArgumentException("not the same sample");
+				mergeCounters(other);
+				this.countTypes.putAll(other.countTypes);
+				this.countMendelianViolations.putAll(other.countMendelianViolations);
+				}
+			
 			public void finish(final PrintWriter makefileWriter) throws IOException
 				{
 				
@@ -634,16 +730,10 @@ public class VcfStats extends Launcher
 						collect(Collectors.toSet())
 						;
 			// genotype concordance
-			if(!VcfStats.this.disableGenotypeConcordance) {
-				final int n_samples = VcfStats.this.sampleNamesInOrder.size();
-				for(int x=0;x +1 < n_samples;++x)
-					{
-					for(int y= x +1; y < n_samples;++y)
-						{
-						this.genotypeConcordance.initializeIfNotExists(new SamplePair(x,y));
-						}
-					}
-				}
+			this.genotypeConcordance = VcfStats.this.disableGenotypeConcordance ?
+					null :
+					new GenotypeConcordance(VcfStats.this.sampleNamesInOrder.size())
+					;
 			}
 		
 		public void visit(final VariantContext ctx) {
@@ -758,8 +848,8 @@ public class VcfStats extends Launcher
 						
 						if(this.mafPlotter==null)
 							{
-							//it's a new plotter
-							this.mafPlotter = new PlotMaf(key);
+							//it's a new plotter, shared by all the workers
+							this.mafPlotter = VcfStats.this.getMafPlotter(this.key);
 							
 							//add makefile stuff
 							/**
@@ -801,24 +891,31 @@ public class VcfStats extends Launcher
 			
 			// genotype concordance
 
-			if(!VcfStats.this.disableGenotypeConcordance) {
-				for(int x=0;x < ctx.getNSamples();++x)
-					{
-					final Genotype g1 = ctx.getGenotype(x);
-					if(!g1.isCalled()) continue;
-					for(int y= x ; y < ctx.getNSamples();++y)
-						{
-						final Genotype g2 = ctx.getGenotype(y);
-						if(!g2.isCalled()) continue;
-						if(g1.sameGenotype(g2))
-							{
-							this.genotypeConcordance.incr(new SamplePair(x,y));
-							}
-						}
-					}
+			if(this.genotypeConcordance!=null) {
+				this.genotypeConcordance.visit(ctx);
 				}
 			
 			}
+		/** merge the statistics collected by another worker on other contigs */
+		void merge(final VariantStats other)
+			{
+			if(!this.key.equals(other.key)) throw new IllegalArgumentException("not the same category "+this.key+"/"+other.key);
+			mergeCounters(other);
+			this.countVariants += other.countVariants;
+			this.countTypes.putAll(other.countTypes);
+			this.countAffectedSamples.putAll(other.countAffectedSamples);
+			this.countAltAlleles.putAll(other.countAltAlleles);
+			this.countIndelSize.putAll(other.countIndelSize);
+			if(this.genotypeConcordance!=null) {
+				this.genotypeConcordance.merge(other.genotypeConcordance);
+				}
+			for(final SampleStat st: other.sample2stats.values())
+				{
+				this.sample2stats.get(st.sampleName).merge(st);
+				}
+			if(this.mafPlotter==null) this.mafPlotter = other.mafPlotter;
+			}
+		
 		private String toTsv(final String filename)
 			{
 			return VcfStats.this.prefix+this.key+"."+filename+".tsv";
@@ -1571,7 +1668,7 @@ public class VcfStats extends Launcher
 
 				}
 			
-			if(!VcfStats.this.disableGenotypeConcordance && !this.genotypeConcordance.isEmpty())
+			if(this.genotypeConcordance!=null && !this.genotypeConcordance.isEmpty())
 				{
 				final String filename = toTsv("gtConcordance");
 				final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
@@ -1589,7 +1686,7 @@ public class VcfStats extends Launcher
 					for(int x=0;x<  VcfStats.this.sampleNamesInOrder.size();++x)
 						{
 						pw.print(",");
-						pw.print(this.genotypeConcordance.count(new SamplePair(x,y)));
+						pw.print(this.genotypeConcordance.count(x,y));
 						}
 					pw.println();
 					}
@@ -1704,6 +1801,14 @@ public class VcfStats extends Launcher
 		//this.selectExpressions.add("vc azd");
 		}
 	
+	private PlotMaf getMafPlotter(final String key)
+		{
+		synchronized(this.category2mafPlotter)
+			{
+			return this.category2mafPlotter.computeIfAbsent(key, K->new PlotMaf(K));
+			}
+		}
+	
 	public List<KnownGene> getOverlappingKnownGenes(final VariantContext ctx)
 		{
 		if(this.knownGeneTreeMap==null) return Collections.emptyList();
@@ -1751,6 +1856,64 @@ public class VcfStats extends Launcher
 	
 	
 	
+	/** dispatch a variant to the statistics of each category */
+	private void visit(final Map<String,VariantStats> category2stats,final VCFHeader header,final VariantContext ctx)
+		{
+		for(final String category: this.variantToCategoryKeys.apply(ctx))
+			{
+			VariantStats vcstat = category2stats.get(category);
+			if(vcstat==null) {
+				vcstat = new VariantStats(category,header);
+				category2stats.put(category, vcstat);
+				}
+			vcstat.visit(ctx);
+			}
+		}
+	
+	/** scan some contigs of an indexed VCF, returns the statistics for each category */
+	private Map<String,VariantStats> scanContigs(final File vcfFile,final List<SAMSequenceRecord> contigs)
+		{
+		final Map<String,VariantStats> category2stats = new HashMap<>();
+		try(VCFFileReader reader = new VCFFileReader(vcfFile, true))
+			{
+			final VCFHeader header = reader.getFileHeader();
+			for(final SAMSequenceRecord ssr: contigs)
+				{
+				try(CloseableIterator<VariantContext> iter=reader.query(ssr.getSequenceName(), 1, ssr.getSequenceLength()))
+					{
+					while(iter.hasNext())
+						{
+						visit(category2stats,header,iter.next());
+						}
+					}
+				LOG.debug("done "+ssr.getSequenceName());
+				}
+			}
+		return category2stats;
+		}
+	
+	/** split the contigs into 'n' sets of about the same total length */
+	private static List<List<SAMSequenceRecord>> shardContigs(final SAMSequenceDictionary dict,final int n)
+		{
+		final List<List<SAMSequenceRecord>> shards = new ArrayList<>(n);
+		final long[] lengths = new long[n];
+		for(int i=0;i< n;++i) shards.add(new ArrayList<>());
+		final List<SAMSequenceRecord> ssrs = new ArrayList<>(dict.getSequences());
+		ssrs.sort((A,B)->Integer.compare(B.getSequenceLength(), A.getSequenceLength()));
+		for(final SAMSequenceRecord ssr:ssrs)
+			{
+			int best=0;
+			for(int i=1;i< n;++i)
+				{
+				if(lengths[i] < lengths[best]) best=i;
+				}
+			shards.get(best).add(ssr);
+			lengths[best] += ssr.getSequenceLength();
+			}
+		shards.removeIf(L->L.isEmpty());
+		return shards;
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.binSize<=0) {
@@ -1760,16 +1923,30 @@ public class VcfStats extends Launcher
 		
 		VariantContextWriter teeOut=null;
 		VCFIterator iter = null;
-		final Map<String,VariantStats> category2stats = new HashMap<>();
+		ExecutorService executor = null;
+		final Map<String,VariantStats> category2stats = new TreeMap<>();
 		
 		PrintWriter makefileWriter =null;
 		try {
-			
+			final String input = oneFileOrNull(args);
+			final int nThreads = this.nJobs < 1 ? Runtime.getRuntime().availableProcessors() : this.nJobs;
+			File indexedVcf = null;
+			if(nThreads>1) {
+				if(input==null || this.tee || IOUtil.isUrl(input) ||
+					!(VCFUtils.isTabixVcfFile(new File(input)) || VCFUtils.isTribbleVcfFile(new File(input))))
+					{
+					LOG.warn("--jobs requires an indexed VCF file and no --tee. Using a single thread.");
+					}
+				else
+					{
+					indexedVcf = new File(input);
+					}
+				}
 			
 			this.archiveFactory = ArchiveFactory.open(this.outputFile);
 			if(this.tee) teeOut = super.openVariantContextWriter(null);
 			
-			iter= super.openVCFIterator(oneFileOrNull(args));
+			iter= super.openVCFIterator(input);
 			
 			
 			
@@ -1780,6 +1957,11 @@ public class VcfStats extends Launcher
 			if(dict!=null && !dict.isEmpty()) {
 				this.the_dictionary = dict;
 				}
+			else if(indexedVcf!=null)
+				{
+				LOG.warn("--jobs requires a sequence dictionary in the VCF header. Using a single thread.");
+				indexedVcf = null;
+				}
 			
 			if(this.kgFile!=null)
 				{
@@ -1815,38 +1997,52 @@ public class VcfStats extends Launcher
 
 
 			
-			
-			if(teeOut!=null) teeOut.writeHeader(header);
-			final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
-			while(iter.hasNext())
+			if(indexedVcf!=null)
 				{
-				final VariantContext ctx=progress.watch(iter.next());
-				if(teeOut!=null) teeOut.add(ctx);
-
-				
-				for(final String category: this.variantToCategoryKeys.apply(ctx))
+				iter.close();iter=null;
+				final File vcfFile = indexedVcf;
+				final List<List<SAMSequenceRecord>> shards = shardContigs(dict, nThreads);
+				LOG.info("scanning "+dict.size()+" contigs using "+shards.size()+" workers");
+				executor = Executors.newFixedThreadPool(shards.size());
+				final List<Future<Map<String,VariantStats>>> results = new ArrayList<>(shards.size());
+				for(final List<SAMSequenceRecord> shard : shards)
 					{
-					VariantStats vcstat = category2stats.get(category);
-					if(vcstat==null) {
-						vcstat = new VariantStats(category,header);
-						category2stats.put(category, vcstat);
+					results.add(executor.submit(()->scanContigs(vcfFile,shard)));
+					}
+				for(final Future<Map<String,VariantStats>> result: results)
+					{
+					for(final VariantStats st : result.get().values())
+						{
+						final VariantStats prev = category2stats.putIfAbsent(st.key, st);
+						if(prev!=null) prev.merge(st);
 						}
-					vcstat.visit(ctx);
 					}
-				
-				
+				executor.shutdown();
+				executor=null;
 				}
+			else
+				{
+				if(teeOut!=null) teeOut.writeHeader(header);
+				final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
+				while(iter.hasNext())
+					{
+					final VariantContext ctx=progress.watch(iter.next());
+					if(teeOut!=null) teeOut.add(ctx);
+					visit(category2stats,header,ctx);
+					}
+				progress.finish();
+				iter.close();iter=null;
+				}
+			
 			for(final String category: category2stats.keySet())
 				{	
 				final VariantStats vcstats = category2stats.get(category);
 				vcstats.finish(makefileWriter);
 				}
 
-			progress.finish();
 			makefileWriter.println("all_targets : ${ALL_TARGETS}");
 			makefileWriter.flush();makefileWriter.close();makefileWriter=null;
 			
-			iter.close();iter=null;
 			this.archiveFactory.close();archiveFactory=null;
 			if(teeOut!=null) teeOut.close(); teeOut=null;
 			return 0;
@@ -1855,6 +2051,7 @@ public class VcfStats extends Launcher
 			return -1;
 		} finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			knownGeneTreeMap=null;
 			CloserUtil.close(archiveFactory);
 			CloserUtil.close(teeOut);
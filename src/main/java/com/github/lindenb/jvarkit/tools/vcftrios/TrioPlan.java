@@ -0,0 +1,254 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.vcftrios;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.github.lindenb.jvarkit.pedigree.Sample;
+import com.github.lindenb.jvarkit.pedigree.Trio;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * The trios of a pedigree, resolved once against the samples of a VCF header.
+ * A {@link Kernel} tests all the trios of a variant using the indexes of the alleles
+ * of the genotypes, without creating any object. It gives the same answer as
+ * {@link DeNovoDetector#test(VariantContext, Genotype, Genotype, Genotype)}.
+ */
+public class TrioPlan
+	{
+	private final DeNovoDetector detector;
+	private final int nSamples;
+	private final int[] children;
+	private final int[] fathers;
+	private final int[] mothers;
+	private final String[] childNames;
+	
+	/** 
+	 * @param header the VCF header
+	 * @param trios the trios. Trios whose child is not in the VCF or without any parent in the VCF are ignored.
+	 * @param detector the detector. Its settings (no-call to hom-ref, ploidy) are used by the kernels.
+	 */
+	public TrioPlan(final VCFHeader header,final Collection<? extends Trio> trios,final DeNovoDetector detector)
+		{
+		this.detector = detector;
+		this.nSamples = header.getNGenotypeSamples();
+		final Map<String,Integer> sample2index = header.getSampleNameToOffset();
+		final List<int[]> L = new ArrayList<>(trios.size());
+		final List<String> names = new ArrayList<>(trios.size());
+		for(final Trio trio: trios)
+			{
+			final Sample child = trio.getChild();
+			final int child_id = sample2index.getOrDefault(child.getId(),-1);
+			if(child_id<0) continue;
+			final int father_id = trio.hasFather()?sample2index.getOrDefault(trio.getFather().getId(),-1):-1;
+			final int mother_id = trio.hasMother()?sample2index.getOrDefault(trio.getMother().getId(),-1):-1;
+			if(father_id==-1 && mother_id==-1) continue;
+			L.add(new int[] {child_id,father_id,mother_id});
+			names.add(child.getId());
+			}
+		this.children = L.stream().mapToInt(T->T[0]).toArray();
+		this.fathers = L.stream().mapToInt(T->T[1]).toArray();
+		this.mothers = L.stream().mapToInt(T->T[2]).toArray();
+		this.childNames = names.toArray(new String[names.size()]);
+		}
+	
+	/** number of trios */
+	public int size() {
+		return this.children.length;
+		}
+	
+	/** index of the child of the i-th trio in the VCF */
+	public int getChildIndex(int i) {
+		return this.children[i];
+		}
+	
+	/** index of the father of the i-th trio in the VCF or -1 */
+	public int getFatherIndex(int i) {
+		return this.fathers[i];
+		}
+	
+	/** index of the mother of the i-th trio in the VCF or -1 */
+	public int getMotherIndex(int i) {
+		return this.mothers[i];
+		}
+	
+	public String getChildName(int i) {
+		return this.childNames[i];
+		}
+	
+	/** create a new kernel. A kernel is not thread-safe: create one kernel per thread */
+	public Kernel createKernel() {
+		return new Kernel();
+		}
+	
+	/** state of a genotype */
+	private static final byte GT_OK = 0;
+	/** ploidy is not 2: not tested */
+	private static final byte GT_BAD_PLOIDY = 1;
+	/** contains an allele that is not in the variant: use the DeNovoDetector */
+	private static final byte GT_UNKNOWN = 2;
+	/** allele codes */
+	private static final int NO_CALL = -1;
+	private static final int SPAN_DEL = -2;
+	private static final int UNKNOWN_ALLELE = -3;
+	
+	public class Kernel
+		{
+		/** two allele codes per sample */
+		private final int[] codes = new int[nSamples*2];
+		private final byte[] states = new byte[nSamples];
+		/** codes[] of a sample is valid if stamps[sample]==generation */
+		private final int[] stamps = new int[nSamples];
+		private int generation = 0;
+		private VariantContext ctx = null;
+		
+		private Kernel() {
+			}
+		
+		private int code(final Allele a) {
+			if(a.isNoCall()) return NO_CALL;
+			final List<Allele> alleles = this.ctx.getAlleles();
+			for(int i=0;i< alleles.size();i++) {
+				if(alleles.get(i).equals(a)) return i;
+				}
+			if(a.equals(Allele.SPAN_DEL)) return SPAN_DEL;
+			return UNKNOWN_ALLELE;
+			}
+		
+		/** compute the allele codes of the sample, same conversion as DeNovoDetector.convertGT */
+		private void load(final int sample) {
+			if(this.stamps[sample]==this.generation) return;
+			this.stamps[sample]=this.generation;
+			final Genotype g = this.ctx.getGenotype(sample);
+			final int x = sample*2;
+			final int ploidy = g.getPloidy();
+			if(ploidy==1 && detector.isFixingPloidy()) {
+				this.codes[x  ] = code(g.getAllele(0));
+				this.codes[x+1] = code(Allele.SPAN_DEL);
+				}
+			else if(ploidy==2) {
+				if(g.isNoCall() && detector.isConvertingNoCallToHomRef()) {
+					this.codes[x  ] = 0;
+					this.codes[x+1] = 0;
+					}
+				else
+					{
+					this.codes[x  ] = code(g.getAllele(0));
+					this.codes[x+1] = code(g.getAllele(1));
+					}
+				}
+			else
+				{
+				this.states[sample] = GT_BAD_PLOIDY;
+				return;
+				}
+			this.states[sample] = (this.codes[x]==UNKNOWN_ALLELE || this.codes[x+1]==UNKNOWN_ALLELE?GT_UNKNOWN:GT_OK);
+			}
+		
+		private boolean isNoCall(final int sample) {
+			return this.codes[sample*2]==NO_CALL && this.codes[sample*2+1]==NO_CALL;
+			}
+		
+		private boolean isDeNovoDuo(final int parent,final int child) {
+			if(isNoCall(child)) return true;
+			final int c1 = this.codes[child*2];
+			final int c2 = this.codes[child*2+1];
+			final int p1 = this.codes[parent*2];
+			final int p2 = this.codes[parent*2+1];
+			return !(c1==p1 || c1==p2 || c2==p1 || c2==p2);
+			}
+		
+		private boolean isDeNovoTrio(final int father,final int mother,final int child) {
+			if(isNoCall(child)) return true;
+			final int c1 = this.codes[child*2];
+			final int c2 = this.codes[child*2+1];
+			for(int i=0;i< 2;i++) {
+				final int f = this.codes[father*2+i];
+				for(int j=0;j< 2;j++) {
+					final int m = this.codes[mother*2+j];
+					if((f==c1 && m==c2) || (f==c2 && m==c1)) return false;
+					}
+				}
+			return true;
+			}
+		
+		private boolean test(final int i) {
+			final int child = children[i];
+			final int father = fathers[i];
+			final int mother = mothers[i];
+			load(child);
+			if(father>=0) load(father);
+			if(mother>=0) load(mother);
+			if(this.states[child]==GT_UNKNOWN ||
+				(father>=0 && this.states[father]==GT_UNKNOWN) ||
+				(mother>=0 && this.states[mother]==GT_UNKNOWN)) {
+				return detector.test(this.ctx,
+					father<0?null:this.ctx.getGenotype(father),
+					mother<0?null:this.ctx.getGenotype(mother),
+					this.ctx.getGenotype(child)
+					)!=null;
+				}
+			if(this.states[child]!=GT_OK) return false;
+			if(father>=0 && this.states[father]!=GT_OK) return false;
+			if(mother>=0 && this.states[mother]!=GT_OK) return false;
+			final boolean fatherCalled = father>=0 && !isNoCall(father);
+			final boolean motherCalled = mother>=0 && !isNoCall(mother);
+			if(fatherCalled && motherCalled) return isDeNovoTrio(father,mother,child);
+			if(fatherCalled) return isDeNovoDuo(father,child);
+			if(motherCalled) return isDeNovoDuo(mother,child);
+			return false;
+			}
+		
+		/**
+		 * test all the trios for the variant 'ctx'
+		 * @param ctx the variant
+		 * @param violations filled with true if the i-th trio has a mendelian violation. length must be &gt;= size()
+		 * @return the number of violations
+		 */
+		public int evaluate(final VariantContext ctx,final boolean[] violations) {
+			this.ctx = ctx;
+			this.generation++;
+			if(this.generation==Integer.MAX_VALUE) {
+				Arrays.fill(this.stamps, 0);
+				this.generation = 1;
+				}
+			int n=0;
+			for(int i=0;i< children.length;i++) {
+				violations[i] = test(i);
+				if(violations[i]) n++;
+				}
+			this.ctx = null;
+			return n;
+			}
+		}
+	}
@@ -26,29 +26,31 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.vcftrios;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapper;
 import com.github.lindenb.jvarkit.pedigree.PedigreeParser;
-import com.github.lindenb.jvarkit.pedigree.Sample;
-import com.github.lindenb.jvarkit.pedigree.Trio;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.pedigree.Pedigree;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.variant.variantcontext.writer.WritingVariantsDelegate;
 
 import htsjdk.variant.vcf.VCFIterator;
 
 import htsjdk.samtools.util.StringUtil;
-import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -135,7 +137,7 @@ END_DOC
 		description="Find mendelian incompatibilitie / denovo variants in a VCF",
 		keywords={"vcf","mendelian","pedigree","denovo"},
 		creationDate="20130705",
-		modificationDate="20191115"
+		modificationDate="20201019"
 		)
 public class VCFTrios
 	extends Launcher
@@ -158,22 +160,79 @@ public class VCFTrios
 	private boolean discard_variants_without_mendelian_incompat=false;	
 	@Parameter(names={"-hr","--hom-ref"},description="[20180705] treat NO_CALL genotypes as HOM_REF (when individual VCF/Sample have been merged).")
 	private boolean nocall_to_homref = false;
+	@Parameter(names={"-j","--jobs"},description="Number of threads. The variants are dispatched in batches and written in the input order. A value lower than 1 means use all procs available.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="With --jobs, number of variants per batch.")
+	private int batchSize = OrderedBatchMapper.DEFAULT_BATCH_SIZE;
 	@ParametersDelegate
 	private WritingVariantsDelegate writingVariantsDelegate = new WritingVariantsDelegate();
 	
-	private static class TrioTriple
+	/** annotate one variant, returns null if the variant must be discarded. One instance per thread. */
+	private class TrioAnnotator implements Function<VariantContext, VariantContext>
 		{
-		int father_id = -1;
-		int mother_id = -1;
-		int child_id = -1;
+		private final TrioPlan.Kernel kernel;
+		private final boolean[] violations;
+		TrioAnnotator(final TrioPlan plan) {
+			this.kernel = plan.createKernel();
+			this.violations = new boolean[plan.size()];
+			}
+		@Override
+		public VariantContext apply(final VariantContext ctx) {
+			final TrioPlan plan = VCFTrios.this.trioPlan;
+			final int n = this.kernel.evaluate(ctx, this.violations);
+			final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
+			if(n>0) {
+				count_incompats.incrementAndGet();
+				final Set<String> incompatibilities = new LinkedHashSet<String>(n);
+				for(int i=0;i< plan.size();i++) {
+					if(this.violations[i]) incompatibilities.add(plan.getChildName(i));
+					}
+				if(!StringUtil.isBlank(genotypeFilterNameNoIncompat))
+					{
+					vcb.genotypes( ctx.getGenotypes().stream().map(G->
+							incompatibilities.contains(G.getSampleName())?
+									G:new GenotypeBuilder(G).
+									filters(genotypeFilterNameNoIncompat).
+							make()
+							).collect(Collectors.toList()));
+					}
+				
+				vcb.attribute(attributeName, incompatibilities.toArray());
+				
+				if(!StringUtil.isBlank(filterAnyIncompat))
+					{
+					vcb.filter(filterAnyIncompat);
+					}
+				else if(!ctx.isFiltered())
+					{
+					vcb.passFilters();
+					}
+				}
+			else//No denovo
+				{
+				if(discard_variants_without_mendelian_incompat) {
+					return null;
+					}
+				if(!StringUtil.isBlank(filterNoIncompat))
+					{
+					vcb.filter(filterNoIncompat);
+					}
+				else if(!ctx.isFiltered())
+					{
+					vcb.passFilters();
+					}
+				}
+			return vcb.make();
+			}
 		}
 	
+	private TrioPlan trioPlan = null;
+	private final AtomicLong count_incompats = new AtomicLong(0L);
+	
 	@Override
 	public int doVcfToVcf(final String inputName, VCFIterator r, final VariantContextWriter w) {
-		long count_incompats=0L;
-		final Set<String> sampleNotFoundInVcf = new HashSet<>();
+		this.count_incompats.set(0L);
 		Pedigree pedigree=null;
-		final List<TrioTriple> trios = new ArrayList<>();
 		
 		try		{
 				final DeNovoDetector detector = new DeNovoDetector();
@@ -207,110 +266,47 @@ public class VCFTrios
 				
 				JVarkitVersion.getInstance().addMetaData(this, h2);
 				
-				
-				
-				for(final Trio pedTrio: pedigree.getTrios())
-					{
-					final TrioTriple trio = new TrioTriple();
-					final Sample child = pedTrio.getChild();
-					trio.child_id = header.getSampleNameToOffset().getOrDefault(child.getId(),-1);
-					if(trio.child_id<0) continue;
-					if(pedTrio.hasFather()) {
-						final Sample parent = pedTrio.getFather();
-						trio.father_id = header.getSampleNameToOffset().getOrDefault(parent.getId(),-1);
-						}
-					if(pedTrio.hasMother()) {
-						final Sample parent = pedTrio.getMother();
-						trio.mother_id = header.getSampleNameToOffset().getOrDefault(parent.getId(),-1);
-						}
-					if(trio.father_id==-1 && trio.mother_id==-1) {
-						continue;
-						}
-					trios.add(trio);
-					}
+				/* resolve the samples of the trios once */
+				this.trioPlan = new TrioPlan(header, pedigree.getTrios(), detector);
 			
-				LOG.info("trios(s) in pedigree: "+trios.size());
+				LOG.info("trios(s) in pedigree: "+this.trioPlan.size());
 				final ProgressFactory.Watcher<VariantContext> progress = 
 						ProgressFactory.newInstance().
 						dictionary(header).
 						logger(LOG).
 						build();
 				w.writeHeader(h2);
-				while(r.hasNext())
-					{
-					final VariantContext ctx = progress.apply(r.next());
-								
-					final Set<String> incompatibilities = new HashSet<String>();
-					
-					
-					for(final TrioTriple trio : trios)
-						{
-						final Genotype gChild = ctx.getGenotype(trio.child_id);
-						if(gChild==null) throw new IllegalStateException();
-						final Genotype gFather = trio.father_id<0?null:ctx.getGenotype(trio.father_id);
-						final Genotype gMother = trio.mother_id<0?null:ctx.getGenotype(trio.mother_id);
-						final DeNovoDetector.DeNovoMutation mut = detector.test(ctx, gFather, gMother, gChild);	
-						
-						if(mut!=null)
-							{
-							incompatibilities.add(gChild.getSampleName());
-							}
-						}	
-					
-					final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
-					if(!incompatibilities.isEmpty()) {
-						//set filter for samples that are not a mendelian violation
-						if(!StringUtil.isBlank(this.genotypeFilterNameNoIncompat))
-							{
-							vcb.genotypes( ctx.getGenotypes().stream().map(G->
-									incompatibilities.contains(G.getSampleName())?
-											G:new GenotypeBuilder(G).
-											filters(this.genotypeFilterNameNoIncompat).
-									make()
-									).collect(Collectors.toList()));
-							}
-						
-						
-						++count_incompats;
-						// set INFO attribute
-						vcb.attribute(attributeName, incompatibilities.toArray());
-						
-						// set FILTER 
-						if(!StringUtil.isBlank(this.filterAnyIncompat))
-							{
-							vcb.filter(this.filterAnyIncompat);
-							}
-						else if(!ctx.isFiltered())
+				
+				final BiConsumer<VariantContext,VariantContext> sink = (CTX,OUT)->{
+					if(OUT==null) return;
+					w.add(OUT);
+					};
+				
+				if(this.nThreads!=1) {
+					try(final OrderedBatchMapper<VariantContext,VariantContext> mapper = new OrderedBatchMapper<>(
+							this.nThreads,
+							this.batchSize,
+							()->new TrioAnnotator(this.trioPlan),
+							sink)) {
+						while(r.hasNext())
 							{
-							vcb.passFilters();
+							/* genotypes must be decoded in this thread, the codec is not thread-safe */
+							mapper.accept(VCFUtils.decodeGenotypes(progress.apply(r.next())));
 							}
 						}
-					else//No denovo
+					}
+				else
+					{
+					final TrioAnnotator annotator = new TrioAnnotator(this.trioPlan);
+					while(r.hasNext())
 						{
-						// dicard variant
-						if(this.discard_variants_without_mendelian_incompat) {
-							continue;
-							}
-						// set filters
-						if(!StringUtil.isBlank(this.filterNoIncompat))
-							{
-							vcb.filter(this.filterNoIncompat);
-							}
-						else if(!ctx.isFiltered())
-							{
-							vcb.passFilters();
-							}
+						final VariantContext ctx = progress.apply(r.next());
+						sink.accept(ctx,annotator.apply(ctx));
 						}
-					w.add(vcb.make());
 					}
 				progress.close();
 				
-				
-				LOG.info("incompatibilitie(s) N="+count_incompats);
-				if(! sampleNotFoundInVcf.isEmpty())
-					{
-					LOG.info("SAMPLE(S) not found: "+String.join(" / ",sampleNotFoundInVcf));
-					}
+				LOG.info("incompatibilitie(s) N="+this.count_incompats.get());
 				return 0;
 				}
 			catch(final Throwable err)
@@ -0,0 +1,350 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact set of read names with a hit counter for each name.
+ * The names are stored as bytes in an arena (on heap or off-heap) and indexed by an open-addressing hash table,
+ * that is about 40 bytes per name instead of ~100 for a <code>HashMap&lt;String,Integer&gt;</code>.
+ * A Bloom filter, built on the first query, rejects most of the names that are not in the set without touching the table.
+ * This class is not thread-safe.
+ */
+public class ReadNameSet {
+	private static final int MIN_CHUNK_SIZE = 65_536;
+	private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+	private static final int REMOVED = -1;
+	private static final float LOAD_FACTOR = 0.7f;
+	private static final int BLOOM_BITS_PER_NAME = 10;
+	
+	private final boolean offHeap;
+	/** arena of names: a name is stored as [length:2 bytes][bytes] */
+	private final List<ByteBuffer> chunks = new ArrayList<>();
+	/** address of each name +1, 0 means empty slot */
+	private long[] addresses;
+	/** hash of each name */
+	private int[] hashes;
+	/** hit counter of each name, or REMOVED */
+	private int[] counts;
+	/** number of slots used, including the removed names */
+	private int used = 0;
+	/** number of names in the set */
+	private int size = 0;
+	/** optional Bloom filter */
+	private long[] bloom = null;
+	private boolean bloomIsDirty = true;
+	/** the key of the current query: either an ASCII CharSequence or the UTF-8 bytes in 'encoded' */
+	private CharSequence asciiKey = null;
+	private byte[] encoded = null;
+	private int keyLength = 0;
+	
+	/** create a set on heap */
+	public ReadNameSet() {
+		this(false);
+		}
+	
+	/** create a set, the names are stored outside the java heap if offHeap is true */
+	public ReadNameSet(boolean offHeap) {
+		this.offHeap = offHeap;
+		allocateTable(1024);
+		}
+	
+	private void allocateTable(int capacity) {
+		this.addresses = new long[capacity];
+		this.hashes = new int[capacity];
+		this.counts = new int[capacity];
+		this.used = 0;
+		}
+	
+	public boolean isOffHeap() {
+		return this.offHeap;
+		}
+	
+	/** return the number of names in this set */
+	public int size() {
+		return this.size;
+		}
+	
+	public boolean isEmpty() {
+		return this.size==0;
+		}
+	
+	/** return true if all the characters are ASCII */
+	private static boolean isAscii(final CharSequence s) {
+		for(int i=0;i< s.length();i++) {
+			if(s.charAt(i)>=128) return false;
+			}
+		return true;
+		}
+	
+	/** 64 bits hash (FNV-1a and a final mix) of the bytes */
+	private static long hash(final CharSequence s) {
+		long h = 0xcbf29ce484222325L;
+		for(int i=0;i< s.length();i++) {
+			h ^= (s.charAt(i) & 0xFF);
+			h *= 0x100000001b3L;
+			}
+		return mix(h);
+		}
+	
+	private static long hash(final byte[] b,int len) {
+		long h = 0xcbf29ce484222325L;
+		for(int i=0;i< len;i++) {
+			h ^= (b[i] & 0xFF);
+			h *= 0x100000001b3L;
+			}
+		return mix(h);
+		}
+	
+	private static long mix(long h) {
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
+		}
+	
+	/** prepare the key for a query, return its hash */
+	private long setKey(final CharSequence name) {
+		if(isAscii(name)) {
+			this.asciiKey = name;
+			this.keyLength = name.length();
+			return hash(name);
+			}
+		final byte[] b = name.toString().getBytes(StandardCharsets.UTF_8);
+		this.asciiKey = null;
+		this.encoded = b;
+		this.keyLength = b.length;
+		return hash(b,b.length);
+		}
+	
+	private byte keyAt(int i) {
+		return this.asciiKey!=null?(byte)this.asciiKey.charAt(i):this.encoded[i];
+		}
+	
+	private ByteBuffer chunk(long address) {
+		return this.chunks.get((int)(address>>>32));
+		}
+	
+	private static int offset(long address) {
+		return (int)(address & 0xFFFFFFFFL);
+		}
+	
+	/** compare the key with the name in the arena */
+	private boolean keyEquals(long address) {
+		final ByteBuffer buf = chunk(address);
+		int off = offset(address);
+		final int len = buf.getShort(off) & 0xFFFF;
+		if(len!=this.keyLength) return false;
+		off+=2;
+		for(int i=0;i< len;i++) {
+			if(buf.get(off+i)!=keyAt(i)) return false;
+			}
+		return true;
+		}
+	
+	/** copy the key in the arena, return its address */
+	private long store() {
+		if(this.keyLength > 65_535) throw new IllegalArgumentException("name is too long");
+		final int need = 2 + this.keyLength;
+		ByteBuffer buf = this.chunks.isEmpty()?null:this.chunks.get(this.chunks.size()-1);
+		if(buf==null || buf.remaining() < need) {
+			final int chunkSize = Math.max(need, buf==null?MIN_CHUNK_SIZE:(int)Math.min(MAX_CHUNK_SIZE, buf.capacity()*2L));
+			buf = this.offHeap?ByteBuffer.allocateDirect(chunkSize):ByteBuffer.allocate(chunkSize);
+			this.chunks.add(buf);
+			}
+		final long address = (((long)this.chunks.size()-1L) << 32) | buf.position();
+		buf.putShort((short)this.keyLength);
+		for(int i=0;i< this.keyLength;i++) {
+			buf.put(keyAt(i));
+			}
+		return address;
+		}
+	
+	/** return the slot of the key or the empty slot where it should be inserted */
+	private int findSlot(long h) {
+		final int mask = this.addresses.length - 1;
+		final int h32 = (int)(h >>> 32);
+		int i = (int)h & mask;
+		for(;;) {
+			final long a = this.addresses[i];
+			if(a==0L) return i;
+			if(this.hashes[i]==h32 && keyEquals(a-1L)) return i;
+			i = (i+1) & mask;
+			}
+		}
+	
+	/** find the slot of an existing name, or -1 */
+	private int lookup(final CharSequence name) {
+		if(this.size==0) return -1;
+		final long h = setKey(name);
+		if(this.bloomIsDirty) buildBloom();
+		if(!bloomMayContain(h)) return -1;
+		final int i = findSlot(h);
+		if(this.addresses[i]==0L || this.counts[i]==REMOVED) return -1;
+		return i;
+		}
+	
+	/** add a name. return true if the name was not in the set */
+	public boolean add(final CharSequence name) {
+		final long h = setKey(name);
+		int i = findSlot(h);
+		if(this.addresses[i]!=0L) {
+			if(this.counts[i]!=REMOVED) return false;
+			this.counts[i] = 0;
+			this.size++;
+			addToBloom(h);
+			return true;
+			}
+		if(this.used + 1 > this.addresses.length * LOAD_FACTOR) {
+			rehash(this.addresses.length*2);
+			i = findSlot(h);
+			}
+		this.addresses[i] = store() + 1L;
+		this.hashes[i] = (int)(h >>> 32);
+		this.counts[i] = 0;
+		this.used++;
+		this.size++;
+		addToBloom(h);
+		return true;
+		}
+	
+	/** return true if the name is in the set */
+	public boolean contains(final CharSequence name) {
+		return lookup(name)!=-1;
+		}
+	
+	/** return the hit counter of the name or -1 if the name is not in the set */
+	public int getCount(final CharSequence name) {
+		final int i = lookup(name);
+		return i==-1?-1:this.counts[i];
+		}
+	
+	/** increment and return the hit counter of the name, or return -1 if the name is not in the set */
+	public int incrementAndGet(final CharSequence name) {
+		final int i = lookup(name);
+		return i==-1?-1:++this.counts[i];
+		}
+	
+	/** remove a name. return true if the name was in the set */
+	public boolean remove(final CharSequence name) {
+		final int i = lookup(name);
+		if(i==-1) return false;
+		this.counts[i] = REMOVED;
+		this.size--;
+		return true;
+		}
+	
+	/** rebuild the table without the removed names */
+	private void rehash(int newCapacity) {
+		final long[] oldAddresses = this.addresses;
+		final int[] oldHashes = this.hashes;
+		final int[] oldCounts = this.counts;
+		while(this.size + 1 > newCapacity * LOAD_FACTOR) newCapacity*=2;
+		allocateTable(newCapacity);
+		final int mask = newCapacity - 1;
+		for(int j=0;j< oldAddresses.length;j++) {
+			if(oldAddresses[j]==0L || oldCounts[j]==REMOVED) continue;
+			/* the low bits of the hash are not stored: compute the hash again */
+			final long h = hashAt(oldAddresses[j]-1L);
+			int i = (int)h & mask;
+			while(this.addresses[i]!=0L) i = (i+1) & mask;
+			this.addresses[i] = oldAddresses[j];
+			this.hashes[i] = oldHashes[j];
+			this.counts[i] = oldCounts[j];
+			this.used++;
+			}
+		}
+	
+	/** compute the hash of a name in the arena */
+	private long hashAt(long address) {
+		final ByteBuffer buf = chunk(address);
+		final int off = offset(address);
+		final int len = buf.getShort(off) & 0xFFFF;
+		long h = 0xcbf29ce484222325L;
+		for(int i=0;i< len;i++) {
+			h ^= (buf.get(off+2+i) & 0xFF);
+			h *= 0x100000001b3L;
+			}
+		return mix(h);
+		}
+	
+	/** add a new name to the Bloom filter if it is still large enough, otherwise it will be rebuilt */
+	private void addToBloom(long h) {
+		if(this.bloomIsDirty) return;
+		if(this.bloom.length * 64L < (long)this.size * BLOOM_BITS_PER_NAME / 2L) {
+			this.bloomIsDirty = true;
+			return;
+			}
+		setBloomBits(h);
+		}
+	
+	private void setBloomBits(long h) {
+		final long nbits = this.bloom.length * 64L;
+		for(int k=0;k<3;k++) {
+			final long bit = (h & Long.MAX_VALUE) % nbits;
+			this.bloom[(int)(bit>>>6)] |= (1L << (bit & 63));
+			h = mix(h + 0x9e3779b97f4a7c15L);
+			}
+		}
+	
+	private void buildBloom() {
+		final long nBits = Math.max(64L, (long)this.size * BLOOM_BITS_PER_NAME);
+		this.bloom = new long[(int)Math.min(Integer.MAX_VALUE - 8, (nBits + 63)/64)];
+		for(int j=0;j< this.addresses.length;j++) {
+			if(this.addresses[j]==0L || this.counts[j]==REMOVED) continue;
+			setBloomBits(hashAt(this.addresses[j]-1L));
+			}
+		this.bloomIsDirty = false;
+		}
+	
+	private boolean bloomMayContain(long h) {
+		final long nbits = this.bloom.length * 64L;
+		for(int k=0;k<3;k++) {
+			final long bit = (h & Long.MAX_VALUE) % nbits;
+			if((this.bloom[(int)(bit>>>6)] & (1L << (bit & 63)))==0L) return false;
+			h = mix(h + 0x9e3779b97f4a7c15L);
+			}
+		return true;
+		}
+	
+	/** return an estimation of the memory used by this set, in bytes */
+	public long getMemoryUsage() {
+		long n = this.addresses.length * (8L + 4L + 4L);
+		for(final ByteBuffer b:this.chunks) n+= b.capacity();
+		if(this.bloom!=null) n+= this.bloom.length*8L;
+		return n;
+		}
+	
+	@Override
+	public String toString() {
+		return "ReadNameSet(size:"+size()+" offHeap:"+isOffHeap()+")";
+		}
+	}
@@ -55,6 +55,7 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.BgzfStreamFactory;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.StringUtils;
@@ -131,6 +132,11 @@ private final JCommander jcommander = new MyJCommander();
 @Parameter(description = "Files")
 private List<String> files = new ArrayList<>();
 
+@Parameter(names={"--io-threads"},description="Number of threads used to inflate/deflate the BGZF files opened by the input/output methods of this tool (not by htsjdk). When it is greater than 1, the '.gz' files written by those methods are BGZF compressed. A value lower than 1 means use all procs available. Default: 1 or the value of the java property 'jvarkit.io.threads'.")
+private Integer ioThreads = null;
+/** opens the BGZF streams of this instance, set by --io-threads */
+private BgzfStreamFactory bgzfStreamFactory = BgzfStreamFactory.getDefault();
+
 private String programName="";
 
 public static class CompressionArgs
@@ -506,6 +512,7 @@ protected Status parseArgs(final String args[])
 		return Status.EXIT_FAILURE;
 	 	}
 	
+	 if (this.ioThreads!=null) this.bgzfStreamFactory = new BgzfStreamFactory(this.ioThreads);
 	 if (this.usageBuilder.shouldPrintUsage()) return Status.PRINT_HELP;
 	 if (this.usageBuilder.print_version) return Status.PRINT_VERSION;
 	 return Status.OK;
@@ -530,17 +537,22 @@ protected VariantContextWriter openVariantContextWriter(final File outorNull) th
 	}
 
 
+/** factory opening the BGZF streams of this instance, see --io-threads */
+protected BgzfStreamFactory getBgzfStreamFactory() {
+	return this.bgzfStreamFactory;
+}
+
 protected InputStream openInputStream(final String inOrNull) throws IOException {
 	return(inOrNull==null?
 			stdin():
-			IOUtils.openURIForReading(inOrNull)
+			IOUtils.openURIForReading(inOrNull, getBgzfStreamFactory())
 			);
 }
 
 protected BufferedReader openBufferedReader(final String inOrNull) throws IOException {
 	return(inOrNull==null?
 			new BufferedReader(new InputStreamReader(stdin())):
-			IOUtils.openURIForBufferedReading(inOrNull)
+			IOUtils.openURIForBufferedReading(inOrNull, getBgzfStreamFactory())
 			);
 	}
 
@@ -824,7 +836,7 @@ protected java.io.PrintWriter openPathOrStdoutAsPrintWriter(final Path out) thro
 	{
 	if(out!=null)
 		{
-		return IOUtils.openPathForPrintWriter(out);
+		return IOUtils.openPathForPrintWriter(out, getBgzfStreamFactory());
 		}
 	else
 		{
@@ -844,7 +856,7 @@ protected java.io.PrintStream openPathOrStdoutAsPrintStream(final Path out) thro
 	{
 	if(out!=null)
 		{
-		return new PrintStream(IOUtils.openPathForWriting(out));
+		return new PrintStream(IOUtils.openPathForWriting(out, getBgzfStreamFactory()));
 		}
 	else
 		{
@@ -864,7 +876,7 @@ protected java.io.OutputStream openPathOrStdoutAsStream(final Path out) throws j
 	{
 	if(out!=null)
 		{
-		return  IOUtils.openPathForWriting(out);
+		return  IOUtils.openPathForWriting(out, getBgzfStreamFactory());
 		}
 	else
 		{
@@ -987,7 +999,7 @@ protected int doVcfToVcfMultipleStream(
 		if(inputName==null) {
 			lineIter = com.github.lindenb.jvarkit.io.IOUtils.openStreamForLineIterator(stdin());
 		} else {
-			lineIter = com.github.lindenb.jvarkit.io.IOUtils.openURIForLineIterator(inputName);
+			lineIter = com.github.lindenb.jvarkit.io.IOUtils.openURIForLineIterator(inputName, getBgzfStreamFactory());
 		}
 		if(!lineIter.hasNext()) {
 			LOG.warn("No input found. Couldn't read any VCF header file");
@@ -0,0 +1,213 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import htsjdk.samtools.fastq.FastqRecord;
+
+/**
+ * A batch of FASTQ records filled by {@link FastqByteReader}.
+ * The records are not decoded: they are stored as offsets in a shared byte buffer
+ * and are converted to {@link FastqRecord} only on demand.
+ * A batch is not thread-safe but it can be handed to a worker thread once it's been filled.
+ */
+public class FastqBatch
+	{
+	/** number of offsets per record */
+	private static final int N_OFFSETS = 6;
+	private static final int NAME_START = 0;
+	private static final int NAME_END = 1;
+	private static final int SEQ_START = 2;
+	private static final int SEQ_LEN = 3;
+	private static final int PLUS_END = 4;
+	private static final int QUAL_START = 5;
+
+	byte[] data;
+	/** number of bytes used in data */
+	int length = 0;
+	private int[] offsets;
+	private int count = 0;
+	
+	public FastqBatch() {
+		this(FastqByteReader.DEFAULT_BUFFER_SIZE);
+		}
+	
+	public FastqBatch(final int bufferSize) {
+		this.data = new byte[Math.max(1024,bufferSize)];
+		this.offsets = new int[1024 * N_OFFSETS];
+		}
+	
+	/** remove all the records */
+	public void clear() {
+		this.count = 0;
+		this.length = 0;
+		}
+	
+	/** register a new record. Offsets are given in 'data' */
+	void add(final int nameStart,final int nameEnd,final int seqStart,final int seqLen,final int plusEnd,final int qualStart) {
+		int i = this.count * N_OFFSETS;
+		if(i + N_OFFSETS > this.offsets.length) {
+			this.offsets = Arrays.copyOf(this.offsets, this.offsets.length*2);
+			}
+		this.offsets[i++] = nameStart;
+		this.offsets[i++] = nameEnd;
+		this.offsets[i++] = seqStart;
+		this.offsets[i++] = seqLen;
+		this.offsets[i++] = plusEnd;
+		this.offsets[i  ] = qualStart;
+		this.count++;
+		}
+	
+	private int offset(final int idx,final int field) {
+		if(idx<0 || idx>=this.count) throw new IndexOutOfBoundsException("0<="+idx+"<"+this.count);
+		return this.offsets[idx * N_OFFSETS + field];
+		}
+	
+	/** number of records in this batch */
+	public int size() {
+		return this.count;
+		}
+	
+	public boolean isEmpty() {
+		return this.count==0;
+		}
+	
+	/** the shared buffer. Use the get*Start/get*Length methods to locate the records in this buffer. Do not modify. */
+	public byte[] getBuffer() {
+		return this.data;
+		}
+	
+	/** start of the read name in the buffer, without the leading '@' */
+	public int getNameStart(final int idx) {
+		return offset(idx,NAME_START);
+		}
+	
+	/** length of the read name, without the leading '@' */
+	public int getNameLength(final int idx) {
+		return offset(idx,NAME_END) - offset(idx,NAME_START);
+		}
+	
+	/** start of the bases in the buffer */
+	public int getSequenceStart(final int idx) {
+		return offset(idx,SEQ_START);
+		}
+	
+	/** number of bases, it's also the number of qualities */
+	public int getSequenceLength(final int idx) {
+		return offset(idx,SEQ_LEN);
+		}
+	
+	/** start of the qualities in the buffer */
+	public int getQualityStart(final int idx) {
+		return offset(idx,QUAL_START);
+		}
+	
+	/** number of qualities, it's also the number of bases */
+	public int getQualityLength(final int idx) {
+		return getSequenceLength(idx);
+		}
+	
+	/** get the i-th base of a record */
+	public byte getBase(final int idx,final int i) {
+		return this.data[getSequenceStart(idx) + i];
+		}
+	
+	/** get the i-th quality character (phred+33) of a record */
+	public byte getQuality(final int idx,final int i) {
+		return this.data[getQualityStart(idx) + i];
+		}
+	
+	private String string(final int start,final int len) {
+		return new String(this.data, start, len, StandardCharsets.ISO_8859_1);
+		}
+	
+	public String getReadName(final int idx) {
+		return string(getNameStart(idx),getNameLength(idx));
+		}
+	
+	public String getReadString(final int idx) {
+		return string(getSequenceStart(idx),getSequenceLength(idx));
+		}
+	
+	public String getBaseQualityString(final int idx) {
+		return string(getQualityStart(idx),getQualityLength(idx));
+		}
+	
+	/** quality header, without the leading '+' */
+	public String getBaseQualityHeader(final int idx) {
+		final int start = getSequenceStart(idx) + getSequenceLength(idx);
+		int i = start;
+		while(this.data[i]!='+') i++;
+		return string(i+1, offset(idx,PLUS_END) - (i+1));
+		}
+	
+	/** convert the idx-th record to a {@link FastqRecord} */
+	public FastqRecord toFastqRecord(final int idx) {
+		return new FastqRecord(
+			getReadName(idx),
+			getReadString(idx),
+			getBaseQualityHeader(idx),
+			getBaseQualityString(idx)
+			);
+		}
+	
+	/** returns a view of this batch as a list of {@link FastqRecord}. Records are converted on each call to get */
+	public List<FastqRecord> asFastqRecords() {
+		return new AbstractList<FastqRecord>() {
+			@Override
+			public FastqRecord get(int index) {
+				return toFastqRecord(index);
+				}
+			@Override
+			public int size() {
+				return FastqBatch.this.size();
+				}
+			};
+		}
+	
+	/** write the idx-th record as four lines of FASTQ */
+	public void write(final int idx,final OutputStream out) throws IOException {
+		out.write('@');
+		out.write(this.data, getNameStart(idx), getNameLength(idx));
+		out.write('\n');
+		out.write(this.data, getSequenceStart(idx), getSequenceLength(idx));
+		out.write('\n');
+		out.write('+');
+		out.write('\n');
+		out.write(this.data, getQualityStart(idx), getQualityLength(idx));
+		out.write('\n');
+		}
+	
+	@Override
+	public String toString() {
+		return "FastqBatch(size:"+size()+" bytes:"+this.length+")";
+		}
+	}
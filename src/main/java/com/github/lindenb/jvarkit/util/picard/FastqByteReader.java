@@ -0,0 +1,298 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+
+/**
+ * A FASTQ parser working on bytes: it scans a buffer for the boundaries of the records
+ * and fills {@link FastqBatch}es without creating any String.
+ * Unlike {@link FourLinesFastqReader}, there is no line-by-line decoding, so this reader is
+ * much faster when only a few fields of the records are needed.
+ * The reading methods are synchronized, so several worker threads can pull batches from the same reader.
+ */
+public class FastqByteReader implements Closeable
+	{
+	public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+	public static final int DEFAULT_BATCH_SIZE = 10_000;
+	/** min number of bytes asked to the input stream */
+	private static final int MIN_READ_SIZE = 8192;
+	
+	private final InputStream in;
+	private final String source;
+	/** bytes of an incomplete record, moved to the next batch */
+	private byte[] carry = new byte[0];
+	private int carryLength = 0;
+	private boolean eof = false;
+	private long nRecords = 0L;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	/** mean size of the records of the last batch, used to read not much more than the records of a batch */
+	private int bytesPerRecord = 0;
+	/** the batch returned by {@link #readBatch(int)} */
+	private FastqBatch reusedBatch = null;
+	
+	public FastqByteReader(final Path path) throws IOException
+		{
+		this.in = IOUtils.openPathForReading(path);
+		this.source = path.toString();
+		}
+	
+	/** the input stream must be uncompressed */
+	public FastqByteReader(final InputStream in)
+		{
+		this.in = in;
+		this.source = "<stream>";
+		}
+	
+	/** set the initial size of the buffers of the batches created by this reader */
+	public FastqByteReader setBufferSize(final int bufferSize)
+		{
+		this.bufferSize = Math.max(1024, bufferSize);
+		return this;
+		}
+	
+	/** number of records read so far */
+	public synchronized long getRecordCount()
+		{
+		return this.nRecords;
+		}
+	
+	/** read at most 'maxRecords' records. The returned batch is reused by the next call. returns null at the end of the input */
+	public synchronized FastqBatch readBatch(final int maxRecords) throws IOException
+		{
+		if(this.reusedBatch==null) this.reusedBatch = new FastqBatch(this.bufferSize);
+		return readBatch(this.reusedBatch, maxRecords)?this.reusedBatch:null;
+		}
+	
+	/**
+	 * fill 'batch' with at most 'maxRecords' records. The batch can be reused.
+	 * The batch may contain less records if the buffer of the batch is full.
+	 * @return false if there is no more record
+	 */
+	public synchronized boolean readBatch(final FastqBatch batch,final int maxRecords) throws IOException
+		{
+		batch.clear();
+		if(batch.data.length < 2*this.carryLength) {
+			batch.data = new byte[2*this.carryLength];
+			}
+		System.arraycopy(this.carry, 0, batch.data, 0, this.carryLength);
+		batch.length = this.carryLength;
+		this.carryLength = 0;
+		
+		final int max = Math.max(1, maxRecords);
+		int pos = 0;
+		for(;;)
+			{
+			final int end = parseRecord(batch, pos, this.eof);
+			if(end>=0) {
+				pos = end;
+				if(batch.size()>=max) break;
+				continue;
+				}
+			if(this.eof) break;
+			if(batch.length == batch.data.length) {
+				/* buffer is full: return the complete records, or grow the buffer for a very large record */
+				if(batch.size()>0) break;
+				final byte[] array = new byte[batch.data.length*2];
+				System.arraycopy(batch.data, 0, array, 0, batch.length);
+				batch.data = array;
+				}
+			/* don't read much more than the missing records: the extra bytes are copied to the next batch */
+			final long wanted = (long)this.bytesPerRecord * (max - batch.size());
+			final int n = this.in.read(batch.data, batch.length, (int)Math.min(batch.data.length - batch.length, Math.max(MIN_READ_SIZE, wanted)));
+			if(n==-1) {
+				this.eof = true;
+				}
+			else
+				{
+				batch.length += n;
+				}
+			}
+		if(this.eof) {
+			/* skip the blank lines at the end of the input */
+			while(pos < batch.length && (batch.data[pos]=='\n' || batch.data[pos]=='\r')) pos++;
+			}
+		/* keep the incomplete record for the next batch */
+		final int remain = batch.length - pos;
+		if(remain>0) {
+			if(this.eof) {
+				throw new IOException("Truncated fastq record after record "+this.nRecords+" in "+this.source);
+				}
+			if(this.carry.length < remain) this.carry = new byte[remain*2];
+			System.arraycopy(batch.data, pos, this.carry, 0, remain);
+			this.carryLength = remain;
+			}
+		batch.length = pos;
+		this.nRecords += batch.size();
+		if(!batch.isEmpty()) this.bytesPerRecord = 1 + pos / batch.size();
+		return !batch.isEmpty();
+		}
+	
+	/** find the end of the line starting at 'i'. returns -1 if the line is missing or incomplete */
+	private static int lineEnd(final byte[] data,int i,final int length,final boolean atEof)
+		{
+		if(i>=length) return -1;
+		while(i< length) {
+			if(data[i]=='\n') return i;
+			i++;
+			}
+		return atEof?length:-1;
+		}
+	
+	/** end of line without '\r' */
+	private static int trimCR(final byte[] data,final int start,final int end)
+		{
+		return end>start && data[end-1]=='\r'?end-1:end;
+		}
+	
+	/**
+	 * parse the record starting at 'pos'
+	 * @return the offset after the record or -1 if the record is incomplete
+	 */
+	private int parseRecord(final FastqBatch batch,int pos,final boolean atEof) throws IOException
+		{
+		final byte[] data = batch.data;
+		final int length = batch.length;
+		/* skip blank lines between the records */
+		while(pos < length && (data[pos]=='\n' || data[pos]=='\r')) pos++;
+		if(pos>=length) return -1;
+		
+		final int nameStart = pos;
+		final int nameEnd = lineEnd(data, nameStart, length, atEof);
+		if(nameEnd<0) return -1;
+		final int seqStart = nameEnd + 1;
+		final int seqEnd = lineEnd(data, seqStart, length, atEof);
+		if(seqEnd<0) return -1;
+		final int plusStart = seqEnd + 1;
+		final int plusEnd = lineEnd(data, plusStart, length, atEof);
+		if(plusEnd<0) return -1;
+		final int qualStart = plusEnd + 1;
+		final int qualEnd = lineEnd(data, qualStart, length, atEof);
+		if(qualEnd<0) return -1;
+		
+		final long recordIndex = this.nRecords + batch.size() + 1;
+		if(data[nameStart]!='@') {
+			throw new IOException("Sequence header must start with '@' in record "+recordIndex+" in "+this.source);
+			}
+		if(data[plusStart]!='+') {
+			throw new IOException("Quality header must start with '+' in record "+recordIndex+" in "+this.source);
+			}
+		final int seqLen = trimCR(data,seqStart,seqEnd) - seqStart;
+		final int qualLen = trimCR(data,qualStart,qualEnd) - qualStart;
+		if(seqLen!=qualLen) {
+			throw new IOException("Sequence and quality line must be the same length in record "+recordIndex+" in "+this.source);
+			}
+		batch.add(nameStart+1, trimCR(data,nameStart,nameEnd), seqStart, seqLen, trimCR(data,plusStart,plusEnd), qualStart);
+		return Math.min(length,qualEnd + 1);
+		}
+	
+	/**
+	 * iterate over batches of at most 'maxRecords' records. Each batch is a new object,
+	 * so it can be given to another thread.
+	 */
+	public CloseableIterator<FastqBatch> batchIterator(final int maxRecords)
+		{
+		return new BatchIterator(maxRecords);
+		}
+	
+	/** iterate over the records, converted to {@link FastqRecord} */
+	public CloseableIterator<FastqRecord> iterator()
+		{
+		return new RecordIterator();
+		}
+	
+	private class BatchIterator extends AbstractIterator<FastqBatch> implements CloseableIterator<FastqBatch>
+		{
+		private final int maxRecords;
+		BatchIterator(final int maxRecords) {
+			this.maxRecords = maxRecords;
+			}
+		@Override
+		protected FastqBatch advance() {
+			try {
+				final FastqBatch batch = new FastqBatch(FastqByteReader.this.bufferSize);
+				return readBatch(batch, this.maxRecords)?batch:null;
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		@Override
+		public void close() {
+			FastqByteReader.this.close();
+			}
+		}
+	
+	private class RecordIterator implements CloseableIterator<FastqRecord>
+		{
+		private final FastqBatch batch = new FastqBatch(FastqByteReader.this.bufferSize);
+		private int index = 0;
+		private boolean done = false;
+		@Override
+		public boolean hasNext() {
+			if(this.done) return false;
+			if(this.index < this.batch.size()) return true;
+			try {
+				this.index = 0;
+				if(!readBatch(this.batch, DEFAULT_BATCH_SIZE)) {
+					this.done = true;
+					return false;
+					}
+				return true;
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		@Override
+		public FastqRecord next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			return this.batch.toFastqRecord(this.index++);
+			}
+		@Override
+		public void close() {
+			FastqByteReader.this.close();
+			}
+		}
+	
+	@Override
+	public void close()
+		{
+		CloserUtil.close(this.in);
+		}
+	}
@@ -26,6 +26,8 @@ package com.github.lindenb.jvarkit.util.samtools;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
 
 import org.apache.commons.jexl2.Expression;
@@ -33,6 +35,7 @@ import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlException;
 
 import com.beust.jcommander.IStringConverter;
+import com.github.lindenb.jvarkit.jexl.JexlToJava;
 
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.SAMRecord;
@@ -70,6 +73,12 @@ public class SamRecordJEXLFilter
 		});
 		};
 	
+	/** JEXL variables that can be translated to java */
+	static final JexlToJava.Dialect DIALECT = new JexlToJava.Dialect("samrecord",SAMRecord.class,null).
+			receiver("record", 0).
+			variable("CLIPPED", JexlToJava.Type.BOOLEAN, "(!arg0.getReadUnmappedFlag() && arg0.getCigar()!=null && arg0.getCigar().isClipped())").
+			valueIfMissing(true);
+	
 	private final String exprStr;
 	private final Expression expr;
 	
@@ -136,8 +145,28 @@ public class SamRecordJEXLFilter
 			}
 		};
 	
+	/** {@link #DEFAULT_FILTER} written in java: it is the default value of many tools, so it must not require a compiler */
+	private static final SamRecordFilter DEFAULT= new SamRecordFilter() {
+		@Override
+		public boolean filterOut(final SAMRecord record) {
+			return record.getMappingQuality()<1 ||
+				record.getDuplicateReadFlag() ||
+				record.getReadFailsVendorQualityCheckFlag() ||
+				record.isSecondaryOrSupplementary();
+			}
+		@Override
+		public boolean filterOut(final SAMRecord first,final SAMRecord second) {
+			return filterOut(first) && filterOut(second);
+			}
+		@Override
+		public String toString()
+			{
+			return DEFAULT_FILTER;
+			}
+		};
+	
    public static SamRecordFilter buildDefault() {
-            return create(DEFAULT_FILTER);
+            return DEFAULT;
             }
 
     public static SamRecordFilter buildAcceptAll() {
@@ -145,8 +174,33 @@ public class SamRecordJEXLFilter
             }
 
 		
+	/** a JEXL expression translated to java */
+	private static class CompiledFilter implements SamRecordFilter {
+		private final String exprStr;
+		private final BiPredicate<SAMRecord,Void> delegate;
+		CompiledFilter(final String exprStr,final BiPredicate<SAMRecord,Void> delegate) {
+			this.exprStr = exprStr;
+			this.delegate = delegate;
+			}
+		@Override
+		public boolean filterOut(final SAMRecord record) {
+			return this.delegate.test(record, null);
+			}
+		@Override
+		public boolean filterOut(final SAMRecord first,final SAMRecord second) {
+			return filterOut(first) && filterOut(second);
+			}
+		@Override
+		public String toString() {
+			return this.exprStr;
+			}
+		}
+	
 	public static SamRecordFilter create(final String expr) {
 		if(StringUtil.isBlank(expr)) return buildAcceptAll();
+		if(expr.trim().equals(DEFAULT_FILTER)) return buildDefault();
+		final Optional<BiPredicate<SAMRecord,Void>> compiled = JexlToJava.compile(DIALECT, expr);
+		if(compiled.isPresent()) return new CompiledFilter(expr, compiled.get());
 		return new SamRecordJEXLFilter(expr);
 		}
 	
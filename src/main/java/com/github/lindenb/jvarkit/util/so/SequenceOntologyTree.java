@@ -30,7 +30,9 @@ package com.github.lindenb.jvarkit.util.so;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -39,6 +41,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 
@@ -68,6 +71,11 @@ public class SequenceOntologyTree
 	private static SequenceOntologyTree INSTANCE=null;
 	private final Map<String,TermImpl> acn2term=new HashMap<>(3000);
 	private final Map<String,TermImpl> label2term=new HashMap<>(3000);
+	/** all terms, indexed by their dense integer id */
+	private final List<TermImpl> id2term=new ArrayList<>(3000);
+	/** allocation-free lookups, built by buildIndex() */
+	private TermIdTable acn2id = null;
+	private TermIdTable label2id = null;
 	
 	
 	public interface Term
@@ -86,16 +94,24 @@ public class SequenceOntologyTree
 		public Set<Term> getAllDescendants();
 		/** return true if term is children of parent */
 		public boolean isChildrenOf(final Term t);
+		/** get the dense index of this term in its tree, in the range [0,tree.size()[ */
+		public int getId();
 		}
 	private class TermImpl implements Term
 		{
+		final int id;
 		final String accession;
 		final int _hash;
 		String label;
 		final Set<Term> parents=new HashSet<>();
 		final Set<Term> children=new HashSet<>();
+		/** ids of the descendants, including self. Set by buildIndex() */
+		BitSet descendants = null;
+		/** ids of the ancestors, including self. Set by buildIndex() */
+		BitSet ancestors = null;
 		
-		TermImpl(final String accession,final String label) {
+		TermImpl(final int id,final String accession,final String label) {
+			this.id = id;
 			this.accession = accession;
 			this._hash = accession.hashCode();
 			this.label = label;/* may be null */
@@ -122,18 +138,27 @@ public class SequenceOntologyTree
 			return Collections.unmodifiableSet(this.children);
 			}
 		
-		/** recursive operation on getChildren, including self */
+		/** recursive operation on getChildren, including self. Returns an unmodifiable view of the precomputed closure */
 		@Override
 		public Set<Term> getAllDescendants()
 			{
-			final Set<Term> set=new HashSet<Term>();
-			_getAllDescendants(this,set);
-			return set;
+			return new TermSet(this.descendants);
 			}
 		/** return true if term is children of parent */
+		@Override
 		public boolean isChildrenOf(final Term t) {
-			return _isChildrenOf(this,t);
+			final TermImpl parent = SequenceOntologyTree.this.toLocalTerm(t);
+			return parent!=null && this.ancestors.get(parent.id);
 			}	
+		
+		@Override
+		public int getId() {
+			return this.id;
+			}
+		
+		SequenceOntologyTree getTree() {
+			return SequenceOntologyTree.this;
+			}
 
 		
 		@Override
@@ -167,23 +192,115 @@ public class SequenceOntologyTree
 	
 
 	
-	private static void _getAllDescendants(final Term term,final Set<Term> set)
+	/** unmodifiable set of terms backed by a bitset of term ids */
+	private class TermSet extends AbstractSet<Term>
 		{
-		set.add(term);
-		for(final Term c:term.getChildren())
-			{
-			_getAllDescendants(c,set);
+		private final BitSet ids;
+		TermSet(final BitSet ids) {
+			this.ids = ids;
+			}
+		@Override
+		public boolean contains(final Object o) {
+			if(!(o instanceof Term)) return false;
+			final TermImpl t = toLocalTerm(Term.class.cast(o));
+			return t!=null && this.ids.get(t.id);
+			}
+		@Override
+		public int size() {
+			return this.ids.cardinality();
+			}
+		@Override
+		public Iterator<Term> iterator() {
+			return new Iterator<Term>() {
+				int i = ids.nextSetBit(0);
+				@Override
+				public boolean hasNext() {
+					return i>=0;
+					}
+				@Override
+				public Term next() {
+					if(i<0) throw new NoSuchElementException();
+					final Term t = id2term.get(i);
+					i = ids.nextSetBit(i+1);
+					return t;
+					}
+				};
 			}
 		}
-
-	private static boolean _isChildrenOf(final Term term,final Term parent)
+	
+	/** open-addressing table mapping a CharSequence to a term id. Lookups don't allocate */
+	private static class TermIdTable
 		{
-		if(parent.equals(term)) return true;
-		for(final Term c:parent.getChildren())
-			{
-			if(_isChildrenOf(term,c)) return true;
+		private final String[] keys;
+		private final int[] ids;
+		private final int mask;
+		TermIdTable(final int capacity) {
+			int n = 16;
+			while(n < capacity*2) n<<=1;
+			this.keys = new String[n];
+			this.ids = new int[n];
+			this.mask = n-1;
+			}
+		private static int hash(final CharSequence s) {
+			int h = 0;
+			for(int i=0;i< s.length();++i) h = 31*h + s.charAt(i);
+			return h ^ (h>>>16);
+			}
+		void put(final String key,final int id) {
+			int i = hash(key) & this.mask;
+			while(this.keys[i]!=null && !this.keys[i].equals(key)) i = (i+1) & this.mask;
+			this.keys[i] = key;
+			this.ids[i] = id;
+			}
+		int get(final CharSequence key) {
+			int i = hash(key) & this.mask;
+			for(;;) {
+				final String k = this.keys[i];
+				if(k==null) return -1;
+				if(k.contentEquals(key)) return this.ids[i];
+				i = (i+1) & this.mask;
+				}
+			}
+		}
+	
+	/** returns the term of this tree having the same accession as 't' or null */
+	private TermImpl toLocalTerm(final Term t) {
+		if(t==null) return null;
+		if(t instanceof TermImpl && TermImpl.class.cast(t).getTree()==this) return TermImpl.class.cast(t);
+		return this.acn2term.get(t.getAcn());
+		}
+	
+	/** fill the descendants of 't' , returns the closure */
+	private BitSet fillDescendants(final TermImpl t) {
+		if(t.descendants!=null) return t.descendants;
+		final BitSet set = new BitSet(this.id2term.size());
+		set.set(t.id);
+		t.descendants = set;/* set before recursion, protects against cycles */
+		for(final Term c: t.children) {
+			set.or(fillDescendants(TermImpl.class.cast(c)));
+			}
+		return set;
+		}
+	
+	/** called once the tree is loaded: precompute the ancestors/descendants closures and the lookup tables */
+	private void buildIndex() {
+		final int n = this.id2term.size();
+		for(final TermImpl t: this.id2term) {
+			t.descendants = null;
+			t.ancestors = new BitSet(n);
+			}
+		for(final TermImpl t: this.id2term) {
+			final BitSet set = fillDescendants(t);
+			for(int i = set.nextSetBit(0); i>=0; i = set.nextSetBit(i+1)) {
+				this.id2term.get(i).ancestors.set(t.id);
+				}
+			}
+		this.acn2id = new TermIdTable(n);
+		this.label2id = new TermIdTable(n);
+		for(final TermImpl t: this.id2term) {
+			this.acn2id.put(t.accession, t.id);
+			if(t.label!=null) this.label2id.put(t.label, t.id);
 			}
-		return false;
 		}
 	
 	/*
@@ -199,7 +316,8 @@ public class SequenceOntologyTree
 		{
 		TermImpl term = this.acn2term.get(acn);
 		if(term ==null) {
-			term =new TermImpl(acn, label);
+			term =new TermImpl(this.id2term.size(),acn, label);
+			this.id2term.add(term);
 			this.acn2term.put(acn, term);
 			this.label2term.put(label, term);
 			}
@@ -214,7 +332,8 @@ public class SequenceOntologyTree
 		for(final String parentAcn: parentAcns) {
 			TermImpl parentTerm = this.acn2term.get(parentAcn);
 			if(parentTerm==null) {
-				parentTerm =new TermImpl(parentAcn, null);
+				parentTerm =new TermImpl(this.id2term.size(),parentAcn, null);
+				this.id2term.add(parentTerm);
 				this.acn2term.put(parentAcn, parentTerm);
 				}
 			parentTerm.children.add(term);
@@ -243,6 +362,38 @@ public class SequenceOntologyTree
 		return  this.label2term.get(normalizeName(s));
 		}
 	
+	/** get the term id for this accession, or -1 if not found. Doesn't allocate */
+	public int getTermIdByAcn(final CharSequence s)
+		{
+		return this.acn2id.get(s);
+		}
+	
+	/** get the term id for this label, or -1 if not found. Same normalization as getTermByLabel. Doesn't allocate if the label is found as is */
+	public int getTermIdByLabel(final CharSequence s)
+		{
+		final int id = this.label2id.get(s);
+		if(id!=-1) return id;
+		return this.label2id.get(normalizeName(s.toString()));
+		}
+	
+	/** get a term by its id */
+	public Term getTermById(final int id)
+		{
+		return this.id2term.get(id);
+		}
+	
+	/** return true if term 'childId' is 'ancestorId' or one of its descendants. O(1) */
+	public boolean isDescendantOf(final int childId,final int ancestorId)
+		{
+		return this.id2term.get(ancestorId).descendants.get(childId);
+		}
+	
+	/** number of terms in this tree */
+	public int size()
+		{
+		return this.id2term.size();
+		}
+	
 	private SequenceOntologyTree()
 		{
 		
@@ -2483,6 +2634,7 @@ public class SequenceOntologyTree
 			if(t.label==null) throw new JvarkitException.ProgrammingError("term "+t.accession+" has no label");
 			if(t!=tree.getTermByLabel(t.label)) throw new JvarkitException.ProgrammingError("???");
 		}
+		tree.buildIndex();
 		return tree;
 	 }
 		
@@ -2600,6 +2752,7 @@ public class SequenceOntologyTree
 					child.parents.add(parent);
 					}
 				final SequenceOntologyTree t2 = this.tree;
+				t2.buildIndex();
 				this.tree = null;
 				this.uri2terms.clear();
 				return t2;
@@ -24,12 +24,16 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.IStringConverter;
+import com.github.lindenb.jvarkit.jexl.JexlToJava;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -48,6 +52,18 @@ public class JexlGenotypePredicate implements BiPredicate<VariantContext,Genotyp
 			"See https://gatkforums.broadinstitute.org/gatk/discussion/1255 "
 			;
 	
+	/** JEXL variables of htsjdk's GenotypeJEXLContext that can be translated to java.
+	 * Genotype attributes shadow the variant attributes, so unknown identifiers are not translated. */
+	static final JexlToJava.Dialect DIALECT = new JexlToJava.Dialect("genotype",VariantContext.class,Genotype.class).
+			receiver("vc", 0).
+			receiver("g", 1).
+			variable("CHROM", JexlToJava.Type.STRING, "arg0.getContig()").
+			variable("POS", JexlToJava.Type.NUMBER, "arg0.getStart()").
+			variable("QUAL", JexlToJava.Type.NUMBER, "(-10.0 * arg0.getLog10PError())").
+			variable("N_ALLELES", JexlToJava.Type.NUMBER, "arg0.getNAlleles()").
+			variable("TYPE", JexlToJava.Type.STRING, "arg0.getType().toString()").
+			valueIfMissing(false);
+	
 	public static class Converter
 	implements IStringConverter<BiPredicate<VariantContext,Genotype>>
 		{
@@ -79,18 +95,41 @@ public class JexlGenotypePredicate implements BiPredicate<VariantContext,Genotyp
 				collect(Collectors.toList());
 		if( expressions.isEmpty()) return ACCEPT_ALL;
 		
-		final List<String> dummyNames = expressions.stream().
+		/* try to translate the JEXL expressions to java, keep the others for the JEXL engine */
+		final List<BiPredicate<VariantContext,Genotype>> compiled = new ArrayList<>();
+		final List<String> remains = new ArrayList<>();
+		for(final String expr : expressions) {
+			final Optional<BiPredicate<VariantContext,Genotype>> pred = JexlToJava.compile(DIALECT, expr);
+			if(pred.isPresent()) {
+				compiled.add(pred.get());
+				}
+			else
+				{
+				remains.add(expr);
+				}
+			}
+		
+		final List<String> dummyNames = remains.stream().
 				map(S->"JEXLGT"+(++ID_GENERATOR)).
 				collect(Collectors.toList());
-		return new JexlGenotypePredicate(VariantContextUtils.initializeMatchExps(dummyNames, expressions));
+		return new JexlGenotypePredicate(
+				remains.isEmpty()?Collections.emptyList():VariantContextUtils.initializeMatchExps(dummyNames, remains),
+				compiled
+				);
 	}
 	
 	private final List<JexlVCMatchExp> jexlVCMatchExps; 
-	private JexlGenotypePredicate(final List<JexlVCMatchExp> jexlVCMatchExps) {
+	private final List<BiPredicate<VariantContext,Genotype>> compiledPredicates;
+	private JexlGenotypePredicate(final List<JexlVCMatchExp> jexlVCMatchExps,final List<BiPredicate<VariantContext,Genotype>> compiledPredicates) {
 		this.jexlVCMatchExps = jexlVCMatchExps;
+		this.compiledPredicates = compiledPredicates;
 		}
 	@Override
 	public boolean test(final VariantContext ctx,Genotype gt) {
+		for(final BiPredicate<VariantContext,Genotype> pred:this.compiledPredicates) {
+			if(pred.test(ctx, gt)) return true;
+			}
+		if(this.jexlVCMatchExps.isEmpty()) return false;
 		return VariantContextUtils.match(ctx,gt,this.jexlVCMatchExps).
 			values().
 			stream().
@@ -99,6 +138,7 @@ public class JexlGenotypePredicate implements BiPredicate<VariantContext,Genotyp
 	@Override
 	public String toString() {
 		return getClass().getName()+":"+
+					(this.compiledPredicates.isEmpty()?"":this.compiledPredicates.size()+" compiled expression(s);")+
 					this.jexlVCMatchExps.
 					stream().
 					map(x->x.toString()).
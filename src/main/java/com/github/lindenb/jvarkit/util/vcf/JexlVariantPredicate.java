@@ -24,12 +24,17 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.IStringConverter;
+import com.github.lindenb.jvarkit.jexl.JexlToJava;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.util.StringUtil;
@@ -50,6 +55,23 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 			"See https://gatkforums.broadinstitute.org/gatk/discussion/1255 "
 			;
 	
+	/** JEXL variables of htsjdk's VariantJEXLContext that can be translated to java */
+	static final JexlToJava.Dialect DIALECT = new JexlToJava.Dialect("variant",VariantContext.class,null).
+			receiver("vc", 0).
+			variable("CHROM", JexlToJava.Type.STRING, "arg0.getContig()").
+			variable("POS", JexlToJava.Type.NUMBER, "arg0.getStart()").
+			variable("QUAL", JexlToJava.Type.NUMBER, "(-10.0 * arg0.getLog10PError())").
+			variable("N_ALLELES", JexlToJava.Type.NUMBER, "arg0.getNAlleles()").
+			variable("TYPE", JexlToJava.Type.STRING, "arg0.getType().toString()").
+			reserved("FILTER","ALLELES","homRefCount","hetCount","homVarCount","noCallCount","g","GT","GQ").
+			unknownIdentifier(S->"attribute(arg0,\""+S+"\")").
+			helpers("private static Object attribute(final htsjdk.variant.variantcontext.VariantContext vc,final String key) {\n"+
+					"\tif(vc.hasAttribute(key)) return vc.getAttribute(key);\n"+
+					"\tif(vc.getFilters().contains(key)) return \"1\";\n"+
+					"\tthrow new "+JexlToJava.MissingValueException.class.getCanonicalName()+"(key);\n"+
+					"\t}\n").
+			valueIfMissing(false);
+	
 	private static final Predicate<VariantContext> ACCEPT_ALL=new Predicate<VariantContext>() {
 		@Override
 		public boolean test(VariantContext t) {
@@ -82,11 +104,28 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 				collect(Collectors.toList());
 		if( expressions.isEmpty()) return ACCEPT_ALL;
 		
-		final List<String> dummyNames = expressions.stream().
+		/* try to translate the JEXL expressions to java, keep the others for the JEXL engine */
+		final List<Predicate<VariantContext>> compiled = new ArrayList<>();
+		final List<String> remains = new ArrayList<>();
+		for(final String expr : expressions) {
+			final Optional<BiPredicate<VariantContext,Void>> pred = JexlToJava.compile(DIALECT, expr);
+			if(pred.isPresent()) {
+				compiled.add(new CompiledPredicate(expr, pred.get()));
+				}
+			else
+				{
+				remains.add(expr);
+				}
+			}
+		if(remains.isEmpty() && compiled.size()==1) return compiled.get(0);
+		
+		final List<String> dummyNames = remains.stream().
 				map(S->"JEXL"+(++ID_GENERATOR)).
 				collect(Collectors.toList());
 		try {
-			return new JexlVariantPredicate(VariantContextUtils.initializeMatchExps(dummyNames, expressions));
+			return new JexlVariantPredicate(
+					remains.isEmpty()?Collections.emptyList():VariantContextUtils.initializeMatchExps(dummyNames, remains),
+					compiled);
 			}
 		catch(final Throwable err) {
 			LOG.error(err);
@@ -94,14 +133,38 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 			}
 	}
 	
+	/** a JEXL expression translated to java */
+	private static class CompiledPredicate implements Predicate<VariantContext> {
+		private final String expr;
+		private final BiPredicate<VariantContext,Void> delegate;
+		CompiledPredicate(final String expr,final BiPredicate<VariantContext,Void> delegate) {
+			this.expr = expr;
+			this.delegate = delegate;
+			}
+		@Override
+		public boolean test(final VariantContext ctx) {
+			return this.delegate.test(ctx, null);
+			}
+		@Override
+		public String toString() {
+			return "compiled:"+this.expr;
+			}
+		}
+	
 	private final List<JexlVCMatchExp> jexlVCMatchExps;
+	private final List<Predicate<VariantContext>> compiledPredicates;
 	
-	private JexlVariantPredicate(final List<JexlVCMatchExp> jexlVCMatchExps) {
+	private JexlVariantPredicate(final List<JexlVCMatchExp> jexlVCMatchExps,final List<Predicate<VariantContext>> compiledPredicates) {
 		this.jexlVCMatchExps = jexlVCMatchExps;
+		this.compiledPredicates = compiledPredicates;
 		if(jexlVCMatchExps==null) throw new RuntimeException("jexlVCMatchExps is null");
 		}
 	@Override
 	public boolean test(final VariantContext ctx) {
+		for(final Predicate<VariantContext> pred:this.compiledPredicates) {
+			if(pred.test(ctx)) return true;
+			}
+		if(this.jexlVCMatchExps.isEmpty()) return false;
 		return VariantContextUtils.match(ctx,this.jexlVCMatchExps).
 			values().
 			stream().
@@ -110,6 +173,11 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 	@Override
 	public String toString() {
 		return getClass().getName()+":"+
+					this.compiledPredicates.
+					stream().
+					map(x->x.toString()).
+					collect(Collectors.joining(";"))+
+					(this.compiledPredicates.isEmpty()?"":";")+
 					this.jexlVCMatchExps.
 					stream().
 					map(x->x.toString()).
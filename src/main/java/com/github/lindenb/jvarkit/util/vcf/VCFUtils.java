@@ -61,6 +61,8 @@ import htsjdk.tribble.FeatureCodec;
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.tribble.readers.LineReader;
 import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
@@ -189,6 +191,20 @@ public class VCFUtils
 		}
 	
 	
+	/**
+	 * decode the genotypes of a variant read from a VCF in the current thread.
+	 * The genotypes of such variant are lazily decoded using the codec of the reader,
+	 * which is not thread safe: call this method before sending the variant to another thread.
+	 * @return ctx
+	 */
+	public static VariantContext decodeGenotypes(final VariantContext ctx) {
+		final GenotypesContext gc = ctx.getGenotypes();
+		if(gc instanceof LazyGenotypesContext) {
+			LazyGenotypesContext.class.cast(gc).decode();
+			}
+		return ctx;
+		}
+	
 	/** stringent insertion in VCF header */
 	public static void safeAddMetaDataHeaderLine(final VCFHeader header,final VCFHeaderLine hl){
 		final VCFHeaderLine prev =header.getMetaDataLine(hl.getKey());
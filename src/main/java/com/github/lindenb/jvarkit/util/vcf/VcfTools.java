@@ -146,21 +146,29 @@ public boolean hasSequenceOntologyAccession(final VariantContext ctx,final Strin
 public boolean hasSequenceOntologyTerm(final VariantContext ctx,final SequenceOntologyTree.Term t)
 	{
 	if(t==null) return false;
-	final Set<SequenceOntologyTree.Term> children=t.getAllDescendants();
+	/* isChildrenOf is a lookup in the precomputed closure of the ontology */
 	for(final AnnPredictionParser.AnnPrediction a: getAnnPredictions(ctx)) {
-		if(!Collections.disjoint(a.getSOTerms(),children)) return true;
+		if(hasSequenceOntologyTerm(a.getSOTerms(),t)) return true;
 		}
 	for(final VepPredictionParser.VepPrediction a: getVepPredictions(ctx)) {
-		if(!Collections.disjoint(a.getSOTerms(),children)) return true;
+		if(hasSequenceOntologyTerm(a.getSOTerms(),t)) return true;
 		}
 	for(final SnpEffPredictionParser.SnpEffPrediction a: getSnpEffPredictions(ctx)) {
-		if(!Collections.disjoint(a.getSOTerms(),children)) return true;
+		if(hasSequenceOntologyTerm(a.getSOTerms(),t)) return true;
 		}
 	
 	
 	return false;
 	}
 
+private static boolean hasSequenceOntologyTerm(final Set<SequenceOntologyTree.Term> predictionTerms,final SequenceOntologyTree.Term t)
+	{
+	for(final SequenceOntologyTree.Term so:predictionTerms) {
+		if(so.isChildrenOf(t)) return true;
+		}
+	return false;
+	}
+
 public boolean isMendelianIncompatibility(final Genotype child,final Genotype parent)
 	{
 	if(child==null || parent==null) return false;
@@ -0,0 +1,503 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.variant.sv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.SortingCollection;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+
+/**
+ * A binary index of all the structural variants found in a set of control VCF files.
+ * 
+ * The index is built once with {@link #build}: the variants of all the controls are sorted
+ * and stored, without genotypes, in one compressed block per contig.
+ * When querying, the block of a contig is loaded in memory and its records are
+ * binned using the SAM/UCSC binning scheme. The instance can be queried by several threads.
+ */
+public class StructuralVariantControlsIndex implements Closeable {
+	private static final Logger LOG = Logger.build(StructuralVariantControlsIndex.class).make();
+	/** suggested suffix for the index files */
+	public static final String FILE_SUFFIX = ".svctrl";
+	private static final int MAGIC = 0x53564331;
+	/** max position handled by the binning scheme */
+	private static final int MAX_POS = (1 << 29) - 1;
+	private static final int MAX_BIN = 37449;
+	
+	private final RandomAccessFile raf;
+	private final List<String> sources;
+	private final SAMSequenceDictionary dict;
+	private final Map<String,Long> contig2offset = new HashMap<>();
+	/** keep the last loaded contigs, the cases are scanned in order */
+	private final Map<String,ContigData> loaded = new LinkedHashMap<String,ContigData>() {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String,ContigData> eldest) {
+			return size() > 2;
+			}
+		};
+	private final ThreadLocal<VCFCodec> codecs = ThreadLocal.withInitial(()->{
+		final VCFCodec codec = new VCFCodec();
+		codec.setVCFHeader(new VCFHeader(), VCFHeaderVersion.VCF4_2);
+		return codec;
+		});
+	
+	/** a control variant overlapping a query */
+	public class Hit {
+		private final ContigData data;
+		private final int index;
+		private Hit(final ContigData data,final int index) {
+			this.data = data;
+			this.index = index;
+			}
+		/** index of the control file in {@link StructuralVariantControlsIndex#getSources()} */
+		public int getControlIndex() {
+			return this.data.control[this.index];
+			}
+		/** index of the variant in its control file */
+		public int getRank() {
+			return this.data.rank[this.index];
+			}
+		public int getStart() {
+			return this.data.start[this.index];
+			}
+		public int getEnd() {
+			return this.data.end[this.index];
+			}
+		/** INFO/SVTYPE or '.' */
+		public String getSvType() {
+			return this.data.svType[this.index];
+			}
+		/** decode the variant, without genotypes */
+		public VariantContext getVariant() {
+			final int off = this.data.lineOffset[this.index];
+			final int len = this.data.lineOffset[this.index+1] - off;
+			return codecs.get().decode(new String(this.data.lines, off, len, StandardCharsets.UTF_8));
+			}
+		@Override
+		public String toString() {
+			return getSources().get(getControlIndex())+":"+getRank();
+			}
+		}
+	
+	/** the records of one contig, ordered by bin and start */
+	private static class ContigData {
+		int[] start;
+		int[] end;
+		int[] control;
+		int[] rank;
+		String[] svType;
+		byte[] lines;
+		int[] lineOffset;
+		/** index of the first record for each bin */
+		final int[] binOffset = new int[MAX_BIN + 2];
+		}
+	
+	/** a record used when building the index */
+	private static class Record {
+		int tid;
+		int start;
+		int end;
+		int control;
+		int rank;
+		String svType;
+		String line;
+		}
+	
+	private static class RecordCodec extends AbstractDataCodec<Record> {
+		@Override
+		public Record decode(final DataInputStream dis) throws IOException {
+			final Record rec = new Record();
+			rec.tid = dis.readInt();
+			rec.start = dis.readInt();
+			rec.end = dis.readInt();
+			rec.control = dis.readInt();
+			rec.rank = dis.readInt();
+			rec.svType = readString(dis);
+			rec.line = readString(dis);
+			return rec;
+			}
+		@Override
+		public void encode(final DataOutputStream dos, final Record rec) throws IOException {
+			dos.writeInt(rec.tid);
+			dos.writeInt(rec.start);
+			dos.writeInt(rec.end);
+			dos.writeInt(rec.control);
+			dos.writeInt(rec.rank);
+			writeString(dos, rec.svType);
+			writeString(dos, rec.line);
+			}
+		@Override
+		public RecordCodec clone() {
+			return new RecordCodec();
+			}
+		}
+	
+	private static final Comparator<Record> RECORD_COMPARATOR = (A,B)->{
+		int i = Integer.compare(A.tid, B.tid);
+		if(i!=0) return i;
+		i = Integer.compare(A.start, B.start);
+		if(i!=0) return i;
+		i = Integer.compare(A.end, B.end);
+		if(i!=0) return i;
+		i = Integer.compare(A.control, B.control);
+		if(i!=0) return i;
+		return Integer.compare(A.rank, B.rank);
+		};
+	
+	/** SAM specification: bin of the 0-based region [beg,end) */
+	private static int reg2bin(final int beg, int end) {
+		--end;
+		if (beg>>14 == end>>14) return ((1<<15)-1)/7 + (beg>>14);
+		if (beg>>17 == end>>17) return ((1<<12)-1)/7 + (beg>>17);
+		if (beg>>20 == end>>20) return ((1<<9)-1)/7 + (beg>>20);
+		if (beg>>23 == end>>23) return ((1<<6)-1)/7 + (beg>>23);
+		if (beg>>26 == end>>26) return ((1<<3)-1)/7 + (beg>>26);
+		return 0;
+		}
+	
+	/** SAM specification: bins overlapping the 0-based region [beg,end) */
+	private static int[] reg2bins(final int beg, int end) {
+		--end;
+		final int[] list = new int[6 + (end>>26) - (beg>>26) + (end>>23) - (beg>>23) + (end>>20) - (beg>>20) + (end>>17) - (beg>>17) + (end>>14) - (beg>>14)];
+		int i = 0;
+		list[i++] = 0;
+		for (int k = 1 + (beg>>26); k <= 1 + (end>>26); ++k) list[i++] = k;
+		for (int k = 9 + (beg>>23); k <= 9 + (end>>23); ++k) list[i++] = k;
+		for (int k = 73 + (beg>>20); k <= 73 + (end>>20); ++k) list[i++] = k;
+		for (int k = 585 + (beg>>17); k <= 585 + (end>>17); ++k) list[i++] = k;
+		for (int k = 4681 + (beg>>14); k <= 4681 + (end>>14); ++k) list[i++] = k;
+		return list;
+		}
+	
+	private static int clampPos(final int pos) {
+		return Math.max(0, Math.min(MAX_POS, pos));
+		}
+	
+	/**
+	 * build a new index from a list of VCF files. All the VCFs must share the same dictionary
+	 * @param vcfPaths the control VCFs
+	 * @param output the index file
+	 * @param maxRecordsInRam max records in RAM when sorting
+	 * @param tmpDirs temporary directories for sorting
+	 */
+	public static void build(
+			final List<Path> vcfPaths,
+			final Path output,
+			final int maxRecordsInRam,
+			final Path[] tmpDirs
+			) throws IOException {
+		if(vcfPaths.isEmpty()) throw new IllegalArgumentException("no control was defined");
+		SAMSequenceDictionary dict = null;
+		final SortingCollection<Record> sorter = SortingCollection.newInstance(
+				Record.class,
+				new RecordCodec(),
+				RECORD_COMPARATOR,
+				maxRecordsInRam,
+				tmpDirs
+				);
+		sorter.setDestructiveIteration(true);
+		for(int i=0;i< vcfPaths.size();++i) {
+			final Path vcfPath = vcfPaths.get(i);
+			try(VCFFileReader reader = new VCFFileReader(vcfPath, false)) {
+				final VCFHeader header = reader.getFileHeader();
+				final SAMSequenceDictionary dict2 = SequenceDictionaryUtils.extractRequired(header);
+				if(dict==null) {
+					dict = dict2;
+					}
+				else if(!SequenceUtil.areSequenceDictionariesEqual(dict, dict2)) {
+					throw new JvarkitException.DictionariesAreNotTheSame(dict, dict2);
+					}
+				/* sites only: the header has no sample and the genotypes are removed before encoding */
+				final VCFEncoder encoder = new VCFEncoder(new VCFHeader(header.getMetaDataInInputOrder()), true, false);
+				int rank = 0;
+				try(CloseableIterator<VariantContext> iter = reader.iterator()) {
+					while(iter.hasNext()) {
+						final VariantContext ctx = iter.next();
+						final int tid = dict.getSequenceIndex(ctx.getContig());
+						if(tid<0) throw new JvarkitException.ContigNotFoundInDictionary(ctx.getContig(), dict);
+						final Record rec = new Record();
+						rec.tid = tid;
+						rec.start = ctx.getStart();
+						rec.end = Math.max(ctx.getStart(), ctx.getEnd());
+						rec.control = i;
+						rec.rank = rank++;
+						rec.svType = ctx.getAttributeAsString(VCFConstants.SVTYPE, VCFConstants.MISSING_VALUE_v4);
+						rec.line = encoder.encode(new VariantContextBuilder(ctx).noGenotypes().make());
+						sorter.add(rec);
+						}
+					}
+				LOG.info("indexed "+vcfPath+" : "+rank+" variant(s) ("+(i+1)+"/"+vcfPaths.size()+")");
+				}
+			}
+		sorter.doneAdding();
+		
+		try(OutputStream os = new BufferedOutputStream(Files.newOutputStream(output));
+			DataOutputStream dos = new DataOutputStream(os);
+			CloseableIterator<Record> iter = sorter.iterator()) {
+			final ByteArrayOutputStream header = new ByteArrayOutputStream();
+			final DataOutputStream hdos = new DataOutputStream(header);
+			hdos.writeInt(MAGIC);
+			hdos.writeInt(vcfPaths.size());
+			for(final Path p: vcfPaths) IOUtils.writeString(hdos, p.toString());
+			hdos.writeInt(dict.size());
+			for(final SAMSequenceRecord ssr: dict.getSequences()) {
+				IOUtils.writeString(hdos, ssr.getSequenceName());
+				hdos.writeInt(ssr.getSequenceLength());
+				}
+			hdos.flush();
+			header.writeTo(dos);
+			long offset = header.size();
+			
+			final List<Integer> blockTids = new ArrayList<>();
+			final List<Long> blockOffsets = new ArrayList<>();
+			Record rec = iter.hasNext()?iter.next():null;
+			while(rec!=null) {
+				final int tid = rec.tid;
+				final ByteArrayOutputStream block = new ByteArrayOutputStream();
+				final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+				int n = 0;
+				try(DataOutputStream bdos = new DataOutputStream(new DeflaterOutputStream(block,deflater))) {
+					while(rec!=null && rec.tid==tid) {
+						bdos.writeInt(rec.start);
+						bdos.writeInt(rec.end);
+						bdos.writeInt(rec.control);
+						bdos.writeInt(rec.rank);
+						IOUtils.writeString(bdos, rec.svType);
+						final byte[] line = rec.line.getBytes(StandardCharsets.UTF_8);
+						bdos.writeInt(line.length);
+						bdos.write(line);
+						n++;
+						rec = iter.hasNext()?iter.next():null;
+						}
+					}
+				finally {
+					deflater.end();
+					}
+				blockTids.add(tid);
+				blockOffsets.add(offset);
+				dos.writeInt(tid);
+				dos.writeInt(n);
+				dos.writeInt(block.size());
+				block.writeTo(dos);
+				offset += 12L + block.size();
+				}
+			// footer
+			final long footer = offset;
+			dos.writeInt(blockTids.size());
+			for(int i=0;i< blockTids.size();++i) {
+				dos.writeInt(blockTids.get(i));
+				dos.writeLong(blockOffsets.get(i));
+				}
+			dos.writeLong(footer);
+			dos.flush();
+			}
+		finally {
+			sorter.cleanup();
+			}
+		}
+	
+	private StructuralVariantControlsIndex(final Path path) throws IOException {
+		try(InputStream in = new BufferedInputStream(Files.newInputStream(path));
+			DataInputStream dis = new DataInputStream(in)) {
+			if(dis.readInt()!=MAGIC) throw new IOException("not a SV control index: "+path);
+			final int nSources = dis.readInt();
+			final List<String> L = new ArrayList<>(nSources);
+			for(int i=0;i< nSources;++i) L.add(IOUtils.readString(dis));
+			this.sources = Collections.unmodifiableList(L);
+			final int nContigs = dis.readInt();
+			final List<SAMSequenceRecord> ssrs = new ArrayList<>(nContigs);
+			for(int i=0;i< nContigs;++i) {
+				final String contig = IOUtils.readString(dis);
+				ssrs.add(new SAMSequenceRecord(contig, dis.readInt()));
+				}
+			this.dict = new SAMSequenceDictionary(ssrs);
+			}
+		this.raf = new RandomAccessFile(path.toFile(), "r");
+		this.raf.seek(this.raf.length()-8L);
+		this.raf.seek(this.raf.readLong());
+		final int nBlocks = this.raf.readInt();
+		for(int i=0;i< nBlocks;++i) {
+			final int tid = this.raf.readInt();
+			this.contig2offset.put(this.dict.getSequence(tid).getSequenceName(), this.raf.readLong());
+			}
+		}
+	
+	/** open an existing index */
+	public static StructuralVariantControlsIndex open(final Path path) throws IOException {
+		return new StructuralVariantControlsIndex(path);
+		}
+	
+	/** get the paths of the control VCFs that were used to build this index */
+	public List<String> getSources() {
+		return this.sources;
+		}
+	
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return this.dict;
+		}
+	
+	/** load the records of a contig, returns null if there is no record */
+	private synchronized ContigData getContigData(final String contig) throws IOException {
+		if(this.loaded.containsKey(contig)) return this.loaded.get(contig);
+		final Long offset = this.contig2offset.get(contig);
+		if(offset==null) {
+			this.loaded.put(contig, null);
+			return null;
+			}
+		this.raf.seek(offset);
+		this.raf.readInt();//tid
+		final int n = this.raf.readInt();
+		final byte[] compressed = new byte[this.raf.readInt()];
+		this.raf.readFully(compressed);
+		
+		final int[] start = new int[n];
+		final int[] end = new int[n];
+		final int[] control = new int[n];
+		final int[] rank = new int[n];
+		final String[] svType = new String[n];
+		final byte[][] lines = new byte[n][];
+		final int[] bin = new int[n];
+		final Map<String,String> interned = new HashMap<>();
+		long linesLength = 0L;
+		try(DataInputStream dis = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed))))) {
+			for(int i=0;i< n;++i) {
+				start[i] = dis.readInt();
+				end[i] = dis.readInt();
+				control[i] = dis.readInt();
+				rank[i] = dis.readInt();
+				svType[i] = interned.computeIfAbsent(IOUtils.readString(dis), S->S);
+				lines[i] = new byte[dis.readInt()];
+				dis.readFully(lines[i]);
+				linesLength += lines[i].length;
+				bin[i] = reg2bin(clampPos(start[i]-1), clampPos(end[i])+1);
+				}
+			}
+		if(linesLength > Integer.MAX_VALUE - 8) throw new IOException("too many data for contig "+contig);
+		
+		/* counting sort by bin, stable: records remain sorted on start in each bin */
+		final ContigData data = new ContigData();
+		for(int i=0;i< n;++i) data.binOffset[bin[i]+1]++;
+		for(int i=1;i< data.binOffset.length;++i) data.binOffset[i] += data.binOffset[i-1];
+		final int[] fill = Arrays.copyOf(data.binOffset, data.binOffset.length);
+		data.start = new int[n];
+		data.end = new int[n];
+		data.control = new int[n];
+		data.rank = new int[n];
+		data.svType = new String[n];
+		data.lines = new byte[(int)linesLength];
+		data.lineOffset = new int[n+1];
+		final int[] order = new int[n];
+		for(int i=0;i< n;++i) order[fill[bin[i]]++] = i;
+		int lineOffset = 0;
+		for(int j=0;j< n;++j) {
+			final int i = order[j];
+			data.start[j] = start[i];
+			data.end[j] = end[i];
+			data.control[j] = control[i];
+			data.rank[j] = rank[i];
+			data.svType[j] = svType[i];
+			data.lineOffset[j] = lineOffset;
+			System.arraycopy(lines[i], 0, data.lines, lineOffset, lines[i].length);
+			lineOffset += lines[i].length;
+			}
+		data.lineOffset[n] = lineOffset;
+		LOG.debug("loaded "+n+" control SV(s) on "+contig);
+		this.loaded.put(contig, data);
+		return data;
+		}
+	
+	/**
+	 * get the control variants overlapping the region contig:start-end (1-based, inclusive).
+	 * The hits are sorted on the control index and on their rank in the control file
+	 */
+	public List<Hit> query(final String contig,final int start,final int end) throws IOException {
+		final ContigData data = getContigData(contig);
+		if(data==null) return Collections.emptyList();
+		final List<Hit> hits = new ArrayList<>();
+		for(final int bin : reg2bins(clampPos(start-1), clampPos(end)+1)) {
+			for(int i = data.binOffset[bin]; i < data.binOffset[bin+1]; ++i) {
+				if(data.start[i] > end) break;
+				if(data.end[i] < start) continue;
+				hits.add(new Hit(data,i));
+				}
+			}
+		hits.sort((A,B)->{
+			final int i = Integer.compare(A.getControlIndex(), B.getControlIndex());
+			if(i!=0) return i;
+			return Integer.compare(A.getRank(), B.getRank());
+			});
+		return hits;
+		}
+	
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			this.loaded.clear();
+			}
+		this.raf.close();
+		}
+	}
@@ -0,0 +1,196 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.variant.sv;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * Group some calls (CNV, SV...) into clusters.
+ * 
+ * The calls of a contig are sorted on their start and swept from left to right.
+ * An 'active' set holds the calls whose end (+ 'max-distance') was not passed yet,
+ * so each new call is only compared with the calls that can still overlap it.
+ * Two calls are linked if the 'isSame' predicate is true and the clusters are the
+ * connected components of those links (union-find). Contigs are processed in parallel.
+ */
+public class SweepLineClusterer<T extends Locatable> {
+	private final BiPredicate<T,T> isSame;
+	private int maxDistance = 0;
+	private int nThreads = 1;
+	
+	/**
+	 * @param isSame test if two calls on the same contig belong to the same cluster.
+	 * Two calls are never tested if they are distant by more than {@link #getMaxDistance()}
+	 */
+	public SweepLineClusterer(final BiPredicate<T,T> isSame) {
+		this.isSame = isSame;
+		}
+	
+	/** calls distant by more than 'd' bases are never compared. Default is 0: calls must overlap */
+	public SweepLineClusterer<T> setMaxDistance(final int d) {
+		this.maxDistance = Math.max(0, d);
+		return this;
+		}
+	
+	public int getMaxDistance() {
+		return this.maxDistance;
+		}
+	
+	/** number of contigs processed at the same time. A value lower than 1 means use all procs available */
+	public SweepLineClusterer<T> setNumberOfThreads(final int n) {
+		this.nThreads = n<1?Runtime.getRuntime().availableProcessors():n;
+		return this;
+		}
+	
+	public int getNumberOfThreads() {
+		return this.nThreads;
+		}
+	
+	private static int find(final int[] parent,int i) {
+		while(parent[i]!=i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+			}
+		return i;
+		}
+	
+	/**
+	 * cluster the calls of one contig.
+	 * @param calls all the calls must be on the same contig
+	 * @return the clusters, sorted on their first call. The calls of a cluster are sorted on start/end.
+	 */
+	public List<List<T>> clusterContig(final Collection<T> calls) {
+		final List<T> sorted = new ArrayList<>(calls);
+		sorted.sort((A,B)->{
+			final int i = Integer.compare(A.getStart(), B.getStart());
+			if(i!=0) return i;
+			return Integer.compare(A.getEnd(), B.getEnd());
+			});
+		final int n = sorted.size();
+		final int[] parent = new int[n];
+		final PriorityQueue<Integer> active = new PriorityQueue<>(
+				Math.max(1, Math.min(n, 1_000)),
+				(A,B)->Integer.compare(sorted.get(A).getEnd(), sorted.get(B).getEnd())
+				);
+		for(int i=0;i< n;i++) {
+			parent[i] = i;
+			final T call = sorted.get(i);
+			// remove the calls that cannot be linked to this call or to any later call
+			while(!active.isEmpty() && (long)sorted.get(active.peek()).getEnd() + this.maxDistance < call.getStart()) {
+				active.poll();
+				}
+			for(final Integer j: active) {
+				final int rootI = find(parent,i);
+				final int rootJ = find(parent,j);
+				if(rootI==rootJ) continue;
+				if(!this.isSame.test(sorted.get(j), call)) continue;
+				// keep the smallest index as the root
+				if(rootI < rootJ) {
+					parent[rootJ] = rootI;
+					}
+				else
+					{
+					parent[rootI] = rootJ;
+					}
+				}
+			active.add(i);
+			}
+		
+		final List<List<T>> clusters = new ArrayList<>();
+		final int[] root2cluster = new int[n];
+		for(int i=0;i< n;i++) {
+			final int root = find(parent,i);
+			if(root==i) {
+				root2cluster[i] = clusters.size();
+				clusters.add(new ArrayList<>());
+				}
+			clusters.get(root2cluster[root]).add(sorted.get(i));
+			}
+		return clusters;
+		}
+	
+	/**
+	 * cluster all the calls, contig by contig.
+	 * @param calls the calls
+	 * @param contigComparator order of the contigs in the output
+	 * @param finisher converts the clusters of one contig to the output records. Called in the worker threads.
+	 * @param sink receives the records, in the contig order, in the calling thread
+	 */
+	public <R> void clusterByContig(
+			final Collection<T> calls,
+			final Comparator<String> contigComparator,
+			final Function<List<List<T>>,List<R>> finisher,
+			final Consumer<R> sink
+			) {
+		final Map<String,List<T>> contig2calls = new TreeMap<>(contigComparator);
+		for(final T call:calls) {
+			contig2calls.computeIfAbsent(call.getContig(), K->new ArrayList<>()).add(call);
+			}
+		if(this.nThreads<=1 || contig2calls.size()<=1) {
+			for(final List<T> L: contig2calls.values()) {
+				finisher.apply(clusterContig(L)).forEach(sink);
+				}
+			return;
+			}
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.nThreads, contig2calls.size()));
+		try {
+			final List<Future<List<R>>> results = new ArrayList<>(contig2calls.size());
+			for(final List<T> L: contig2calls.values()) {
+				results.add(executor.submit(()->finisher.apply(clusterContig(L))));
+				}
+			for(final Future<List<R>> result: results) {
+				result.get().forEach(sink);
+				}
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof RuntimeException) throw RuntimeException.class.cast(cause);
+			throw new RuntimeException(cause);
+			}
+		finally
+			{
+			executor.shutdownNow();
+			}
+		}
+	}
@@ -0,0 +1,334 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2020 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeType;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFIterator;
+
+/**
+ * Streams the records of a VCF and only decodes CHROM, POS, END, the GT of each sample and, optionally, the DP.
+ * 
+ * For a text VCF, the line is scanned in place: no VariantContext, Genotype or Allele is created and
+ * the other FORMAT fields are skipped. The per-sample arrays are reused from one record to the next, so
+ * the values are only valid until the next call to {@link #next()}.
+ * A {@link VCFIterator} can also be used as a source (e.g. for BCF), the genotypes are then decoded by htsjdk.
+ * 
+ * The genotype type follows the rules of htsjdk {@link Genotype#getType()}.
+ */
+public class GtRecordReader implements Closeable {
+	private final BufferedReader br;
+	private final VCFIterator vcfIterator;
+	private final VCFHeader header;
+	private final List<String> samples;
+	private boolean decodeDepth = false;
+	/* current record */
+	private String contig = null;
+	private int start = -1;
+	private int end = -1;
+	private final GenotypeType[] types;
+	private final boolean[] spanDeletions;
+	private final int[] depths;
+	/** altSpanDel[i] is true if the allele 'i' is '*' */
+	private boolean[] altSpanDel = new boolean[10];
+	/** number of alleles (REF included) of the current record */
+	private int nAlleles = 0;
+	
+	/** read a text VCF */
+	public GtRecordReader(final BufferedReader br) throws IOException {
+		this.br = br;
+		this.vcfIterator = null;
+		this.header = VCFUtils.parseHeader(br).header;
+		this.samples = this.header.getGenotypeSamples();
+		this.types = new GenotypeType[this.samples.size()];
+		this.spanDeletions = new boolean[this.samples.size()];
+		this.depths = new int[this.samples.size()];
+		}
+	
+	/** read the records of a VCFIterator */
+	public GtRecordReader(final VCFIterator vcfIterator) {
+		this.br = null;
+		this.vcfIterator = vcfIterator;
+		this.header = vcfIterator.getHeader();
+		this.samples = this.header.getGenotypeSamples();
+		this.types = new GenotypeType[this.samples.size()];
+		this.spanDeletions = new boolean[this.samples.size()];
+		this.depths = new int[this.samples.size()];
+		}
+	
+	/** also decode the FORMAT/DP field */
+	public GtRecordReader setDecodingDepth(final boolean decodeDepth) {
+		this.decodeDepth = decodeDepth;
+		return this;
+		}
+	
+	public VCFHeader getHeader() {
+		return this.header;
+		}
+	
+	public int getSampleCount() {
+		return this.samples.size();
+		}
+	
+	/** decode the next record. Returns false at the end of the input */
+	public boolean next() throws IOException {
+		if(this.vcfIterator!=null) {
+			if(!this.vcfIterator.hasNext()) return false;
+			decode(this.vcfIterator.next());
+			return true;
+			}
+		for(;;) {
+			final String line = this.br.readLine();
+			if(line==null) return false;
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			decode(line);
+			return true;
+			}
+		}
+	
+	public String getContig() {
+		return this.contig;
+		}
+	
+	public int getStart() {
+		return this.start;
+		}
+	
+	/** END attribute, or the end of the REF allele */
+	public int getEnd() {
+		return this.end;
+		}
+	
+	/** type of the genotype of the sample at index 'sample_idx' */
+	public GenotypeType getType(final int sample_idx) {
+		return this.types[sample_idx];
+		}
+	
+	/** true if one of the called alleles of the sample is the spanning deletion '*' */
+	public boolean hasSpanDeletion(final int sample_idx) {
+		return this.spanDeletions[sample_idx];
+		}
+	
+	/** FORMAT/DP of the sample or -1 if it is not available or if DP is not decoded */
+	public int getDepth(final int sample_idx) {
+		return this.depths[sample_idx];
+		}
+	
+	private void decode(final VariantContext ctx) {
+		this.contig = ctx.getContig();
+		this.start = ctx.getStart();
+		this.end = ctx.getEnd();
+		for(int i=0;i< this.samples.size();i++) {
+			final Genotype g = ctx.getGenotype(this.samples.get(i));
+			this.types[i] = g.getType();
+			this.spanDeletions[i] = g.getAlleles().stream().anyMatch(A->A.equals(Allele.SPAN_DEL));
+			this.depths[i] = this.decodeDepth && g.hasDP()?g.getDP():-1;
+			}
+		}
+	
+	private static int parseInt(final String line,int begin,final int end) {
+		if(begin>=end) throw new NumberFormatException("empty integer in "+line);
+		boolean negative = false;
+		if(line.charAt(begin)=='-') {
+			negative = true;
+			begin++;
+			}
+		int n=0;
+		for(int i=begin;i< end;i++) {
+			final char c = line.charAt(i);
+			if(c<'0' || c>'9') throw new NumberFormatException("bad integer \""+line.substring(begin, end)+"\"");
+			n = n*10 + (c-'0');
+			}
+		return negative?-n:n;
+		}
+	
+	/** index of the next tab or the end of the line */
+	private static int nextTab(final String line,final int from) {
+		final int i = line.indexOf('\t', from);
+		return i==-1?line.length():i;
+		}
+	
+	private void decode(final String line) {
+		final int len = line.length();
+		final int t0 = line.indexOf('\t');
+		if(t0<=0) throw new IllegalArgumentException("bad VCF line "+line);
+		if(this.contig==null || this.contig.length()!=t0 || !line.startsWith(this.contig)) {
+			this.contig = line.substring(0,t0);
+			}
+		final int t1 = nextTab(line, t0+1);
+		this.start = parseInt(line, t0+1, t1);
+		final int t2 = nextTab(line, t1+1);
+		final int t3 = nextTab(line, t2+1);
+		this.end = this.start + (t3-(t2+1)) - 1;
+		final int t4 = nextTab(line, t3+1);
+		
+		/* ALT, index 0 is REF. A missing ALT '.' has no allele */
+		int nAlleles = 1;
+		Arrays.fill(this.altSpanDel, false);
+		int p = t3+1;
+		if(t4-p==1 && line.charAt(p)=='.') p = t4;
+		while(p < t4) {
+			int q = line.indexOf(',', p);
+			if(q==-1 || q>t4) q=t4;
+			if(nAlleles >= this.altSpanDel.length) this.altSpanDel = Arrays.copyOf(this.altSpanDel, nAlleles*2);
+			this.altSpanDel[nAlleles] = (q-p==1 && line.charAt(p)=='*');
+			nAlleles++;
+			p = q+1;
+			}
+		this.nAlleles = nAlleles;
+		
+		final int t5 = nextTab(line, t4+1);
+		final int t6 = nextTab(line, t5+1);
+		final int t7 = nextTab(line, t6+1);
+		
+		/* INFO/END */
+		p = t6+1;
+		while(p < t7) {
+			int q = line.indexOf(';', p);
+			if(q==-1 || q>t7) q=t7;
+			if(q-p > 4 && line.startsWith(VCFConstants.END_KEY+"=", p)) {
+				this.end = parseInt(line, p+4, q);
+				break;
+				}
+			p = q+1;
+			}
+		
+		/* FORMAT */
+		int gt_index = -1;
+		int dp_index = -1;
+		final int t8 = t7 < len ? nextTab(line, t7+1) : len;
+		p = t7+1;
+		int field = 0;
+		while(p < t8) {
+			int q = line.indexOf(':', p);
+			if(q==-1 || q>t8) q=t8;
+			if(q-p==2) {
+				if(line.startsWith(VCFConstants.GENOTYPE_KEY, p)) gt_index = field;
+				else if(this.decodeDepth && line.startsWith(VCFConstants.DEPTH_KEY, p)) dp_index = field;
+				}
+			field++;
+			p = q+1;
+			}
+		
+		/* samples */
+		p = t8+1;
+		for(int i=0;i< this.samples.size();i++) {
+			if(p > len) throw new IllegalArgumentException("expected "+this.samples.size()+" samples in "+line);
+			final int colEnd = nextTab(line, p);
+			decodeSample(line, p, colEnd, i, gt_index, dp_index);
+			p = colEnd+1;
+			}
+		}
+	
+	private void decodeSample(final String line,final int colStart,final int colEnd,final int sample_idx,final int gt_index,final int dp_index) {
+		this.types[sample_idx] = GenotypeType.UNAVAILABLE;
+		this.spanDeletions[sample_idx] = false;
+		this.depths[sample_idx] = -1;
+		int field = 0;
+		int p = colStart;
+		while(p <= colEnd && (field<=gt_index || field<=dp_index)) {
+			int q = line.indexOf(':', p);
+			if(q==-1 || q>colEnd) q=colEnd;
+			if(field==gt_index) {
+				decodeGT(line, p, q, sample_idx);
+				}
+			else if(field==dp_index) {
+				if(q>p && !(q-p==1 && line.charAt(p)=='.')) {
+					this.depths[sample_idx] = parseInt(line, p, q);
+					}
+				}
+			field++;
+			p = q+1;
+			}
+		/* a missing GT field is a NO_CALL, like in htsjdk */
+		if(gt_index>=0 && field<=gt_index) {
+			this.types[sample_idx] = GenotypeType.NO_CALL;
+			}
+		}
+	
+	private void decodeGT(final String line,final int gtStart,final int gtEnd,final int sample_idx) {
+		if(gtStart>=gtEnd) {
+			this.types[sample_idx] = GenotypeType.NO_CALL;
+			return;
+			}
+		boolean sawNoCall = false;
+		boolean sawMultipleAlleles = false;
+		boolean spanDel = false;
+		int firstCallAllele = -1;
+		int p = gtStart;
+		while(p < gtEnd) {
+			int q = p;
+			while(q < gtEnd && line.charAt(q)!='/' && line.charAt(q)!='|') q++;
+			if(q-p==1 && line.charAt(p)=='.') {
+				sawNoCall = true;
+				}
+			else
+				{
+				final int allele_idx = parseInt(line, p, q);
+				if(allele_idx<0 || allele_idx >= this.nAlleles) throw new IllegalArgumentException("bad allele index in GT "+line.substring(gtStart,gtEnd));
+				if(this.altSpanDel[allele_idx]) spanDel = true;
+				if(firstCallAllele==-1) {
+					firstCallAllele = allele_idx;
+					}
+				else if(firstCallAllele!=allele_idx) {
+					sawMultipleAlleles = true;
+					}
+				}
+			p = q+1;
+			}
+		final GenotypeType type;
+		if(sawNoCall) {
+			type = firstCallAllele==-1?GenotypeType.NO_CALL:GenotypeType.MIXED;
+			}
+		else if(sawMultipleAlleles) {
+			type = GenotypeType.HET;
+			}
+		else
+			{
+			type = firstCallAllele==0?GenotypeType.HOM_REF:GenotypeType.HOM_VAR;
+			}
+		this.types[sample_idx] = type;
+		this.spanDeletions[sample_idx] = spanDel;
+		}
+	
+	@Override
+	public void close() {
+		CloserUtil.close(this.br);
+		CloserUtil.close(this.vcfIterator);
+		}
+	}
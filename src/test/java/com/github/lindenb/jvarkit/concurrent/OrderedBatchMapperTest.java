@@ -0,0 +1,45 @@
+package com.github.lindenb.jvarkit.concurrent;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class OrderedBatchMapperTest {
+	@Test
+	public void testOrder() {
+		final List<Integer> outputs = new ArrayList<>();
+		try(OrderedBatchMapper<Integer,Integer> mapper = new OrderedBatchMapper<>(4, 7, ()->X->X*2, (I,O)->{
+				Assert.assertEquals(O.intValue(), I*2);
+				outputs.add(I);
+				})) {
+			for(int i=0;i< 10_000;i++) mapper.accept(i);
+			}
+		Assert.assertEquals(outputs.size(), 10_000);
+		for(int i=0;i< outputs.size();i++) {
+			Assert.assertEquals(outputs.get(i).intValue(), i);
+			}
+		}
+	@Test
+	public void testOneInstancePerThread() {
+		final Set<Function<Integer,Integer>> instances = new HashSet<>();
+		try(OrderedBatchMapper<Integer,Integer> mapper = new OrderedBatchMapper<>(3, 5, ()->{
+				final Function<Integer,Integer> f = X->X;
+				synchronized(instances) { instances.add(f);}
+				return f;
+				}, (I,O)->{})) {
+			for(int i=0;i< 1_000;i++) mapper.accept(i);
+			}
+		Assert.assertTrue(instances.size()<=3);
+		}
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void testException() {
+		try(OrderedBatchMapper<Integer,Integer> mapper = new OrderedBatchMapper<>(2, 5, ()->X->{ if(X==50) throw new IllegalArgumentException(); return X;}, (I,O)->{})) {
+			for(int i=0;i< 100;i++) mapper.accept(i);
+			}
+		}
+}
@@ -19,7 +19,7 @@ import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.iterator.LineIteratorTest;
 
-@AlsoTest({LineIteratorTest.class,StringUtilsTest.class})
+@AlsoTest({LineIteratorTest.class,StringUtilsTest.class,ParallelBlockCompressedOutputStreamTest.class})
 public class IOUtilsTest {
 	private final TestSupport support = new TestSupport();
 	
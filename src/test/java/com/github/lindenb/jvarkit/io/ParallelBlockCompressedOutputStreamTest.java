@@ -0,0 +1,123 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+public class ParallelBlockCompressedOutputStreamTest {
+	private final TestSupport support = new TestSupport();
+
+	private byte[] createData() {
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0;i< 100_000;i++) {
+			sb.append("chr1\t").append(support.random.nextInt(1_000_000)).append("\tACGT\n");
+			}
+		return sb.toString().getBytes();
+		}
+	
+	private byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		IOUtils.copyTo(in, out);
+		in.close();
+		return out.toByteArray();
+		}
+
+	@Test
+	public void testWriteThenRead() throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			final byte[] data = createData();
+			final Path bgz = support.createTmpPath(".bgz");
+			try(OutputStream out = new ParallelBlockCompressedOutputStream(Files.newOutputStream(bgz), 5, executor, 3)) {
+				out.write(data);
+				}
+			try(InputStream in = new BufferedInputStream(Files.newInputStream(bgz))) {
+				Assert.assertTrue(BlockCompressedInputStream.isValidFile(in));
+				}
+			Assert.assertEquals(readAll(new BlockCompressedInputStream(bgz.toFile())), data);
+			Assert.assertEquals(readAll(new ParallelBlockCompressedInputStream(Files.newInputStream(bgz), executor, 3)), data);
+			}
+		finally {
+			executor.shutdown();
+			support.removeTmpFiles();
+			}
+		}
+	
+	@Test
+	public void testReadHtsjdk() throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final byte[] data = createData();
+			final Path bgz = support.createTmpPath(".bgz");
+			try(OutputStream out = new BlockCompressedOutputStream(bgz.toFile())) {
+				out.write(data);
+				}
+			Assert.assertEquals(readAll(new ParallelBlockCompressedInputStream(Files.newInputStream(bgz), executor, 2)), data);
+			}
+		finally {
+			executor.shutdown();
+			support.removeTmpFiles();
+			}
+		}
+	
+	@Test
+	public void testFilePointer() throws IOException {
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final byte[] data = createData();
+			final Path bgz = support.createTmpPath(".bgz");
+			final long fp;
+			try(ParallelBlockCompressedOutputStream out = new ParallelBlockCompressedOutputStream(Files.newOutputStream(bgz), 5, executor, 2)) {
+				out.write(data);
+				fp = out.getFilePointer();
+				out.write("END\n".getBytes());
+				}
+			try(BlockCompressedInputStream in = new BlockCompressedInputStream(bgz.toFile())) {
+				in.seek(fp);
+				Assert.assertEquals(in.readLine(),"END");
+				}
+			}
+		finally {
+			executor.shutdown();
+			support.removeTmpFiles();
+			}
+		}
+	
+	/** each factory has its own number of threads, the default factory is not changed */
+	@Test
+	public void testFactory() throws IOException {
+		try {
+			final int nDefault = BgzfStreamFactory.getDefault().getThreads();
+			final BgzfStreamFactory factory = new BgzfStreamFactory(3);
+			Assert.assertEquals(factory.getThreads(), 3);
+			Assert.assertEquals(BgzfStreamFactory.getDefault().getThreads(), nDefault);
+			final byte[] data = createData();
+			final Path gz = support.createTmpPath(".txt.gz");
+			try(OutputStream out = IOUtils.openPathForWriting(gz, factory)) {
+				out.write(data);
+				}
+			try(InputStream in = new BufferedInputStream(Files.newInputStream(gz))) {
+				Assert.assertTrue(BlockCompressedInputStream.isValidFile(in));
+				}
+			Assert.assertEquals(readAll(IOUtils.openPathForReading(gz, factory)), data);
+			Assert.assertEquals(readAll(IOUtils.openPathForReading(gz)), data);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+}
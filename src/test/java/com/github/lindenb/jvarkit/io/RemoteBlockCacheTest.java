@@ -0,0 +1,150 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.IOUtil;
+
+public class RemoteBlockCacheTest {
+	private final TestSupport support = new TestSupport();
+	
+	private byte[] randomBytes(int n) {
+		final byte[] array = new byte[n];
+		support.random.nextBytes(array);
+		return array;
+		}
+	
+	@Test
+	public void testSequentialReadsAreCoalesced() throws IOException, InterruptedException {
+		final byte[] data = randomBytes(100_003);
+		final AtomicInteger nCalls = new AtomicInteger(0);
+		final RemoteBlockCache cache = new RemoteBlockCache(1_000, 500, 4, null);
+		final RemoteBlockCache.Source src = cache.createSource("http://localhost/data", null, data.length,(start,len)->{
+			nCalls.incrementAndGet();
+			return Arrays.copyOfRange(data, (int)start, (int)start+len);
+			});
+		for(long pos=0;pos< data.length;pos+=1_000) {
+			final byte[] block = src.getBlockAt(pos);
+			Assert.assertEquals(block.length, (int)Math.min(1_000L, data.length-pos));
+			Assert.assertEquals(block, Arrays.copyOfRange(data, (int)pos, (int)pos+block.length));
+			}
+		Assert.assertNull(src.getBlockAt(data.length));
+		// the prefetches may still be running
+		cache.awaitPrefetches();
+		Assert.assertTrue(nCalls.get() < 101/2);
+		Assert.assertEquals(cache.getRequestCount(), nCalls.get());
+		}
+	
+	@Test
+	public void testNoPrefetch() throws IOException {
+		final byte[] data = randomBytes(10_003);
+		final AtomicInteger nCalls = new AtomicInteger(0);
+		final RemoteBlockCache cache = new RemoteBlockCache(1_000, 500, 0, null);
+		final RemoteBlockCache.Source src = cache.createSource("http://localhost/data", null, data.length,(start,len)->{
+			nCalls.incrementAndGet();
+			return Arrays.copyOfRange(data, (int)start, (int)start+len);
+			});
+		for(int pass=0;pass<2;pass++) {
+			for(long pos=0;pos< data.length;pos+=1_000) {
+				Assert.assertEquals(src.getBlockAt(pos)[0], data[(int)pos]);
+				}
+			}
+		Assert.assertEquals(nCalls.get(), 11);
+		Assert.assertEquals(cache.getRequestCount(), 11L);
+		}
+	
+	@Test
+	public void testDiskCache() throws IOException {
+		final byte[] data = randomBytes(10_000);
+		final Path dir = Files.createTempDirectory("tmp.");
+		try {
+			for(int pass=0;pass<2;pass++) {
+				final RemoteBlockCache cache = new RemoteBlockCache(1_000, 2, 0, dir);
+				final RemoteBlockCache.Source src = cache.createSource("http://localhost/data", "v1", data.length,(start,len)->
+					Arrays.copyOfRange(data, (int)start, (int)start+len)
+					);
+				for(int i=0;i< 100;i++) {
+					final int pos = support.random.nextInt(data.length);
+					Assert.assertEquals(src.getBlockAt(pos)[pos%1_000], data[pos]);
+					}
+				if(pass==1) Assert.assertEquals(cache.getRequestCount(), 0L);
+				}
+			}
+		finally {
+			IOUtil.recursiveDelete(dir);
+			}
+		}
+	
+	@Test
+	public void testNoDiskCacheWithoutVersion() throws IOException {
+		final Path dir = Files.createTempDirectory("tmp.");
+		try {
+			for(int pass=0;pass<2;pass++) {
+				// the remote file changes between the two passes, but its url and length don't
+				final byte[] data = randomBytes(5_000);
+				final RemoteBlockCache cache = new RemoteBlockCache(1_000, 2, 0, dir);
+				final RemoteBlockCache.Source src = cache.createSource("http://localhost/data", null, data.length,(start,len)->
+					Arrays.copyOfRange(data, (int)start, (int)start+len)
+					);
+				for(long pos=0;pos< data.length;pos+=1_000) {
+					Assert.assertEquals(src.getBlockAt(pos), Arrays.copyOfRange(data, (int)pos, (int)pos+1_000));
+					}
+				Assert.assertEquals(cache.getRequestCount(), 5L);
+				}
+			try(Stream<Path> st = Files.list(dir)) {
+				Assert.assertEquals(st.count(), 0L);
+				}
+			}
+		finally {
+			IOUtil.recursiveDelete(dir);
+			}
+		}
+	
+	@Test
+	public void testJettyServer() throws Exception {
+		final Path file = Paths.get(support.resource("S5.bam"));
+		final byte[] data = Files.readAllBytes(file);
+		final Server server = new Server(0);
+		final ResourceHandler handler = new ResourceHandler();
+		handler.setResourceBase(file.getParent().toString());
+		handler.setDirectoriesListed(false);
+		server.setHandler(handler);
+		server.start();
+		try {
+			final int port = ServerConnector.class.cast(server.getConnectors()[0]).getLocalPort();
+			final RemoteBlockCache cache = new RemoteBlockCache(1_024, 10, 2, null);
+			final CustomSeekableStreamFactory factory = new CustomSeekableStreamFactory().setBlockCache(cache);
+			try(SeekableStream st = factory.getStreamFor("http://localhost:"+port+"/"+file.getFileName())) {
+				Assert.assertEquals(st.length(), data.length);
+				final byte[] array = new byte[data.length];
+				st.readFully(array);
+				Assert.assertEquals(array, data);
+				for(int i=0;i< 100;i++) {
+					final int pos = support.random.nextInt(data.length);
+					final int len = Math.min(data.length - pos, support.random.nextInt(5_000));
+					final byte[] buf = new byte[len];
+					st.seek(pos);
+					st.readFully(buf);
+					Assert.assertEquals(buf, Arrays.copyOfRange(data, pos, pos+len));
+					}
+				}
+			}
+		finally {
+			server.stop();
+			}
+		}
+	}
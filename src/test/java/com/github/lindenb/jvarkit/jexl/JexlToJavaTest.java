@@ -0,0 +1,144 @@
+package com.github.lindenb.jvarkit.jexl;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
+import com.github.lindenb.jvarkit.util.vcf.JexlVariantPredicate;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class JexlToJavaTest {
+	private final TestSupport support = new TestSupport();
+	private final JexlToJava.Dialect dialect = new JexlToJava.Dialect("test",VariantContext.class,null).
+			receiver("vc", 0).
+			variable("CHROM", JexlToJava.Type.STRING, "arg0.getContig()").
+			variable("POS", JexlToJava.Type.NUMBER, "arg0.getStart()").
+			reserved("FILTER").
+			unknownIdentifier(S->"arg0.getAttribute(\""+S+"\")");
+
+	@Test
+	public void testSupported() {
+		Assert.assertTrue(JexlToJava.translate(dialect,"vc.isSNP()").isPresent());
+		Assert.assertTrue(JexlToJava.translate(dialect,"vc.isSNP() && POS > 10").isPresent());
+		Assert.assertTrue(JexlToJava.translate(dialect,"CHROM == \"chr1\" || DP < 3").isPresent());
+		Assert.assertTrue(JexlToJava.translate(dialect,"!(vc.isFiltered()) and not vc.isIndel()").isPresent());
+		Assert.assertTrue(JexlToJava.translate(dialect,"vc.hasAttribute('DP')").isPresent());
+		}
+	@Test
+	public void testCode() {
+		Assert.assertEquals(JexlToJava.translate(dialect,"vc.isSNP() && POS > 10").get(),"(arg0.isSNP() && (arg0.getStart() > 10L))");
+		}
+	@Test
+	public void testUnsupported() {
+		Assert.assertFalse(JexlToJava.translate(dialect,"").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"FILTER == 1").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"DP + 1 > 3").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"POS").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"CHROM < \"chr2\"").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"vc.setAttribute('x')").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"vc.isSNP(").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"DP != null").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"null == DP").isPresent());
+		Assert.assertFalse(JexlToJava.translate(dialect,"empty(DP)").isPresent());
+		}
+	@Test
+	public void testConvert() {
+		Assert.assertEquals(JexlToJava.toDouble("12"),12.0);
+		Assert.assertEquals(JexlToJava.toDouble(3),3.0);
+		Assert.assertTrue(JexlToJava.toBoolean("true"));
+		Assert.assertTrue(JexlToJava.equalsAsString(1,"1"));
+		}
+	@Test(expectedExceptions=JexlToJava.MissingValueException.class)
+	public void testMissing() {
+		JexlToJava.toDouble(null);
+		}
+	
+	/** create the predicate with the JEXL engine */
+	private static <T> T withoutCompilation(final java.util.function.Supplier<T> supplier) {
+		final String old = System.getProperty(JexlToJava.COMPILE_PROPERTY);
+		System.setProperty(JexlToJava.COMPILE_PROPERTY, "false");
+		try {
+			return supplier.get();
+			}
+		finally
+			{
+			if(old==null) System.clearProperty(JexlToJava.COMPILE_PROPERTY);
+			else System.setProperty(JexlToJava.COMPILE_PROPERTY, old);
+			}
+		}
+	
+	/** result of a predicate: true, false or an error, e.g. a list compared to a number */
+	private static String outcome(final java.util.function.BooleanSupplier supplier) {
+		try {
+			return String.valueOf(supplier.getAsBoolean());
+			}
+		catch(final RuntimeException err) {
+			return "error";
+			}
+		}
+	
+	@DataProvider(name = "vcfExpr")
+	public Object[][] createVcfExpr() {
+		return support.combine2(
+			java.util.stream.Stream.of("ExAC.r1.sites.vep.vcf.gz","test_vcf01.vcf").map(S->support.resource(S)),
+			java.util.stream.Stream.of(
+				"ID == \".\"",
+				"QUAL > 100",
+				"DP > 1000",
+				"AC > 2 || AN < 100",
+				"CHROM == \"1\" && POS > 1000",
+				"vc.isSNP() && N_ALLELES == 2",
+				"vc.isFiltered()",
+				"TYPE == \"INDEL\""
+				));
+		}
+	
+	/** compiled predicates must give the same answer as the JEXL engine */
+	@Test(dataProvider="vcfExpr")
+	public void testVariantsSameAsJexl(final String vcf,final String expr) {
+		final Predicate<VariantContext> compiled = JexlVariantPredicate.create(expr);
+		Assert.assertTrue(compiled.toString().startsWith("compiled:"), expr);
+		final Predicate<VariantContext> jexl = withoutCompilation(()->JexlVariantPredicate.create(expr));
+		Assert.assertFalse(jexl.toString().startsWith("compiled:"), expr);
+		final List<VariantContext> variants = support.variantStream(Paths.get(vcf)).collect(Collectors.toList());
+		Assert.assertFalse(variants.isEmpty());
+		for(final VariantContext ctx: variants) {
+			Assert.assertEquals(outcome(()->compiled.test(ctx)), outcome(()->jexl.test(ctx)), expr+" "+ctx);
+			}
+		}
+	
+	@DataProvider(name = "bamExpr")
+	public Object[][] createBamExpr() {
+		return support.combine2(
+			java.util.stream.Stream.of("S1.bam","toy.bam").map(S->support.resource(S)),
+			java.util.stream.Stream.of(
+				SamRecordJEXLFilter.DEFAULT_FILTER,
+				"record.getMappingQuality() < 30",
+				"record.getReadUnmappedFlag() || CLIPPED",
+				"!record.getReadPairedFlag() || record.getReadLength() > 50"
+				));
+		}
+	
+	@Test(dataProvider="bamExpr")
+	public void testReadsSameAsJexl(final String bam,final String expr) {
+		final SamRecordFilter compiled = SamRecordJEXLFilter.create(expr);
+		final SamRecordFilter jexl = withoutCompilation(()->SamRecordJEXLFilter.create("("+expr+")"));
+		Assert.assertNotEquals(compiled.getClass(), SamRecordJEXLFilter.class, expr);
+		Assert.assertEquals(jexl.getClass(), SamRecordJEXLFilter.class, expr);
+		final List<SAMRecord> reads = support.samStream(Paths.get(bam)).collect(Collectors.toList());
+		Assert.assertFalse(reads.isEmpty());
+		for(final SAMRecord rec: reads) {
+			Assert.assertEquals(outcome(()->compiled.filterOut(rec)), outcome(()->jexl.filterOut(rec)), expr+" "+rec);
+			}
+		}
+}
@@ -0,0 +1,69 @@
+package com.github.lindenb.jvarkit.lang;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.beust.jcommander.JCommander;
+
+import htsjdk.samtools.util.IOUtil;
+
+public class OpenJdkCompilerTest {
+	private static String code(final String className,final String date) {
+		return "@javax.annotation.Generated(value=\"Test\",date=\""+date+"\")\n"+
+				"public class "+className+" { public "+className+"() {} }";
+		}
+	@Test
+	public void testSameKey() {
+		Assert.assertEquals(
+			OpenJdkCompiler.getCacheKey("Custom1", code("Custom1","2020-01-01")),
+			OpenJdkCompiler.getCacheKey("Custom2", code("Custom2","2020-01-02"))
+			);
+		}
+	@Test
+	public void testDistinctKey() {
+		Assert.assertNotEquals(
+			OpenJdkCompiler.getCacheKey("Custom1", code("Custom1","2020-01-01")),
+			OpenJdkCompiler.getCacheKey("Custom1", code("Custom1","2020-01-01")+"\n")
+			);
+		}
+	
+	private static long countJars(final Path dir) throws IOException {
+		try(Stream<Path> st = Files.list(dir)) {
+			return st.filter(P->P.getFileName().toString().endsWith(".jar")).count();
+			}
+		}
+	
+	private static OpenJdkCompiler.CacheArgs cacheArgs(final String...args) {
+		final OpenJdkCompiler.CacheArgs cacheArgs = new OpenJdkCompiler.CacheArgs();
+		JCommander.newBuilder().addObject(cacheArgs).build().parse(args);
+		return cacheArgs;
+		}
+	
+	@Test
+	public void testCacheArgsPerCall() throws IOException {
+		final Path dir = Files.createTempDirectory("tmp.");
+		try {
+			final OpenJdkCompiler.CacheArgs withCache = cacheArgs("--jdk-cache",dir.toString());
+			final OpenJdkCompiler.CacheArgs noCache = cacheArgs("--no-jdk-cache");
+			Assert.assertNull(noCache.getCacheDirectory());
+			final OpenJdkCompiler compiler = OpenJdkCompiler.getInstance();
+			
+			Assert.assertNotNull(compiler.compileClass("CustomA", "public class CustomA { }", noCache));
+			Assert.assertEquals(countJars(dir), 0L);
+			Assert.assertNotNull(compiler.compileClass("CustomB", "public class CustomB { }", withCache));
+			Assert.assertEquals(countJars(dir), 1L);
+			// the settings of the previous call are not kept by the shared compiler
+			Assert.assertNotNull(compiler.compileClass("CustomC", "public class CustomC { }", noCache));
+			Assert.assertEquals(countJars(dir), 1L);
+			}
+		finally
+			{
+			IOUtil.deleteDirectoryTree(dir.toFile());
+			}
+		}
+}
@@ -0,0 +1,62 @@
+package com.github.lindenb.jvarkit.math.stats;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SpaceSavingTest {
+
+@Test
+public void testExact() {
+	final SpaceSaving<String> sketch = new SpaceSaving<>(10);
+	for(int i=0;i< 5;i++) sketch.add("A");
+	for(int i=0;i< 3;i++) sketch.add("B");
+	sketch.add("C",2L);
+	Assert.assertEquals(sketch.size(), 3);
+	Assert.assertEquals(sketch.getTotal(), 10L);
+	Assert.assertEquals(sketch.getCount("A"), 5L);
+	Assert.assertEquals(sketch.getCount("B"), 3L);
+	Assert.assertEquals(sketch.getCount("C"), 2L);
+	Assert.assertEquals(sketch.getCount("D"), 0L);
+	Assert.assertEquals(sketch.getError("A"), 0L);
+	final List<SpaceSaving.Entry<String>> top = sketch.getTop(2);
+	Assert.assertEquals(top.size(), 2);
+	Assert.assertEquals(top.get(0).getItem(), "A");
+	Assert.assertEquals(top.get(1).getItem(), "B");
+	}
+
+private void assertBounds(final SpaceSaving<Integer> sketch,final Map<Integer,Long> truth,final int n) {
+	for(final SpaceSaving.Entry<Integer> e: sketch.getTop(n)) {
+		final long t = truth.get(e.getItem());
+		Assert.assertTrue(e.getCount() >= t);
+		Assert.assertTrue(e.getCount() - e.getError() <= t);
+		/* heavy hitters are 0-9 */
+		Assert.assertTrue(e.getItem() < 10);
+		}
+	}
+
+@Test
+public void testHeavyHittersAndMerge() {
+	final Random rand = new Random(0L);
+	final Map<Integer,Long> truth = new HashMap<>();
+	final SpaceSaving<Integer> all = new SpaceSaving<>(50);
+	final SpaceSaving<Integer> s1 = new SpaceSaving<>(50);
+	final SpaceSaving<Integer> s2 = new SpaceSaving<>(50);
+	for(int i=0;i< 200_000;i++) {
+		final int x = rand.nextDouble() < 0.7 ? rand.nextInt(10) : 10 + rand.nextInt(100_000);
+		truth.merge(x, 1L, Long::sum);
+		all.add(x);
+		(i%2==0?s1:s2).add(x);
+		}
+	Assert.assertEquals(all.size(), 50);
+	assertBounds(all,truth,10);
+	s1.merge(s2);
+	Assert.assertEquals(s1.getTotal(), 200_000L);
+	Assert.assertTrue(s1.size() <= 50);
+	assertBounds(s1,truth,10);
+	}
+}
@@ -0,0 +1,94 @@
+package com.github.lindenb.jvarkit.samtools.liftover;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.liftover.LiftOver;
+import htsjdk.samtools.util.Interval;
+
+public class ChainIndexTest {
+	private final TestSupport support = new TestSupport();
+
+	/** write a chain file with gapped chains on both strands, some of them overlapping */
+	private Path createChain() throws IOException {
+		final Path chain = support.createTmpPath(".chain");
+		try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(chain))) {
+			pw.println("chain 1000 RF01 3302 + 0 1520 RF01 3302 + 10 1525 1");
+			pw.println("500\t10\t0");
+			pw.println("1000\t0\t5");
+			pw.println("10");
+			pw.println();
+			pw.println("chain 1000 RF01 3302 + 1600 3000 RF02 2687 - 100 1500 2");
+			pw.println("700\t0\t0");
+			pw.println("700");
+			pw.println();
+			pw.println("chain 1000 RF01 3302 + 2900 3100 RF03 2592 + 0 200 3");
+			pw.println("200");
+			pw.println();
+			pw.println("chain 1000 RF02 2687 + 0 2000 RF04 2362 - 0 2010 4");
+			pw.println("100\t0\t10");
+			pw.println("1900");
+			pw.println();
+			}
+		return chain;
+		}
+	
+	@Test
+	public void testSameAsHtsjdk() throws IOException {
+		try {
+			final Path chain = createChain();
+			final LiftOver expect = new LiftOver(chain.toFile());
+			final ChainIndex index = ChainIndex.load(chain);
+			final List<Interval> intervals = new ArrayList<>();
+			for(int i=0;i< 5_000;i++) {
+				final int start = 1 + support.random.nextInt(3300);
+				final int len = support.random.nextBoolean()?1:1+support.random.nextInt(200);
+				intervals.add(new Interval(
+						support.random.nextBoolean()?"RF01":"RF02",
+						start,
+						start+len-1,
+						support.random.nextBoolean(),
+						"x"));
+				}
+			//sorted intervals use the last-hit cache
+			final List<Interval> sorted = new ArrayList<>(intervals);
+			Collections.sort(sorted);
+			intervals.addAll(sorted);
+			for(final double minMatch: new double[] {0.0,0.5,LiftOver.DEFAULT_LIFTOVER_MINMATCH}) {
+				expect.setLiftOverMinMatch(minMatch);
+				index.setLiftOverMinMatch(minMatch);
+				for(final Interval interval: intervals) {
+					Assert.assertEquals(
+						String.valueOf(index.liftOver(interval)),
+						String.valueOf(expect.liftOver(interval)),
+						interval.toString()
+						);
+					}
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	
+	@Test
+	public void testContigNotInChain() throws IOException {
+		try {
+			final ChainIndex index = ChainIndex.load(createChain());
+			Assert.assertNull(index.liftOver(new Interval("RF11",1,10)));
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+}
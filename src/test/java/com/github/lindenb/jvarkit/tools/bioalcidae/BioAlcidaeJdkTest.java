@@ -1,7 +1,9 @@
 package com.github.lindenb.jvarkit.tools.bioalcidae;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -119,4 +121,33 @@ public class BioAlcidaeJdkTest
 			}
 		
 		}
+	
+	@Test
+	public void testVcfParallel() throws IOException
+		{
+		try {
+			final String expr = "stream().map(V->V.getContig()+\":\"+V.getStart()+\" \"+V.getGenotypes().stream().filter(G->G.isHomVar()).count()).forEachOrdered(S->println(S));";
+			final Path out1 = support.createTmpPath(".txt");
+			Assert.assertEquals(new BioAlcidaeJdk().instanceMain(new String[] {
+				"-e",expr,
+				"-o",out1.toString(),
+				support.resource("test_vcf01.vcf")
+				}),0);
+			final Path out2 = support.createTmpPath(".txt");
+			Assert.assertEquals(new BioAlcidaeJdk().instanceMain(new String[] {
+				"-e",expr,
+				"--parallel",
+				"-o",out2.toString(),
+				support.resource("test_vcf01.vcf")
+				}),0);
+			final List<String> L1 = Files.readAllLines(out1);
+			final List<String> L2 = Files.readAllLines(out2);
+			Assert.assertTrue(L1.size()>50);
+			Assert.assertEquals(L2, L1);
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}
+		}
 }
@@ -0,0 +1,45 @@
+package com.github.lindenb.jvarkit.tools.fastq;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+public class BamToFastqTest {
+	private final TestSupport support = new TestSupport();
+	
+	@DataProvider(name="src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{"1000000"},
+			{"10"}
+			};
+		}
+	
+	@Test(dataProvider="src1")
+	public void test01(final String maxRecordsInRam) throws IOException {
+		try {
+			final Path out1 = support.createTmpPath(".R1.fq.gz");
+			final Path out2 = support.createTmpPath(".R2.fq.gz");
+			Assert.assertEquals(new BamToFastq().instanceMain(new String[] {
+				"-F",out1.toString(),
+				"-R",out2.toString(),
+				"--maxRecordsInRam",maxRecordsInRam,
+				"--partitions","7",
+				"-j","3",
+				"--repair",
+				support.resource("S1.bam")
+				}),0);
+			support.assertIsFastq(out1);
+			support.assertIsFastq(out2);
+			Assert.assertEquals(support.wc(out1), support.wc(out2));
+		} finally {
+			support.removeTmpFiles();
+		}
+	}
+
+}
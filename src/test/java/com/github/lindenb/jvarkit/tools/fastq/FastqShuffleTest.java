@@ -1,13 +1,21 @@
 package com.github.lindenb.jvarkit.tools.fastq;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 
+import htsjdk.samtools.fastq.FastqReader;
+import htsjdk.samtools.fastq.FastqRecord;
+
 public class FastqShuffleTest {
 	private final TestSupport support = new TestSupport();
 	
@@ -26,4 +34,84 @@ public class FastqShuffleTest {
 		}
 	}
 
+	@Test
+	public void testBuckets() throws IOException {
+		try {
+			final Path out1 = support.createTmpPath(".fq");
+			final Path out2 = support.createTmpPath(".fq");
+			for(int i=0;i< 2;i++) {
+				Assert.assertEquals(new FastqShuffle().instanceMain(new String[] {
+					"-o",(i==0?out1:out2).toString(),
+					"--maxRecordsInRam","10",
+					"--buckets","5",
+					"-j",(i==0?"1":"3"),
+					"--seed","42",
+					support.resource("S1.R1.fq.gz"),
+					support.resource("S1.R2.fq.gz"),
+					}),0);
+				}
+			support.assertIsFastq(out1);
+			Assert.assertEquals(Files.readAllLines(out1), Files.readAllLines(out2));
+			/* output is a permutation of the input and the mates stay together */
+			final List<String> input = readPairs(Paths.get(support.resource("S1.R1.fq.gz")), Paths.get(support.resource("S1.R2.fq.gz")));
+			final List<String> output = readPairs(out1, null);
+			Assert.assertNotEquals(output, input);
+			Collections.sort(input);
+			Collections.sort(output);
+			Assert.assertEquals(output, input);
+		} finally {
+			support.removeTmpFiles();
+		}
+	}
+	
+	@Test
+	public void testBucketsSingleEnd() throws IOException {
+		try {
+			final Path in = Paths.get(support.resource("S1.R1.fq.gz"));
+			final Path out = support.createTmpPath(".fq");
+			Assert.assertEquals(new FastqShuffle().instanceMain(new String[] {
+				"-o",out.toString(),
+				"--maxRecordsInRam","10",
+				"--buckets","5",
+				in.toString()
+				}),0);
+			final List<String> input = readRecords(in);
+			final List<String> output = readRecords(out);
+			Collections.sort(input);
+			Collections.sort(output);
+			Assert.assertEquals(output, input);
+		} finally {
+			support.removeTmpFiles();
+		}
+	}
+	
+	private static List<String> readRecords(final Path fq) throws IOException {
+		final List<String> L = new ArrayList<>();
+		try(FastqReader r = new FastqReader(fq.toFile())) {
+			while(r.hasNext()) L.add(r.next().toFastQString());
+			}
+		return L;
+		}
+	
+	/** read the pairs, from two files or from one interleaved file if fq2 is null */
+	private static List<String> readPairs(final Path fq1,final Path fq2) throws IOException {
+		final List<String> L = new ArrayList<>();
+		final FastqReader r1 = new FastqReader(fq1.toFile());
+		final FastqReader r2 = (fq2==null?r1:new FastqReader(fq2.toFile()));
+		try {
+			while(r1.hasNext()) {
+				final FastqRecord R1 = r1.next();
+				Assert.assertTrue(r2.hasNext());
+				final FastqRecord R2 = r2.next();
+				L.add(R1.toFastQString()+"\n"+R2.toFastQString());
+				}
+			Assert.assertFalse(r2.hasNext());
+			}
+		finally {
+			r1.close();
+			if(r2!=r1) r2.close();
+			}
+		return L;
+		}
+
 }
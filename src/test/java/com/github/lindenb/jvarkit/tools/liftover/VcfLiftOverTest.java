@@ -1,20 +1,27 @@
 package com.github.lindenb.jvarkit.tools.liftover;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.samtools.liftover.ChainIndexTest;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
 
 
-@AlsoTest(LauncherTest.class)
+@AlsoTest({LauncherTest.class,ChainIndexTest.class})
 public class VcfLiftOverTest {
 	final TestSupport support= new TestSupport();
 	
@@ -45,4 +52,45 @@ public class VcfLiftOverTest {
 		}
 	}
 	
+	@Test
+	public void testParallel() throws IOException {
+		try {
+			// identity chain on the first contigs
+			final Path chain = support.createTmpPath(".chain");
+			try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(chain))) {
+				pw.println("chain 1000 RF01 3302 + 0 3302 RF01 3302 + 0 3302 1");
+				pw.println("3302");
+				pw.println();
+				pw.println("chain 1000 RF02 2687 + 0 2687 RF02 2687 + 0 2687 2");
+				pw.println("2687");
+				pw.println();
+				}
+			final List<List<String>> results = new ArrayList<>();
+			for(int i=0;i< 2;i++) {
+				final Path out = support.createTmpPath(".vcf");
+				final Path failed = support.createTmpPath(".vcf");
+				Assert.assertEquals(new VcfLiftOver().instanceMain(new String[] {
+						"-o",out.toString(),
+						"--chain",chain.toString(),
+						"--failed",failed.toString(),
+						"--check",
+						"--jobs",(i==0?"1":"3"),
+						"--batch-size","5",
+						"-R",support.resource("rotavirus_rf.fa"),
+						support.resource("rotavirus_rf.vcf.gz")
+						}),0);
+				support.assertIsVcf(out);
+				support.assertIsVcf(failed);
+				results.add(Stream.concat(support.variantStream(out),support.variantStream(failed)).
+						map(V->V.toStringWithoutGenotypes()).
+						collect(Collectors.toList()));
+				}
+			Assert.assertEquals(results.get(0).size(), 45);
+			Assert.assertEquals(results.get(1), results.get(0));
+			}
+		finally
+			{
+			support.removeTmpFiles();	
+			}
+		}
 }
@@ -0,0 +1,44 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.math.stats.SpaceSavingTest;
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+@AlsoTest(SpaceSavingTest.class)
+public class IlluminaStatsFastqTest {
+	private final TestSupport support = new TestSupport();
+
+	@Test
+	public void test01() throws IOException {
+		try {
+			final String fastqs = 
+				Paths.get(support.resource("SAMPLE1_GATGAATC_L002_R1_001.fastq.gz")).toAbsolutePath()+"\n"+
+				Paths.get(support.resource("SAMPLE1_GATGAATC_L002_R2_001.fastq.gz")).toAbsolutePath()+"\n";
+			for(final String nThreads: new String[] {"1","3"}) {
+				final Path out = support.createTmpPath(".zip");
+				final IlluminaStatsFastq app = new IlluminaStatsFastq();
+				app.stdin(new ByteArrayInputStream(fastqs.getBytes()));
+				Assert.assertEquals(app.instanceMain(new String[] {
+					"-o",out.toString(),
+					"-X","10",
+					"-j",nThreads,
+					"--batch-size","100"
+					}),0);
+				Assert.assertTrue(Files.exists(out));
+				Assert.assertTrue(Files.size(out)>0L);
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+}
@@ -7,6 +7,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.RemoteBlockCacheTest;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
@@ -16,7 +17,7 @@ import org.testng.Assert;
 import htsjdk.samtools.util.IOUtil;
 import org.testng.annotations.Test;
 
-@AlsoTest(LauncherTest.class)
+@AlsoTest({LauncherTest.class,RemoteBlockCacheTest.class})
 public class OneThousandBamTest{
 	private final TestSupport support = new TestSupport();
 
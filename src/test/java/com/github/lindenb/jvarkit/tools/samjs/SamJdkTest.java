@@ -10,11 +10,13 @@ import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import com.github.lindenb.jvarkit.concurrent.OrderedBatchMapperTest;
+import com.github.lindenb.jvarkit.lang.OpenJdkCompilerTest;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
 
-@AlsoTest(LauncherTest.class)
+@AlsoTest({LauncherTest.class,OrderedBatchMapperTest.class,OpenJdkCompilerTest.class})
 public class SamJdkTest  {
 	
 	private final TestSupport support = new TestSupport();
@@ -45,4 +47,23 @@ public class SamJdkTest  {
 			support.removeTmpFiles();
 			}	
 		}
+	
+	@Test(dataProvider="src1")
+	public void testParallel(final String inBam,final String expr) throws IOException {
+		try {
+			final Path out = support.createTmpPath(".bam");
+			Assert.assertEquals(new SamJdk().instanceMain(new String[] {
+	        		"-o",out.toString(),
+	        		"--parallel","3",
+	        		"--batch-size","10",
+	        		"-e",expr,
+	        		inBam
+					}),0);
+			support.assertIsValidBam(out);
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}	
+		}
 }
@@ -1,6 +1,7 @@
 package com.github.lindenb.jvarkit.tools.sashimi;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 import org.testng.Assert;
@@ -34,4 +35,36 @@ public class PlotSashimiTest {
 		}
 	}
 
+	@Test
+	public void testParallel() throws IOException {
+		try {
+			final Path bed = support.createTmpPath(".bed");
+			Files.write(bed, "chr3\t38597400\t38599300\nchr3\t38598000\t38599500\nchr3\t38595150\t38599347\n".getBytes());
+			final Path out1 = support.createTmpPath(".zip");
+			final Path mf1 = support.createTmpPath(".mf");
+			Assert.assertEquals(new PlotSashimi().instanceMain(new String[] {
+					"-o",out1.toString(),
+					"-r",bed.toString(),
+					"-m",mf1.toString(),
+					"--cluster-size","1",
+					support.resource("ENCFF331CGL.rnaseq.b38.bam")
+				}),0
+				);
+			final Path out2 = support.createTmpPath(".zip");
+			final Path mf2 = support.createTmpPath(".mf");
+			Assert.assertEquals(new PlotSashimi().instanceMain(new String[] {
+					"-o",out2.toString(),
+					"-r",bed.toString(),
+					"-m",mf2.toString(),
+					"-j","3",
+					support.resource("ENCFF331CGL.rnaseq.b38.bam")
+				}),0
+				);
+			support.assertZip(out2);
+			Assert.assertEquals(Files.readAllLines(mf1), Files.readAllLines(mf2));
+		} finally {
+			support.removeTmpFiles();
+		}
+	}
+
 }
@@ -0,0 +1,115 @@
+package com.github.lindenb.jvarkit.tools.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class JvarkitDaemonTest {
+	private final TestSupport support = new TestSupport();
+
+	/** copy the input to the output, used to test the paths sent by the client */
+	public static class CopyFile extends Launcher {
+		@Parameter(names={"-o","--out"},description="output")
+		private Path output = null;
+		@Override
+		public int doWork(final List<String> args) {
+			try {
+				Files.copy(Paths.get(oneAndOnlyOneFile(args)), this.output);
+				stdout().print("copied");
+				return 0;
+				}
+			catch(final IOException err) {
+				return -1;
+				}
+			}
+		}
+
+	private int runClient(final JvarkitDaemonClient client,final List<String> args,final ByteArrayOutputStream stdout) throws IOException, InterruptedException {
+		// wait for the daemon to listen
+		for(int i=0;;i++) {
+			try {
+				return client.run(args, new ByteArrayInputStream(new byte[0]), stdout, new ByteArrayOutputStream());
+				}
+			catch(final ConnectException err) {
+				if(i>100) throw err;
+				Thread.sleep(100L);
+				}
+			}
+		}
+
+	@Test
+	public void testRoundTrip() throws IOException, InterruptedException {
+		try {
+			final int port;
+			try(ServerSocket s = new ServerSocket(0)) {
+				port = s.getLocalPort();
+				}
+			final Path token = support.createTmpPath(".token");
+			Files.write(token, "secret".getBytes(StandardCharsets.UTF_8));
+
+			final Thread daemon = new Thread(()->new JvarkitDaemon().instanceMain(new String[] {
+				"--port",String.valueOf(port),
+				"--token",token.toString()
+				}));
+			daemon.setDaemon(true);
+			daemon.start();
+
+			final Path cwd = Files.createTempDirectory("tmp.");
+			final Path input = support.deleteOnExit(cwd.resolve("input.vcf.gz"));
+			final Path output = support.deleteOnExit(cwd.resolve("output.vcf.gz"));
+			support.deleteOnExit(cwd);
+			Files.copy(Paths.get(support.resource("rotavirus_rf.vcf.gz")), input);
+
+			final JvarkitDaemonClient client = new JvarkitDaemonClient();
+			client.port = port;
+			client.tokenPath = token;
+			client.workingDirectory = cwd;
+			final List<String> args = Arrays.asList(
+				CopyFile.class.getName(),
+				"-o",output.getFileName().toString(),
+				input.getFileName().toString()
+				);
+
+			final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+			Assert.assertEquals(runClient(client, args, stdout), 0);
+			Assert.assertEquals(new String(stdout.toByteArray(),StandardCharsets.UTF_8), "copied");
+			Assert.assertEquals(Files.readAllBytes(output), Files.readAllBytes(input));
+			Files.delete(output);
+
+			// bad token
+			final Path badToken = support.createTmpPath(".token");
+			Files.write(badToken, "not-the-secret".getBytes(StandardCharsets.UTF_8));
+			client.tokenPath = badToken;
+			Assert.assertNotEquals(runClient(client, args, new ByteArrayOutputStream()), 0);
+			Assert.assertFalse(Files.exists(output));
+			
+			// relative working directory: the daemon must answer instead of closing the connection
+			client.tokenPath = token;
+			client.workingDirectory = Paths.get("relative");
+			Assert.assertEquals(runClient(client, args, new ByteArrayOutputStream()), -1);
+			Assert.assertFalse(Files.exists(output));
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}
+		}
+}
@@ -0,0 +1,52 @@
+package com.github.lindenb.jvarkit.tools.structvar;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class CnvSlidingWindowTest {
+	private final TestSupport support = new TestSupport();
+	
+	private List<String> run(final String...params) throws IOException {
+		final Path out = support.createTmpPath(".vcf");
+		final List<String> args = new ArrayList<>();
+		args.add("-o");
+		args.add(out.toString());
+		args.add("-R");
+		args.add(support.resource("rotavirus_rf.fa"));
+		args.add("-w");
+		args.add("100;20;200;50");
+		args.add("--min-depth");
+		args.add("1");
+		args.addAll(Arrays.asList(params));
+		for(int i=1;i<=5;i++) args.add(support.resource("S"+i+".bam"));
+		Assert.assertEquals(new CnvSlidingWindow().instanceMain(args),0);
+		support.assertIsVcf(out);
+		return Files.readAllLines(out).stream().
+			filter(L->!L.startsWith("##")).
+			collect(Collectors.toList());
+		}
+	
+	@Test
+	public void testChunksAndThreads() throws IOException {
+		try {
+			final List<String> expect = run();
+			Assert.assertEquals(run("-j","3","--chunk-size","150"), expect);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+}
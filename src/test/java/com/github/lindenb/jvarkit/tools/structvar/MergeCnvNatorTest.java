@@ -13,8 +13,9 @@ import org.testng.annotations.Test;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+import com.github.lindenb.jvarkit.variant.sv.SweepLineClustererTest;
 
-@AlsoTest(LauncherTest.class)
+@AlsoTest({LauncherTest.class,SweepLineClustererTest.class})
 public class MergeCnvNatorTest {
 	
 	private final TestSupport support = new TestSupport();
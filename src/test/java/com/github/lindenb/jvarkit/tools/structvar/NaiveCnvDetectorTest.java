@@ -2,7 +2,9 @@ package com.github.lindenb.jvarkit.tools.structvar;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -103,4 +105,85 @@ public void testMultipleFiles() throws IOException {
 	}
 
 
+@Test
+public void testMatrix() throws IOException {
+	try {
+	final Path tmp= support.createTmpPath(".tmp");
+	final PrintWriter pw=IOUtils.openPathForPrintWriter(tmp);
+	for(int c=1;c<=2;++c) {
+		for(int i=1;i< 50_000;++i)
+			{
+			if(i%10_000==0) continue;
+			pw.print("chr"+c+"\t");
+			pw.print(i);
+			for(int j=0;j< 10;++j)
+				{
+				int depth=50+(support.random.nextInt(10)*(support.random.nextBoolean()?1:-1));
+				if(j==4 && i> 10_000 && i<20_000) depth/=2;
+				pw.print("\t");
+				pw.print(depth);
+				}
+			pw.println();
+			}
+		}
+	pw.flush();
+	pw.close();
+	
+	final Path matrix= support.createTmpPath(".dpm");
+	support.deleteOnExit(Paths.get(matrix.toString()+".dpi"));
+	Assert.assertEquals(new NaiveCnvDetector().instanceMain(new String[] {
+			"--save-matrix",matrix.toString(),
+			tmp.toString()}),
+			0);
+	
+	final Path out1= support.createTmpPath(".tsv");
+	Assert.assertEquals(new NaiveCnvDetector().instanceMain(new String[] {
+			"-o",out1.toString(),
+			tmp.toString()}),
+			0);
+	support.assertTsvTableIsConsitent(out1, null);
+	
+	final Path out2= support.createTmpPath(".tsv");
+	Assert.assertEquals(new NaiveCnvDetector().instanceMain(new String[] {
+			"-o",out2.toString(),
+			"-j","2",
+			matrix.toString()}),
+			0);
+	support.assertTsvTableIsConsitent(out2, null);
+	Assert.assertEquals(Files.readAllLines(out2), Files.readAllLines(out1));
+	} finally 
+	{
+		support.removeTmpFiles();
+	}
+	}
+
+@Test
+public void testMatrixFromBams() throws IOException {
+	try {
+	final Path matrix= support.createTmpPath(".dpm");
+	support.deleteOnExit(Paths.get(matrix.toString()+".dpi"));
+	final List<String> args = new ArrayList<>();
+	args.add("--save-matrix");
+	args.add(matrix.toString());
+	args.add("-j");
+	args.add("2");
+	for(int i=1;i<=5;i++) args.add(support.resource("S"+i+".bam"));
+	Assert.assertEquals(new NaiveCnvDetector().instanceMain(args.toArray(new String[args.size()])), 0);
+	support.assertIsNotEmpty(matrix);
+	
+	final Path out= support.createTmpPath(".tsv");
+	Assert.assertEquals(new NaiveCnvDetector().instanceMain(new String[] {
+			"-o",out.toString(),
+			"-w","100",
+			"-s","50",
+			"--region","RF01:1-3000",
+			matrix.toString()}),
+			0);
+	support.assertTsvTableIsConsitent(out, null);
+	} finally 
+	{
+		support.removeTmpFiles();
+	}
+	}
+
 }
@@ -1,7 +1,10 @@
 package com.github.lindenb.jvarkit.tools.structvar;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -29,4 +32,33 @@ public class SamTranslocationsTest {
 			support.removeTmpFiles();
 		}
 		}
+	
+	private List<String> variantLines(final Path vcf) throws IOException {
+		return Files.readAllLines(vcf).stream().
+			filter(L->!L.startsWith("##")).
+			collect(Collectors.toList());
+		}
+	
+	@Test
+	public void testParallel() 
+		throws IOException
+		{
+		try {
+			final Path out1 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new SamTranslocations().instanceMain(new String[] {
+				"-o",out1.toString(),
+				support.resource("HG02260.transloc.chr9.14.bam")
+				}),0);
+			final Path out2 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new SamTranslocations().instanceMain(new String[] {
+				"-o",out2.toString(),
+				"-j","3",
+				support.resource("HG02260.transloc.chr9.14.bam")
+				}),0);
+			support.assertIsVcf(out2);
+			Assert.assertEquals(variantLines(out2), variantLines(out1));
+		} finally {
+			support.removeTmpFiles();
+		}
+		}
 }
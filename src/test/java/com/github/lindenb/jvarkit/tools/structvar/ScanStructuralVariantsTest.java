@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -39,4 +41,54 @@ public class ScanStructuralVariantsTest {
 			support.removeTmpFiles();
 			}
 		}
+	
+	private List<String> variants(final Path vcf) throws IOException {
+		return Files.lines(vcf).filter(L->!L.startsWith("#")).collect(Collectors.toList());
+		}
+	
+	@Test
+	public void testControlsIndex() throws IOException
+		{
+		try {
+		final Path ctrls= support.createTmpPath(".list");
+		Files.write(ctrls, Arrays.asList(
+				support.resource("manta.B00GWGD.vcf.gz"),
+				support.resource("manta.B00GWIU.vcf.gz"),
+				support.resource("manta.B00I9CJ.vcf.gz")
+				));
+		final Path index = support.createTmpPath(".svctrl");
+		Assert.assertEquals(new ScanStructuralVariants().instanceMain(new String[] {
+				"--controls",ctrls.toString(),
+				"--build-controls-index",index.toString()
+			}),0
+			);
+		
+		final Path out1 = support.createTmpPath(".vcf");
+		Assert.assertEquals(new ScanStructuralVariants().instanceMain(new String[] {
+				"-o",out1.toString(),
+				"--all",
+				"--maf","0.5",
+				"--controls",ctrls.toString(),
+				support.resource("manta.D000Q1R.vcf.gz")
+			}),0
+			);
+		support.assertIsVcf(out1);
+		
+		final Path out2 = support.createTmpPath(".vcf");
+		Assert.assertEquals(new ScanStructuralVariants().instanceMain(new String[] {
+				"-o",out2.toString(),
+				"--all",
+				"--maf","0.5",
+				"--controls-index",index.toString(),
+				"-j","3",
+				"--batch-size","7",
+				support.resource("manta.D000Q1R.vcf.gz")
+			}),0
+			);
+		support.assertIsVcf(out2);
+		Assert.assertEquals(variants(out2), variants(out1));
+		} finally {
+			support.removeTmpFiles();
+			}
+		}
 }
@@ -2,7 +2,10 @@ package com.github.lindenb.jvarkit.tools.structvar;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -42,4 +45,56 @@ public class ValidateCnvTest {
 			support.removeTmpFiles();
 			}
 		}
+	
+	private List<String> variantLines(final Path vcf) throws IOException {
+		return Files.readAllLines(vcf).stream().filter(L->!L.startsWith("##")).collect(Collectors.toList());
+		}
+	
+	@Test
+	public void testParallel() throws IOException
+		{
+		try {
+		final Path bamlist= support.createTmpPath(".list");
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(bamlist)) {
+			for(int i=1;i<=5;i++) pw.println(support.resource("S"+i+".bam"));
+			}
+		final Path vcfIn = support.createTmpPath(".vcf");
+		try(PrintWriter pw = IOUtils.openPathForPrintWriter(vcfIn)) {
+			pw.println("##fileformat=VCFv4.2");
+			pw.println("##INFO=<ID=END,Number=1,Type=Integer,Description=\"End\">");
+			pw.println("##INFO=<ID=SVTYPE,Number=1,Type=String,Description=\"SV type\">");
+			pw.println("##contig=<ID=RF01,length=3302>");
+			pw.println("##contig=<ID=RF02,length=2687>");
+			pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+			pw.println("RF01\t100\t.\tN\t<DEL>\t.\t.\tSVTYPE=DEL;END=300");
+			pw.println("RF01\t250\t.\tN\t<DUP>\t.\t.\tSVTYPE=DUP;END=700");
+			pw.println("RF01\t1000\t.\tN\t<DEL>\t.\t.\tSVTYPE=DEL;END=1100");
+			pw.println("RF01\t2500\t.\tN\t<DEL>\t.\t.\tSVTYPE=DEL;END=3000");
+			pw.println("RF02\t500\t.\tN\t<DUP>\t.\t.\tSVTYPE=DUP;END=800");
+			}
+		
+		final Path out1 = support.createTmpPath(".vcf");
+		Assert.assertEquals(new ValidateCnv().instanceMain(new String[] {
+				"-o",out1.toString(),
+				"-B",bamlist.toString(),
+				vcfIn.toString()
+			}),0
+			);
+		support.assertIsVcf(out1);
+		final Path out2 = support.createTmpPath(".vcf");
+		Assert.assertEquals(new ValidateCnv().instanceMain(new String[] {
+				"-o",out2.toString(),
+				"-B",bamlist.toString(),
+				"-j","3",
+				"--batch-size","2",
+				"--cache-size","1000",
+				vcfIn.toString()
+			}),0
+			);
+		support.assertIsVcf(out2);
+		Assert.assertEquals(variantLines(out1), variantLines(out2));
+		} finally {
+			support.removeTmpFiles();
+			}
+		}
 	}
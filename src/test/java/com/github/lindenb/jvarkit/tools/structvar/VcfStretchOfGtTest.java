@@ -11,8 +11,9 @@ import org.testng.annotations.Test;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+import com.github.lindenb.jvarkit.variant.vcf.GtRecordReaderTest;
 
-@AlsoTest(LauncherTest.class)
+@AlsoTest({LauncherTest.class,GtRecordReaderTest.class})
 public class VcfStretchOfGtTest{
 	private final TestSupport support = new TestSupport();
 	
@@ -401,7 +401,10 @@ public class TestSupport {
 				}
 			if(random.nextBoolean())
 				{
-				final List<String> remain=new ArrayList<>(samples);
+				/* a sample cannot be the parent of two individuals: it could be both a father and a mother */
+				final List<String> remain= samples.stream().
+						filter(S->ped.stream().noneMatch(P->P.father.equals(S) || P.mother.equals(S))).
+						collect(Collectors.toCollection(ArrayList::new));
 				if(!remain.isEmpty())
 					{
 					indi.father = remain.remove(0);
@@ -1,12 +1,17 @@
 package com.github.lindenb.jvarkit.tools.vcf2sql;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import htsjdk.samtools.util.IOUtil;
+
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
@@ -39,4 +44,27 @@ public class VcfToSqlTest {
 			support.removeTmpFiles();
 		}
 	}
+	
+	@Test(dataProvider = "src1")
+	public void testBulk(final String vcf) throws IOException {
+		Path tmpDir = null;
+		try {
+			tmpDir = Files.createTempDirectory("tmp");
+			Assert.assertEquals(new VcfToSql().instanceMain(new String[] {
+				"--bulk",tmpDir.toString(),
+				"--jobs","2",
+				vcf
+				}),0);
+			support.assertIsNotEmpty(tmpDir.resolve("load.sql"));
+			Assert.assertEquals(support.wc(tmpDir.resolve("variant.tsv")),support.variantStream(Paths.get(vcf)).count());
+			// index_in_file is the index of the variant in the VCF
+			final List<String> lines = Files.readAllLines(tmpDir.resolve("variant.tsv"));
+			for(int i=0;i< lines.size();i++) {
+				Assert.assertEquals(lines.get(i).split("\t")[2], String.valueOf(i+1));
+				}
+		} finally {
+			if(tmpDir!=null) IOUtil.recursiveDelete(tmpDir);
+			support.removeTmpFiles();
+		}
+	}
 }
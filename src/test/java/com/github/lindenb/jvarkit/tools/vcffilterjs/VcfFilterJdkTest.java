@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.vcffilterjs;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -42,4 +44,39 @@ private final TestSupport support =new TestSupport();
 			support.removeTmpFiles();
 			}
 		}
+	
+	@Test
+	public void testParallel() 
+		throws IOException
+		{
+		try {
+			final String expr = "return variant.getGenotypes().stream().anyMatch(G->G.isHomVar());";
+			final Path output1 = support.createTmpPath(".vcf");
+	        Assert.assertEquals(new VcfFilterJdk().instanceMain(new String[] {
+	        		"-o",output1.toString(),
+	        		"-e",expr,
+	        		support.resource("test_vcf01.vcf")}),
+	        		0);
+	        support.assertIsVcf(output1);
+	        
+			final Path output2 = support.createTmpPath(".vcf");
+	        Assert.assertEquals(new VcfFilterJdk().instanceMain(new String[] {
+	        		"-o",output2.toString(),
+	        		"--parallel","3",
+	        		"--batch-size","5",
+	        		"-e",expr,
+	        		support.resource("test_vcf01.vcf")}),
+	        		0);
+	        support.assertIsVcf(output2);
+	        
+	        final List<String> L1 = support.variantStream(output1).map(V->V.toStringWithoutGenotypes()).collect(Collectors.toList());
+	        final List<String> L2 = support.variantStream(output2).map(V->V.toStringWithoutGenotypes()).collect(Collectors.toList());
+	        Assert.assertTrue(L1.size()>5);
+	        Assert.assertEquals(L2, L1);
+			} 
+		finally
+			{	
+			support.removeTmpFiles();
+			}
+		}
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.github.lindenb.jvarkit.tools.vcfsparql;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -53,4 +54,41 @@ public class VcfSparqlTest {
 			}
 		}
 
+	@Test
+	public void testStore() throws IOException {
+		try {
+			final String vcf = support.resource("rotavirus_rf.vcf.gz");
+			final Path store = support.createTmpPath(TripleStoreGraph.FILE_SUFFIX);
+			Assert.assertEquals(
+				new VcfSparql().instanceMain(new String[] {
+				"--store",store.toString(),
+				vcf}
+				),0);
+			final String query = "SELECT DISTINCT ?contig ?pos ?sample ?allele WHERE {" +
+					" ?v vcf:contig ?contig . ?v vcf:start ?pos . ?v vcf:genotype ?g ." +
+					" ?g vcf:sample ?sample . ?g vcf:allele ?allele . FILTER(?contig = \"RF03\") }" +
+					" ORDER BY ?contig ?pos ?sample ?allele";
+			final Path out1 = support.createTmpPath(".txt");
+			Assert.assertEquals(
+				new VcfSparql().instanceMain(new String[] {
+				"-a",
+				"-o",out1.toString(),
+				"-e",query,
+				vcf}
+				),0);
+			support.assertIsNotEmpty(out1);
+			final Path out2 = support.createTmpPath(".txt");
+			Assert.assertEquals(
+				new VcfSparql().instanceMain(new String[] {
+				"-a",
+				"-o",out2.toString(),
+				"-e",query,
+				store.toString()}
+				),0);
+			Assert.assertEquals(Files.readAllLines(out1), Files.readAllLines(out2));
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
 }
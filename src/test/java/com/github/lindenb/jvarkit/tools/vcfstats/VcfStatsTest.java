@@ -1,14 +1,24 @@
 package com.github.lindenb.jvarkit.tools.vcfstats;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
@@ -50,4 +60,66 @@ public class VcfStatsTest  {
 			support.removeTmpFiles();
 		}
 		}
+		
+	private Map<String,List<String>> readZip(final Path zip) throws IOException {
+		final Map<String,List<String>> entries = new TreeMap<>();
+		try(ZipFile zf = new ZipFile(zip.toFile())) {
+			for(final ZipEntry ze: Collections.list(zf.entries())) {
+				final List<String> lines = new ArrayList<>(Arrays.asList(IOUtils.copyToString(new InputStreamReader(zf.getInputStream(ze))).split("\n")));
+				Collections.sort(lines);
+				entries.put(ze.getName(), lines);
+				}
+			}
+		return entries;
+		}
+	
+	@Test
+	public void testParallel() 
+		throws IOException
+		{
+		try {
+			final String inputFile = support.resource("rotavirus_rf.vcf.gz");
+			final Path output1 = support.createTmpPath(".zip");
+			Assert.assertEquals(0,new VcfStats().instanceMain(new String[] {
+				"-o",output1.toString(),inputFile
+				}));
+			final Path output2 = support.createTmpPath(".zip");
+			Assert.assertEquals(0,new VcfStats().instanceMain(new String[] {
+				"-o",output2.toString(),"-j","3",inputFile
+				}));
+			final Map<String,List<String>> zip1 = readZip(output1);
+			Assert.assertTrue(zip1.containsKey("ALL.gtConcordance.tsv"));
+			Assert.assertEquals(readZip(output2),zip1);
+		} finally {
+			support.removeTmpFiles();
+		}
+		}
+	
+	@Test
+	public void testConcordancePolyploid() 
+		throws IOException
+		{
+		try {
+			final Path vcf = support.createTmpPath(".vcf");
+			try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(vcf))) {
+				pw.println("##fileformat=VCFv4.2");
+				pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+				pw.println("##contig=<ID=chr1,length=1000>");
+				pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\tS4");
+				// same ploidy and same set of alleles are concordant
+				pw.println("chr1\t10\t.\tA\tC\t.\t.\t.\tGT\t0/0/1\t0/1/1\t0/1\t1/0");
+				}
+			final Path output = support.createTmpPath(".zip");
+			Assert.assertEquals(0,new VcfStats().instanceMain(new String[] {
+				"-o",output.toString(),vcf.toString()
+				}));
+			final List<String> lines = readZip(output).get("ALL.gtConcordance.tsv");
+			Assert.assertNotNull(lines);
+			Assert.assertTrue(lines.contains("S1,1,1,0,0"));
+			Assert.assertTrue(lines.contains("S2,1,1,0,0"));
+			Assert.assertTrue(lines.contains("S3,0,0,1,1"));
+		} finally {
+			support.removeTmpFiles();
+		}
+		}
 	}
@@ -0,0 +1,98 @@
+package com.github.lindenb.jvarkit.tools.vcftrios;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.pedigree.Pedigree;
+import com.github.lindenb.jvarkit.pedigree.PedigreeParser;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFHeader;
+
+public class TrioPlanTest {
+	private final Allele a1 = Allele.create("A", true);
+	private final Allele a2 = Allele.create("T", false);
+	private final Allele a3 = Allele.create("G", false);
+	private final List<String> samples = Arrays.asList("F","M","C","F2","C2");
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{false,false},
+			{true,false},
+			{false,true},
+			{true,true}
+			};
+		}
+
+	private Genotype randomGenotype(final Random rand,final String sample) {
+		final Allele[] choices = new Allele[] {a1,a2,a3,Allele.NO_CALL};
+		final int ploidy = rand.nextInt(10)==0?1:2;
+		final List<Allele> alleles = new ArrayList<>(ploidy);
+		final boolean nocall = rand.nextInt(5)==0;
+		for(int i=0;i< ploidy;i++) {
+			alleles.add(nocall?Allele.NO_CALL:choices[rand.nextInt(choices.length)]);
+			}
+		return new GenotypeBuilder(sample,alleles).make();
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsDetector(final boolean nocall2homref,final boolean fixPloidy) throws IOException {
+		final Pedigree pedigree = new PedigreeParser().parse(new BufferedReader(new StringReader(
+			"A\tF\t0\t0\t1\t0\n"+
+			"A\tM\t0\t0\t2\t0\n"+
+			"A\tC\tF\tM\t1\t0\n"+
+			"B\tF2\t0\t0\t1\t0\n"+
+			"B\tNOT_IN_VCF\t0\t0\t2\t0\n"+
+			"B\tC2\tF2\tNOT_IN_VCF\t1\t0\n"
+			)));
+		final VCFHeader header = new VCFHeader(new HashSet<>(), samples);
+		final DeNovoDetector detector = new DeNovoDetector();
+		detector.setConvertingNoCallToHomRef(nocall2homref);
+		detector.setFixingPloidy(fixPloidy);
+		final TrioPlan plan = new TrioPlan(header, pedigree.getTrios(), detector);
+		Assert.assertEquals(plan.size(), 2);
+		final TrioPlan.Kernel kernel = plan.createKernel();
+		final boolean[] violations = new boolean[plan.size()];
+		final Random rand = new Random(0L);
+		for(int n=0;n< 10_000;n++) {
+			final List<Genotype> genotypes = new ArrayList<>();
+			final Set<Allele> alleles = new HashSet<>();
+			alleles.add(a1);
+			for(final String sn:samples) {
+				final Genotype g = randomGenotype(rand,sn);
+				g.getAlleles().stream().filter(A->!A.isNoCall()).forEach(A->alleles.add(A));
+				genotypes.add(g);
+				}
+			final VariantContext ctx = new VariantContextBuilder().chr("1").start(1).stop(1).
+				alleles(alleles).
+				genotypes(genotypes).
+				make();
+			kernel.evaluate(ctx, violations);
+			for(int i=0;i< plan.size();i++) {
+				final int f = plan.getFatherIndex(i);
+				final int m = plan.getMotherIndex(i);
+				final boolean expect = detector.test(ctx,
+					f<0?null:ctx.getGenotype(f),
+					m<0?null:ctx.getGenotype(m),
+					ctx.getGenotype(plan.getChildIndex(i)))!=null;
+				Assert.assertEquals(violations[i], expect, ctx.getGenotypes().toString());
+				}
+			}
+		}
+}
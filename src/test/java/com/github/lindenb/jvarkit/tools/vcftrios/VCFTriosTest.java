@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.vcftrios;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.Reporter;
@@ -12,18 +14,17 @@ import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
 
-@AlsoTest({DeNovoDetector.class,LauncherTest.class})
+@AlsoTest({DeNovoDetectorTest.class,TrioPlanTest.class,LauncherTest.class})
 public class VCFTriosTest {
 	
 	private final TestSupport support = new TestSupport();
 
 	@DataProvider(name = "src1")
 	public Object[][] createData1() {
-		return (Object[][])support.
+		return support.toArrayArray(support.
 				allVcfOrBcf().
-				map(F->new Object[] {F}).
-				toArray()
-				;
+				map(F->new Object[] {F})
+				);
 		}
 	
 	@Test(dataProvider="src1")
@@ -48,4 +49,35 @@ public class VCFTriosTest {
 			support.removeTmpFiles();
 			}
 		}
+	
+	@Test
+	public void testParallel() 
+		throws IOException
+		{
+		try {
+			final Path output1 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VCFTrios().instanceMain(new String[] {
+	        		"-o",output1.toString(),
+	        		"--pedigree",support.resource("test_vcf01.ped"),
+	        		support.resource("test_vcf01.vcf")}),0);
+			support.assertIsVcf(output1);
+			
+			final Path output2 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VCFTrios().instanceMain(new String[] {
+	        		"-o",output2.toString(),
+	        		"--pedigree",support.resource("test_vcf01.ped"),
+	        		"--jobs","3",
+	        		"--batch-size","5",
+	        		support.resource("test_vcf01.vcf")}),0);
+			support.assertIsVcf(output2);
+			
+			final List<String> L1 = support.variantStream(output1).map(V->V.toStringWithoutGenotypes()).collect(Collectors.toList());
+			final List<String> L2 = support.variantStream(output2).map(V->V.toStringWithoutGenotypes()).collect(Collectors.toList());
+			Assert.assertTrue(L1.size()>5);
+			Assert.assertEquals(L2, L1);
+			} 
+		finally {
+			support.removeTmpFiles();
+			}
+		}
 	}
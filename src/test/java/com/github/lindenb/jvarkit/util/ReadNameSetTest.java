@@ -0,0 +1,68 @@
+package com.github.lindenb.jvarkit.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ReadNameSetTest {
+
+@DataProvider(name="offheap")
+public Object[][] getOffHeap() {
+	return new Object[][] {{false},{true}};
+	}
+
+@Test(dataProvider="offheap")
+public void testBasic(final boolean offHeap) {
+	final ReadNameSet set = new ReadNameSet(offHeap);
+	Assert.assertEquals(set.isOffHeap(), offHeap);
+	Assert.assertTrue(set.isEmpty());
+	Assert.assertFalse(set.contains("r1"));
+	Assert.assertTrue(set.add("r1"));
+	Assert.assertFalse(set.add("r1"));
+	Assert.assertTrue(set.add("ré"));
+	Assert.assertEquals(set.size(), 2);
+	Assert.assertTrue(set.contains("r1"));
+	Assert.assertTrue(set.contains("ré"));
+	Assert.assertFalse(set.contains("r2"));
+	Assert.assertEquals(set.getCount("r1"),0);
+	Assert.assertEquals(set.getCount("r2"),-1);
+	Assert.assertEquals(set.incrementAndGet("r1"),1);
+	Assert.assertEquals(set.incrementAndGet("r1"),2);
+	Assert.assertEquals(set.incrementAndGet("r2"),-1);
+	Assert.assertTrue(set.remove("r1"));
+	Assert.assertFalse(set.remove("r1"));
+	Assert.assertFalse(set.contains("r1"));
+	Assert.assertEquals(set.size(), 1);
+	Assert.assertTrue(set.add("r1"));
+	Assert.assertEquals(set.getCount("r1"),0);
+	}
+
+@Test(dataProvider="offheap")
+public void testManyNames(final boolean offHeap) {
+	final Random rand = new Random(0L);
+	final ReadNameSet set = new ReadNameSet(offHeap);
+	final Set<String> expect = new HashSet<>();
+	for(int i=0;i< 100_000;i++) {
+		final String s = "HWI-ST"+rand.nextInt(1_000_000)+":"+rand.nextInt(100);
+		Assert.assertEquals(set.add(s), expect.add(s));
+		}
+	Assert.assertEquals(set.size(), expect.size());
+	for(final String s:expect) Assert.assertTrue(set.contains(s));
+	final List<String> L = new ArrayList<>(expect);
+	for(int i=0;i< L.size();i+=2) {
+		Assert.assertTrue(set.remove(L.get(i)));
+		expect.remove(L.get(i));
+		}
+	Assert.assertEquals(set.size(), expect.size());
+	for(int i=0;i< 100_000;i++) {
+		final String s = "HWI-ST"+rand.nextInt(1_000_000)+":"+rand.nextInt(100);
+		Assert.assertEquals(set.contains(s), expect.contains(s));
+		}
+	}
+}
@@ -7,6 +7,7 @@ import com.github.lindenb.jvarkit.samtools.reference.TwoBitSequenceFileTest;
 import com.github.lindenb.jvarkit.samtools.util.IntervalParserFactoryTest;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.util.CounterTest;
+import com.github.lindenb.jvarkit.util.ReadNameSetTest;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodecTest;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamRecordFilterFactoryTest;
 import com.github.lindenb.jvarkit.util.iterator.EqualRangeIteratorTest;
@@ -17,7 +18,7 @@ import com.github.lindenb.jvarkit.util.log.ProgressFactoryTest;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparatorTest;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtilsTest;
 
-@AlsoTest({IOUtilsTest.class,VCFUtilsTest.class,StringUtilsTest.class,IntervalParserFactoryTest.class,CounterTest.class,BedLineCodecTest.class,
+@AlsoTest({IOUtilsTest.class,VCFUtilsTest.class,StringUtilsTest.class,IntervalParserFactoryTest.class,CounterTest.class,ReadNameSetTest.class,BedLineCodecTest.class,
 	ProgressFactoryTest.class,ContigDictComparatorTest.class,SmartComparatorTest.class,
 	EqualRangeIteratorTest.class,
 	FilterIteratorTest.class,
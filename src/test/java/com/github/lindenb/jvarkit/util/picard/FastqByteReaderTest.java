@@ -0,0 +1,167 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.fastq.FastqRecord;
+
+public class FastqByteReaderTest {
+	private static final Logger LOG = Logger.build(FastqByteReaderTest.class).make();
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{support.resource("SAMPLE1_GATGAATC_L002_R1_001.fastq.gz")},
+			{support.resource("S1.R1.fq.gz")},
+			};
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsFourLines(final String input) throws IOException {
+		try(FourLinesFastqReader r1 = new FourLinesFastqReader(Paths.get(input));
+			FastqByteReader r2 = new FastqByteReader(Paths.get(input)).setBufferSize(2048)) {
+			long n=0L;
+			FastqBatch batch;
+			while((batch=r2.readBatch(13))!=null) {
+				for(int i=0;i< batch.size();i++) {
+					Assert.assertTrue(r1.hasNext());
+					final FastqRecord rec1 = r1.next();
+					final FastqRecord rec2 = batch.toFastqRecord(i);
+					Assert.assertEquals(rec2.getReadName(), rec1.getReadName());
+					Assert.assertEquals(rec2.getReadString(), rec1.getReadString());
+					Assert.assertEquals(rec2.getBaseQualityHeader(), rec1.getBaseQualityHeader());
+					Assert.assertEquals(rec2.getBaseQualityString(), rec1.getBaseQualityString());
+					Assert.assertEquals(batch.getSequenceLength(i), rec1.getReadLength());
+					n++;
+					}
+				}
+			Assert.assertFalse(r1.hasNext());
+			Assert.assertEquals(r2.getRecordCount(), n);
+			}
+		}
+
+	@Test
+	public void testCRLFAndNoFinalEOL() throws IOException {
+		final String fastq = "@r1 a\r\nACGT\r\n+\r\n####\r\n\n@r2\nNN\n+r2\n!!";
+		try(FastqByteReader r = new FastqByteReader(new ByteArrayInputStream(fastq.getBytes()))) {
+			final FastqBatch batch = r.readBatch(100);
+			Assert.assertNotNull(batch);
+			Assert.assertEquals(batch.size(), 2);
+			Assert.assertEquals(batch.getReadName(0), "r1 a");
+			Assert.assertEquals(batch.getReadString(0), "ACGT");
+			Assert.assertEquals(batch.getBaseQualityString(0), "####");
+			Assert.assertEquals(batch.getReadName(1), "r2");
+			Assert.assertEquals(batch.getBaseQualityHeader(1), "r2");
+			Assert.assertEquals(batch.getQuality(1, 1), (byte)'!');
+			Assert.assertNull(r.readBatch(100));
+			}
+		}
+
+	/** small batches must not read (and copy to the next batch) the whole buffer */
+	@Test
+	public void testSmallBatches() throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for(int i=0;i< 50_000;i++) {
+			sb.append("@r").append(i).append("\nACGTACGTAC\n+\n##########\n");
+			}
+		final ByteArrayInputStream bais = new ByteArrayInputStream(sb.toString().getBytes());
+		try(FastqByteReader r = new FastqByteReader(bais)) {
+			FastqBatch batch = r.readBatch(1);
+			Assert.assertEquals(batch.size(), 1);
+			for(int i=1;i< 100;i++) {
+				Assert.assertSame(r.readBatch(2), batch);
+				Assert.assertEquals(batch.size(), 2);
+				Assert.assertEquals(batch.getReadName(1), "r"+(2*i));
+				}
+			/* 199 records of 30 bytes */
+			Assert.assertTrue(sb.length() - bais.available() < 100_000);
+			long n = r.getRecordCount();
+			while((batch=r.readBatch(1000))!=null) n+=batch.size();
+			Assert.assertEquals(n, 50_000L);
+			}
+		}
+
+	@Test(expectedExceptions=IOException.class)
+	public void testTruncated() throws IOException {
+		try(FastqByteReader r = new FastqByteReader(new ByteArrayInputStream("@r1\nACGT\n+\n".getBytes()))) {
+			r.readBatch(100);
+			}
+		}
+
+	@Test(expectedExceptions=IOException.class)
+	public void testBadLength() throws IOException {
+		try(FastqByteReader r = new FastqByteReader(new ByteArrayInputStream("@r1\nACGT\n+\n###\n".getBytes()))) {
+			r.readBatch(100);
+			}
+		}
+
+	/** compare the speed of FourLinesFastqReader and FastqByteReader on a synthetic FASTQ, disabled: not a unit test */
+	@Test(enabled=false)
+	public void benchmark() throws IOException {
+		try {
+			final Path fq = support.createTmpPath(".fq");
+			final Random rand = new Random(0L);
+			final int nReads = 200_000;
+			final int readLength = 150;
+			try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(fq))) {
+				final byte[] bases = new byte[readLength];
+				final byte[] quals = new byte[readLength];
+				for(int i=0;i< nReads;i++) {
+					for(int j=0;j< readLength;j++) {
+						bases[j] = (byte)"ACGTN".charAt(rand.nextInt(5));
+						quals[j] = (byte)(33 + rand.nextInt(41));
+						}
+					out.write(("@SYNTHETIC:1:"+i+" 1:N:0:1\n").getBytes());
+					out.write(bases);
+					out.write("\n+\n".getBytes());
+					out.write(quals);
+					out.write('\n');
+					}
+				}
+			
+			long start = System.currentTimeMillis();
+			long sum1 = 0L;
+			try(FourLinesFastqReader r = new FourLinesFastqReader(fq)) {
+				while(r.hasNext()) {
+					final String qual = r.next().getBaseQualityString();
+					for(int j=0;j< qual.length();j++) sum1 += qual.charAt(j);
+					}
+				}
+			final long duration1 = System.currentTimeMillis() - start;
+			
+			start = System.currentTimeMillis();
+			long sum2 = 0L;
+			try(FastqByteReader r = new FastqByteReader(fq)) {
+				FastqBatch batch;
+				while((batch=r.readBatch(FastqByteReader.DEFAULT_BATCH_SIZE))!=null) {
+					final byte[] buffer = batch.getBuffer();
+					for(int i=0;i< batch.size();i++) {
+						final int off = batch.getQualityStart(i);
+						final int len = batch.getQualityLength(i);
+						for(int j=0;j< len;j++) sum2 += buffer[off+j];
+						}
+					}
+				}
+			final long duration2 = System.currentTimeMillis() - start;
+			Assert.assertEquals(sum2, sum1);
+			LOG.info("benchmark "+nReads+" reads: FourLinesFastqReader "+duration1+"ms. FastqByteReader "+duration2+"ms.");
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+}
@@ -10,9 +10,11 @@ import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 
 
+@AlsoTest(FastqByteReaderTest.class)
 public class FourLinesFastqReaderTest
 	{
 	private final TestSupport support = new TestSupport();
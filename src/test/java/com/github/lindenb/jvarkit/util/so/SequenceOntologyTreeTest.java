@@ -29,6 +29,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -110,5 +112,38 @@ public class SequenceOntologyTreeTest
 
 		}
 	 
+	private static void collectDescendants(final SequenceOntologyTree.Term t,final Set<SequenceOntologyTree.Term> set) {
+		if(!set.add(t)) return;
+		for(final SequenceOntologyTree.Term c: t.getChildren()) collectDescendants(c,set);
+		}
+	
+	@Test
+	public void testClosures() 
+		{
+		final SequenceOntologyTree tree = SequenceOntologyTree.createDefault();
+		final SequenceOntologyTree other = SequenceOntologyTree.getInstance();
+		for(final SequenceOntologyTree.Term t:tree) {
+			final Set<SequenceOntologyTree.Term> expect = new HashSet<>();
+			collectDescendants(t,expect);
+			Assert.assertEquals(t.getAllDescendants().size(), expect.size());
+			Assert.assertEquals(new HashSet<>(t.getAllDescendants()), expect);
+			Assert.assertEquals(tree.getTermById(t.getId()), t);
+			Assert.assertEquals(tree.getTermIdByAcn(new StringBuilder(t.getAcn())), t.getId());
+			Assert.assertEquals(tree.getTermIdByLabel(t.getLabel()), t.getId());
+			for(final SequenceOntologyTree.Term c:tree) {
+				final boolean b = expect.contains(c);
+				Assert.assertEquals(c.isChildrenOf(t), b);
+				Assert.assertEquals(tree.isDescendantOf(c.getId(),t.getId()), b);
+				}
+			/* term from another tree instance */
+			final SequenceOntologyTree.Term t2 = other.getTermByAcn(t.getAcn());
+			if(t2!=null) Assert.assertTrue(t.isChildrenOf(t2));
+			}
+		Assert.assertEquals(tree.getTermIdByLabel("not_a_so_label"), -1);
+		Assert.assertNotEquals(tree.getTermIdByLabel("missense_variant"), -1);
+		Assert.assertEquals(tree.getTermIdByLabel("Missense Variant"), tree.getTermIdByLabel("missense_variant"));
+		Assert.assertEquals(tree.getTermIdByAcn("SO:XXXXXXX"), -1);
+		}
+	 
 
 	}
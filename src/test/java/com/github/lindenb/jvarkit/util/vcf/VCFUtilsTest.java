@@ -17,6 +17,7 @@ import com.github.lindenb.jvarkit.io.IOUtilsTest;
 import com.github.lindenb.jvarkit.lang.CharSplitter;
 import com.github.lindenb.jvarkit.lang.CharSplitterTest;
 import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.jexl.JexlToJavaTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.tools.vcftrios.DeNovoDetectorTest;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtilsTest;
@@ -24,7 +25,8 @@ import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtilsTest;
 @AlsoTest({IOUtilsTest.class,CharSplitterTest.class,
 	SequenceDictionaryUtilsTest.class,
 	AFExtractorFactoryTest.class,
-	DeNovoDetectorTest.class
+	DeNovoDetectorTest.class,
+	JexlToJavaTest.class
 	})
 public class VCFUtilsTest {
 final private TestSupport support= new TestSupport();
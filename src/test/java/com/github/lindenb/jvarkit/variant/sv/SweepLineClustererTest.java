@@ -0,0 +1,72 @@
+package com.github.lindenb.jvarkit.variant.sv;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.samtools.util.SimpleInterval;
+
+public class SweepLineClustererTest {
+	private final BiPredicate<SimpleInterval,SimpleInterval> withinDistance = (A,B)->
+		A.getContig().equals(B.getContig()) &&
+		A.getStart() <= B.getEnd() + 10 &&
+		B.getStart() <= A.getEnd() + 10;
+	
+	private List<SimpleInterval> random(final Random rand,final int n) {
+		final List<SimpleInterval> L = new ArrayList<>(n);
+		for(int i=0;i< n;i++) {
+			final int start = 1 + rand.nextInt(10_000);
+			L.add(new SimpleInterval("chr"+(1+rand.nextInt(3)), start, start + rand.nextInt(100)));
+			}
+		return L;
+		}
+	
+	/** brute force: connected components */
+	private Set<Set<SimpleInterval>> bruteForce(final List<SimpleInterval> L) {
+		final List<Set<SimpleInterval>> clusters = new ArrayList<>();
+		for(final SimpleInterval r: L) {
+			final Set<SimpleInterval> merged = new HashSet<>();
+			merged.add(r);
+			for(int i=clusters.size()-1;i>=0;i--) {
+				if(clusters.get(i).stream().anyMatch(C->this.withinDistance.test(C, r))) {
+					merged.addAll(clusters.remove(i));
+					}
+				}
+			clusters.add(merged);
+			}
+		return new HashSet<>(clusters);
+		}
+	
+	@Test
+	public void testClusters() {
+		final Random rand = new Random(0L);
+		for(int n=0;n< 20;n++) {
+			final List<SimpleInterval> L = random(rand,1 + rand.nextInt(500));
+			final List<List<SimpleInterval>> clusters = new ArrayList<>();
+			new SweepLineClusterer<>(this.withinDistance).
+				setMaxDistance(10).
+				setNumberOfThreads(n%2==0?1:3).
+				clusterByContig(L, (A,B)->A.compareTo(B), C->C, C->clusters.add(C));
+			final Set<Set<SimpleInterval>> set = new HashSet<>();
+			String prevContig = null;
+			int prevStart = 0;
+			for(final List<SimpleInterval> cluster:clusters) {
+				final SimpleInterval first = cluster.get(0);
+				if(prevContig!=null) {
+					Assert.assertTrue(prevContig.compareTo(first.getContig())<=0);
+					if(prevContig.equals(first.getContig())) Assert.assertTrue(prevStart <= first.getStart());
+					}
+				prevContig = first.getContig();
+				prevStart = first.getStart();
+				set.add(new HashSet<>(cluster));
+				}
+			Assert.assertEquals(set, bruteForce(L));
+			}
+		}
+}
@@ -0,0 +1,82 @@
+package com.github.lindenb.jvarkit.variant.vcf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeType;
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class GtRecordReaderTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return support.toArrayArray(support.
+				allVcfOrBcf().
+				map(F->new Object[] {F})
+				)
+				;
+		}
+	
+	@Test(dataProvider="src1")
+	public void testSameAsHtsjdk(final String inputFile) throws IOException {
+		final List<VariantContext> variants;
+		try(Stream<VariantContext> st = support.variantStream(Paths.get(inputFile))) {
+			variants = st.collect(Collectors.toList());
+			}
+		try(GtRecordReader r = new GtRecordReader(IOUtils.openURIForBufferedReading(inputFile))) {
+			r.setDecodingDepth(true);
+			final List<String> samples = r.getHeader().getGenotypeSamples();
+			for(final VariantContext ctx:variants) {
+				Assert.assertTrue(r.next());
+				Assert.assertEquals(r.getContig(), ctx.getContig());
+				Assert.assertEquals(r.getStart(), ctx.getStart());
+				Assert.assertEquals(r.getEnd(), ctx.getEnd());
+				for(int i=0;i< samples.size();i++) {
+					final Genotype g = ctx.getGenotype(samples.get(i));
+					Assert.assertEquals(r.getType(i), g.getType(), g.toString());
+					Assert.assertEquals(r.hasSpanDeletion(i), g.getAlleles().contains(Allele.SPAN_DEL));
+					Assert.assertEquals(r.getDepth(i), g.hasDP()?g.getDP():-1);
+					}
+				}
+			Assert.assertFalse(r.next());
+			}
+		}
+	
+	private GtRecordReader createReader(final String alt,final String gt) throws IOException {
+		final String vcf = "##fileformat=VCFv4.2\n"+
+			"##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"+
+			"##contig=<ID=chr1,length=1000>\n"+
+			"#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\n"+
+			"chr1\t10\t.\tA\t"+alt+"\t.\t.\t.\tGT\t"+gt+"\n";
+		return new GtRecordReader(new BufferedReader(new StringReader(vcf)));
+		}
+	
+	@Test
+	public void testAlleleIndex() throws IOException {
+		try(GtRecordReader r = createReader("C,G", "0/2")) {
+			Assert.assertTrue(r.next());
+			Assert.assertEquals(r.getType(0), GenotypeType.HET);
+			}
+		try(GtRecordReader r = createReader("C", "0/5")) {
+			Assert.assertThrows(IllegalArgumentException.class, ()->r.next());
+			}
+		try(GtRecordReader r = createReader(".", "0/1")) {
+			Assert.assertThrows(IllegalArgumentException.class, ()->r.next());
+			}
+		}
+}